@@ -0,0 +1,71 @@
+package com.kitt.android
+
+import android.app.Activity
+import android.os.Bundle
+import android.util.Log
+import android.widget.ScrollView
+import android.widget.TextView
+import com.kitt.android.voice.VoiceBenchmarks
+import com.kitt.android.voice.VoiceEngine
+
+private const val TAG = "VoiceBenchmarkActivity"
+
+/**
+ * Debug-only entry point for the voice benchmarks; not part of release builds.
+ * Runs every benchmark once on a background thread with its own [VoiceEngine] and shows each
+ * result as it completes. Takes minutes: it includes full model loads and writes about 100MB of
+ * session audio to the cache directory.
+ *
+ *     adb shell am start -n com.kitt.android/.VoiceBenchmarkActivity
+ */
+class VoiceBenchmarkActivity : Activity() {
+
+    private lateinit var output: TextView
+
+    override fun onCreate(savedInstanceState: Bundle?) {
+        super.onCreate(savedInstanceState)
+        output = TextView(this).apply {
+            setPadding(32, 32, 32, 32)
+            text = "Running voice benchmarks...\n\n"
+        }
+        setContentView(ScrollView(this).apply { addView(output) })
+        Thread({ runBenchmarks() }, "VoiceBenchmarks").start()
+    }
+
+    private fun runBenchmarks() {
+        val voiceEngine = VoiceEngine(this)
+        try {
+            if (!voiceEngine.initVoiceEngine()) {
+                show("Voice engine failed to initialize; model benchmarks will be skipped")
+            }
+            val voiceBenchmarks = VoiceBenchmarks(this, voiceEngine)
+            val benchmarks = listOf<() -> String>(
+                { voiceBenchmarks.benchmarkResets() },
+                { voiceBenchmarks.benchmarkCommandMode() },
+                { voiceBenchmarks.benchmarkSpeculation() },
+                { voiceBenchmarks.benchmarkEngines() },
+                { voiceBenchmarks.benchmarkResultParsing() },
+                { voiceBenchmarks.benchmarkPartialEmission() },
+                { voiceBenchmarks.benchmarkResampler() },
+                { voiceBenchmarks.benchmarkCapturePath() },
+                { voiceBenchmarks.benchmarkSessionStore() },
+                { voiceBenchmarks.benchmarkModelSharing() }
+            )
+            for (benchmark in benchmarks) {
+                if (isFinishing) {
+                    Log.i(TAG, "Activity finishing, remaining benchmarks skipped")
+                    return
+                }
+                show(benchmark())
+            }
+            show("Done")
+        } finally {
+            voiceEngine.release()
+        }
+    }
+
+    private fun show(result: String) {
+        Log.i(TAG, result)
+        runOnUiThread { output.append("$result\n\n") }
+    }
+}
@@ -0,0 +1,63 @@
+package com.kitt.android.voice
+
+import org.vosk.LibVosk
+import org.vosk.LogLevel
+import org.vosk.Model
+import java.io.File
+import kotlin.system.exitProcess
+
+/**
+ * Command-line entry point for reprocessing recording archives on a Linux workstation with the
+ * same [BatchTranscriber] the app uses. Only WAV input is supported off-device.
+ *
+ * Debug source set only. Build from this directory against the desktop Vosk jar
+ * (com.alphacephei:vosk) and JNA, with the shared classes from the main source set:
+ *
+ *     M=../../../../../../main/java/com/kitt/android/voice
+ *     kotlinc BatchTranscriberMain.kt $M/BatchTranscriber.kt $M/RecognitionEvent.kt $M/VoskResultReader.kt $M/PolyphaseResampler.kt -cp vosk.jar:jna.jar -include-runtime -d batch.jar
+ *     java -cp batch.jar:vosk.jar:jna.jar com.kitt.android.voice.BatchTranscriberMainKt \
+ *         vosk-model-small-en-us-0.15 recordings/ --threads 4 --scaling
+ */
+fun main(args: Array<String>) {
+    val positional = ArrayList<String>()
+    var threads = Runtime.getRuntime().availableProcessors()
+    var scaling = false
+    var i = 0
+    while (i < args.size) {
+        when (args[i]) {
+            "--threads" -> threads = args.getOrNull(++i)?.toIntOrNull() ?: threads
+            "--scaling" -> scaling = true
+            else -> positional.add(args[i])
+        }
+        i++
+    }
+    if (positional.size != 2) {
+        System.err.println("Usage: BatchTranscriber <model-dir> <recordings-dir> [--threads N] [--scaling]")
+        exitProcess(2)
+    }
+    val dir = File(positional[1])
+    LibVosk.setLogLevel(LogLevel.WARNINGS)
+    val model = Model(positional[0])
+    try {
+        val transcriber = BatchTranscriber(model, threads, listener = object : BatchTranscriber.Listener {
+            override fun onTranscribed(file: File, transcript: String, realTimeFactor: Double) {
+                println("${file.path}: RTF ${String.format("%.3f", realTimeFactor)}: $transcript")
+            }
+
+            override fun onFailed(file: File, error: Exception) {
+                System.err.println("${file.path}: ${error.message}")
+            }
+        })
+        transcriber.start()
+        println("Queued ${transcriber.submitDirectory(dir)} recordings from ${dir.path}")
+        transcriber.awaitIdle(Long.MAX_VALUE)
+        println(transcriber.getStats())
+        transcriber.shutdown()
+        if (scaling) {
+            val files = dir.walkTopDown().filter { it.isFile && it.extension.equals("wav", ignoreCase = true) }.toList()
+            println(BatchTranscriber.measureScaling(model, files, threads))
+        }
+    } finally {
+        model.close()
+    }
+}
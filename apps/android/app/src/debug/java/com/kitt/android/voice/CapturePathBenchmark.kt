@@ -0,0 +1,333 @@
+package com.kitt.android.voice
+
+import java.io.BufferedOutputStream
+import java.io.ByteArrayOutputStream
+import java.io.File
+import java.io.FileOutputStream
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.nio.ShortBuffer
+import java.util.Locale
+
+private const val TARGET_RATE = 16000 // AudioCaptureHub.SAMPLE_RATE, repeated so this file builds without Android
+private const val TARGET_FRAME = 320
+private const val FRAMES_PER_SECOND = 50
+
+/**
+ * Counts Java-heap copies and allocations per second of audio on the capture path, before and
+ * after frames moved to direct buffers. Both paths run one capture fanned out to the three PCM
+ * consumers: the dictation recognizer (16kHz, heap ring, every frame treated as speech), the
+ * offline assistant (16kHz) and the WAV recording (native rate), with the real [PcmFrameRing],
+ * [PolyphaseResampler] and [PreRollBuffer].
+ *
+ * The "before" path keeps the previous code: `AudioRecord.read(short[])`, heap rings only, the
+ * assistant's per-frame `ByteBuffer`/`ByteArrayOutputStream` copy and log line, and the writer's
+ * per-sample conversion into a `BufferedOutputStream`. The "after" path reads into a direct
+ * buffer, gives the assistant and the writer direct rings, and feeds Vosk through
+ * [DirectWaveform]. Vosk itself cannot run here, so its entry point is replaced by the copies JNA
+ * makes: a `short[]` argument is copied into native memory and back out again, a direct buffer
+ * is passed by address. Audio reads and file writes are not counted as copies.
+ *
+ * Allocation is measured on desktop JVMs only, as in [ResultParsingBenchmark].
+ * Also runs as a plain JVM tool; see [main].
+ */
+object CapturePathBenchmark {
+
+    /**
+     * @param seconds Audio pushed through each path per measured round.
+     * @param captureRate Microphone rate; 48kHz is the common native rate.
+     * @return String with heap copies and bytes allocated per second of audio, before and after.
+     */
+    @JvmStatic
+    fun run(seconds: Int = 20, captureRate: Int = 48000): String {
+        val before = measure(seconds) { dir -> LegacyPath(captureRate, dir) }
+        val after = measure(seconds) { dir -> DirectPath(captureRate, dir) }
+        return String.format(
+            Locale.US,
+            "Capture path (%dHz mic, recognizer + assistant + recording, per second of audio):" +
+                "\n  before: %d heap copies, %s allocated\n  after: %d heap copies, %s allocated",
+            captureRate,
+            before.first, formatBytes(before.second / seconds),
+            after.first, formatBytes(after.second / seconds)
+        )
+    }
+
+    /**
+     * Push [seconds] of audio through a fresh path per round, after warm-up rounds.
+     * @return Pair of heap copies per second of audio and the least bytes allocated by a measured round.
+     */
+    private fun measure(seconds: Int, create: (File) -> Path): Pair<Long, Long> {
+        val dir = File(System.getProperty("java.io.tmpdir"), "capture-path-bench").apply { mkdirs() }
+        var copiesPerSecond = 0L
+        var allocated = Long.MAX_VALUE
+        for (round in 0 until 6) {
+            val path = create(dir)
+            try {
+                val allocatedBefore = allocatedBytes()
+                for (i in 0 until seconds * FRAMES_PER_SECOND) {
+                    path.frame(i)
+                }
+                val allocatedAfter = allocatedBytes()
+                if (round >= 3) {
+                    copiesPerSecond = path.copies / seconds
+                    allocated = if (allocatedBefore < 0 || allocatedAfter < 0) -1 else minOf(allocated, allocatedAfter - allocatedBefore)
+                }
+            } finally {
+                path.close()
+            }
+        }
+        dir.deleteRecursively()
+        return Pair(copiesPerSecond, allocated)
+    }
+
+    private abstract class Path(captureRate: Int) {
+        var copies = 0L
+        protected val frameSize = captureRate / FRAMES_PER_SECOND
+        // One second of the "microphone", replayed frame by frame
+        private val microphone = ShortArray(captureRate) { i -> (Math.sin(2.0 * Math.PI * 440.0 * i / captureRate) * 8000).toInt().toShort() }
+        protected val resampler = PolyphaseResampler(captureRate, TARGET_RATE)
+        protected val converted = ShortArray(resampler.maxOutput(frameSize))
+        protected val preRoll = PreRollBuffer(100, TARGET_FRAME)
+        protected val nativePreRoll = PreRollBuffer(100, frameSize)
+
+        /**
+         * Stand-in for AudioRecord filling [frame]: the read itself is not a copy we can remove.
+         */
+        protected fun microphoneInto(frame: ShortArray, index: Int) {
+            System.arraycopy(microphone, (index % FRAMES_PER_SECOND) * frameSize, frame, 0, frameSize)
+        }
+
+        protected fun microphoneInto(frame: ShortBuffer, index: Int) {
+            frame.clear()
+            frame.put(microphone, (index % FRAMES_PER_SECOND) * frameSize, frameSize)
+        }
+
+        abstract fun frame(index: Int)
+
+        abstract fun close()
+    }
+
+    /**
+     * The capture path as it was: heap frames end to end.
+     */
+    private class LegacyPath(captureRate: Int, dir: File) : Path(captureRate) {
+        private val frame = ShortArray(frameSize)
+        private val recognizerRing = PcmFrameRing(128, TARGET_FRAME)
+        private val assistantRing = PcmFrameRing(128, TARGET_FRAME)
+        private val recordingRing = PcmFrameRing(128, frameSize)
+        private val jnaMemory = ByteBuffer.allocateDirect(frameSize * 2).order(ByteOrder.nativeOrder()).asShortBuffer()
+        private var audioDataStream = ByteArrayOutputStream()
+        private val output = BufferedOutputStream(FileOutputStream(File(dir, "before.pcm")), 64 * 1024)
+        private val byteBuffer = ByteArray(8192)
+
+        override fun frame(index: Int) {
+            microphoneInto(frame, index)
+            val now = System.nanoTime()
+            val count = resampler.process(frame, 0, frameSize, converted, 0)
+            publish(recognizerRing, converted, count, now)
+            publish(assistantRing, converted, count, now)
+            publish(recordingRing, frame, frameSize, now)
+            preRoll.write(converted, 0, minOf(count, TARGET_FRAME), now)
+            nativePreRoll.write(frame, 0, frameSize, now)
+            copies += 2
+            drain(recognizerRing) { samples, length -> acceptWaveForm(samples, length) }
+            drain(assistantRing) { samples, length -> processAudioBuffer(samples, length) }
+            drain(recordingRing) { samples, length -> onFrame(samples, length) }
+        }
+
+        private fun publish(ring: PcmFrameRing, samples: ShortArray, length: Int, now: Long) {
+            var offset = 0
+            while (offset < length) {
+                val slot = ring.claim() ?: return
+                val count = minOf(ring.frameSize, length - offset)
+                System.arraycopy(samples, offset, slot, 0, count)
+                copies++
+                ring.publish(count, now)
+                offset += count
+            }
+        }
+
+        private inline fun drain(ring: PcmFrameRing, consume: (ShortArray, Int) -> Unit) {
+            while (ring.isReadable()) {
+                consume(ring.frame(), ring.length())
+                ring.release()
+            }
+        }
+
+        /**
+         * JNA's marshalling of `acceptWaveForm(short[], int)`: into native memory, then back.
+         */
+        private fun acceptWaveForm(samples: ShortArray, length: Int) {
+            jnaMemory.clear()
+            jnaMemory.put(samples, 0, length)
+            jnaMemory.flip()
+            jnaMemory.get(samples, 0, length)
+            copies += 2
+        }
+
+        // OfflineAssistantService.processAudioBuffer before the change
+        private fun processAudioBuffer(buffer: ShortArray, size: Int) {
+            val byteBuffer = ByteBuffer.allocate(size * 2)
+            val shortBuffer = ShortBuffer.wrap(buffer, 0, size)
+            byteBuffer.asShortBuffer().put(shortBuffer)
+            audioDataStream.write(byteBuffer.array())
+            logLine = "Processed audio buffer of size $size"
+            copies += 2
+            acceptWaveForm(buffer, size)
+            if (audioDataStream.size() > TARGET_RATE * 2 * 60) {
+                // The service kept the whole session; cap it so long rounds do not measure heap growth alone
+                audioDataStream = ByteArrayOutputStream()
+            }
+        }
+
+        // WavRecordingWriter.onFrame before the change
+        private fun onFrame(buffer: ShortArray, size: Int) {
+            var offset = 0
+            while (offset < size) {
+                val count = minOf(size - offset, byteBuffer.size / 2)
+                for (i in 0 until count) {
+                    val sample = buffer[offset + i].toInt()
+                    byteBuffer[i * 2] = (sample and 0xFF).toByte()
+                    byteBuffer[i * 2 + 1] = ((sample shr 8) and 0xFF).toByte()
+                }
+                output.write(byteBuffer, 0, count * 2)
+                copies += 2
+                offset += count
+            }
+        }
+
+        override fun close() {
+            output.close()
+        }
+    }
+
+    /**
+     * The capture path with direct frames for the assistant and the recording.
+     */
+    private class DirectPath(captureRate: Int, dir: File) : Path(captureRate) {
+        private val capture = ByteBuffer.allocateDirect(frameSize * 2).order(ByteOrder.nativeOrder())
+        private val captureSamples = capture.asShortBuffer()
+        private val frame = ShortArray(frameSize)
+        private val recognizerRing = PcmFrameRing(128, TARGET_FRAME)
+        private val assistantRing = PcmFrameRing(128, TARGET_FRAME, direct = true)
+        private val recordingRing = PcmFrameRing(128, frameSize, direct = true)
+        // DirectWaveform's staging buffer for frames that only exist on the heap
+        private val staging = ByteBuffer.allocateDirect(TARGET_FRAME * 8).order(ByteOrder.nativeOrder()).asShortBuffer()
+        private val output = FileOutputStream(File(dir, "after.pcm"))
+        private val channel = output.channel
+        private val writerStaging = ByteBuffer.allocateDirect(64 * 1024).order(ByteOrder.LITTLE_ENDIAN)
+
+        override fun frame(index: Int) {
+            microphoneInto(captureSamples, index)
+            val now = System.nanoTime()
+            captureSamples.clear()
+            captureSamples.get(frame, 0, frameSize)
+            copies++
+            val count = resampler.process(frame, 0, frameSize, converted, 0)
+            publish(recognizerRing, converted, count, now)
+            publish(assistantRing, converted, count, now)
+            publishDirect(recordingRing, frameSize, now)
+            preRoll.write(converted, 0, minOf(count, TARGET_FRAME), now)
+            nativePreRoll.write(frame, 0, frameSize, now)
+            copies += 2
+            while (recognizerRing.isReadable()) {
+                staging.clear()
+                staging.put(recognizerRing.frame(), 0, recognizerRing.length())
+                copies++
+                recognizerRing.release()
+            }
+            // The assistant's recognizer reads the slot by address: nothing to copy
+            while (assistantRing.isReadable()) {
+                assistantRing.release()
+            }
+            while (recordingRing.isReadable()) {
+                onFrame(recordingRing.buffer(), recordingRing.length())
+                recordingRing.release()
+            }
+        }
+
+        private fun publish(ring: PcmFrameRing, samples: ShortArray, length: Int, now: Long) {
+            var offset = 0
+            while (offset < length) {
+                val count = minOf(ring.frameSize, length - offset)
+                if (ring.direct) {
+                    val slot = ring.claimDirect() ?: return
+                    slot.put(samples, offset, count)
+                } else {
+                    val slot = ring.claim() ?: return
+                    System.arraycopy(samples, offset, slot, 0, count)
+                }
+                copies++
+                ring.publish(count, now)
+                offset += count
+            }
+        }
+
+        private fun publishDirect(ring: PcmFrameRing, length: Int, now: Long) {
+            val slot = ring.claimDirect() ?: return
+            captureSamples.limit(length)
+            captureSamples.position(0)
+            slot.put(captureSamples)
+            copies++
+            ring.publish(length, now)
+        }
+
+        // WavRecordingWriter.onFrame after the change
+        private fun onFrame(buffer: ByteBuffer, size: Int) {
+            if (writerStaging.remaining() < size * 2) {
+                writerStaging.flip()
+                while (writerStaging.hasRemaining()) {
+                    channel.write(writerStaging)
+                }
+                writerStaging.clear()
+            }
+            buffer.limit(size * 2).position(0)
+            writerStaging.put(buffer)
+            copies++
+        }
+
+        override fun close() {
+            output.close()
+        }
+    }
+
+    @Volatile
+    private var logLine = "" // Keeps the legacy log message from being optimized away
+
+    private fun formatBytes(bytes: Long): String {
+        return if (bytes < 0) "-" else "${bytes}B"
+    }
+
+    // Looked up once so the lookup's own allocation is not measured
+    private val threadBean: Any? = try {
+        Class.forName("java.lang.management.ManagementFactory").getMethod("getThreadMXBean").invoke(null)
+    } catch (e: Throwable) {
+        null
+    }
+    private val allocatedBytesMethod = try {
+        Class.forName("com.sun.management.ThreadMXBean").getMethod("getThreadAllocatedBytes", Long::class.javaPrimitiveType)
+    } catch (e: Throwable) {
+        null
+    }
+
+    /**
+     * Bytes allocated by the current thread on desktop JVMs, -1 elsewhere; see [ResultParsingBenchmark].
+     */
+    private fun allocatedBytes(): Long {
+        val method = allocatedBytesMethod ?: return -1L
+        return try {
+            method.invoke(threadBean, Thread.currentThread().id) as Long
+        } catch (e: Throwable) {
+            -1L
+        }
+    }
+}
+
+/**
+ * Desktop entry point: `kotlinc CapturePathBenchmark.kt PcmFrameRing.kt PolyphaseResampler.kt PreRollBuffer.kt
+ * -include-runtime -d capture-bench.jar
+ * && java -cp capture-bench.jar com.kitt.android.voice.CapturePathBenchmarkKt [seconds] [rate]`
+ */
+fun main(args: Array<String>) {
+    println(CapturePathBenchmark.run(args.getOrNull(0)?.toIntOrNull() ?: 20, args.getOrNull(1)?.toIntOrNull() ?: 48000))
+}
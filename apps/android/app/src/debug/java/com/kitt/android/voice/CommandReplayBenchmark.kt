@@ -0,0 +1,109 @@
+package com.kitt.android.voice
+
+import android.util.Log
+import org.json.JSONObject
+import org.vosk.Model
+import org.vosk.Recognizer
+import java.io.File
+import java.util.Locale
+
+private const val TAG = "CommandReplayBenchmark"
+
+/**
+ * Replays recorded command utterances through a free-form recognizer and a grammar-constrained
+ * one on the same model, and compares decode speed and command accuracy.
+ *
+ * Utterances are 16kHz mono 16-bit WAV files named after the spoken phrase, with an optional
+ * take number: "program_two.wav", "scanner_one_3.wav". Recordings made with the in-app recorder
+ * can be renamed and copied into the directory.
+ */
+class CommandReplayBenchmark(private val model: Model, private val grammar: String) {
+
+    private class Score {
+        var correct = 0
+        var decodeNanos = 0L
+    }
+
+    /**
+     * Run the benchmark over every WAV file in [dir].
+     * @return String summarizing accuracy and real-time factor for both modes.
+     */
+    fun run(dir: File): String {
+        val files = WavFiles.list(dir)
+        if (files.isEmpty()) {
+            return "Command benchmark: no utterances in ${dir.absolutePath}"
+        }
+        val freeForm = Score()
+        val constrained = Score()
+        var utterances = 0
+        var audioSamples = 0L
+        val compileStart = System.nanoTime()
+        val freeFormRecognizer = Recognizer(model, AudioCaptureHub.SAMPLE_RATE.toFloat())
+        val grammarRecognizer = Recognizer(model, AudioCaptureHub.SAMPLE_RATE.toFloat(), grammar)
+        val compileMs = (System.nanoTime() - compileStart) / 1_000_000L
+        try {
+            for (file in files) {
+                val expected = VoiceCommandProcessor.resolveCommand(WavFiles.phraseFromFileName(file.name))
+                if (expected == null) {
+                    Log.w(TAG, "Skipping ${file.name}: name is not a known command phrase")
+                    continue
+                }
+                val samples = WavFiles.readPcm(file) ?: continue
+                utterances++
+                audioSamples += samples.size
+                val freeFormText = decode(freeFormRecognizer, samples, freeForm)
+                val grammarText = decode(grammarRecognizer, samples, constrained)
+                if (VoiceCommandProcessor.resolveCommand(freeFormText) == expected) freeForm.correct++
+                if (VoiceCommandProcessor.resolveCommand(grammarText) == expected) constrained.correct++
+                Log.d(TAG, "${file.name}: expected $expected, free-form '$freeFormText', grammar '$grammarText'")
+            }
+        } finally {
+            freeFormRecognizer.close()
+            grammarRecognizer.close()
+        }
+        if (utterances == 0) {
+            return "Command benchmark: no usable utterances in ${dir.absolutePath}"
+        }
+        val audioNanos = audioSamples * 1_000_000_000L / AudioCaptureHub.SAMPLE_RATE
+        val result = String.format(
+            Locale.US,
+            "Command benchmark (%d utterances): free-form %d/%d correct, RTF %.3f; grammar %d/%d correct, RTF %.3f (%.1fx faster); recognizers built in %dms",
+            utterances,
+            freeForm.correct, utterances, freeForm.decodeNanos.toDouble() / audioNanos,
+            constrained.correct, utterances, constrained.decodeNanos.toDouble() / audioNanos,
+            freeForm.decodeNanos.toDouble() / maxOf(constrained.decodeNanos, 1L),
+            compileMs
+        )
+        Log.i(TAG, result)
+        return result
+    }
+
+    /**
+     * Feed one utterance in capture-sized frames, as the live decode loop does.
+     */
+    private fun decode(recognizer: Recognizer, samples: ShortArray, score: Score): String {
+        val frame = ShortArray(AudioCaptureHub.FRAME_SIZE)
+        val text = StringBuilder()
+        val start = System.nanoTime()
+        var offset = 0
+        while (offset < samples.size) {
+            val count = minOf(frame.size, samples.size - offset)
+            System.arraycopy(samples, offset, frame, 0, count)
+            if (recognizer.acceptWaveForm(frame, count)) {
+                text.append(' ').append(textOf(recognizer.result))
+            }
+            offset += count
+        }
+        text.append(' ').append(textOf(recognizer.finalResult))
+        score.decodeNanos += System.nanoTime() - start
+        return text.toString().trim()
+    }
+
+    private fun textOf(json: String?): String {
+        return try {
+            JSONObject(json ?: "{}").optString("text")
+        } catch (e: Exception) {
+            ""
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.kitt.android.voice
+
+import android.util.Log
+import org.vosk.Model
+import org.vosk.Recognizer
+import java.io.File
+import java.util.Locale
+
+private const val TAG = "PartialReplayBenchmark"
+
+/**
+ * Replays recorded utterances through one recognizer under several [PartialEmissionPolicy]
+ * settings and measures the CPU spent on partial results: the `partialResult` JNI call, the
+ * comparison with the previous partial, parsing and filtering.
+ *
+ * Frames are fed one at a time, as the live decode loop receives them, and the rate limit runs
+ * on audio time, so the poll counts match a live session of the same audio. Utterances are
+ * 16kHz mono 16-bit WAV files, e.g. the "benchmark" set used by [SpeechEngineBenchmark].
+ */
+class PartialReplayBenchmark(private val model: Model) {
+
+    private class Run(val name: String, val policy: PartialEmissionPolicy) {
+        var partialNanos = 0L
+        var decodeNanos = 0L
+    }
+
+    /**
+     * Run the benchmark over every WAV file in [dir].
+     * @return String with emitted partials and partial-path CPU per setting, relative to polling every frame.
+     */
+    fun run(dir: File): String {
+        val files = WavFiles.list(dir)
+        if (files.isEmpty()) {
+            return "Partial benchmark: no utterances in ${dir.absolutePath}"
+        }
+        val utterances = files.mapNotNull { WavFiles.readPcm(it) }
+        if (utterances.isEmpty()) {
+            return "Partial benchmark: no usable utterances in ${dir.absolutePath}"
+        }
+        val runs = listOf(
+            Run("every frame", PartialEmissionPolicy().apply { changedOnly = false; minIntervalMs = 0L }),
+            Run("changed only", PartialEmissionPolicy().apply { minIntervalMs = 0L }),
+            Run("rate limited", PartialEmissionPolicy()),
+            Run("stable prefix", PartialEmissionPolicy().apply { stablePrefixOnly = true })
+        )
+        val audioSamples = utterances.sumOf { it.size.toLong() }
+        val recognizer = Recognizer(model, AudioCaptureHub.SAMPLE_RATE.toFloat())
+        try {
+            // Warm up the recognizer so the first setting does not pay for it
+            replay(recognizer, utterances.first(), Run("warm-up", PartialEmissionPolicy()))
+            for (run in runs) {
+                run.policy.resetStats()
+                for (samples in utterances) {
+                    replay(recognizer, samples, run)
+                }
+            }
+        } finally {
+            recognizer.close()
+        }
+        val baseline = runs.first()
+        val audioNanos = audioSamples * 1_000_000_000L / AudioCaptureHub.SAMPLE_RATE
+        val report = StringBuilder(
+            String.format(Locale.US, "Partial benchmark (%d utterances, %.1fs audio):", utterances.size, audioNanos / 1e9)
+        )
+        for (run in runs) {
+            report.append(
+                String.format(
+                    Locale.US,
+                    "\n  %s: %d partials emitted, %.1fms partial CPU (%.0f%% saved), RTF %.3f",
+                    run.name, run.policy.emittedCount(), run.partialNanos / 1e6,
+                    (1.0 - run.partialNanos.toDouble() / maxOf(baseline.partialNanos, 1L)) * 100.0,
+                    (run.decodeNanos + run.partialNanos).toDouble() / audioNanos
+                )
+            )
+        }
+        val result = report.toString()
+        Log.i(TAG, result)
+        return result
+    }
+
+    /**
+     * Feed one utterance frame by frame, polling partials the way the decode loop does.
+     */
+    private fun replay(recognizer: Recognizer, samples: ShortArray, run: Run) {
+        val policy = run.policy
+        val reader = VoskResultReader()
+        val event = RecognitionEvent()
+        val frame = ShortArray(AudioCaptureHub.FRAME_SIZE)
+        var lastPartial = ""
+        var frameNanos = 0L
+        var offset = 0
+        policy.reset()
+        while (offset < samples.size) {
+            val count = minOf(frame.size, samples.size - offset)
+            System.arraycopy(samples, offset, frame, 0, count)
+            offset += count
+            frameNanos += AudioCaptureHub.FRAME_DURATION_MS * 1_000_000L
+            val decodeStart = System.nanoTime()
+            val isFinal = recognizer.acceptWaveForm(frame, count)
+            val partialStart = System.nanoTime()
+            run.decodeNanos += partialStart - decodeStart
+            if (isFinal) {
+                reader.read(recognizer.result, event)
+                policy.reset()
+                lastPartial = ""
+                run.decodeNanos += System.nanoTime() - partialStart
+                continue
+            }
+            if (!policy.shouldPoll(frameNanos, false)) {
+                run.partialNanos += System.nanoTime() - partialStart
+                continue
+            }
+            val partial = recognizer.partialResult ?: "{}"
+            val changed = partial != lastPartial
+            if (changed || !policy.changedOnly) {
+                lastPartial = partial
+                reader.read(partial, event)
+            }
+            policy.filter(event, changed)
+            val elapsed = System.nanoTime() - partialStart
+            policy.onPolled(elapsed)
+            run.partialNanos += elapsed
+        }
+        reader.read(recognizer.finalResult, event)
+    }
+}
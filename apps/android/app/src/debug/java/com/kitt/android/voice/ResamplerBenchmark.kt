@@ -0,0 +1,115 @@
+package com.kitt.android.voice
+
+import java.util.Locale
+
+private const val TARGET_RATE = 16000 // AudioCaptureHub.SAMPLE_RATE, repeated so this file builds without Android
+
+/**
+ * Measures [PolyphaseResampler] on the capture path's workload: 20ms frames at a device rate
+ * converted to 16kHz, one frame per call, as the capture thread does. Reports the cost as a share
+ * of one core (time per second of audio), whether [PolyphaseResampler.process] allocates, and the
+ * quality: level of an in-band tone and of a tone that would alias into the band.
+ *
+ * Warm-up and measurement are repeated rounds so JIT compilation settles first.
+ * Also runs as a plain JVM tool; see [main].
+ */
+object ResamplerBenchmark {
+
+    private val RATES = intArrayOf(48000, 44100)
+
+    /**
+     * @param seconds Audio converted per measured round.
+     * @return String with CPU share, allocation and tone levels per input rate.
+     */
+    @JvmStatic
+    fun run(seconds: Int = 30): String {
+        val report = StringBuilder("Resampler (${seconds}s of audio per round, 20ms frames):")
+        for (rate in RATES) {
+            val resampler = PolyphaseResampler(rate, TARGET_RATE)
+            val frameSize = rate / 50
+            val frame = ShortArray(frameSize)
+            val output = ShortArray(resampler.maxOutput(frameSize))
+            val signal = tone(rate, 440.0, rate * 2)
+            val frames = seconds * 50
+            var best = Long.MAX_VALUE
+            var allocated = Long.MAX_VALUE
+            for (round in 0 until 8) {
+                val allocatedBefore = allocatedBytes()
+                val start = System.nanoTime()
+                for (i in 0 until frames) {
+                    System.arraycopy(signal, (i % 100) * frameSize, frame, 0, frameSize)
+                    resampler.process(frame, 0, frameSize, output, 0)
+                }
+                val elapsed = System.nanoTime() - start
+                val allocatedAfter = allocatedBytes()
+                if (round >= 3) {
+                    best = minOf(best, elapsed)
+                    // The least of the rounds: background JIT work is charged to whichever round it lands in
+                    allocated = if (allocatedBefore < 0 || allocatedAfter < 0) -1 else minOf(allocated, allocatedAfter - allocatedBefore)
+                }
+            }
+            val corePercent = best / (seconds * 1e9) * 100.0
+            report.append(
+                String.format(
+                    Locale.US,
+                    "\n  %dHz -> 16kHz: %.3f%% of one core (%.1fus per frame), %s allocated; 1kHz tone %.1fdB, 10kHz alias %.1fdB",
+                    rate, corePercent, best / 1000.0 / frames,
+                    if (allocated < 0) "-" else "${allocated}B",
+                    levelDb(rate, 1000.0), levelDb(rate, 10000.0)
+                )
+            )
+        }
+        return report.toString()
+    }
+
+    /**
+     * Output level of a full-scale sine after conversion, relative to full scale.
+     */
+    private fun levelDb(rate: Int, frequency: Double): Double {
+        val output = PolyphaseResampler.resample(tone(rate, frequency, rate), rate, TARGET_RATE)
+        // Skip the filter's start-up transient
+        var sum = 0.0
+        val start = output.size / 4
+        for (i in start until output.size) {
+            sum += output[i].toDouble() * output[i]
+        }
+        val rms = Math.sqrt(sum / (output.size - start))
+        return 20.0 * Math.log10(maxOf(rms, 1e-3) / (Short.MAX_VALUE * 0.5 / Math.sqrt(2.0)))
+    }
+
+    private fun tone(rate: Int, frequency: Double, length: Int): ShortArray {
+        return ShortArray(length) { i -> (Math.sin(2.0 * Math.PI * frequency * i / rate) * Short.MAX_VALUE * 0.5).toInt().toShort() }
+    }
+
+    // Looked up once so the lookup's own allocation is not measured
+    private val threadBean: Any? = try {
+        Class.forName("java.lang.management.ManagementFactory").getMethod("getThreadMXBean").invoke(null)
+    } catch (e: Throwable) {
+        null
+    }
+    private val allocatedBytesMethod = try {
+        Class.forName("com.sun.management.ThreadMXBean").getMethod("getThreadAllocatedBytes", Long::class.javaPrimitiveType)
+    } catch (e: Throwable) {
+        null
+    }
+
+    /**
+     * Bytes allocated by the current thread on desktop JVMs, -1 elsewhere; see [ResultParsingBenchmark].
+     */
+    private fun allocatedBytes(): Long {
+        val method = allocatedBytesMethod ?: return -1L
+        return try {
+            method.invoke(threadBean, Thread.currentThread().id) as Long
+        } catch (e: Throwable) {
+            -1L
+        }
+    }
+}
+
+/**
+ * Desktop entry point: `kotlinc ResamplerBenchmark.kt PolyphaseResampler.kt -include-runtime -d resampler-bench.jar
+ * && java -cp resampler-bench.jar com.kitt.android.voice.ResamplerBenchmarkKt [seconds]`
+ */
+fun main(args: Array<String>) {
+    println(ResamplerBenchmark.run(args.firstOrNull()?.toIntOrNull() ?: 30))
+}
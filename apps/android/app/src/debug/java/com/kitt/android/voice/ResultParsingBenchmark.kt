@@ -0,0 +1,113 @@
+package com.kitt.android.voice
+
+import java.util.Locale
+
+/**
+ * Compares [VoskResultReader] against the regex extraction the UI used before typed events:
+ * a `Regex("\"partial\"...")` / `Regex("\"text\"...")` compiled per result, then `find()`.
+ *
+ * Runs on representative Vosk partial and final results (with and without word details) and
+ * reports time per result and, on a desktop JVM, bytes allocated per result. Android has no
+ * per-thread allocation counter, so the allocation column shows "-" there.
+ * Also runs as a plain JVM tool; see [main].
+ */
+object ResultParsingBenchmark {
+
+    private val SAMPLES = arrayOf(
+        "{\n  \"partial\" : \"scanner one activate\"\n}",
+        "{\n  \"partial\" : \"program two\",\n  \"partial_result\" : [{\n      \"conf\" : 0.912,\n      \"end\" : 0.81,\n" +
+            "      \"start\" : 0.42,\n      \"word\" : \"program\"\n    }, {\n      \"conf\" : 0.87,\n      \"end\" : 1.2,\n" +
+            "      \"start\" : 0.81,\n      \"word\" : \"two\"\n    }]\n}",
+        "{\n  \"text\" : \"hey kitt what is the weather like in paris tomorrow\"\n}",
+        "{\n  \"result\" : [{\n      \"conf\" : 1.000000,\n      \"end\" : 0.57,\n      \"start\" : 0.21,\n      \"word\" : \"hey\"\n" +
+            "    }, {\n      \"conf\" : 0.981352,\n      \"end\" : 0.93,\n      \"start\" : 0.57,\n      \"word\" : \"kitt\"\n" +
+            "    }, {\n      \"conf\" : 1.000000,\n      \"end\" : 1.44,\n      \"start\" : 1.02,\n      \"word\" : \"scanner\"\n" +
+            "    }, {\n      \"conf\" : 0.954120,\n      \"end\" : 1.71,\n      \"start\" : 1.44,\n      \"word\" : \"one\"\n" +
+            "    }],\n  \"text\" : \"hey kitt scanner one\"\n}"
+    )
+
+    /**
+     * Run both parsers over the samples.
+     * @param iterations Passes over the sample set per parser, after an equal warm-up.
+     * @return String with time and allocation per result for both parsers.
+     */
+    @JvmStatic
+    fun run(iterations: Int = 20000): String {
+        val reader = VoskResultReader()
+        val event = RecognitionEvent()
+        for (sample in SAMPLES) {
+            reader.read(sample, event)
+            check(event.text() == regexText(sample)) { "Parsers disagree on $sample" }
+        }
+        // Warm up both paths before measuring
+        measure(iterations) { regexText(it).length }
+        measure(iterations) { reader.read(it, event); event.text.length }
+        val regex = measure(iterations) { regexText(it).length }
+        val streaming = measure(iterations) { reader.read(it, event); event.text.length }
+        return String.format(
+            Locale.US,
+            "Result parsing (%d results): regex %.0fns, %s/result; streaming reader %.0fns, %s/result (%.1fx faster)",
+            iterations * SAMPLES.size,
+            regex.first, formatBytes(regex.second),
+            streaming.first, formatBytes(streaming.second),
+            regex.first / maxOf(streaming.first, 1.0)
+        )
+    }
+
+    /**
+     * The previous MainActivity extraction, kept verbatim as the baseline.
+     */
+    private fun regexText(result: String): String {
+        return if (result.contains("\"partial\"")) {
+            Regex("\"partial\"\\s*:\\s*\"([^\"]+)\"").find(result)?.groupValues?.get(1) ?: ""
+        } else {
+            Regex("\"text\"\\s*:\\s*\"([^\"]+)\"").find(result)?.groupValues?.get(1) ?: ""
+        }
+    }
+
+    /**
+     * @return Pair of (nanoseconds per result, bytes allocated per result or -1 if unknown).
+     */
+    private inline fun measure(iterations: Int, parse: (String) -> Int): Pair<Double, Double> {
+        var sink = 0
+        val allocatedBefore = allocatedBytes()
+        val start = System.nanoTime()
+        for (i in 0 until iterations) {
+            for (sample in SAMPLES) {
+                sink += parse(sample)
+            }
+        }
+        val elapsed = System.nanoTime() - start
+        val allocatedAfter = allocatedBytes()
+        if (sink == 0) println() // Keep the results observable
+        val results = iterations.toDouble() * SAMPLES.size
+        val allocated = if (allocatedBefore < 0 || allocatedAfter < 0) -1.0 else (allocatedAfter - allocatedBefore) / results
+        return Pair(elapsed / results, allocated)
+    }
+
+    private fun formatBytes(bytes: Double): String {
+        return if (bytes < 0) "-" else String.format(Locale.US, "%.0fB", bytes)
+    }
+
+    /**
+     * Bytes allocated by the current thread, through com.sun.management.ThreadMXBean where
+     * available (desktop JVMs); -1 elsewhere. Looked up reflectively so the class loads on Android.
+     */
+    private fun allocatedBytes(): Long {
+        return try {
+            val bean = Class.forName("java.lang.management.ManagementFactory").getMethod("getThreadMXBean").invoke(null)
+            val method = Class.forName("com.sun.management.ThreadMXBean").getMethod("getThreadAllocatedBytes", Long::class.javaPrimitiveType)
+            method.invoke(bean, Thread.currentThread().id) as Long
+        } catch (e: Throwable) {
+            -1L
+        }
+    }
+}
+
+/**
+ * Desktop entry point: `kotlinc ResultParsingBenchmark.kt RecognitionEvent.kt VoskResultReader.kt
+ * -include-runtime -d parse-bench.jar && java -cp parse-bench.jar com.kitt.android.voice.ResultParsingBenchmarkKt [iterations]`
+ */
+fun main(args: Array<String>) {
+    println(ResultParsingBenchmark.run(args.firstOrNull()?.toIntOrNull() ?: 20000))
+}
@@ -0,0 +1,110 @@
+package com.kitt.android.voice
+
+import java.io.File
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.util.Locale
+import java.util.zip.CRC32
+
+private const val FRAME_SAMPLES = 320 // AudioCaptureHub.FRAME_SIZE, repeated so this file builds without Android
+private const val FRAMES_PER_MINUTE = 50 * 60
+
+/**
+ * Streams a long assistant session into an [AudioSessionStore] as the assistant receives it, 20ms
+ * direct frames at 16kHz, as fast as the store takes them. Reports the store's memory every
+ * tenth of the session (it should stop growing at the cap), audio spilled to disk, append cost and
+ * heap allocation per second of audio, and checks that the session reads back intact.
+ *
+ * Allocation is measured on desktop JVMs only, as in [ResultParsingBenchmark].
+ * Also runs as a plain JVM tool; see [main].
+ */
+object SessionStoreBenchmark {
+
+    /**
+     * @param dir Directory for the spill file, removed afterwards.
+     * @param minutes Session length in audio time.
+     * @return String with memory over time, spill volume, cost and the read-back check.
+     */
+    @JvmStatic
+    fun run(dir: File, minutes: Int = 60): String {
+        val store = AudioSessionStore(File(dir, "session-store-bench.pcm"))
+        try {
+            val frame = ByteBuffer.allocateDirect(FRAME_SAMPLES * 2).order(ByteOrder.nativeOrder())
+            val written = CRC32()
+            val frames = minutes * FRAMES_PER_MINUTE
+            val memory = StringBuilder()
+            var appendNanos = 0L
+            val allocatedBefore = allocatedBytes()
+            for (i in 0 until frames) {
+                // A different pattern per frame so misplaced chunks show up in the checksum
+                for (s in 0 until FRAME_SAMPLES) {
+                    frame.putShort(s * 2, (i * 31 + s).toShort())
+                }
+                for (b in 0 until FRAME_SAMPLES * 2) {
+                    written.update(frame.get(b).toInt())
+                }
+                val start = System.nanoTime()
+                store.append(frame, FRAME_SAMPLES * 2)
+                appendNanos += System.nanoTime() - start
+                if ((i + 1) % (frames / 10) == 0) {
+                    memory.append(if (memory.isEmpty()) "" else ", ").append(store.memoryBytes() / 1024).append("KB")
+                }
+            }
+            val allocatedAfter = allocatedBytes()
+            val read = CRC32()
+            val buffer = ByteArray(16 * 1024)
+            var readBytes = 0L
+            store.openStream().use { stream ->
+                while (true) {
+                    val count = stream.read(buffer)
+                    if (count < 0) break
+                    read.update(buffer, 0, count)
+                    readBytes += count
+                }
+            }
+            val seconds = minutes * 60.0
+            val allocated = if (allocatedBefore < 0 || allocatedAfter < 0) "-" else
+                String.format(Locale.US, "%.0fB", (allocatedAfter - allocatedBefore) / seconds)
+            return String.format(
+                Locale.US,
+                "Session store (%d min of 16kHz audio): memory per tenth %s; spilled %.1fMB; append %.1fus and %s allocated per second of audio; read back %s",
+                minutes, memory, store.spilledBytes() / (1024.0 * 1024.0), appendNanos / 1000.0 / seconds, allocated,
+                if (readBytes == store.totalBytes() && read.value == written.value) "intact" else "CORRUPT ($readBytes of ${store.totalBytes()} bytes)"
+            )
+        } finally {
+            store.close()
+        }
+    }
+
+    // Looked up once so the lookup's own allocation is not measured
+    private val threadBean: Any? = try {
+        Class.forName("java.lang.management.ManagementFactory").getMethod("getThreadMXBean").invoke(null)
+    } catch (e: Throwable) {
+        null
+    }
+    private val allocatedBytesMethod = try {
+        Class.forName("com.sun.management.ThreadMXBean").getMethod("getThreadAllocatedBytes", Long::class.javaPrimitiveType)
+    } catch (e: Throwable) {
+        null
+    }
+
+    /**
+     * Bytes allocated by the current thread on desktop JVMs, -1 elsewhere; see [ResultParsingBenchmark].
+     */
+    private fun allocatedBytes(): Long {
+        val method = allocatedBytesMethod ?: return -1L
+        return try {
+            method.invoke(threadBean, Thread.currentThread().id) as Long
+        } catch (e: Throwable) {
+            -1L
+        }
+    }
+}
+
+/**
+ * Desktop entry point: `kotlinc SessionStoreBenchmark.kt AudioSessionStore.kt -include-runtime -d session-bench.jar
+ * && java -cp session-bench.jar com.kitt.android.voice.SessionStoreBenchmarkKt [minutes]`
+ */
+fun main(args: Array<String>) {
+    println(SessionStoreBenchmark.run(File(System.getProperty("java.io.tmpdir")), args.firstOrNull()?.toIntOrNull() ?: 60))
+}
@@ -0,0 +1,136 @@
+package com.kitt.android.voice
+
+import android.util.Log
+import org.vosk.Model
+import org.vosk.Recognizer
+import java.io.File
+import java.util.Locale
+
+private const val TAG = "SpeculationBenchmark"
+
+/**
+ * Replays recorded command utterances through a dictation recognizer, feeding its partials to a
+ * [SpeculativeCommandMatcher] as the live decode loop would, and measures how far ahead of the
+ * final result button commands start: the time saved between speech end and execution.
+ *
+ * Time is audio time, so the result does not depend on how fast the device decodes. Each file
+ * ends its utterance at the recognizer's endpoint or at the end of the file, whichever comes
+ * first; recordings with little trailing silence therefore understate the saving.
+ * Utterances are the same files as [CommandReplayBenchmark]'s: "scanner_two.wav", "program_one_2.wav".
+ */
+class SpeculationBenchmark(private val model: Model) {
+
+    private class Score {
+        var utterances = 0
+        var started = 0
+        var committed = 0
+        var rolledBack = 0
+        var wrong = 0 // Committed but not the command that was spoken
+        val savedMs = ArrayList<Long>()
+    }
+
+    /**
+     * Run the benchmark over every WAV file in [dir].
+     * @return String with commands started early, how they were settled, and the median time saved.
+     */
+    fun run(dir: File): String {
+        val files = WavFiles.list(dir)
+        if (files.isEmpty()) {
+            return "Speculation benchmark: no utterances in ${dir.absolutePath}"
+        }
+        val score = Score()
+        val recognizer = Recognizer(model, AudioCaptureHub.SAMPLE_RATE.toFloat())
+        try {
+            for (file in files) {
+                val expected = VoiceCommandProcessor.resolveCommand(WavFiles.phraseFromFileName(file.name))
+                if (expected == null) {
+                    Log.w(TAG, "Skipping ${file.name}: name is not a known command phrase")
+                    continue
+                }
+                val samples = WavFiles.readPcm(file) ?: continue
+                score.utterances++
+                replay(recognizer, samples, expected, score)
+                recognizer.reset()
+            }
+        } finally {
+            recognizer.close()
+        }
+        if (score.utterances == 0) {
+            return "Speculation benchmark: no usable utterances in ${dir.absolutePath}"
+        }
+        score.savedMs.sort()
+        val count = score.savedMs.size
+        val median = when {
+            count == 0 -> 0.0
+            count % 2 == 1 -> score.savedMs[count / 2].toDouble()
+            else -> (score.savedMs[count / 2 - 1] + score.savedMs[count / 2]) / 2.0
+        }
+        val result = String.format(
+            Locale.US,
+            "Speculation benchmark (%d utterances): %d started early, %d committed (%d wrong), %d rolled back; median %.0fms saved between speech end and execution",
+            score.utterances, score.started, score.committed, score.wrong, score.rolledBack, median
+        )
+        Log.i(TAG, result)
+        return result
+    }
+
+    /**
+     * Feed one utterance frame by frame with the live partial policy, settling the speculation at its final.
+     */
+    private fun replay(recognizer: Recognizer, samples: ShortArray, expected: String, score: Score) {
+        val matcher = VoiceCommandProcessor.speculativeMatcher()
+        val policy = PartialEmissionPolicy()
+        val reader = VoskResultReader()
+        val event = RecognitionEvent()
+        val frame = ShortArray(AudioCaptureHub.FRAME_SIZE)
+        var lastPartial = ""
+        var frameNanos = 0L
+        var offset = 0
+        while (offset < samples.size) {
+            val count = minOf(frame.size, samples.size - offset)
+            System.arraycopy(samples, offset, frame, 0, count)
+            offset += count
+            frameNanos += AudioCaptureHub.FRAME_DURATION_MS * 1_000_000L
+            if (recognizer.acceptWaveForm(frame, count)) {
+                reader.read(recognizer.result, event)
+                settle(matcher, event.text(), expected, frameNanos, score)
+                return
+            }
+            var started: String? = null
+            if (policy.shouldPoll(frameNanos, false)) {
+                val partial = recognizer.partialResult ?: "{}"
+                val changed = partial != lastPartial
+                lastPartial = partial
+                reader.read(partial, event)
+                if (policy.filter(event, changed) && !event.isEmpty()) {
+                    started = matcher.onPartial(event.text, frameNanos)
+                }
+            }
+            if (started == null) {
+                // The live processor checks again once the hold has passed
+                started = matcher.poll(frameNanos)
+            }
+            if (started != null) {
+                score.started++
+            }
+        }
+        reader.read(recognizer.finalResult, event)
+        settle(matcher, event.text(), expected, frameNanos, score)
+    }
+
+    private fun settle(matcher: SpeculativeCommandMatcher, finalText: String, expected: String, nowNanos: Long, score: Score) {
+        val started = matcher.speculated
+        val startedAtNanos = matcher.speculatedAtNanos
+        val finalCommand = matcher.commandOf(finalText)
+        when (matcher.onFinal(finalCommand)) {
+            SpeculativeCommandMatcher.Outcome.COMMIT -> {
+                score.committed++
+                if (started != expected) score.wrong++
+                score.savedMs.add((nowNanos - startedAtNanos) / 1_000_000L)
+            }
+            SpeculativeCommandMatcher.Outcome.ROLLBACK -> score.rolledBack++
+            SpeculativeCommandMatcher.Outcome.NONE -> Unit
+        }
+        Log.d(TAG, "Expected $expected, started ${started ?: "nothing"}, final '$finalText' -> $finalCommand")
+    }
+}
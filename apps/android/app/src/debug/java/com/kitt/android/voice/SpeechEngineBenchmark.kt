@@ -0,0 +1,173 @@
+package com.kitt.android.voice
+
+import android.util.Log
+import java.io.File
+import java.util.Locale
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+private const val TAG = "SpeechEngineBenchmark"
+private const val FINAL_TIMEOUT_MS = 5000L // Out-of-process backends finalize asynchronously
+
+/**
+ * Replays the same recorded utterances through several [SpeechEngine] backends and compares
+ * word error rate, decoding speed, first-partial latency and model load time.
+ *
+ * Utterances use the [CommandReplayBenchmark] naming convention: 16kHz mono 16-bit WAV files
+ * named after the spoken phrase ("turn_on_the_scanner.wav", "bonjour_kitt_2.wav"). Backends
+ * that only consume real-time audio are paced at the capture rate; the others are fed as fast
+ * as they decode, so their real-time factor is their CPU cost.
+ */
+class SpeechEngineBenchmark(private val engines: List<SpeechEngine>) {
+
+    private class Score(val engine: SpeechEngine) {
+        var loadMs = -1L
+        var utterances = 0
+        var wordErrors = 0
+        var referenceWords = 0
+        var decodeNanos = 0L
+        var firstPartialTotalMs = 0L
+        var firstPartialCount = 0
+        var failed: String? = null
+    }
+
+    private class Collector : SpeechEngine.Listener {
+        val finals = StringBuilder()
+        @Volatile
+        var firstPartialNanos = 0L
+        @Volatile
+        var finalArrived = CountDownLatch(1)
+
+        override fun onPartial(text: String) {
+            if (firstPartialNanos == 0L) firstPartialNanos = System.nanoTime()
+        }
+
+        override fun onFinal(text: String) {
+            synchronized(finals) {
+                finals.append(' ').append(text)
+            }
+            finalArrived.countDown()
+        }
+
+        override fun onError(message: String) {
+            Log.w(TAG, "Backend error during replay: $message")
+            finalArrived.countDown()
+        }
+    }
+
+    /**
+     * Run every backend over every WAV file in [dir]. Backends are loaded for [language] and
+     * released afterwards. Slow; never call it on the main thread.
+     * @return String with one line per backend.
+     */
+    fun run(dir: File, language: String): String {
+        val files = WavFiles.list(dir)
+        if (files.isEmpty()) {
+            return "Engine benchmark: no utterances in ${dir.absolutePath}"
+        }
+        val utterances = files.mapNotNull { file -> WavFiles.readPcm(file)?.let { WavFiles.phraseFromFileName(file.name) to it } }
+        val audioSamples = utterances.sumOf { it.second.size.toLong() }
+        val scores = engines.map { engine ->
+            val score = Score(engine)
+            try {
+                runEngine(score, utterances, language)
+            } catch (e: Exception) {
+                Log.e(TAG, "${engine.name} failed: ${e.message}", e)
+                score.failed = e.message ?: e.javaClass.simpleName
+            } finally {
+                engine.release()
+            }
+            score
+        }
+        val audioNanos = audioSamples * 1_000_000_000L / AudioCaptureHub.SAMPLE_RATE
+        val report = StringBuilder("Engine benchmark (${utterances.size} utterances, $language):")
+        for (score in scores) {
+            report.append("\n  ").append(score.engine.name).append(": ")
+            val failure = score.failed
+            if (failure != null) {
+                report.append("failed ($failure)")
+                continue
+            }
+            val wer = if (score.referenceWords > 0) score.wordErrors * 100.0 / score.referenceWords else 0.0
+            val firstPartial = if (score.firstPartialCount > 0) "${score.firstPartialTotalMs / score.firstPartialCount}ms" else "-"
+            val speed = if (score.engine.consumesInRealTime) {
+                "real time"
+            } else {
+                String.format(Locale.US, "RTF %.3f", score.decodeNanos.toDouble() / audioNanos)
+            }
+            report.append(String.format(Locale.US, "WER %.1f%%, %s, first partial %s, load %dms", wer, speed, firstPartial, score.loadMs))
+        }
+        Log.i(TAG, report.toString())
+        return report.toString()
+    }
+
+    private fun runEngine(score: Score, utterances: List<Pair<String, ShortArray>>, language: String) {
+        val engine = score.engine
+        val loadStart = System.currentTimeMillis()
+        if (!engine.load(language)) {
+            score.failed = "model unavailable"
+            return
+        }
+        score.loadMs = System.currentTimeMillis() - loadStart
+        val frame = ShortArray(AudioCaptureHub.FRAME_SIZE)
+        for ((expected, samples) in utterances) {
+            val collector = Collector()
+            if (!engine.start(collector)) {
+                score.failed = "could not start"
+                return
+            }
+            val start = System.nanoTime()
+            var offset = 0
+            while (offset < samples.size) {
+                val count = minOf(frame.size, samples.size - offset)
+                System.arraycopy(samples, offset, frame, 0, count)
+                engine.acceptFrame(frame, count)
+                offset += count
+                if (engine.consumesInRealTime) {
+                    Thread.sleep(AudioCaptureHub.FRAME_DURATION_MS)
+                }
+            }
+            // Only results that arrive after the end of the utterance count as its final
+            collector.finalArrived = CountDownLatch(1)
+            engine.endOfSpeech()
+            score.decodeNanos += System.nanoTime() - start
+            if (engine.consumesInRealTime) {
+                collector.finalArrived.await(FINAL_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+            }
+            engine.stop()
+            val hypothesis = synchronized(collector.finals) { collector.finals.toString() }
+            if (collector.firstPartialNanos != 0L) {
+                score.firstPartialTotalMs += (collector.firstPartialNanos - start) / 1_000_000L
+                score.firstPartialCount++
+            }
+            val reference = words(expected)
+            score.wordErrors += editDistance(reference, words(hypothesis))
+            score.referenceWords += reference.size
+            score.utterances++
+            Log.d(TAG, "${engine.name}: expected '$expected', heard '${hypothesis.trim()}'")
+        }
+    }
+
+    private fun words(text: String): List<String> {
+        return text.lowercase(Locale.ROOT).split(Regex("[^\\p{L}\\p{N}']+")).filter { it.isNotEmpty() }
+    }
+
+    /**
+     * Word-level Levenshtein distance: substitutions, insertions and deletions.
+     */
+    private fun editDistance(reference: List<String>, hypothesis: List<String>): Int {
+        var previous = IntArray(hypothesis.size + 1) { it }
+        var current = IntArray(hypothesis.size + 1)
+        for (i in 1..reference.size) {
+            current[0] = i
+            for (j in 1..hypothesis.size) {
+                val substitution = previous[j - 1] + if (reference[i - 1] == hypothesis[j - 1]) 0 else 1
+                current[j] = minOf(substitution, previous[j] + 1, current[j - 1] + 1)
+            }
+            val swap = previous
+            previous = current
+            current = swap
+        }
+        return previous[hypothesis.size]
+    }
+}
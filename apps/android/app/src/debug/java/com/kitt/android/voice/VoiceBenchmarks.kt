@@ -0,0 +1,244 @@
+package com.kitt.android.voice
+
+import android.content.Context
+import android.os.Debug
+import android.util.Log
+import org.vosk.Model
+import org.vosk.Recognizer
+import java.io.File
+import java.util.Locale
+
+private const val TAG = "VoiceBenchmarks"
+
+/**
+ * The voice benchmarks, run against a [VoiceEngine]'s current model and language.
+ * Debug builds only; started from VoiceBenchmarkActivity. Each one leaves the engine's live
+ * recognizer untouched and reports a failure as its result string instead of throwing.
+ */
+class VoiceBenchmarks(private val context: Context, private val engine: VoiceEngine) {
+
+    /**
+     * Compare command mode against free-form decoding by replaying recorded command utterances
+     * from the "commands" folder under the internal recordings directory.
+     * Slow; never call it on the main thread.
+     * @return String with accuracy and real-time factor for both modes.
+     */
+    fun benchmarkCommandMode(): String {
+        val currentModel = engine.voskModel()
+        if (currentModel == null) {
+            return "Command benchmark: no Vosk model loaded"
+        }
+        return try {
+            CommandReplayBenchmark(currentModel, VoiceCommandProcessor.commandGrammar()).run(File(engine.recordingsDir(), "commands"))
+        } catch (e: Exception) {
+            Log.e(TAG, "Command benchmark failed: ${e.message}", e)
+            "Command benchmark failed: ${e.message}"
+        }
+    }
+
+
+    /**
+     * Replay the recorded commands through dictation and start button commands from partials.
+     * @return String with commands started early, committed or rolled back, and the median time saved.
+     */
+    fun benchmarkSpeculation(): String {
+        val currentModel = engine.voskModel()
+        if (currentModel == null) {
+            return "Speculation benchmark: no Vosk model loaded"
+        }
+        return try {
+            SpeculationBenchmark(currentModel).run(File(engine.recordingsDir(), "commands"))
+        } catch (e: Exception) {
+            Log.e(TAG, "Speculation benchmark failed: ${e.message}", e)
+            "Speculation benchmark failed: ${e.message}"
+        }
+    }
+
+
+    /**
+     * Measure the CPU spent on partial results under several emission settings by replaying
+     * recorded utterances from the "benchmark" folder under the internal recordings directory.
+     * Slow; never call it on the main thread.
+     * @return String with partials emitted and partial-path CPU per setting.
+     */
+    fun benchmarkPartialEmission(): String {
+        val currentModel = engine.voskModel()
+        if (currentModel == null) {
+            return "Partial benchmark: no Vosk model loaded"
+        }
+        return try {
+            PartialReplayBenchmark(currentModel).run(File(engine.recordingsDir(), "benchmark"))
+        } catch (e: Exception) {
+            Log.e(TAG, "Partial benchmark failed: ${e.message}", e)
+            "Partial benchmark failed: ${e.message}"
+        }
+    }
+
+
+    /**
+     * Measure the capture path's sample-rate conversion on this device.
+     * @return String with the share of one core, allocation and filter quality per device rate.
+     */
+    fun benchmarkResampler(): String {
+        return try {
+            ResamplerBenchmark.run().also { Log.i(TAG, it) }
+        } catch (e: Exception) {
+            Log.e(TAG, "Resampler benchmark failed: ${e.message}", e)
+            "Resampler benchmark failed: ${e.message}"
+        }
+    }
+
+
+    /**
+     * Count heap copies and allocations per second of audio on the capture path, before and after direct frames.
+     * @return String with copies and bytes allocated per second of audio for both paths.
+     */
+    fun benchmarkCapturePath(): String {
+        return try {
+            CapturePathBenchmark.run(captureRate = AudioCaptureHub.captureRate).also { Log.i(TAG, it) }
+        } catch (e: Exception) {
+            Log.e(TAG, "Capture path benchmark failed: ${e.message}", e)
+            "Capture path benchmark failed: ${e.message}"
+        }
+    }
+
+
+    /**
+     * Stream an hour-long assistant session into the bounded session store, spilling to the cache directory.
+     * @return String with the store's memory over the session, audio spilled and the read-back check.
+     */
+    fun benchmarkSessionStore(): String {
+        return try {
+            SessionStoreBenchmark.run(context.cacheDir).also { Log.i(TAG, it) }
+        } catch (e: Exception) {
+            Log.e(TAG, "Session store benchmark failed: ${e.message}", e)
+            "Session store benchmark failed: ${e.message}"
+        }
+    }
+
+
+    /**
+     * Measure what the assistant's model costs on top of the engine's: a private copy loaded with
+     * Model(path), as the assistant did before, against a handle on the shared model from
+     * [VoskModelCache]. May load the current language's model on the calling thread.
+     * @return String with the native heap growth for both, or an error if no model is available.
+     */
+    fun benchmarkModelSharing(): String {
+        val modelKey = engine.modelKey()
+        val path = engine.modelPathFor(modelKey) ?: return "Model sharing benchmark: no model for $modelKey"
+        val engineHandle = VoskModelCache.acquire(modelKey, path) ?: return "Model sharing benchmark: $modelKey could not be loaded"
+        return try {
+            System.gc()
+            val before = Debug.getNativeHeapAllocatedSize()
+            val privateModel = Model(path)
+            val privateBytes = Debug.getNativeHeapAllocatedSize() - before
+            privateModel.close()
+            System.gc()
+            val sharedBefore = Debug.getNativeHeapAllocatedSize()
+            val shared = VoskModelCache.acquire(modelKey, path)
+            val sharedBytes = Debug.getNativeHeapAllocatedSize() - sharedBefore
+            shared?.close()
+            String.format(
+                Locale.US,
+                "Model sharing (%s): assistant model adds %.1fMB native heap as a private copy, %.1fMB shared",
+                modelKey, privateBytes / (1024.0 * 1024.0), sharedBytes / (1024.0 * 1024.0)
+            ).also { Log.i(TAG, it) }
+        } catch (e: Exception) {
+            Log.e(TAG, "Model sharing benchmark failed: ${e.message}", e)
+            "Model sharing benchmark failed: ${e.message}"
+        } finally {
+            engineHandle.close()
+        }
+    }
+
+
+    /**
+     * Compare the streaming Vosk result reader with the regex extraction it replaced.
+     * @return String with time and allocation per parsed result for both.
+     */
+    fun benchmarkResultParsing(): String {
+        return try {
+            ResultParsingBenchmark.run().also { Log.i(TAG, it) }
+        } catch (e: Exception) {
+            Log.e(TAG, "Result parsing benchmark failed: ${e.message}", e)
+            "Result parsing benchmark failed: ${e.message}"
+        }
+    }
+
+
+    /**
+     * Compare the speech backends (Vosk, sherpa-onnx, Android) by replaying recorded utterances
+     * from the "benchmark" folder under the internal recordings directory in the current language.
+     * Each backend is loaded separately from the live one and released afterwards.
+     * Slow; never call it on the main thread.
+     * @return String with word error rate, real-time factor, first-partial latency and load time per backend.
+     */
+    fun benchmarkEngines(): String {
+        val engines = listOfNotNull(
+            VoskSpeechEngine { key -> engine.modelPathFor(key) },
+            SpeechEngine.createSherpaOnnx(context),
+            AndroidSpeechEngine(context)
+        )
+        return try {
+            SpeechEngineBenchmark(engines).run(File(engine.recordingsDir(), "benchmark"), engine.language())
+        } catch (e: Exception) {
+            Log.e(TAG, "Engine benchmark failed: ${e.message}", e)
+            "Engine benchmark failed: ${e.message}"
+        }
+    }
+
+
+    /**
+     * Measure the cost of each reset strategy on the engine's current model.
+     * Uses throwaway recognizers and a throwaway model copy, so the live recognizer is untouched.
+     * Slow (includes one full model load); never call it on the main thread.
+     * @param iterations Number of soft reset and rebuild measurements to average.
+     * @return String with average soft reset and rebuild times and the full model load time.
+     */
+    fun benchmarkResets(iterations: Int = 5): String {
+        val currentModel = engine.voskModel()
+        val modelKey = engine.modelKey()
+        val path = engine.modelPathFor(modelKey)
+        if (currentModel == null || path == null) {
+            return "Reset benchmark: no Vosk model loaded"
+        }
+        val silence = ShortArray(AudioCaptureHub.FRAME_SIZE * 25) // 0.5s of audio to dirty the decoder
+        var softNanos = 0L
+        var rebuildNanos = 0L
+        try {
+            val probe = Recognizer(currentModel, AudioCaptureHub.SAMPLE_RATE.toFloat())
+            try {
+                for (i in 0 until iterations) {
+                    probe.acceptWaveForm(silence, silence.size)
+                    val softStart = System.nanoTime()
+                    probe.reset()
+                    softNanos += System.nanoTime() - softStart
+
+                    val rebuildStart = System.nanoTime()
+                    val rebuilt = Recognizer(currentModel, AudioCaptureHub.SAMPLE_RATE.toFloat())
+                    rebuildNanos += System.nanoTime() - rebuildStart
+                    rebuilt.close()
+                }
+            } finally {
+                probe.close()
+            }
+            val reloadStart = System.nanoTime()
+            val reloaded = Model(path)
+            val reloadNanos = System.nanoTime() - reloadStart
+            reloaded.close()
+            val result = String.format(
+                Locale.US,
+                "Reset benchmark (%s, %d runs): soft %.2fms, rebuild %.2fms, full model reload %.0fms",
+                modelKey, iterations,
+                softNanos / iterations / 1_000_000.0,
+                rebuildNanos / iterations / 1_000_000.0,
+                reloadNanos / 1_000_000.0
+            )
+            Log.i(TAG, result)
+            return result
+        } catch (e: Exception) {
+            Log.e(TAG, "Reset benchmark failed: ${e.message}", e)
+            return "Reset benchmark failed: ${e.message}"
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.kitt.android.voice
+
+import android.util.Log
+import java.io.File
+import java.io.IOException
+
+private const val TAG = "WavFiles"
+
+/**
+ * Reading of recorded utterances for the replay benchmarks.
+ */
+internal object WavFiles {
+
+    /**
+     * List the WAV files in [dir], sorted by name.
+     */
+    fun list(dir: File): List<File> {
+        return dir.listFiles { file -> file.extension.equals("wav", ignoreCase = true) }?.sortedBy { it.name } ?: emptyList()
+    }
+
+    /**
+     * The phrase spoken in a recording named after it, with an optional take number:
+     * "program_two.wav" and "program_two_3.wav" both give "program two".
+     */
+    fun phraseFromFileName(name: String): String {
+        return name.substringBeforeLast('.')
+            .replace(Regex("_\\d+$"), "")
+            .replace('_', ' ')
+    }
+
+    /**
+     * Read a 16-bit WAV file as 16kHz mono, converting recordings made at the device rate.
+     */
+    fun readPcm(file: File): ShortArray? {
+        return try {
+            WavFileDecoder().decode(file)
+        } catch (e: IOException) {
+            Log.w(TAG, "Skipping ${file.name}: ${e.message}")
+            null
+        }
+    }
+}
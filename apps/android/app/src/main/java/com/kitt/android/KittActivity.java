@@ -12,6 +12,8 @@ import androidx.appcompat.app.AppCompatActivity;
 import androidx.core.app.ActivityCompat;
 import androidx.core.content.ContextCompat;
 
+import com.kitt.android.voice.RecognitionEvent;
+import com.kitt.android.voice.VoiceCommandProcessor;
 import com.kitt.android.voice.VoiceEngine;
 import com.kitt.android.KittDashboardView;
 import com.kitt.android.R;
@@ -23,6 +25,7 @@ public class KittActivity extends AppCompatActivity {
     private KittDashboardView kittDashboard;
     private TextView titleText;
     private VoiceEngine voiceEngine;
+    private VoiceCommandProcessor commandProcessor;
     private boolean isListening = false;
     private static final int PERMISSION_REQUEST_CODE = 1001;
     private static final String TAG = "KittActivity";
@@ -76,45 +79,58 @@ public class KittActivity extends AppCompatActivity {
     }
     
     private void initializeKitt() {
-        // Initialize voice engine
-        voiceEngine = new VoiceEngine(this);
-        voiceEngine.initVoiceEngine();
+        // Start KITT systems right away; the voice engine warms up off the main thread
+        if (kittDashboard != null) {
+            kittDashboard.startSystems();
+            kittDashboard.updateTranscription("VOICE ENGINE WARMING UP");
+        }
+        playStartupSound();
         
-        // Start KITT systems with delay for dramatic effect
-        titleText.postDelayed(() -> {
-            if (kittDashboard != null) {
-                kittDashboard.startSystems();
+        voiceEngine = new VoiceEngine(this);
+        voiceEngine.initVoiceEngineAsync((stage, elapsedMs) -> runOnUiThread(() -> {
+            if (kittDashboard != null && stage != VoiceEngine.InitStage.READY) {
+                kittDashboard.updateTranscription("VOICE ENGINE: " + stage.name().replace('_', ' '));
+            }
+        })).thenAccept(ready -> runOnUiThread(() -> {
+            if (isFinishing() || isDestroyed()) {
+                return;
+            }
+            if (ready) {
+                startVoiceRecognition();
+            } else {
+                Log.e(TAG, "Voice engine failed to initialize");
+                if (kittDashboard != null) {
+                    kittDashboard.updateTranscription("VOICE ENGINE UNAVAILABLE");
+                }
             }
-            startVoiceRecognition();
-            playStartupSound();
-        }, 1000);
+        }));
     }
     
     private void startVoiceRecognition() {
         if (voiceEngine != null && !isListening) {
-            // Set up callback for transcription updates
-            voiceEngine.setTranscriptionCallback(new VoiceEngine.TranscriptionCallback() {
-                @Override
-                public void onTranscription(String transcription) {
+            // Set up listeners for transcription updates once; they stay registered across restarts
+            if (commandProcessor == null) {
+                voiceEngine.addResultListener(event -> {
+                    if (event.isEmpty()) {
+                        return;
+                    }
+                    // The event is reused once this returns, so take its text here
+                    final String transcription = event.getType() == RecognitionEvent.Type.RESET
+                            ? "RESET voice engine: " + event.text()
+                            : event.text();
                     runOnUiThread(() -> {
                         if (kittDashboard != null) {
                             kittDashboard.updateTranscription(transcription);
                         }
                     });
-                }
-                
-                @Override
-                public void onEngineReset(String reason) {
-                    runOnUiThread(() -> {
-                        if (kittDashboard != null) {
-                            kittDashboard.updateTranscription("RESET voice engine: " + reason);
-                        }
-                    });
-                }
-            });
+                });
+                // Final results are also checked against the KITT command vocabulary
+                commandProcessor = new VoiceCommandProcessor(this, kittDashboard);
+                voiceEngine.addResultListener(commandProcessor);
+            }
             
             if (checkSelfPermission(Manifest.permission.RECORD_AUDIO) == PackageManager.PERMISSION_GRANTED) {
-                voiceEngine.startListening();
+                voiceEngine.startListening(voiceEngine.getPreRoll());
             } else {
                 requestPermissions(new String[]{Manifest.permission.RECORD_AUDIO}, 1);
             }
@@ -127,6 +143,9 @@ public class KittActivity extends AppCompatActivity {
         if (voiceEngine != null && isListening) {
             String finalResult = voiceEngine.stopListening();
             Log.i(TAG, "Final transcription: " + finalResult);
+            if (commandProcessor != null) {
+                Log.i(TAG, commandProcessor.getSpeculationStats());
+            }
             
             runOnUiThread(() -> {
                 if (kittDashboard != null) {
@@ -171,6 +190,9 @@ public class KittActivity extends AppCompatActivity {
         if (kittDashboard != null) {
             kittDashboard.stopSystems();
         }
+        if (voiceEngine != null) {
+            voiceEngine.release();
+        }
     }
     
     @Override
@@ -20,6 +20,7 @@ import android.content.ComponentName
 import android.content.ServiceConnection
 import android.os.IBinder
 import android.util.Log
+import com.kitt.android.voice.RecognitionEvent
 import com.kitt.android.voice.VoiceEngine
 import android.content.Context
 import android.os.Handler
@@ -49,7 +50,14 @@ class KittCarAppService : CarAppService() {
     override fun onCreateSession(): Session {
         Log.d(TAG, "Creating new session for Android Auto")
         voiceEngine = VoiceEngine(this)
-        voiceEngine?.initVoiceEngine()
+        // Never block session creation on model extraction or loading
+        voiceEngine?.initVoiceEngineAsync { stage, elapsedMs ->
+            Log.d(TAG, "Voice engine init stage $stage after ${elapsedMs}ms")
+        }?.thenAccept { ready ->
+            if (!ready) {
+                Log.e(TAG, "Voice engine failed to initialize")
+            }
+        }
 
         // Bind to AudioPlaybackService
         val intent = Intent(this, AudioPlaybackService::class.java)
@@ -63,6 +71,7 @@ class KittCarAppService : CarAppService() {
     }
 
     override fun onDestroy() {
+        voiceEngine?.release()
         voiceEngine = null
         if (isAudioPlaybackServiceBound) {
             unbindService(audioPlaybackServiceConnection)
@@ -145,22 +154,26 @@ class KittMainScreen(carContext: androidx.car.app.CarContext, private val voiceE
     
     private fun setupVoiceInteraction() {
         Log.d(TAG, "Setting up voice interaction for Android Auto")
-        voiceEngine?.setTranscriptionCallback(object : VoiceEngine.TranscriptionCallback {
-            override fun onTranscription(transcription: String) {
-                transcriptionText = transcription
-                // Only invalidate if the transcription is for the assistant interaction
-                // Or if we want to show it on the main screen
-                invalidate()
+        voiceEngine?.addResultListener { event ->
+            transcriptionText = when (event.type) {
+                RecognitionEvent.Type.RESET -> "Engine reset: ${event.text}"
+                RecognitionEvent.Type.WARNING -> "Warning: ${event.text}"
+                RecognitionEvent.Type.ERROR -> "Error: ${event.text}"
+                else -> event.text()
             }
-            override fun onEngineReset(reason: String) {
-                transcriptionText = "Engine reset: $reason"
-                invalidate()
-            }
-        })
+            // Only invalidate if the transcription is for the assistant interaction
+            // Or if we want to show it on the main screen
+            invalidate()
+        }
     }
     
     private fun startAssistantRecording() {
         Log.d(TAG, "startAssistantRecording: Starting streaming to assistant.")
+        if (voiceEngine?.isReady() == false) {
+            transcriptionText = "Voice engine is still loading, please try again in a moment"
+            invalidate()
+            return
+        }
         if (voiceEngine?.startStreamingToAssistant() == true) {
             isAssistantRecording = true
             invalidate()
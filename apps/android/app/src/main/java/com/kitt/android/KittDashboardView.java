@@ -32,6 +32,7 @@ public class KittDashboardView extends LinearLayout {
     private KittSpectrumView spectrumView;
     private LinearLayout sideButtonsLayout;
     private KittButton[] buttons;
+    private Toast lastToast;
     
     public KittDashboardView(Context context) {
         super(context);
@@ -135,7 +136,8 @@ public class KittDashboardView extends LinearLayout {
     }
     
     private void onKittButtonClick(String buttonLabel) {
-        Toast.makeText(getContext(), getContext().getString(R.string.button_activated_format, buttonLabel), Toast.LENGTH_SHORT).show();
+        lastToast = Toast.makeText(getContext(), getContext().getString(R.string.button_activated_format, buttonLabel), Toast.LENGTH_SHORT);
+        lastToast.show();
         
         // Add specific button functionality here
         switch (buttonLabel) {
@@ -206,21 +208,40 @@ public class KittDashboardView extends LinearLayout {
                 KittButton button = buttons[i];
                 // Get the button's text to match with the label
                 if (buttonLabel.equals(getButtonLabel(i))) {
-                    // Trigger the button's click action
+                    // Trigger the button's click action; its listener runs onKittButtonClick once
                     button.performClick();
                     // Add visual feedback
                     button.startGlow();
                     // Stop glow after a short delay
                     button.postDelayed(() -> button.stopGlow(), 1000);
-                    break;
+                    return;
                 }
             }
         }
         
-        // Also trigger the same logic as manual button click
+        // No such button: run the same logic as a manual button click
         onKittButtonClick(buttonLabel);
     }
     
+    /**
+     * Undo the visible effects of {@link #simulateButtonPress}: stop the button's glow and hide
+     * its toast. Used when a voice command started early turns out to be wrong.
+     */
+    public void revertButtonPress(String buttonLabel) {
+        if (buttons != null) {
+            for (int i = 0; i < buttons.length; i++) {
+                if (buttonLabel.equals(getButtonLabel(i))) {
+                    buttons[i].stopGlow();
+                    break;
+                }
+            }
+        }
+        if (lastToast != null) {
+            lastToast.cancel();
+            lastToast = null;
+        }
+    }
+
     /**
      * Get button label by index
      */
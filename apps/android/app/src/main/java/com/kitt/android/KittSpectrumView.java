@@ -7,14 +7,13 @@ import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
 import android.graphics.RectF;
-import android.media.AudioFormat;
-import android.media.AudioRecord;
-import android.media.MediaRecorder;
 import android.util.AttributeSet;
 import android.util.Log;
 import android.view.View;
 import androidx.core.content.ContextCompat;
 
+import com.kitt.android.voice.AudioCaptureHub;
+
 /**
  * KITT-style spectrum analyzer with symmetric LED bars matching the original dashboard
  */
@@ -25,11 +24,9 @@ public class KittSpectrumView extends View {
     private Paint ledPaint;
     private Paint offLedPaint;
     private int[][] columnHeights = new int[TOTAL_COLUMNS][1]; // Current height for each column
-    private AudioRecord audioRecord;
-    private boolean isRecording = false;
+    private AudioCaptureHub.Subscription captureSubscription;
+    private volatile boolean isRecording = false;
     private Thread recordingThread;
-    private int sampleRate = 44100;
-    private int bufferSize;
 
     public KittSpectrumView(Context context) {
         super(context);
@@ -55,12 +52,6 @@ public class KittSpectrumView extends View {
         
         setBackgroundColor(Color.parseColor("#000000"));
 
-        bufferSize = AudioRecord.getMinBufferSize(
-            sampleRate,
-            AudioFormat.CHANNEL_IN_MONO,
-            AudioFormat.ENCODING_PCM_16BIT
-        );
-        
         // Initialize with some demo pattern
         initDemoPattern();
     }
@@ -145,14 +136,10 @@ public class KittSpectrumView extends View {
 
     public void stopVisualization() {
         isRecording = false;
-        if (audioRecord != null) {
-            try {
-                audioRecord.stop();
-                audioRecord.release();
-            } catch (Exception e) {
-                Log.e(TAG, "Error stopping audio record", e);
-            }
-            audioRecord = null;
+        if (captureSubscription != null) {
+            // Only detaches this view; the shared microphone keeps running for other subscribers
+            captureSubscription.close();
+            captureSubscription = null;
         }
         if (recordingThread != null) {
             recordingThread.interrupt();
@@ -171,40 +158,41 @@ public class KittSpectrumView extends View {
         }
 
         try {
-            audioRecord = new AudioRecord(
-                MediaRecorder.AudioSource.MIC,
-                sampleRate,
-                AudioFormat.CHANNEL_IN_MONO,
-                AudioFormat.ENCODING_PCM_16BIT,
-                bufferSize * 2
-            );
-
-            if (audioRecord.getState() != AudioRecord.STATE_INITIALIZED) {
+            // Read the full-rate signal from the shared capture hub instead of opening a second AudioRecord
+            final AudioCaptureHub.Subscription subscription = AudioCaptureHub.subscribe("spectrum", 0, true);
+            if (subscription == null) {
+                Log.w(TAG, "Shared audio capture unavailable");
                 return;
             }
-
-            audioRecord.startRecording();
+            captureSubscription = subscription;
 
             recordingThread = new Thread(() -> {
-                short[] buffer = new short[1024];
+                short[] buffer = new short[subscription.getSampleRate() * 64 / 1000]; // 64ms, ~15 FPS update rate
 
-                while (isRecording && audioRecord != null &&
-                       audioRecord.getRecordingState() == AudioRecord.RECORDSTATE_RECORDING) {
+                while (isRecording && !subscription.isClosed()) {
                     try {
-                        int read = audioRecord.read(buffer, 0, buffer.length);
+                        // Capture frames are 20ms; accumulate a full buffer per redraw
+                        int read = 0;
+                        while (read < buffer.length) {
+                            int chunk = subscription.read(buffer, read, buffer.length - read, DECAY_TIMEOUT_MS);
+                            if (chunk <= 0) {
+                                if (read == 0) {
+                                    read = chunk;
+                                }
+                                break;
+                            }
+                            read += chunk;
+                        }
 
                         if (read > 0) {
                             processAudioData(buffer, read);
                             post(this::invalidate);
-                        } else {
+                        } else if (read == 0) {
                             applyDecayMechanism();
                             post(this::invalidate);
+                        } else {
+                            break;
                         }
-
-                        Thread.sleep(50); // ~20 FPS update rate
-                    } catch (InterruptedException e) {
-                        Thread.currentThread().interrupt();
-                        break;
                     } catch (Exception e) {
                         Log.e(TAG, "Error in audio processing", e);
                         applyDecayMechanism();
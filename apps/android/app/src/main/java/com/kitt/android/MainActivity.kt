@@ -19,6 +19,8 @@ import androidx.core.view.ViewCompat
 import androidx.core.view.WindowInsetsCompat
 import com.kitt.android.KittButton
 import com.kitt.android.KittSpectrumView
+import com.kitt.android.voice.RecognitionEvent
+import com.kitt.android.voice.SpeechEngine
 import com.kitt.android.voice.VoiceEngine
 import java.util.Locale
 
@@ -37,6 +39,7 @@ class MainActivity : ComponentActivity() {
     private var isVoiceRecorderActive = false
     private var isAiTalkActive = false
     private val TAG = "MainActivity"
+    private val MAX_REVISED_ENTRIES = 20 // Second-pass results arrive within a few utterances
     private lateinit var bluetoothAudioService: BluetoothAudioService
     
     private val requestPermissionLauncher = registerForActivityResult(
@@ -77,29 +80,39 @@ class MainActivity : ComponentActivity() {
         // Use a singleton or persistent instance for VoiceEngine to avoid re-initialization
         if (!::voiceEngine.isInitialized) {
             voiceEngine = VoiceEngine(this)
-            voiceEngine.initVoiceEngine()
-        }
-        voiceEngine.setTranscriptionCallback(object : VoiceEngine.TranscriptionCallback {
-            override fun onTranscription(transcription: String) {
+            // Load models off the main thread, then warm the other language so the
+            // language button swaps recognizers instantly, and start listening once ready
+            voiceEngine.initVoiceEngineAsync().thenAccept { ready ->
                 runOnUiThread {
-                    transcriptionTextView.text = getString(R.string.transcription_format, transcription)
-                    // This callback might not be used if Vosk output is JSON, handled in startListening
+                    if (isFinishing || isDestroyed) return@runOnUiThread
+                    if (ready) {
+                        voiceEngine.setSecondaryLanguage(if (currentLanguage == "en-US") "fr-FR" else "en-US")
+                        // Check permissions and start listening automatically when the app launches
+                        checkPermissionsAndStartListening()
+                    } else {
+                        Log.e(TAG, "Voice engine failed to initialize")
+                        updateSttStatus()
+                    }
                 }
             }
-            override fun onEngineReset(reason: String) {
-                runOnUiThread {
-                    val timestamp = java.text.SimpleDateFormat("HH:mm:ss", Locale.getDefault()).format(java.util.Date())
-                    val resetMessage = "[$timestamp] RESET voice engine: $reason"
-                    detectedTextList.add(resetMessage)
-                    detectedTextAdapter.notifyItemInserted(detectedTextList.size - 1)
-                    detectedTextRecyclerView.scrollToPosition(detectedTextList.size - 1)
-                    transcriptionTextView.text = resetMessage
-                }
+        }
+        voiceEngine.addResultListener { event ->
+            // Invoked from the engine's decode thread as soon as a result is decoded.
+            // The event is reused once this returns, so take its text here
+            val type = event.type
+            val text = event.text()
+            runOnUiThread { handleResult(type, text) }
+        }
+        voiceEngine.setRevisionListener { original, revised ->
+            runOnUiThread { reviseTranscript(original, revised) }
+        }
+        voiceEngine.setLanguageListener { language ->
+            runOnUiThread {
+                currentLanguage = language
+                updateLanguageButton(findViewById(R.id.buttonLang))
+                updateSttStatus()
             }
-        })
-
-        // Check permissions and start listening automatically when the app launches
-        checkPermissionsAndStartListening()
+        }
 
         updateSttStatus()
 
@@ -163,12 +176,40 @@ class MainActivity : ComponentActivity() {
             updateLanguageButton(buttonLanguage)
             Log.i(TAG, "Language switch completed, new language: $currentLanguage")
         }
+        // Long press toggles automatic English/French identification per utterance
+        buttonLanguage.setOnLongClickListener {
+            val enable = !voiceEngine.isAutoLanguage()
+            // Enabling may load the other language model; keep it off the UI thread
+            Thread {
+                val ok = voiceEngine.setAutoLanguage(enable)
+                runOnUiThread {
+                    updateLanguageButton(buttonLanguage)
+                    transcriptionTextView.text = when {
+                        !ok -> "Auto language unavailable"
+                        enable -> "Auto language ON"
+                        else -> "Auto language OFF"
+                    }
+                }
+            }.start()
+            true
+        }
         
         // Model switch functionality
         buttonModel.setOnClickListener { 
             switchModel()
             updateModelButton(buttonModel)
         }
+        // Long press toggles two-pass rescoring with the large model, when one is installed
+        buttonModel.setOnLongClickListener {
+            val enable = !voiceEngine.isTwoPassEnabled()
+            val ok = voiceEngine.setTwoPassEnabled(enable)
+            transcriptionTextView.text = when {
+                enable && !ok -> "Two-pass unavailable: no large model installed"
+                enable -> "Two-pass ON"
+                else -> "Two-pass OFF"
+            }
+            true
+        }
         
         // Other buttons toggle their lighted state
         buttonP1.setOnClickListener { buttonP1.setLighted(!buttonP1.isLighted()) }
@@ -189,53 +230,91 @@ class MainActivity : ComponentActivity() {
 
     @SuppressLint("MissingPermission")
     private fun startListening() {
-        voiceEngine.startListening()
-        Thread {
-            Log.i(TAG, "Starting voice input processing loop")
-            while (isListening) {
-                try {
-                    val partialResult = voiceEngine.processVoiceInput()
-                    if (partialResult.isNotEmpty()) {
-                        Log.i(TAG, "Partial transcription received")
-                        runOnUiThread {
-                            // Check if the result contains "partial" or "text" in JSON
-                            if (partialResult.contains("\"partial\"")) {
-                                // Extract the value of "partial" field from JSON
-                                val partialMatch = Regex("\"partial\"\\s*:\\s*\"([^\"]+)\"").find(partialResult)
-                                val partialValue = partialMatch?.groupValues?.get(1) ?: ""
-                                if (partialValue.isNotEmpty()) {
-                                    transcriptionTextView.text = partialValue
-                                }
-                            } else if (partialResult.contains("\"text\"")) {
-                                // Extract the value of "text" field from JSON
-                                val textMatch = Regex("\"text\"\\s*:\\s*\"([^\"]+)\"").find(partialResult)
-                                val textValue = textMatch?.groupValues?.get(1) ?: ""
-                                if (textValue.isNotEmpty()) {
-                                    val timestamp = java.text.SimpleDateFormat("HH:mm:ss", Locale.getDefault()).format(java.util.Date())
-                                    val formattedText = "[$timestamp] $textValue"
-                                    detectedTextList.add(formattedText)
-                                    detectedTextAdapter.notifyItemInserted(detectedTextList.size - 1)
-                                    detectedTextRecyclerView.scrollToPosition(detectedTextList.size - 1)
-                                    transcriptionTextView.text = textValue
-                                }
-                            } else if (partialResult.contains("Warning") || partialResult.contains("Error")) {
-                                // Display warning or error messages related to Vosk engine status
-                                transcriptionTextView.text = partialResult
-                            }
-                        }
-                    }
-                    Thread.sleep(100) // Adjust sleep time to balance latency and CPU usage
-                } catch (e: Exception) {
-                    Log.e(TAG, "Error in voice input processing loop: ${e.message}")
-                }
-            }
-            Log.i(TAG, "Stopped voice input processing loop")
-        }.start()
+        // The engine runs its own blocking decode loop; results arrive through the result listener.
+        // Button starts keep what was said just before the press, if the microphone was open
+        if (!voiceEngine.startListening(voiceEngine.getPreRoll())) {
+            // The engine reports why through the result listener
+            Log.w(TAG, "Voice engine did not start listening")
+            return
+        }
         isListening = true
         toggleScannerAnimation(true)
         updateSttStatus()
     }
 
+    /**
+     * Route a recognizer result to the AI Talk display or the Voice Recorder wake phrase check.
+     * Must be called on the UI thread.
+     */
+    private fun handleResult(type: RecognitionEvent.Type, text: String) {
+        if (type == RecognitionEvent.Type.RESET) {
+            val timestamp = java.text.SimpleDateFormat("HH:mm:ss", Locale.getDefault()).format(java.util.Date())
+            val resetMessage = "[$timestamp] RESET voice engine: $text"
+            detectedTextList.add(resetMessage)
+            detectedTextAdapter.notifyItemInserted(detectedTextList.size - 1)
+            detectedTextRecyclerView.scrollToPosition(detectedTextList.size - 1)
+            transcriptionTextView.text = resetMessage
+            return
+        }
+        if (isVoiceRecorderActive) {
+            // Check for "hey kit" wake phrase
+            if (type == RecognitionEvent.Type.FINAL) {
+                val textValue = text.lowercase()
+
+                if (textValue.contains("hey kit") || textValue.contains("hey kitt")) {
+                    Log.i(TAG, "Voice Recorder: 'Hey Kit' wake phrase detected!")
+                    onWakePhraseDetected()
+                } else if (text.isNotEmpty()) {
+                    val timestamp = java.text.SimpleDateFormat("HH:mm:ss", Locale.getDefault()).format(java.util.Date())
+                    detectedTextList.add("[$timestamp] $text")
+                    detectedTextAdapter.notifyItemInserted(detectedTextList.size - 1)
+                    detectedTextRecyclerView.scrollToPosition(detectedTextList.size - 1)
+                }
+            }
+
+            // Update status if not overridden by wake phrase
+            if (transcriptionTextView.text.toString().contains("Recording Started") ||
+                transcriptionTextView.text.toString().contains("Listening for 'Hey Kit'")) {
+                transcriptionTextView.text = "Voice Recorder: Listening for 'Hey Kit'..."
+            }
+            return
+        }
+
+        when (type) {
+            RecognitionEvent.Type.PARTIAL -> if (text.isNotEmpty()) {
+                transcriptionTextView.text = text
+            }
+            RecognitionEvent.Type.FINAL -> if (text.isNotEmpty()) {
+                val timestamp = java.text.SimpleDateFormat("HH:mm:ss", Locale.getDefault()).format(java.util.Date())
+                val formattedText = "[$timestamp] $text"
+                detectedTextList.add(formattedText)
+                detectedTextAdapter.notifyItemInserted(detectedTextList.size - 1)
+                detectedTextRecyclerView.scrollToPosition(detectedTextList.size - 1)
+                transcriptionTextView.text = text
+            }
+            // Display warning or error messages related to voice engine status
+            RecognitionEvent.Type.WARNING -> transcriptionTextView.text = "Warning: $text"
+            RecognitionEvent.Type.ERROR -> transcriptionTextView.text = "Error: $text"
+            else -> transcriptionTextView.text = getString(R.string.transcription_format, text)
+        }
+    }
+
+    /**
+     * Replace the most recent transcript entry matching [original] with the second-pass text.
+     */
+    private fun reviseTranscript(original: String, revised: String) {
+        val from = maxOf(0, detectedTextList.size - MAX_REVISED_ENTRIES)
+        for (index in detectedTextList.size - 1 downTo from) {
+            val entry = detectedTextList[index]
+            if (entry.endsWith("] $original")) {
+                detectedTextList[index] = entry.removeSuffix(original) + revised
+                detectedTextAdapter.notifyItemChanged(index)
+                Log.i(TAG, "Transcript revised: '$original' -> '$revised'")
+                return
+            }
+        }
+    }
+
     private fun stopListening() {
         val finalResult = voiceEngine.stopListening()
         Log.i(TAG, "Final transcription: $finalResult")
@@ -381,15 +460,7 @@ class MainActivity : ComponentActivity() {
         Log.i(TAG, "Language switching from $previousLanguage to: $currentLanguage")
         
         try {
-            // Stop listening if currently active and wait for voice processing to complete
-            val wasListening = isListening
-            if (wasListening) {
-                isListening = false // Stop the processing loop first
-                Thread.sleep(200) // Give time for processing loop to exit
-                stopListening()
-                Log.i(TAG, "Stopped listening for language switch")
-            }
-            
+            // Every engine switches language while capture keeps running, so listening is not restarted
             // Set the language in the voice engine (this is now synchronized)
             voiceEngine.setLanguage(currentLanguage)
             Log.i(TAG, "Voice engine language updated to: $currentLanguage")
@@ -399,25 +470,6 @@ class MainActivity : ComponentActivity() {
             val languageText = if (currentLanguage == "fr-FR") "Langue changée en Français" else "Language changed to English"
             transcriptionTextView.text = languageText
             
-            // Restart listening if it was active before
-            if (wasListening) {
-                // Longer delay to ensure voice engine is fully ready
-                Thread {
-                    Thread.sleep(1000)
-                    runOnUiThread {
-                        try {
-                            startListening()
-                            Log.i(TAG, "Resumed listening after language switch")
-                        } catch (e: Exception) {
-                            Log.e(TAG, "Failed to resume listening after language switch: ${e.message}")
-                            runOnUiThread {
-                                transcriptionTextView.text = "Error resuming listening: ${e.message}"
-                            }
-                        }
-                    }
-                }.start()
-            }
-            
             Log.i(TAG, "Language switch completed successfully")
         } catch (e: Exception) {
             Log.e(TAG, "Error during language switch: ${e.message}", e)
@@ -432,9 +484,12 @@ class MainActivity : ComponentActivity() {
     
     @SuppressLint("MissingPermission")
     private fun switchModel() {
-        // Toggle between VOSK and Android local STT
-        val currentEngine = voiceEngine.getCurrentEngine()
-        val newEngine = if (currentEngine == "VOSK") "ANDROID" else "VOSK"
+        // Cycle VOSK -> SHERPA (sherpa-onnx, when built in) -> ANDROID (local SpeechRecognizer)
+        val newEngine = when (voiceEngine.getCurrentEngine()) {
+            "VOSK" -> if (SpeechEngine.isSherpaOnnxAvailable()) "SHERPA" else "ANDROID"
+            "SHERPA" -> "ANDROID"
+            else -> "VOSK"
+        }
         
         Log.i(TAG, "Model switched to: $newEngine")
         
@@ -444,14 +499,14 @@ class MainActivity : ComponentActivity() {
         }
         voiceEngine.switchEngine(newEngine)
         if (isListening) {
-            voiceEngine.startListening()
+            voiceEngine.startListening(voiceEngine.getPreRoll())
         }
         updateSttStatus()
     }
     
     private fun updateLanguageButton(button: KittButton) {
         val languageText = if (currentLanguage == "en-US") "EN" else "FR"
-        button.setText(languageText)
+        button.setText(if (voiceEngine.isAutoLanguage()) "AUTO $languageText" else languageText)
         button.setLighted(true) // Always lighted to show current state
     }
     
@@ -465,7 +520,7 @@ class MainActivity : ComponentActivity() {
         // This method will be expanded to show/hide diagnostic overlay for voice monitoring
         Log.i(TAG, "Diagnostic overlay toggled: $show")
         if (show) {
-            transcriptionTextView.text = "Voice Monitoring: ON\nRMS Levels and Processing Times in Logcat"
+            transcriptionTextView.text = "Voice Monitoring: ON\n${voiceEngine.getLatencyStats()}\n${voiceEngine.getVadStats()}\n${voiceEngine.getEndpointStats()}\n${voiceEngine.getEmissionStats()}\n${voiceEngine.getBackpressureStats()}\n${voiceEngine.getTwoPassStats()}\n${voiceEngine.getResetStats()}\n${voiceEngine.getWatchdogStats()}\n${voiceEngine.getWakeWordStats()}\n${voiceEngine.getLanguageIdStats()}\n${voiceEngine.startupTimeline.format()}"
         } else {
             transcriptionTextView.text = "Voice Monitoring: OFF"
         }
@@ -628,46 +683,25 @@ class MainActivity : ComponentActivity() {
                 transcriptionTextView.text = "Voice Recorder: Failed to start recording"
             }
             
-            // For now, use the existing voice engine for wake word detection
-            if (!isListening) {
-                voiceEngine.startListening()
-                isListening = true
-                toggleScannerAnimation(true)
-            }
-            
-            // Start monitoring for "hey kit" wake phrase
-            Thread {
-                Log.i(TAG, "Voice Recorder: Monitoring for 'hey kit' wake phrase")
-                while (isVoiceRecorderActive) {
-                    try {
-                        val partialResult = voiceEngine.processVoiceInput()
-                        if (partialResult.isNotEmpty()) {
-                            runOnUiThread {
-                                // Check for "hey kit" wake phrase
-                                if (partialResult.contains("\"text\"")) {
-                                    val textMatch = Regex("\"text\"\\s*:\\s*\"([^\"]+)\"").find(partialResult)
-                                    val textValue = textMatch?.groupValues?.get(1)?.lowercase() ?: ""
-                                    
-                                    if (textValue.contains("hey kit") || textValue.contains("hey kitt")) {
-                                        Log.i(TAG, "Voice Recorder: 'Hey Kit' wake phrase detected!")
-                                        onWakePhraseDetected()
-                                    }
-                                }
-                                
-                                // Update status if not overridden by wake phrase
-                                if (transcriptionTextView.text.toString().contains("Recording Started") ||
-                                    transcriptionTextView.text.toString().contains("Listening for 'Hey Kit'")) {
-                                    transcriptionTextView.text = "Voice Recorder: Listening for 'Hey Kit'..."
-                                }
-                            }
-                        }
-                        Thread.sleep(100)
-                    } catch (e: Exception) {
-                        Log.e(TAG, "Error in voice recorder monitoring: ${e.message}")
+            // The wake word spotter decodes raw PCM against a tiny keyword grammar;
+            // the full recognizer stays idle until the wake phrase fires
+            val spotting = voiceEngine.startWakeWordSpotting { _, latencyMs ->
+                val detectedNanos = System.nanoTime()
+                runOnUiThread {
+                    if (isVoiceRecorderActive) {
+                        // Replay from the end of the wake phrase, including the hop to the UI thread
+                        onWakePhraseDetected(latencyMs + (System.nanoTime() - detectedNanos) / 1_000_000L)
                     }
                 }
-                Log.i(TAG, "Voice Recorder: Stopped monitoring")
-            }.start()
+            }
+            if (!spotting && !isListening) {
+                // Fallback: full transcription, with the wake phrase checked in handleResult()
+                isListening = voiceEngine.startListening(voiceEngine.getPreRoll())
+                if (!isListening) {
+                    Log.w(TAG, "Voice Recorder: could not start the wake phrase fallback")
+                }
+            }
+            toggleScannerAnimation(true)
             
             updateSttStatus()
             
@@ -698,10 +732,14 @@ class MainActivity : ComponentActivity() {
                 transcriptionTextView.text = "Voice Recorder: Stopped (No recording active)"
             }
         
+        voiceEngine.stopWakeWordSpotting()
+        
         // Stop listening if no other modes are active
         if (isListening && !isAiTalkActive) {
             voiceEngine.stopListening()
             isListening = false
+        }
+        if (!isAiTalkActive) {
             toggleScannerAnimation(false)
         }
         
@@ -711,7 +749,8 @@ class MainActivity : ComponentActivity() {
     /**
      * Handle wake phrase detection
      */
-    private fun onWakePhraseDetected() {
+    @SuppressLint("MissingPermission")
+    private fun onWakePhraseDetected(preRollMs: Long = 0L) {
         Log.i(TAG, "Wake phrase 'Hey Kit' detected!")
         
             // Stop recording if active
@@ -725,6 +764,13 @@ class MainActivity : ComponentActivity() {
                     detectedTextRecyclerView.scrollToPosition(detectedTextList.size - 1)
                 }
             }
+
+        // Transcribe what follows the wake phrase, replaying the audio spoken since it ended
+        if (!isListening) {
+            voiceEngine.startListening(preRollMs)
+            isListening = true
+            updateSttStatus()
+        }
         
         // Provide visual feedback
         runOnUiThread {
@@ -753,10 +799,7 @@ class MainActivity : ComponentActivity() {
     }
 
     override fun onDestroy() {
-        // No release method in VoiceEngine, just stop listening if active
-        if (isListening) {
-            voiceEngine.stopListening()
-        }
+        voiceEngine.release()
         // Cleanup Bluetooth service
         bluetoothAudioService.cleanup()
         super.onDestroy()
@@ -2,22 +2,61 @@ package com.kitt.android
 
 import android.app.Service
 import android.content.Intent
+import android.os.Handler
 import android.os.IBinder
 import android.util.Log
-import org.vosk.Model
+import com.kitt.android.voice.AudioCaptureHub
+import com.kitt.android.voice.AudioSessionStore
+import com.kitt.android.voice.DirectWaveform
+import com.kitt.android.voice.PcmFrameRing
+import com.kitt.android.voice.RecognitionEvent
+import com.kitt.android.voice.VoskModelCache
+import com.kitt.android.voice.VoskResultReader
 import org.vosk.Recognizer
-import java.io.ByteArrayOutputStream
+import java.io.File
+import java.io.InputStream
 import java.nio.ByteBuffer
-import java.nio.ShortBuffer
+import java.util.Locale
+import java.util.concurrent.TimeUnit
 
 class OfflineAssistantService : Service() {
     private val TAG = "OfflineAssistantService"
-    private var audioDataStream: ByteArrayOutputStream? = null
+    // Session audio is kept in bounded memory and spills to disk, so long drives do not grow the heap
+    private var sessionStore: AudioSessionStore? = null
+    private var spillFailureLogged = false
+    private var echoBytes = 0L
+    @Volatile
     private var isProcessing = false
-    private var responseCallback: ((String) -> Unit)? = null
-    private var model: Model? = null
+    @Volatile
+    private var responseCallback: ((RecognitionEvent) -> Unit)? = null
+    @Volatile
+    private var responseHandler: Handler? = null
+    // Callers only queue frames; the worker stores and decodes them, so neither side blocks the other
+    private val queue = PcmFrameRing(QUEUE_FRAMES, AudioCaptureHub.FRAME_SIZE, direct = true)
+    private var worker: Thread? = null
+    private val drainLock = Object()
+    // Worker statistics, written by the worker only
+    @Volatile
+    private var framesServed = 0L
+    @Volatile
+    private var serviceNanos = 0L
+    @Volatile
+    private var maxServiceNanos = 0L
+    @Volatile
+    private var waitNanos = 0L
+    @Volatile
+    private var maxQueueDepth = 0
+    // Results are parsed into one reused event on the worker thread
+    private val resultReader = VoskResultReader()
+    private val resultEvent = RecognitionEvent()
+    private val directWaveform = DirectWaveform()
+    // The model comes from VoskModelCache, shared with the VoiceEngine using the same language
+    private var modelHandle: VoskModelCache.Handle? = null
+    @Volatile
     private var recognizer: Recognizer? = null
+    private val recognizerLock = Object() // Guards recognizer use against useModel swapping it
     private val SAMPLE_RATE = 16000
+    private val SOURCE = "assistant"
 
     override fun onBind(intent: Intent?): IBinder {
         Log.d(TAG, "Service bound")
@@ -27,19 +66,36 @@ class OfflineAssistantService : Service() {
     override fun onCreate() {
         super.onCreate()
         Log.d(TAG, "Offline Assistant Service created")
-        initializeVosk()
+        sessionStore = AudioSessionStore(File(cacheDir, "assistant-session.pcm"))
+        startWorker()
     }
 
     override fun onDestroy() {
-        recognizer?.close()
-        model?.close()
+        isProcessing = false
+        queue.close()
+        worker?.join(WORKER_STOP_TIMEOUT_MS)
+        worker = null
+        Log.d(TAG, getQueueStats())
+        synchronized(recognizerLock) {
+            recognizer?.close()
+            recognizer = null
+            modelHandle?.close()
+            modelHandle = null
+        }
+        sessionStore?.close()
         super.onDestroy()
         Log.d(TAG, "Offline Assistant Service destroyed")
     }
 
     fun startProcessing() {
         if (!isProcessing) {
-            audioDataStream = ByteArrayOutputStream()
+            if (modelHandle == null) {
+                // No language chosen by the caller: English, as before
+                useModel(DEFAULT_MODEL_KEY, "${applicationContext.filesDir.absolutePath}/models/vosk/$DEFAULT_MODEL_DIR")
+            }
+            sessionStore?.reset()
+            spillFailureLogged = false
+            echoBytes = 0L
             isProcessing = true
             Log.d(TAG, "Started processing audio stream")
         } else {
@@ -47,34 +103,91 @@ class OfflineAssistantService : Service() {
         }
     }
 
-    fun processAudioBuffer(buffer: ShortArray, size: Int) {
-        if (isProcessing && audioDataStream != null) {
-            val byteBuffer = ByteBuffer.allocate(size * 2)
-            val shortBuffer = ShortBuffer.wrap(buffer, 0, size)
-            byteBuffer.asShortBuffer().put(shortBuffer)
-            audioDataStream?.write(byteBuffer.array())
-            Log.d(TAG, "Processed audio buffer of size $size")
-            
-            // Process with Vosk if initialized
-            if (recognizer != null) {
-                val isFinal = recognizer?.acceptWaveForm(buffer, size) ?: false
-                if (isFinal) {
-                    val result = recognizer?.result ?: "{}"
-                    responseCallback?.invoke("Recognized: $result")
-                    Log.d(TAG, "Final recognition result: $result")
-                } else {
-                    val partialResult = recognizer?.partialResult ?: "{}"
-                    if (partialResult.isNotEmpty()) {
-                        responseCallback?.invoke("Partial: $partialResult")
-                        Log.d(TAG, "Partial recognition result: $partialResult")
-                    }
+    /**
+     * Queue one captured frame for the worker: [size] samples in a native-order buffer, copied
+     * into the queue and only read during the call. Constant time and allocation-free; when the
+     * worker is a full queue behind, the frame is dropped and counted. One caller thread at a time.
+     * @return Boolean indicating if the frame was queued.
+     */
+    fun processAudioBuffer(buffer: ByteBuffer, size: Int): Boolean {
+        if (!isProcessing) {
+            return false
+        }
+        return queue.offer(buffer, size, System.nanoTime())
+    }
+
+    private fun startWorker() {
+        val thread = Thread({
+            val awaitNanos = TimeUnit.MILLISECONDS.toNanos(500)
+            while (!queue.isClosed) {
+                if (!queue.await(awaitNanos)) {
+                    continue
                 }
-            } else {
-                // Fallback to simple echo response for testing
-                if (audioDataStream?.size() ?: 0 > 16000) { // Roughly 1 second of audio at 16kHz
-                    responseCallback?.invoke("Echo: Received audio data")
-                    audioDataStream?.reset()
+                val depth = queue.depth()
+                if (depth > maxQueueDepth) {
+                    maxQueueDepth = depth
                 }
+                val startNanos = System.nanoTime()
+                try {
+                    handleFrame(queue.buffer(), queue.length())
+                } catch (e: Exception) {
+                    Log.e(TAG, "Failed to process audio frame: ${e.message}", e)
+                }
+                val elapsed = System.nanoTime() - startNanos
+                waitNanos += startNanos - queue.captureTimeNanos()
+                serviceNanos += elapsed
+                if (elapsed > maxServiceNanos) {
+                    maxServiceNanos = elapsed
+                }
+                framesServed++
+                queue.release()
+                if (!queue.isReadable()) {
+                    synchronized(drainLock) {
+                        drainLock.notifyAll()
+                    }
+                }
+            }
+            Log.d(TAG, "Worker stopped")
+        }, "OfflineAssistant-worker")
+        worker = thread
+        thread.start()
+    }
+
+    /**
+     * Worker: keep and decode one queued frame.
+     */
+    private fun handleFrame(buffer: ByteBuffer, size: Int) {
+        val store = sessionStore
+        if (store != null && !store.append(buffer, size * 2) && !spillFailureLogged) {
+            spillFailureLogged = true
+            Log.e(TAG, "Session audio no longer spills to disk, oldest audio is discarded: ${store.spillError()?.message}")
+        }
+
+        // Process with Vosk if initialized
+        if (recognizer != null) {
+            synchronized(recognizerLock) {
+                recognizer?.let { decode(it, buffer, size) }
+            }
+        } else {
+            // Fallback to simple echo response for testing
+            echoBytes += size * 2
+            if (echoBytes > 16000) { // Roughly 1 second of audio at 16kHz
+                deliver(RecognitionEvent().set(RecognitionEvent.Type.ASSISTANT, "Echo: Received audio data", SOURCE))
+                echoBytes = 0L
+            }
+        }
+    }
+
+    private fun decode(activeRecognizer: Recognizer, buffer: ByteBuffer, size: Int) {
+        if (directWaveform.accept(activeRecognizer, buffer, size)) {
+            val result = activeRecognizer.result ?: "{}"
+            respond(result)
+            Log.d(TAG, "Final recognition result: $result")
+        } else {
+            val partialResult = activeRecognizer.partialResult ?: "{}"
+            if (partialResult.isNotEmpty()) {
+                respond(partialResult)
+                Log.d(TAG, "Partial recognition result: $partialResult")
             }
         }
     }
@@ -82,16 +195,29 @@ class OfflineAssistantService : Service() {
     fun stopProcessing(): String {
         if (isProcessing) {
             isProcessing = false
-            val responseText = "Processing stopped. Total audio data received: ${audioDataStream?.size() ?: 0} bytes"
-            audioDataStream = null
+            // Frames queued before the stop are still part of the session
+            if (!awaitDrained(STOP_DRAIN_TIMEOUT_MS)) {
+                Log.w(TAG, "Worker still busy after ${STOP_DRAIN_TIMEOUT_MS}ms, stopping with ${queue.depth()} frames queued")
+            }
+            val responseText = "Processing stopped. Total audio data received: ${sessionStore?.totalBytes() ?: 0} bytes"
             Log.d(TAG, responseText)
-            responseCallback?.invoke(responseText)
-            // Reset recognizer if used
-            if (recognizer != null) {
-                recognizer = null
-                model?.close()
-                model = null
-                initializeVosk()
+            Log.d(TAG, getQueueStats())
+            deliver(RecognitionEvent().set(RecognitionEvent.Type.ASSISTANT, responseText, SOURCE))
+            // Reset only the recognizer; the model stays resident for the next session
+            synchronized(recognizerLock) {
+                val currentRecognizer = recognizer
+                if (currentRecognizer != null) {
+                    val startNanos = System.nanoTime()
+                    try {
+                        currentRecognizer.reset()
+                        Log.d(TAG, "Recognizer reset in ${(System.nanoTime() - startNanos) / 1000}us")
+                    } catch (e: Exception) {
+                        Log.e(TAG, "Recognizer reset failed, recreating it: ${e.message}")
+                        currentRecognizer.close()
+                        recognizer = null
+                        recognizer = modelHandle?.let { createRecognizer(it) }
+                    }
+                }
             }
             return responseText
         } else {
@@ -100,25 +226,134 @@ class OfflineAssistantService : Service() {
         }
     }
 
-    fun setResponseCallback(callback: (String) -> Unit) {
+    /**
+     * Read the current (or last) session's audio, 16-bit mono PCM at 16kHz, from its start.
+     * The stream follows the session while it is still being captured.
+     * @return The stream, or null if the service has no session store.
+     */
+    fun openSessionAudio(): InputStream? {
+        return sessionStore?.openStream()
+    }
+
+    /**
+     * Get session audio statistics.
+     * @return String with the audio held, memory used and audio spilled to disk.
+     */
+    fun getSessionStats(): String {
+        return sessionStore?.getStats() ?: "Session store: not created"
+    }
+
+    /**
+     * Wait until the worker has handled every queued frame.
+     * @return Boolean indicating if the queue drained within [timeoutMs].
+     */
+    private fun awaitDrained(timeoutMs: Long): Boolean {
+        val deadline = System.currentTimeMillis() + timeoutMs
+        synchronized(drainLock) {
+            while (queue.isReadable()) {
+                val remaining = deadline - System.currentTimeMillis()
+                if (remaining <= 0) return false
+                drainLock.wait(remaining)
+            }
+        }
+        return true
+    }
+
+    /**
+     * Get worker queue statistics.
+     * @return String with the queue depth, frames dropped, and service and waiting time per frame.
+     */
+    fun getQueueStats(): String {
+        val served = framesServed
+        return String.format(
+            Locale.US,
+            "Assistant queue: depth %d (max %d of %d), %d frames served, %d dropped, service %.2fms mean / %.2fms max, wait %.2fms mean",
+            queue.depth(), maxQueueDepth, QUEUE_FRAMES, served, queue.overrunCount(),
+            if (served > 0) serviceNanos / 1e6 / served else 0.0, maxServiceNanos / 1e6,
+            if (served > 0) waitNanos / 1e6 / served else 0.0
+        )
+    }
+
+    /**
+     * Set the receiver of the assistant's recognition results and responses.
+     * @param handler Handler whose thread receives the events, e.g. the main looper's; they are
+     * copied for it. Null delivers on the worker thread, where result events are reused: the
+     * callback must not keep them past its return.
+     */
+    fun setResponseCallback(handler: Handler? = null, callback: (RecognitionEvent) -> Unit) {
+        this.responseHandler = handler
         this.responseCallback = callback
         Log.d(TAG, "Response callback set")
     }
+
+    private fun respond(result: String) {
+        if (responseCallback == null) return
+        resultReader.read(result, resultEvent, SOURCE)
+        deliver(resultEvent)
+    }
+
+    private fun deliver(event: RecognitionEvent) {
+        val callback = responseCallback ?: return
+        val handler = responseHandler
+        if (handler == null) {
+            callback(event)
+        } else {
+            val copy = event.copy()
+            handler.post { callback(copy) }
+        }
+    }
     
-    private fun initializeVosk() {
-        try {
-            // Path to Vosk model - this should match the path used in VoiceEngine
-            val modelPath = "${applicationContext.filesDir.absolutePath}/models/vosk/vosk-model-small-en-us-0.15"
-            this.model = Model(modelPath)
-            this.recognizer = Recognizer(this.model, SAMPLE_RATE.toFloat())
-            Log.d(TAG, "Vosk initialized successfully")
+    /**
+     * Decode with the model for [key], taken from [VoskModelCache] so that a [com.kitt.android.voice.VoiceEngine]
+     * using the same language shares it instead of loading a second copy. Replaces the previous
+     * model, which is released; keeps it if [key] is already in use.
+     * @param key Model key from config.json, e.g. "en-us".
+     * @param path Path of the extracted model directory.
+     * @return Boolean indicating if a recognizer for [key] is ready.
+     */
+    fun useModel(key: String, path: String): Boolean {
+        synchronized(recognizerLock) {
+            if (modelHandle?.key == key && recognizer != null) {
+                return true
+            }
+        }
+        val handle = VoskModelCache.acquire(key, path)
+        if (handle == null) {
+            Log.e(TAG, "Failed to initialize Vosk with model $key")
+            return false
+        }
+        val newRecognizer = createRecognizer(handle)
+        if (newRecognizer == null) {
+            handle.close()
+            return false
+        }
+        synchronized(recognizerLock) {
+            recognizer?.close()
+            modelHandle?.close()
+            recognizer = newRecognizer
+            modelHandle = handle
+        }
+        Log.d(TAG, "Vosk initialized successfully with model $key. ${VoskModelCache.getStats()}")
+        return true
+    }
+
+    private fun createRecognizer(handle: VoskModelCache.Handle): Recognizer? {
+        return try {
+            Recognizer(handle.model, SAMPLE_RATE.toFloat())
         } catch (e: Exception) {
-            Log.e(TAG, "Failed to initialize Vosk: ${e.message}")
-            this.model = null
-            this.recognizer = null
+            Log.e(TAG, "Failed to create recognizer for ${handle.key}: ${e.message}")
+            null
         }
     }
 
+    companion object {
+        private const val DEFAULT_MODEL_KEY = "en-us"
+        private const val DEFAULT_MODEL_DIR = "vosk-model-small-en-us-0.15"
+        private const val QUEUE_FRAMES = 64 // 1.28s of 20ms frames
+        private const val STOP_DRAIN_TIMEOUT_MS = 1000L
+        private const val WORKER_STOP_TIMEOUT_MS = 1000L
+    }
+
     inner class LocalBinder : android.os.Binder() {
         fun getService(): OfflineAssistantService {
             return this@OfflineAssistantService
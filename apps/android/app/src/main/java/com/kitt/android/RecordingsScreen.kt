@@ -3,12 +3,14 @@ package com.kitt.android
 import androidx.car.app.CarContext
 import androidx.car.app.Screen
 import androidx.car.app.model.Action
+import androidx.car.app.model.ActionStrip
 import androidx.car.app.model.ItemList
 import androidx.car.app.model.ListTemplate
 import androidx.car.app.model.Row
 import androidx.car.app.model.Template
 import androidx.car.app.model.Toggle
 import android.util.Log
+import com.kitt.android.voice.BatchTranscriber
 import com.kitt.android.voice.VoiceEngine
 import java.io.File
 import java.text.SimpleDateFormat
@@ -22,6 +24,7 @@ class RecordingsScreen(
 ) : Screen(carContext) {
 
     private val TAG = "RecordingsScreen"
+    private val TRANSCRIPT_PREVIEW_CHARS = 80
     private var recordedFiles: List<File> = emptyList()
     private var currentlyPlayingFile: String? = null
 
@@ -46,19 +49,18 @@ class RecordingsScreen(
             recordedFiles.forEach { file ->
                 val lastModified = Date(file.lastModified())
                 val fileSizeKB = file.length() / 1024
-                listBuilder.addItem(
-                    Row.Builder()
-                        .setTitle(file.name)
-                        .addText("Size: ${fileSizeKB} KB | ${dateFormat.format(lastModified)}")
-                        .setOnClickListener {
-                            if (currentlyPlayingFile == file.absolutePath) {
-                                stopPlayback()
-                            } else {
-                                playFile(file.absolutePath)
-                            }
+                val rowBuilder = Row.Builder()
+                    .setTitle(file.name)
+                    .addText("Size: ${fileSizeKB} KB | ${dateFormat.format(lastModified)}")
+                    .setOnClickListener {
+                        if (currentlyPlayingFile == file.absolutePath) {
+                            stopPlayback()
+                        } else {
+                            playFile(file.absolutePath)
                         }
-                        .build()
-                )
+                    }
+                readTranscript(file)?.let { rowBuilder.addText(it) }
+                listBuilder.addItem(rowBuilder.build())
             }
         }
 
@@ -66,16 +68,48 @@ class RecordingsScreen(
             .setSingleList(listBuilder.build())
             .setTitle("My Recordings")
             .setHeaderAction(Action.BACK)
+            .setActionStrip(
+                ActionStrip.Builder()
+                    .addAction(
+                        Action.Builder()
+                            .setTitle("Transcribe")
+                            .setOnClickListener { transcribeRecordings() }
+                            .build()
+                    )
+                    .build()
+            )
             .build()
     }
 
+    private fun readTranscript(recording: File): String? {
+        val transcript = BatchTranscriber.transcriptFile(recording)
+        if (!transcript.isFile) return null
+        return try {
+            val text = transcript.readText().trim()
+            if (text.length > TRANSCRIPT_PREVIEW_CHARS) text.take(TRANSCRIPT_PREVIEW_CHARS) + "…" else text.ifEmpty { null }
+        } catch (e: Exception) {
+            Log.w(TAG, "Failed to read transcript for ${recording.name}: ${e.message}")
+            null
+        }
+    }
+
+    private fun transcribeRecordings() {
+        val engine = voiceEngine ?: return
+        // May load the model, so keep it off the main thread; rows pick up transcripts on the next refresh
+        Thread({
+            val queued = engine.transcribeRecordings(recordedFiles.firstOrNull())
+            Log.d(TAG, "Queued $queued recordings for transcription")
+        }, "RecordingsScreen-transcribe").start()
+    }
+
     private fun loadRecordedFiles() {
         val recordingsPath = voiceEngine?.getCurrentStoragePath()
         if (recordingsPath != null) {
             val directory = File(recordingsPath)
             if (directory.exists() && directory.isDirectory) {
                 recordedFiles = directory.listFiles { file ->
-                    file.isFile && file.extension == "3gp" // Assuming .3gp from VoiceEngine
+                    // VoiceEngine writes .wav from the shared capture; .3gp files are from older builds
+                    file.isFile && (file.extension == "wav" || file.extension == "3gp")
                 }?.toList() ?: emptyList()
                 recordedFiles = recordedFiles.sortedByDescending { it.lastModified() }
                 Log.d(TAG, "Loaded ${recordedFiles.size} recorded files from $recordingsPath")
@@ -0,0 +1,307 @@
+package com.kitt.android.voice
+
+import android.content.Context
+import android.content.Intent
+import android.media.AudioFormat
+import android.os.Bundle
+import android.os.Handler
+import android.os.Looper
+import android.os.ParcelFileDescriptor
+import android.speech.RecognitionListener
+import android.speech.RecognizerIntent
+import android.speech.SpeechRecognizer
+import android.system.ErrnoException
+import android.system.Os
+import android.system.OsConstants
+import android.util.Log
+import java.io.IOException
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+private const val TAG = "AndroidSpeechEngine"
+private const val MAIN_THREAD_TIMEOUT_MS = 2000L
+private const val RESTART_AFTER_ERROR_MS = 500L
+
+/**
+ * Android [SpeechRecognizer] backend of the [SpeechEngine] contract.
+ * Instead of letting the recognition service open the microphone, each session is handed the
+ * read end of a pipe through [RecognizerIntent.EXTRA_AUDIO_SOURCE] (API 33) and the frames from
+ * the shared capture are written to the other end, so this backend hears exactly the audio the
+ * others do. [endOfSpeech] closes the pipe, which makes the service finalize the utterance; a new
+ * session is opened as soon as its result arrives.
+ *
+ * SpeechRecognizer is bound to the main thread: sessions are managed there and events are raised there.
+ * The pipe is non-blocking, so a service that stops reading drops frames instead of stalling the decoder.
+ */
+class AndroidSpeechEngine(private val context: Context) : SpeechEngine {
+
+    override val name = "android"
+    override val consumesInRealTime = true
+
+    private val mainHandler = Handler(Looper.getMainLooper())
+    @Volatile
+    private var recognizer: SpeechRecognizer? = null // Main thread only
+    @Volatile
+    private var language = "en-US"
+    @Volatile
+    private var listener: SpeechEngine.Listener? = null
+    @Volatile
+    private var isStarted = false
+
+    // Current session's pipe; the write end is used by the decoding thread under sessionLock
+    private val sessionLock = Object()
+    private var audioSource: ParcelFileDescriptor? = null
+    private var audioSink: ParcelFileDescriptor? = null
+    private var frameBytes = ByteArray(AudioCaptureHub.FRAME_SIZE * 2)
+    private var droppedFrames = 0L
+
+    private val recognitionListener = object : RecognitionListener {
+        override fun onReadyForSpeech(params: Bundle?) {
+            Log.i(TAG, "Native Android recognizer ready for speech")
+        }
+
+        override fun onBeginningOfSpeech() {
+            Log.i(TAG, "Speech input started")
+        }
+
+        override fun onRmsChanged(rmsdB: Float) {
+        }
+
+        override fun onBufferReceived(buffer: ByteArray?) {
+        }
+
+        override fun onEndOfSpeech() {
+            Log.i(TAG, "Speech input ended")
+        }
+
+        override fun onError(error: Int) {
+            closeSession()
+            when (error) {
+                SpeechRecognizer.ERROR_NO_MATCH, SpeechRecognizer.ERROR_SPEECH_TIMEOUT -> restartSession(0L)
+                SpeechRecognizer.ERROR_INSUFFICIENT_PERMISSIONS,
+                SpeechRecognizer.ERROR_LANGUAGE_NOT_SUPPORTED,
+                SpeechRecognizer.ERROR_LANGUAGE_UNAVAILABLE -> {
+                    Log.e(TAG, "Speech recognition error: $error, not restarting")
+                    listener?.onError("Android STT error $error")
+                }
+                else -> {
+                    Log.e(TAG, "Speech recognition error: $error")
+                    listener?.onError("Android STT error $error")
+                    restartSession(RESTART_AFTER_ERROR_MS)
+                }
+            }
+        }
+
+        override fun onResults(results: Bundle?) {
+            closeSession()
+            val matches = results?.getStringArrayList(SpeechRecognizer.RESULTS_RECOGNITION)
+            if (!matches.isNullOrEmpty()) {
+                Log.i(TAG, "Speech recognition result: ${matches[0]}")
+                listener?.onFinal(matches[0])
+            }
+            restartSession(0L)
+        }
+
+        override fun onPartialResults(partialResults: Bundle?) {
+            val partialMatches = partialResults?.getStringArrayList(SpeechRecognizer.RESULTS_RECOGNITION)
+            if (!partialMatches.isNullOrEmpty() && partialMatches[0].isNotEmpty()) {
+                listener?.onPartial(partialMatches[0])
+            }
+        }
+
+        override fun onEvent(eventType: Int, params: Bundle?) {
+        }
+    }
+
+    /**
+     * Create the recognizer (on the main thread) and select the language for the next sessions.
+     * Safe to call from any thread; a running session is restarted in the new language.
+     */
+    override fun load(language: String): Boolean {
+        this.language = language
+        return runOnMain {
+            if (recognizer == null) {
+                if (!SpeechRecognizer.isRecognitionAvailable(context)) {
+                    Log.e(TAG, "No speech recognition service available")
+                    return@runOnMain false
+                }
+                recognizer = SpeechRecognizer.createSpeechRecognizer(context).apply {
+                    setRecognitionListener(recognitionListener)
+                }
+                Log.i(TAG, "Native Android recognizer created")
+            }
+            if (isStarted) {
+                recognizer?.cancel()
+                closeSession()
+                openSession()
+            }
+            true
+        }
+    }
+
+    override fun isLoaded(): Boolean {
+        return recognizer != null
+    }
+
+    override fun start(listener: SpeechEngine.Listener): Boolean {
+        if (recognizer == null) {
+            Log.e(TAG, "Native Android voice engine not initialized")
+            return false
+        }
+        this.listener = listener
+        isStarted = true
+        mainHandler.post { openSession() }
+        return true
+    }
+
+    override fun acceptFrame(frame: ShortArray, length: Int) {
+        synchronized(sessionLock) {
+            val sink = audioSink ?: return
+            if (frameBytes.size < length * 2) {
+                frameBytes = ByteArray(length * 2)
+            }
+            for (i in 0 until length) {
+                val sample = frame[i].toInt()
+                frameBytes[i * 2] = sample.toByte()
+                frameBytes[i * 2 + 1] = (sample shr 8).toByte()
+            }
+            try {
+                Os.write(sink.fileDescriptor, frameBytes, 0, length * 2)
+            } catch (e: ErrnoException) {
+                if (e.errno == OsConstants.EAGAIN) {
+                    droppedFrames++
+                } else {
+                    Log.w(TAG, "Audio pipe closed by recognition service: ${e.message}")
+                    closeSink()
+                }
+            } catch (e: IOException) {
+                Log.w(TAG, "Failed to write audio to recognition service: ${e.message}")
+                closeSink()
+            }
+        }
+    }
+
+    override fun endOfSpeech() {
+        // End of stream on the pipe makes the service finalize; onResults opens the next session
+        synchronized(sessionLock) {
+            closeSink()
+        }
+    }
+
+    override fun reset() {
+        mainHandler.post {
+            recognizer?.cancel()
+            closeSession()
+            if (isStarted) openSession()
+        }
+    }
+
+    override fun stop() {
+        isStarted = false
+        mainHandler.post {
+            recognizer?.stopListening()
+            closeSession()
+        }
+        if (droppedFrames > 0) {
+            Log.w(TAG, "$droppedFrames frames dropped while the recognition service was not reading")
+        }
+    }
+
+    override fun release() {
+        isStarted = false
+        listener = null
+        runOnMain {
+            recognizer?.destroy()
+            recognizer = null
+            closeSession()
+            true
+        }
+        Log.i(TAG, "Native Android recognizer resources released")
+    }
+
+    /**
+     * Main thread: start a recognizer session reading from a fresh pipe.
+     */
+    private fun openSession() {
+        val activeRecognizer = recognizer ?: return
+        if (!isStarted) return
+        try {
+            val pipe = ParcelFileDescriptor.createPipe()
+            Os.fcntlInt(pipe[1].fileDescriptor, OsConstants.F_SETFL, OsConstants.O_NONBLOCK)
+            val intent = Intent(RecognizerIntent.ACTION_RECOGNIZE_SPEECH)
+            intent.putExtra(RecognizerIntent.EXTRA_LANGUAGE_MODEL, RecognizerIntent.LANGUAGE_MODEL_FREE_FORM)
+            intent.putExtra(RecognizerIntent.EXTRA_PARTIAL_RESULTS, true)
+            intent.putExtra(RecognizerIntent.EXTRA_PREFER_OFFLINE, true) // Ensure on-device processing
+            intent.putExtra(RecognizerIntent.EXTRA_LANGUAGE, language)
+            intent.putExtra(RecognizerIntent.EXTRA_LANGUAGE_PREFERENCE, language)
+            intent.putExtra(RecognizerIntent.EXTRA_ONLY_RETURN_LANGUAGE_PREFERENCE, language)
+            intent.putExtra(RecognizerIntent.EXTRA_AUDIO_SOURCE, pipe[0])
+            intent.putExtra(RecognizerIntent.EXTRA_AUDIO_SOURCE_CHANNEL_COUNT, 1)
+            intent.putExtra(RecognizerIntent.EXTRA_AUDIO_SOURCE_ENCODING, AudioFormat.ENCODING_PCM_16BIT)
+            intent.putExtra(RecognizerIntent.EXTRA_AUDIO_SOURCE_SAMPLING_RATE, AudioCaptureHub.SAMPLE_RATE)
+            synchronized(sessionLock) {
+                audioSource = pipe[0]
+                audioSink = pipe[1]
+            }
+            activeRecognizer.startListening(intent)
+            Log.i(TAG, "Started Native Android session in language: $language")
+        } catch (e: Exception) {
+            Log.e(TAG, "Failed to start Native Android session: ${e.message}", e)
+            closeSession()
+            listener?.onError("Failed to start Android STT - ${e.message}")
+        }
+    }
+
+    private fun restartSession(delayMs: Long) {
+        if (!isStarted) return
+        mainHandler.postDelayed({ openSession() }, delayMs)
+    }
+
+    private fun closeSession() {
+        synchronized(sessionLock) {
+            closeSink()
+            try {
+                audioSource?.close()
+            } catch (e: IOException) {
+                Log.w(TAG, "Error closing audio source: ${e.message}")
+            }
+            audioSource = null
+        }
+    }
+
+    /** Caller holds [sessionLock]. */
+    private fun closeSink() {
+        try {
+            audioSink?.close()
+        } catch (e: IOException) {
+            Log.w(TAG, "Error closing audio sink: ${e.message}")
+        }
+        audioSink = null
+    }
+
+    /**
+     * Run [block] on the main thread and wait for its result.
+     */
+    private fun runOnMain(block: () -> Boolean): Boolean {
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            return block()
+        }
+        val done = CountDownLatch(1)
+        var result = false
+        mainHandler.post {
+            try {
+                result = block()
+            } catch (e: Exception) {
+                Log.e(TAG, "Main thread call failed: ${e.message}", e)
+            } finally {
+                done.countDown()
+            }
+        }
+        return try {
+            done.await(MAIN_THREAD_TIMEOUT_MS, TimeUnit.MILLISECONDS) && result
+        } catch (e: InterruptedException) {
+            Thread.currentThread().interrupt()
+            false
+        }
+    }
+}
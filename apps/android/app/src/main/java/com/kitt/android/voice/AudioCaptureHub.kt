@@ -0,0 +1,597 @@
+package com.kitt.android.voice
+
+import android.Manifest
+import android.content.Context
+import android.media.AudioFormat
+import android.media.AudioManager
+import android.media.AudioRecord
+import android.media.MediaRecorder
+import android.os.Process
+import android.util.Log
+import androidx.annotation.RequiresPermission
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.nio.ShortBuffer
+import java.util.concurrent.TimeUnit
+
+/**
+ * Process-wide microphone capture hub.
+ * A single AudioRecord is shared by the whole app and its PCM frames are fanned out
+ * to every subscriber (Vosk recognizer, offline assistant, recording writer, spectrum view).
+ * Each subscriber owns a lock-free SPSC ring of preallocated frames that acts as its
+ * cursor: a slow subscriber only overruns its own ring and never stalls the capture
+ * thread or the other subscribers.
+ *
+ * The last [PRE_ROLL_MS] of capture are always kept, so a subscriber attached by a trigger
+ * (wake phrase, assistant button, recording) can start with the audio spoken just before it.
+ *
+ * The microphone can run at the device's native rate (see [useDeviceRate]) so the HAL does not
+ * resample: the capture thread converts each frame to [SAMPLE_RATE] with a [PolyphaseResampler]
+ * for the recognizers, and full-rate subscribers (recording, spectrum) get the native frames.
+ *
+ * The microphone is read into direct (off-heap) memory. Direct subscribers (see [subscribeDirect])
+ * get rings of direct frames, so native-rate audio goes from AudioRecord to them without passing
+ * through the Java heap, and they can hand frames to native code or file channels in place.
+ */
+object AudioCaptureHub {
+
+    const val SAMPLE_RATE = 16000
+    const val FRAME_SIZE = 320 // Samples per 20ms frame at 16kHz; native-rate reads are also 20ms
+    const val FRAME_DURATION_MS = FRAME_SIZE * 1000L / SAMPLE_RATE
+    private const val TAG = "AudioCaptureHub"
+    private const val RING_FRAMES = 128 // ~2.5 seconds of history per subscriber
+    const val PRE_ROLL_MS = 2000L
+    private const val PRE_ROLL_FRAMES = (PRE_ROLL_MS / FRAME_DURATION_MS).toInt()
+    private const val CAPTURE_JOIN_TIMEOUT_MS = 500L // A stopped AudioRecord returns from read within a frame or two
+    private const val CAPTURE_REOPEN_ATTEMPTS = 3 // After a failed read, e.g. the audio server restarted
+    private const val CAPTURE_REOPEN_BACKOFF_MS = 200L
+
+    private val lock = Object()
+    // Copy-on-write snapshot, iterated by the capture thread without allocating
+    @Volatile
+    private var subscriptions: Array<Subscription> = emptyArray()
+    @Volatile
+    private var recorder: AudioRecord? = null
+    private var captureThread: Thread? = null
+    @Volatile
+    private var isCapturing = false
+    @Volatile
+    private var capturedSamples = 0L // Only written by the capture thread, counted at 16kHz
+    // Only used by the capture thread, and cleared before it starts
+    private val preRoll = PreRollBuffer(PRE_ROLL_FRAMES, FRAME_SIZE)
+    @Volatile
+    private var requestedRate = SAMPLE_RATE
+    /** Rate the microphone runs at while capturing; full-rate subscribers receive audio at this rate. */
+    @Volatile
+    var captureRate = SAMPLE_RATE
+        private set
+    // Set up by startCapture for each capture session, before the capture thread starts
+    private var nativeFrameSize = FRAME_SIZE
+    private var fullRatePreRoll: PreRollBuffer? = null
+
+    /**
+     * Callback for push-mode subscribers, invoked on the subscriber's own dispatch thread.
+     */
+    fun interface FrameListener {
+        fun onFrame(buffer: ShortArray, size: Int)
+    }
+
+    /**
+     * Callback for direct push-mode subscribers, invoked on the subscriber's own dispatch thread.
+     * [buffer] is a native-order direct ring slot holding [size] samples from position 0; it is
+     * only valid until the callback returns.
+     */
+    fun interface DirectFrameListener {
+        fun onFrame(buffer: ByteBuffer, size: Int)
+    }
+
+    /**
+     * A subscriber's private cursor on the shared capture, backed by its own frame ring.
+     * Must be drained by a single consumer thread.
+     */
+    class Subscription internal constructor(
+        val name: String,
+        preRollMs: Long,
+        /** Rate of the frames in [ring]: [SAMPLE_RATE], or [captureRate] for full-rate subscribers. */
+        val sampleRate: Int,
+        frameSize: Int,
+        direct: Boolean
+    ) {
+        internal val isFullRate = sampleRate != SAMPLE_RATE
+        /** Frames are claimed by the capture thread and drained in place by the subscriber. */
+        val ring = PcmFrameRing(if (preRollMs > 0) RING_FRAMES * 2 else RING_FRAMES, frameSize, direct)
+        @Volatile
+        var isClosed = false
+            internal set
+        // Pre-roll frames still to be replayed by the capture thread, which then clears it
+        @Volatile
+        internal var pendingPreRollFrames = (minOf(preRollMs, PRE_ROLL_MS) / FRAME_DURATION_MS).toInt()
+        /** Frames of history replayed ahead of the live audio, set once the capture thread has replayed them. */
+        @Volatile
+        var preRollFrames = 0
+            internal set
+        internal var dispatchThread: Thread? = null
+        private var frameOffset = 0 // Consumer-side position inside the oldest frame
+
+        /**
+         * Block until audio is available and copy it into [dst].
+         * Prefer draining [ring] in place on hot paths to avoid the copy.
+         * @return Number of samples copied, 0 on timeout, -1 once the subscription is closed.
+         */
+        fun read(dst: ShortArray, offset: Int, length: Int, timeoutMs: Long): Int {
+            if (!ring.await(TimeUnit.MILLISECONDS.toNanos(timeoutMs))) {
+                return if (isClosed) -1 else 0
+            }
+            var copied = 0
+            while (copied < length && ring.isReadable()) {
+                val available = ring.length() - frameOffset
+                val count = minOf(available, length - copied)
+                if (ring.direct) {
+                    val frame = ring.buffer()
+                    for (i in 0 until count) {
+                        dst[offset + copied + i] = frame.getShort((frameOffset + i) * 2)
+                    }
+                } else {
+                    System.arraycopy(ring.frame(), frameOffset, dst, offset + copied, count)
+                }
+                copied += count
+                frameOffset += count
+                if (frameOffset == ring.length()) {
+                    ring.release()
+                    frameOffset = 0
+                }
+            }
+            return copied
+        }
+
+        /**
+         * Frames dropped because this subscriber fell a full ring behind capture.
+         */
+        fun droppedFrames(): Long {
+            return ring.overrunCount()
+        }
+
+        /**
+         * Release this cursor. Capture stops when the last subscriber closes.
+         */
+        fun close() {
+            unsubscribe(this)
+        }
+    }
+
+    /**
+     * Subscribe in pull mode: the caller drains its cursor with [Subscription.read] or [Subscription.ring].
+     * Starts the shared AudioRecord if this is the first subscriber.
+     * @param preRollMs Audio captured before this call to deliver ahead of the live frames, up to
+     * [PRE_ROLL_MS]. Only what was captured while the microphone was already open can be replayed.
+     * @param fullRate Receive the microphone's native-rate frames instead of 16kHz; check
+     * [Subscription.sampleRate]. Meant for recording and display, not for the recognizers.
+     * @param direct Back the ring with direct memory: drain it with [PcmFrameRing.buffer] instead of [PcmFrameRing.frame].
+     * @return The subscription, or null if the microphone could not be opened.
+     */
+    @JvmStatic
+    @JvmOverloads
+    @RequiresPermission(Manifest.permission.RECORD_AUDIO)
+    fun subscribe(name: String, preRollMs: Long = 0L, fullRate: Boolean = false, direct: Boolean = false): Subscription? {
+        synchronized(lock) {
+            if (!isCapturing && !startCapture()) {
+                return null
+            }
+            // New subscribers start at the live edge unless they ask for pre-roll,
+            // which the capture thread replays before their first live frame
+            val subscription = if (fullRate) {
+                Subscription(name, preRollMs, captureRate, nativeFrameSize, direct)
+            } else {
+                Subscription(name, preRollMs, SAMPLE_RATE, FRAME_SIZE, direct)
+            }
+            subscriptions = subscriptions + subscription
+            Log.i(TAG, "Subscriber '$name' attached at ${subscription.sampleRate}Hz (${subscriptions.size} active)")
+            return subscription
+        }
+    }
+
+    /**
+     * Subscribe in push mode: frames are delivered to [listener] on a dedicated thread.
+     * Pre-roll frames are delivered first, as fast as the listener takes them.
+     * @return The subscription, or null if the microphone could not be opened.
+     */
+    @JvmStatic
+    @JvmOverloads
+    @RequiresPermission(Manifest.permission.RECORD_AUDIO)
+    fun subscribe(name: String, listener: FrameListener, preRollMs: Long = 0L, fullRate: Boolean = false): Subscription? {
+        val subscription = subscribe(name, preRollMs, fullRate) ?: return null
+        startDispatch(subscription) { ring -> listener.onFrame(ring.frame(), ring.length()) }
+        return subscription
+    }
+
+    /**
+     * Subscribe in push mode with direct frames: [listener] gets each frame as a direct buffer it
+     * can pass to native code or a file channel without copying it onto the Java heap.
+     * @return The subscription, or null if the microphone could not be opened.
+     */
+    @JvmStatic
+    @JvmOverloads
+    @RequiresPermission(Manifest.permission.RECORD_AUDIO)
+    fun subscribeDirect(name: String, listener: DirectFrameListener, preRollMs: Long = 0L, fullRate: Boolean = false): Subscription? {
+        val subscription = subscribe(name, preRollMs, fullRate, direct = true) ?: return null
+        startDispatch(subscription) { ring -> listener.onFrame(ring.buffer(), ring.length()) }
+        return subscription
+    }
+
+    /**
+     * Start the thread that hands each frame of [subscription] to [deliver], in order, then releases it.
+     */
+    private fun startDispatch(subscription: Subscription, deliver: (PcmFrameRing) -> Unit) {
+        val name = subscription.name
+        val thread = Thread({
+            val ring = subscription.ring
+            val waitNanos = TimeUnit.MILLISECONDS.toNanos(500)
+            while (!subscription.isClosed) {
+                if (!ring.await(waitNanos)) {
+                    continue
+                }
+                try {
+                    deliver(ring)
+                } catch (e: Exception) {
+                    Log.e(TAG, "Subscriber '$name' failed to handle frame: ${e.message}", e)
+                }
+                ring.release()
+            }
+            Log.i(TAG, "Dispatch thread for '$name' stopped")
+        }, "AudioHub-$name")
+        subscription.dispatchThread = thread
+        thread.start()
+    }
+
+    /**
+     * Detach a subscriber. Stops the shared AudioRecord when no subscribers remain.
+     */
+    @JvmStatic
+    fun unsubscribe(subscription: Subscription) {
+        synchronized(lock) {
+            if (subscription.isClosed) {
+                return
+            }
+            subscription.isClosed = true
+            subscriptions = subscriptions.filter { it !== subscription }.toTypedArray()
+            subscription.ring.close()
+            Log.i(TAG, "Subscriber '${subscription.name}' detached (${subscriptions.size} active, " +
+                "${subscription.ring.overrunCount()} overruns, ${subscription.ring.underrunCount()} underruns)")
+            if (subscriptions.isEmpty()) {
+                stopCapture()
+            }
+        }
+    }
+
+    /**
+     * Total samples read from the microphone since the process started. Stops advancing if capture stalls.
+     */
+    @JvmStatic
+    fun capturedSampleCount(): Long {
+        return capturedSamples
+    }
+
+    /**
+     * Capture at [rate] from the next time the microphone opens, converting to [SAMPLE_RATE] for
+     * the recognizers. Falls back to [SAMPLE_RATE] if the device rejects the rate.
+     */
+    @JvmStatic
+    fun setCaptureRate(rate: Int) {
+        requestedRate = rate
+        Log.i(TAG, "Capture rate set to ${rate}Hz${if (isCapturing) ", applied when capture restarts" else ""}")
+    }
+
+    /**
+     * Capture at the device's native rate, so the audio HAL does not resample.
+     * Android has no input-rate query; the output rate is the native rate of the audio path.
+     */
+    @JvmStatic
+    fun useDeviceRate(context: Context) {
+        val audioManager = context.getSystemService(Context.AUDIO_SERVICE) as? AudioManager
+        val rate = audioManager?.getProperty(AudioManager.PROPERTY_OUTPUT_SAMPLE_RATE)?.toIntOrNull()
+        setCaptureRate(if (rate != null && rate > 0) rate else SAMPLE_RATE)
+    }
+
+    /**
+     * Check if the shared microphone is currently open.
+     */
+    @JvmStatic
+    fun isCapturing(): Boolean {
+        return isCapturing
+    }
+
+    @RequiresPermission(Manifest.permission.RECORD_AUDIO)
+    private fun startCapture(): Boolean {
+        // The pre-roll and resampler state belong to one capture thread at a time
+        if (!awaitCaptureThread()) {
+            Log.e(TAG, "Previous capture thread has not exited, not opening the microphone again yet")
+            return false
+        }
+        try {
+            var rate = requestedRate
+            var audioRecord = openRecorder(rate)
+            if (audioRecord == null && rate != SAMPLE_RATE) {
+                Log.w(TAG, "Capture at ${rate}Hz unavailable, falling back to ${SAMPLE_RATE}Hz")
+                rate = SAMPLE_RATE
+                audioRecord = openRecorder(rate)
+            }
+            if (audioRecord == null) {
+                return false
+            }
+            // Per-session buffers are allocated here, never on the capture thread
+            val frameSize = (rate * FRAME_DURATION_MS / 1000).toInt()
+            val resampler = if (rate != SAMPLE_RATE) PolyphaseResampler(rate, SAMPLE_RATE) else null
+            if (resampler == null) {
+                fullRatePreRoll = null
+            } else if (nativeFrameSize != frameSize || fullRatePreRoll == null) {
+                fullRatePreRoll = PreRollBuffer(PRE_ROLL_FRAMES, frameSize)
+            }
+            nativeFrameSize = frameSize
+            captureRate = rate
+            audioRecord.startRecording()
+            // History from an earlier capture session is not continuous with this one
+            preRoll.clear()
+            fullRatePreRoll?.clear()
+            recorder = audioRecord
+            isCapturing = true
+            val sessionPreRoll = fullRatePreRoll
+            captureThread = Thread({
+                Process.setThreadPriority(Process.THREAD_PRIORITY_URGENT_AUDIO)
+                captureLoop(audioRecord, frameSize, resampler, sessionPreRoll)
+            }, "AudioHub-capture").apply { start() }
+            Log.i(TAG, "Shared capture started at ${rate}Hz${if (resampler != null) ", converted to ${SAMPLE_RATE}Hz for recognition" else ""}")
+            return true
+        } catch (e: Exception) {
+            Log.e(TAG, "Failed to start shared capture: ${e.message}", e)
+            recorder?.release()
+            recorder = null
+            isCapturing = false
+            return false
+        }
+    }
+
+    @RequiresPermission(Manifest.permission.RECORD_AUDIO)
+    private fun openRecorder(rate: Int): AudioRecord? {
+        val minBufferSize = AudioRecord.getMinBufferSize(rate, AudioFormat.CHANNEL_IN_MONO, AudioFormat.ENCODING_PCM_16BIT)
+        if (minBufferSize <= 0) {
+            Log.e(TAG, "AudioRecord does not support ${rate}Hz")
+            return null
+        }
+        val frameBytes = (rate * FRAME_DURATION_MS / 1000).toInt() * 2
+        val audioRecord = AudioRecord(
+            MediaRecorder.AudioSource.MIC,
+            rate,
+            AudioFormat.CHANNEL_IN_MONO,
+            AudioFormat.ENCODING_PCM_16BIT,
+            maxOf(minBufferSize, frameBytes * 4)
+        )
+        if (audioRecord.state != AudioRecord.STATE_INITIALIZED) {
+            Log.e(TAG, "AudioRecord failed to initialize at ${rate}Hz")
+            audioRecord.release()
+            return null
+        }
+        return audioRecord
+    }
+
+    private fun stopCapture() {
+        isCapturing = false
+        val audioRecord = recorder
+        recorder = null
+        try {
+            // Unblocks the capture thread's read, which then sees the recorder is gone
+            audioRecord?.stop()
+        } catch (e: Exception) {
+            Log.e(TAG, "Error stopping shared capture: ${e.message}")
+        }
+        // Cuts short a reopen backoff after a failed read
+        captureThread?.interrupt()
+        val exited = awaitCaptureThread()
+        try {
+            audioRecord?.release()
+        } catch (e: Exception) {
+            Log.e(TAG, "Error releasing shared capture: ${e.message}")
+        }
+        Log.i(TAG, "Shared capture stopped${if (exited) "" else ", capture thread still exiting"}")
+    }
+
+    /**
+     * Wait up to [CAPTURE_JOIN_TIMEOUT_MS] for the last capture thread to exit. Caller holds [lock].
+     * @return Boolean indicating if no capture thread is running; if false the thread is kept, to
+     * be waited for again before capture restarts.
+     */
+    private fun awaitCaptureThread(): Boolean {
+        val thread = captureThread ?: return true
+        try {
+            thread.join(CAPTURE_JOIN_TIMEOUT_MS)
+        } catch (e: InterruptedException) {
+            Thread.currentThread().interrupt()
+        }
+        if (thread.isAlive) {
+            Log.w(TAG, "Capture thread still running after ${CAPTURE_JOIN_TIMEOUT_MS}ms")
+            return false
+        }
+        captureThread = null
+        return true
+    }
+
+    /**
+     * Capture thread body: only reads the microphone, converts to 16kHz if needed and publishes
+     * into the subscriber rings. Allocates nothing after the scratch buffers below.
+     */
+    @RequiresPermission(Manifest.permission.RECORD_AUDIO)
+    private fun captureLoop(initialRecord: AudioRecord, frameSize: Int, resampler: PolyphaseResampler?, nativePreRoll: PreRollBuffer?) {
+        // AudioRecord fills direct memory; one heap copy feeds the resampler, the pre-roll and heap rings
+        val capture = ByteBuffer.allocateDirect(frameSize * 2).order(ByteOrder.nativeOrder())
+        val captureSamples = capture.asShortBuffer()
+        val frame = ShortArray(frameSize)
+        val converted = if (resampler != null) ShortArray(resampler.maxOutput(frameSize)) else frame
+        var audioRecord = initialRecord
+        while (isCapturing && recorder === audioRecord) {
+            val bytes = try {
+                audioRecord.read(capture, frameSize * 2, AudioRecord.READ_BLOCKING)
+            } catch (e: Exception) {
+                Log.e(TAG, "AudioRecord read failed: ${e.message}")
+                -1
+            }
+            if (bytes < 0) {
+                if (!isCapturing || recorder !== audioRecord) {
+                    break // Stopped while reading
+                }
+                Log.e(TAG, "AudioRecord returned error $bytes, reopening the microphone")
+                audioRecord = reopenRecorder(audioRecord) ?: break
+                continue
+            }
+            val read = bytes / 2
+            if (read == 0) {
+                continue
+            }
+            val captureTime = System.nanoTime()
+            captureSamples.clear()
+            captureSamples.get(frame, 0, read)
+            val count = resampler?.process(frame, 0, read, converted, 0) ?: read
+            capturedSamples += count
+            for (subscription in subscriptions) {
+                if (subscription.pendingPreRollFrames > 0) {
+                    replayPreRoll(subscription, nativePreRoll)
+                }
+                val ring = subscription.ring
+                when {
+                    resampler != null && !subscription.isFullRate -> publish(ring, converted, count, captureTime)
+                    ring.direct -> publish(ring, captureSamples, read, captureTime)
+                    else -> publish(ring, frame, read, captureTime)
+                }
+            }
+            // Kept after the fan-out so a new subscriber never gets this frame twice
+            // A conversion can yield a sample more than a frame; the extra is kept as its own frame
+            var offset = 0
+            while (offset < count) {
+                val length = minOf(FRAME_SIZE, count - offset)
+                preRoll.write(converted, offset, length, captureTime)
+                offset += length
+            }
+            nativePreRoll?.write(frame, 0, read, captureTime)
+        }
+        Log.i(TAG, "Capture loop exited")
+    }
+
+    /**
+     * Capture thread, after a failed read: replace [failed] with a new AudioRecord at the same rate,
+     * so subscribers keep their cursors. If the microphone cannot be reopened, capture ends: the
+     * hub no longer reports capturing and every subscription is closed, so consumers see their
+     * rings close instead of waiting for frames that never come.
+     * @return The new recorder, or null if capture ended (or was stopped meanwhile).
+     */
+    @RequiresPermission(Manifest.permission.RECORD_AUDIO)
+    private fun reopenRecorder(failed: AudioRecord): AudioRecord? {
+        try {
+            failed.stop()
+        } catch (e: Exception) {
+            // Already unusable; released below
+        }
+        for (attempt in 1..CAPTURE_REOPEN_ATTEMPTS) {
+            try {
+                Thread.sleep(CAPTURE_REOPEN_BACKOFF_MS * attempt)
+            } catch (e: InterruptedException) {
+                break
+            }
+            if (!isCapturing || recorder !== failed) {
+                return null // Stopped meanwhile; stopCapture() released the failed recorder
+            }
+            val replacement = try {
+                openRecorder(captureRate)?.also { it.startRecording() }
+            } catch (e: Exception) {
+                Log.e(TAG, "Failed to reopen the microphone: ${e.message}")
+                null
+            } ?: continue
+            val swapped = synchronized(lock) {
+                if (isCapturing && recorder === failed) {
+                    recorder = replacement
+                    true
+                } else {
+                    false
+                }
+            }
+            if (!swapped) {
+                // Stopped meanwhile: stopCapture() released the failed recorder, not this one
+                releaseQuietly(replacement)
+                return null
+            }
+            releaseQuietly(failed)
+            Log.i(TAG, "Microphone reopened after a failed read (attempt $attempt)")
+            return replacement
+        }
+        val closed = synchronized(lock) {
+            if (recorder !== failed) {
+                return null // Stopped meanwhile; stopCapture() releases it
+            }
+            isCapturing = false
+            recorder = null
+            val lost = subscriptions
+            subscriptions = emptyArray()
+            for (subscription in lost) {
+                subscription.isClosed = true
+                subscription.ring.close()
+            }
+            lost
+        }
+        releaseQuietly(failed)
+        Log.e(TAG, "Microphone lost after $CAPTURE_REOPEN_ATTEMPTS reopen attempts, closed ${closed.size} subscribers")
+        return null
+    }
+
+    private fun releaseQuietly(audioRecord: AudioRecord) {
+        try {
+            audioRecord.release()
+        } catch (e: Exception) {
+            Log.e(TAG, "Error releasing shared capture: ${e.message}")
+        }
+    }
+
+    /**
+     * Capture thread: publish [length] samples into [ring], split into frames of the ring's size.
+     */
+    private fun publish(ring: PcmFrameRing, samples: ShortArray, length: Int, captureTime: Long) {
+        var offset = 0
+        while (offset < length) {
+            val count = minOf(ring.frameSize, length - offset)
+            if (ring.direct) {
+                val slot = ring.claimDirect() ?: return // Overrun counted by the ring
+                slot.put(samples, offset, count)
+            } else {
+                val slot = ring.claim() ?: return
+                System.arraycopy(samples, offset, slot, 0, count)
+            }
+            ring.publish(count, captureTime)
+            offset += count
+        }
+    }
+
+    /**
+     * Capture thread: publish [length] samples of the direct capture buffer into a direct [ring],
+     * memory to memory without a heap copy.
+     */
+    private fun publish(ring: PcmFrameRing, samples: ShortBuffer, length: Int, captureTime: Long) {
+        var offset = 0
+        while (offset < length) {
+            val slot = ring.claimDirect() ?: return
+            val count = minOf(ring.frameSize, length - offset)
+            samples.limit(offset + count)
+            samples.position(offset)
+            slot.put(samples)
+            ring.publish(count, captureTime)
+            offset += count
+        }
+    }
+
+    /**
+     * Capture thread: copy the history into a new subscriber's ring, ahead of the current frame.
+     * A bounded in-memory copy (at most [PRE_ROLL_FRAMES] frames), so capture is not held up.
+     */
+    private fun replayPreRoll(subscription: Subscription, nativePreRoll: PreRollBuffer?) {
+        val history = if (subscription.isFullRate) nativePreRoll ?: preRoll else preRoll
+        val replayed = history.replayInto(subscription.ring, subscription.pendingPreRollFrames)
+        subscription.pendingPreRollFrames = 0
+        // Published last: subscribers read it to log how much history they got, without allocating here
+        subscription.preRollFrames = replayed
+    }
+}
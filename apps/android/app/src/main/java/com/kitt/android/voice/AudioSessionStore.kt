@@ -0,0 +1,262 @@
+package com.kitt.android.voice
+
+import java.io.File
+import java.io.IOException
+import java.io.InputStream
+import java.io.RandomAccessFile
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+import java.util.ArrayDeque
+import java.util.Locale
+
+/**
+ * Bounded store for a streaming session's PCM, readable back as a stream.
+ *
+ * Audio is appended into fixed-size direct chunks taken from a pool. Once the chunks in memory
+ * reach [maxMemoryBytes], the oldest full chunk is written to the end of [spillFile] and goes back
+ * to the pool, so memory stays at the cap however long the session runs, and nothing in the store
+ * is garbage for the collector. The spill file is append-only; if writing it fails, spilling stops
+ * and the oldest chunks are discarded instead, still within the cap.
+ *
+ * Byte offsets count from the start of the session: [0, spilled) is on disk, the rest in memory.
+ * [reset] starts a new session and keeps the chunks pooled for it.
+ * Thread-safe: one thread appends while others read through [openStream].
+ */
+class AudioSessionStore(
+    private val spillFile: File,
+    val chunkBytes: Int = 64 * 1024,
+    val maxMemoryBytes: Long = 2L * 1024 * 1024
+) {
+
+    private val lock = Object()
+    private val maxChunks = maxOf(2L, maxMemoryBytes / chunkBytes).toInt()
+    private val chunks = ArrayDeque<ByteBuffer>() // Oldest first; all full except the last
+    private val pool = ArrayDeque<ByteBuffer>()
+    private var channel: FileChannel? = null
+    private var allocatedChunks = 0
+    private var totalBytes = 0L
+    private var spilledBytes = 0L
+    private var memoryStart = 0L // Offset of the first byte in memory; above spilledBytes once audio was discarded
+    private var spillWrites = 0L
+    private var spillError: IOException? = null
+    private var isClosed = false
+
+    /**
+     * Append [length] bytes of [buffer] from position 0, e.g. a direct frame from the capture hub.
+     * The buffer's position is moved.
+     * @return Boolean indicating if everything appended so far is still retained; false once spilling
+     * has failed and older audio has been discarded.
+     */
+    fun append(buffer: ByteBuffer, length: Int): Boolean {
+        synchronized(lock) {
+            if (isClosed) return false
+            buffer.limit(length).position(0)
+            while (buffer.hasRemaining()) {
+                var chunk = chunks.peekLast()
+                if (chunk == null || !chunk.hasRemaining()) {
+                    chunk = takeChunk()
+                    chunks.addLast(chunk)
+                }
+                val count = minOf(chunk.remaining(), buffer.remaining())
+                val end = buffer.limit()
+                buffer.limit(buffer.position() + count)
+                chunk.put(buffer)
+                buffer.limit(end)
+                totalBytes += count
+            }
+            return spillError == null
+        }
+    }
+
+    /**
+     * A chunk for new audio: from the pool, newly allocated under the cap, or freed by spilling the oldest.
+     */
+    private fun takeChunk(): ByteBuffer {
+        pool.pollFirst()?.let { return it }
+        if (allocatedChunks < maxChunks) {
+            allocatedChunks++
+            return ByteBuffer.allocateDirect(chunkBytes)
+        }
+        val oldest = chunks.pollFirst()
+        spill(oldest)
+        memoryStart += chunkBytes
+        oldest.clear()
+        return oldest
+    }
+
+    private fun spill(chunk: ByteBuffer) {
+        if (spillError != null) return
+        try {
+            val fileChannel = channel ?: RandomAccessFile(spillFile, "rw").channel.also {
+                it.truncate(0)
+                channel = it
+            }
+            chunk.flip()
+            while (chunk.hasRemaining()) {
+                fileChannel.write(chunk, spilledBytes + chunk.position())
+            }
+            spilledBytes += chunkBytes
+            spillWrites++
+        } catch (e: IOException) {
+            spillError = e
+        }
+    }
+
+    /**
+     * Copy up to [length] bytes at session [offset] into [dst].
+     * @return Number of bytes copied, 0 if [offset] is in discarded audio, -1 at the end of the audio stored so far.
+     */
+    private fun readAt(offset: Long, dst: ByteArray, dstOffset: Int, length: Int): Int {
+        synchronized(lock) {
+            if (isClosed) throw IOException("Session store closed")
+            if (offset >= totalBytes) return -1
+            if (offset < spilledBytes) {
+                val count = minOf(length.toLong(), spilledBytes - offset).toInt()
+                val target = ByteBuffer.wrap(dst, dstOffset, count)
+                while (target.hasRemaining()) {
+                    if (channel!!.read(target, offset + target.position() - dstOffset) < 0) break
+                }
+                return target.position() - dstOffset
+            }
+            if (offset < memoryStart) return 0
+            val index = ((offset - memoryStart) / chunkBytes).toInt()
+            val within = ((offset - memoryStart) % chunkBytes).toInt()
+            val chunk = chunks.elementAt(index)
+            val count = minOf(length, chunk.position() - within)
+            val view = chunk.duplicate()
+            view.position(within)
+            view.get(dst, dstOffset, count)
+            return count
+        }
+    }
+
+    /**
+     * Read the session from its start (or its oldest retained audio) up to what has been appended
+     * when each read is made; the stream ends once it catches up. Several streams may be open.
+     */
+    fun openStream(): InputStream {
+        return object : InputStream() {
+            private var offset = 0L
+            private val single = ByteArray(1)
+
+            override fun read(): Int {
+                return if (read(single, 0, 1) <= 0) -1 else single[0].toInt() and 0xFF
+            }
+
+            override fun read(b: ByteArray, off: Int, len: Int): Int {
+                if (len == 0) return 0
+                while (true) {
+                    val count = readAt(offset, b, off, len)
+                    if (count < 0) return -1
+                    if (count > 0) {
+                        offset += count
+                        return count
+                    }
+                    // Discarded after a spill failure: continue with the oldest audio still in memory
+                    offset = synchronized(lock) { memoryStart }
+                }
+            }
+        }
+    }
+
+    /**
+     * Bytes appended since the session started, including any spilled or discarded.
+     */
+    fun totalBytes(): Long {
+        synchronized(lock) {
+            return totalBytes
+        }
+    }
+
+    /**
+     * Bytes of direct memory held by the store's chunks, in use or pooled.
+     */
+    fun memoryBytes(): Long {
+        synchronized(lock) {
+            return allocatedChunks.toLong() * chunkBytes
+        }
+    }
+
+    fun spilledBytes(): Long {
+        synchronized(lock) {
+            return spilledBytes
+        }
+    }
+
+    /**
+     * The error that stopped spilling, or null while the whole session is retained.
+     */
+    fun spillError(): IOException? {
+        synchronized(lock) {
+            return spillError
+        }
+    }
+
+    /**
+     * Start a new session: chunks go back to the pool and the spill file is emptied. Streams
+     * opened before continue at their offset in the new session's audio.
+     */
+    fun reset() {
+        synchronized(lock) {
+            if (isClosed) return
+            for (chunk in chunks) {
+                chunk.clear()
+                pool.addLast(chunk)
+            }
+            chunks.clear()
+            try {
+                channel?.truncate(0)
+            } catch (e: IOException) {
+                // Reopened and truncated by the next spill
+                channel = null
+            }
+            totalBytes = 0L
+            spilledBytes = 0L
+            memoryStart = 0L
+            spillWrites = 0L
+            spillError = null
+        }
+    }
+
+    /**
+     * Release the chunks and delete the spill file. Open streams fail afterwards.
+     */
+    fun close() {
+        synchronized(lock) {
+            if (isClosed) return
+            isClosed = true
+            chunks.clear()
+            pool.clear()
+            try {
+                channel?.close()
+            } catch (e: IOException) {
+                // Deleted below either way
+            }
+            channel = null
+            spillFile.delete()
+        }
+    }
+
+    /**
+     * Get session store statistics.
+     * @return String with the audio held, memory used against the cap, and audio spilled or discarded.
+     */
+    fun getStats(): String {
+        synchronized(lock) {
+            val discarded = memoryStart - spilledBytes
+            return String.format(
+                Locale.US,
+                "Session store: %.1fs of audio, memory %dKB of %dKB (%d chunks), spilled %.1fMB in %d writes%s",
+                totalBytes / (AUDIO_BYTES_PER_SECOND.toDouble()), allocatedChunks.toLong() * chunkBytes / 1024,
+                maxChunks.toLong() * chunkBytes / 1024, allocatedChunks, spilledBytes / (1024.0 * 1024.0), spillWrites,
+                if (spillError != null) String.format(Locale.US, ", spill failed (%.1fs discarded): %s",
+                    discarded / AUDIO_BYTES_PER_SECOND.toDouble(), spillError?.message) else ""
+            )
+        }
+    }
+
+    companion object {
+        /** 16-bit mono PCM at 16kHz, the rate the assistant receives. */
+        const val AUDIO_BYTES_PER_SECOND = 16000 * 2
+    }
+}
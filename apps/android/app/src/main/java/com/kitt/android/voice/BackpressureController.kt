@@ -0,0 +1,162 @@
+package com.kitt.android.voice
+
+import java.util.Locale
+
+private const val RTF_SMOOTHING = 0.05 // Per batch; a batch is usually one 20ms frame, so ~1s of memory
+private const val OVERLOAD_RTF = 1.0
+private const val RECOVERED_RTF = 0.8
+private const val OVERLOAD_DEPTH_MS = 300L // Backlog that means decoding has fallen behind
+private const val RECOVERED_DEPTH_MS = 60L
+private const val TARGET_DEPTH_MS = 100L // Backlog kept when dropping the oldest frames
+
+/**
+ * Detects when decoding falls behind real time and decides how the decode loop sheds load.
+ *
+ * The loop reports each batch: how long decoding took, how much audio it covered and how many
+ * frames are still waiting in the capture ring. A smoothed real-time factor above 1, or a backlog
+ * of [OVERLOAD_DEPTH_MS], puts the controller in [State.OVERLOADED] until both are back under
+ * their recovery thresholds. While overloaded the selected [Policy] applies; whatever the policy,
+ * a backlog of half the ring is cut down by dropping the oldest frames, because the capture
+ * thread would otherwise drop the newest ones when the ring fills.
+ *
+ * Used by the decode thread only; the policy may be changed from any thread.
+ */
+class BackpressureController(private val frameDurationMs: Long = AudioCaptureHub.FRAME_DURATION_MS) {
+
+    enum class Policy {
+        DROP_OLDEST, // Skip queued audio to get back to the live edge
+        SKIP_SILENCE, // Stop decoding the gate's hangover, then drop
+        COMMAND_MODE // Switch to the cheaper command grammar, then drop
+    }
+
+    enum class State {
+        NORMAL,
+        OVERLOADED
+    }
+
+    @Volatile
+    var policy = Policy.SKIP_SILENCE
+
+    @Volatile
+    var state = State.NORMAL
+        private set
+
+    private val overloadDepth = (OVERLOAD_DEPTH_MS / frameDurationMs).toInt()
+    private val recoveredDepth = (RECOVERED_DEPTH_MS / frameDurationMs).toInt()
+    private val targetDepth = (TARGET_DEPTH_MS / frameDurationMs).toInt()
+
+    @Volatile
+    private var realTimeFactor = 0.0
+    @Volatile
+    private var depth = 0
+    @Volatile
+    private var maxDepth = 0
+    @Volatile
+    private var droppedFrames = 0L
+    @Volatile
+    private var skippedFrames = 0L
+    @Volatile
+    private var overruns = 0L
+    @Volatile
+    private var overloads = 0L
+    private var overloadStartNanos = 0L
+    @Volatile
+    private var overloadedNanos = 0L
+
+    /**
+     * Account one decoded batch and update the state.
+     * @param decodeNanos Time spent gating and decoding the batch.
+     * @param frames Frames in the batch.
+     * @param queuedFrames Frames still waiting in the capture ring.
+     * @param ringOverruns The ring's overrun count: frames the capture thread could not queue.
+     * @return Boolean indicating if [state] changed.
+     */
+    fun onBatch(decodeNanos: Long, frames: Int, queuedFrames: Int, ringOverruns: Long): Boolean {
+        if (frames == 0) return false
+        val batchRtf = decodeNanos / (frames * frameDurationMs * 1_000_000.0)
+        realTimeFactor = if (realTimeFactor == 0.0) batchRtf else realTimeFactor + (batchRtf - realTimeFactor) * RTF_SMOOTHING
+        depth = queuedFrames
+        if (queuedFrames > maxDepth) maxDepth = queuedFrames
+        overruns = ringOverruns
+        val next = when (state) {
+            State.NORMAL -> if (realTimeFactor >= OVERLOAD_RTF || queuedFrames >= overloadDepth) State.OVERLOADED else State.NORMAL
+            State.OVERLOADED -> if (realTimeFactor < RECOVERED_RTF && queuedFrames <= recoveredDepth) State.NORMAL else State.OVERLOADED
+        }
+        if (next == state) return false
+        val now = System.nanoTime()
+        if (next == State.OVERLOADED) {
+            overloads++
+            overloadStartNanos = now
+        } else {
+            overloadedNanos += now - overloadStartNanos
+        }
+        state = next
+        return true
+    }
+
+    /**
+     * Number of the oldest queued frames to discard before decoding the next batch.
+     * @param ringCapacity Size of the capture ring holding [queuedFrames].
+     */
+    fun framesToDrop(queuedFrames: Int, ringCapacity: Int): Int {
+        val limit = if (state == State.OVERLOADED && policy == Policy.DROP_OLDEST) overloadDepth else ringCapacity / 2
+        return if (queuedFrames >= limit) queuedFrames - targetDepth else 0
+    }
+
+    /**
+     * Check if the gate should stop decoding non-speech frames inside speech segments.
+     */
+    fun skipSilence(): Boolean {
+        return state == State.OVERLOADED && policy == Policy.SKIP_SILENCE
+    }
+
+    fun onDropped(frames: Int) {
+        droppedFrames += frames
+    }
+
+    /**
+     * Update the running count of silent frames the gate skipped under [Policy.SKIP_SILENCE].
+     */
+    fun onSkipped(totalFrames: Long) {
+        skippedFrames = totalFrames
+    }
+
+    fun realTimeFactor(): Double {
+        return realTimeFactor
+    }
+
+    /**
+     * Audio lost so far: frames dropped by the policy plus frames the ring had no room for.
+     */
+    fun droppedMs(): Long {
+        return (droppedFrames + overruns) * frameDurationMs
+    }
+
+    /**
+     * Return to [State.NORMAL] and forget the smoothed load, e.g. when listening restarts on a new ring.
+     */
+    fun reset() {
+        // Overruns are counted per ring: keep the old ring's in the total
+        droppedFrames += overruns
+        overruns = 0L
+        if (state == State.OVERLOADED) {
+            overloadedNanos += System.nanoTime() - overloadStartNanos
+        }
+        state = State.NORMAL
+        realTimeFactor = 0.0
+        depth = 0
+    }
+
+    /**
+     * Get backpressure statistics.
+     * @return String with the running real-time factor, queue depth, audio dropped and skipped, and time overloaded.
+     */
+    fun getStats(): String {
+        return String.format(
+            Locale.US,
+            "Backpressure %s (%s): RTF %.2f, queue %dms (max %dms), dropped %dms, silence skipped %dms, %d overloads for %.1fs",
+            state, policy, realTimeFactor, depth * frameDurationMs, maxDepth * frameDurationMs,
+            droppedMs(), skippedFrames * frameDurationMs, overloads, overloadedNanos / 1e9
+        )
+    }
+}
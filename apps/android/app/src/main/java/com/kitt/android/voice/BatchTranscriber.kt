@@ -0,0 +1,456 @@
+package com.kitt.android.voice
+
+import org.vosk.Model
+import org.vosk.Recognizer
+import java.io.File
+import java.io.IOException
+import java.io.RandomAccessFile
+import java.util.Locale
+import java.util.concurrent.PriorityBlockingQueue
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+
+private const val BATCH_SAMPLE_RATE = 16000
+private const val CHUNK_SAMPLES = BATCH_SAMPLE_RATE / 2 // Pause requests are honoured every 0.5s of audio
+private const val POLL_MS = 500L
+
+/**
+ * Turns an audio file into 16kHz mono 16-bit PCM for [BatchTranscriber].
+ */
+interface AudioFileDecoder {
+    fun canDecode(file: File): Boolean
+
+    @Throws(IOException::class)
+    fun decode(file: File): ShortArray
+}
+
+/**
+ * Multi-core transcription of saved recordings.
+ * A pool of worker threads, each with its own Recognizer on one shared Model (Vosk
+ * reference-counts the model natively), takes files from a priority queue and writes each
+ * transcript next to its recording as a .txt file. Work can be paused between half-second
+ * chunks so it yields to live listening, and higher-priority files jump the queue.
+ *
+ * Depends only on the Vosk Java API and the JDK, so it also runs as a plain JVM tool on Linux
+ * (see BatchTranscriberMain.kt in the debug source set); Android-specific decoding is supplied
+ * through [AudioFileDecoder].
+ * @param threads Number of workers, normally one per core not needed for live work.
+ * @param writeTranscripts False to decode without writing (or skipping up-to-date) transcripts.
+ */
+class BatchTranscriber(
+    private val model: Model,
+    private val threads: Int,
+    private val decoder: AudioFileDecoder = WavFileDecoder(),
+    private val listener: Listener? = null,
+    private val writeTranscripts: Boolean = true
+) {
+
+    /**
+     * Progress events, raised on worker threads.
+     */
+    interface Listener {
+        fun onTranscribed(file: File, transcript: String, realTimeFactor: Double)
+        fun onFailed(file: File, error: Exception)
+    }
+
+    private class Job(val file: File, val priority: Int, val sequence: Long) : Comparable<Job> {
+        override fun compareTo(other: Job): Int {
+            // Higher priority first, then first come first served
+            return if (priority != other.priority) other.priority.compareTo(priority) else sequence.compareTo(other.sequence)
+        }
+    }
+
+    private val queue = PriorityBlockingQueue<Job>()
+    private val sequence = AtomicLong()
+    private val pending = AtomicInteger()
+    private val idleLock = Object()
+    private val pauseLock = Object()
+    @Volatile
+    private var paused = false
+    @Volatile
+    private var running = false
+    private val workers = ArrayList<Thread>()
+
+    private val filesDone = AtomicInteger()
+    private val filesFailed = AtomicInteger()
+    private val audioSamples = AtomicLong()
+    private val decodeNanos = AtomicLong()
+    private var startNanos = 0L
+
+    /**
+     * Start the worker threads. Each creates its recognizer on the shared model.
+     */
+    @Synchronized
+    fun start() {
+        if (running) return
+        running = true
+        startNanos = System.nanoTime()
+        for (i in 0 until threads) {
+            val worker = Thread({ work() }, "BatchTranscriber-$i")
+            worker.priority = Thread.MIN_PRIORITY
+            worker.isDaemon = true
+            workers.add(worker)
+            worker.start()
+        }
+    }
+
+    /**
+     * Stop the workers after their current chunk and free their recognizers.
+     * Queued files are dropped.
+     */
+    @Synchronized
+    fun shutdown() {
+        running = false
+        resume()
+        for (worker in workers) {
+            worker.interrupt()
+        }
+        for (worker in workers) {
+            try {
+                worker.join(2000)
+            } catch (e: InterruptedException) {
+                Thread.currentThread().interrupt()
+            }
+        }
+        workers.clear()
+        queue.clear()
+        pending.set(0)
+        synchronized(idleLock) {
+            idleLock.notifyAll()
+        }
+    }
+
+    /**
+     * Queue a recording. Files whose transcript is newer than the recording are skipped.
+     * @param priority Files with a higher priority are transcribed first.
+     * @return Boolean indicating if the file was queued; false once the workers have stopped.
+     */
+    fun submit(file: File, priority: Int = 0): Boolean {
+        if (!decoder.canDecode(file) || isTranscribed(file)) return false
+        synchronized(idleLock) {
+            if (!running) return false
+            pending.incrementAndGet()
+            queue.add(Job(file, priority, sequence.getAndIncrement()))
+        }
+        return true
+    }
+
+    /**
+     * Queue every decodable recording under [dir], recursively.
+     * @return Number of files queued.
+     */
+    fun submitDirectory(dir: File, priority: Int = 0): Int {
+        return dir.walkTopDown().filter { it.isFile }.sortedBy { it.path }.count { submit(it, priority) }
+    }
+
+    /**
+     * Hold the workers at their next chunk boundary, e.g. while live listening needs the CPU.
+     */
+    fun pause() {
+        paused = true
+    }
+
+    fun resume() {
+        synchronized(pauseLock) {
+            paused = false
+            pauseLock.notifyAll()
+        }
+    }
+
+    fun isPaused(): Boolean {
+        return paused
+    }
+
+    /**
+     * Check if the workers are running: false after [shutdown], or once a worker failed to start.
+     */
+    fun isRunning(): Boolean {
+        return running
+    }
+
+    /**
+     * Number of queued or in-progress files.
+     */
+    fun pendingCount(): Int {
+        return pending.get()
+    }
+
+    /**
+     * Wait until every queued file has been processed.
+     * @return Boolean indicating if the queue drained within [timeoutMs].
+     */
+    fun awaitIdle(timeoutMs: Long): Boolean {
+        val now = System.currentTimeMillis()
+        val deadline = if (timeoutMs >= Long.MAX_VALUE - now) Long.MAX_VALUE else now + timeoutMs
+        synchronized(idleLock) {
+            while (pending.get() > 0) {
+                val remaining = deadline - System.currentTimeMillis()
+                if (remaining <= 0) return false
+                idleLock.wait(remaining)
+            }
+        }
+        return true
+    }
+
+    /**
+     * Get batch statistics.
+     * @return String with files done, audio processed and real-time factors.
+     */
+    fun getStats(): String {
+        val audioSeconds = audioSamples.get().toDouble() / BATCH_SAMPLE_RATE
+        val wallSeconds = if (startNanos > 0) (System.nanoTime() - startNanos) / 1e9 else 0.0
+        val decodeSeconds = decodeNanos.get() / 1e9
+        return String.format(
+            Locale.US,
+            "Batch (%d workers): %d files, %d failed, %d pending, %.1fs audio, RTF %.3f per worker, %.3f wall clock%s",
+            threads, filesDone.get(), filesFailed.get(), pending.get(), audioSeconds,
+            if (audioSeconds > 0) decodeSeconds / audioSeconds else 0.0,
+            if (audioSeconds > 0) wallSeconds / audioSeconds else 0.0,
+            if (paused) " (paused)" else ""
+        )
+    }
+
+    /**
+     * A worker could not create its recognizer: stop the pool and count everything still queued as
+     * failed, so [awaitIdle] returns once the other workers finish their current file.
+     */
+    private fun failQueued(error: Exception) {
+        val dropped = ArrayList<Job>()
+        synchronized(idleLock) {
+            running = false
+            queue.drainTo(dropped)
+            if (pending.addAndGet(-dropped.size) <= 0) {
+                idleLock.notifyAll()
+            }
+        }
+        filesFailed.addAndGet(dropped.size)
+        for (job in dropped) {
+            listener?.onFailed(job.file, error)
+        }
+    }
+
+    private fun work() {
+        val recognizer = try {
+            Recognizer(model, BATCH_SAMPLE_RATE.toFloat())
+        } catch (e: Exception) {
+            failQueued(e)
+            return
+        }
+        val reader = VoskResultReader()
+        val event = RecognitionEvent()
+        try {
+            while (running) {
+                val job = try {
+                    queue.poll(POLL_MS, TimeUnit.MILLISECONDS)
+                } catch (e: InterruptedException) {
+                    break
+                } ?: continue
+                try {
+                    // Also queued at a higher priority, or transcribed since it was queued
+                    if (!isTranscribed(job.file)) transcribe(job.file, recognizer, reader, event)
+                } catch (e: InterruptedException) {
+                    break
+                } catch (e: Exception) {
+                    filesFailed.incrementAndGet()
+                    listener?.onFailed(job.file, e)
+                } finally {
+                    recognizer.reset()
+                    if (pending.decrementAndGet() <= 0) {
+                        synchronized(idleLock) {
+                            idleLock.notifyAll()
+                        }
+                    }
+                }
+            }
+        } finally {
+            recognizer.close()
+        }
+    }
+
+    private fun transcribe(file: File, recognizer: Recognizer, reader: VoskResultReader, event: RecognitionEvent) {
+        val samples = decoder.decode(file)
+        val transcript = StringBuilder()
+        val chunk = ShortArray(CHUNK_SAMPLES)
+        var fileNanos = 0L
+        var offset = 0
+        while (offset < samples.size) {
+            awaitResumed()
+            val count = minOf(chunk.size, samples.size - offset)
+            System.arraycopy(samples, offset, chunk, 0, count)
+            val start = System.nanoTime()
+            val isFinal = recognizer.acceptWaveForm(chunk, count)
+            fileNanos += System.nanoTime() - start
+            if (isFinal) {
+                appendText(transcript, recognizer.result, reader, event)
+            }
+            offset += count
+        }
+        val start = System.nanoTime()
+        appendText(transcript, recognizer.finalResult, reader, event)
+        fileNanos += System.nanoTime() - start
+        val text = transcript.toString().trim()
+        if (writeTranscripts) {
+            writeTranscript(file, text)
+        }
+        filesDone.incrementAndGet()
+        audioSamples.addAndGet(samples.size.toLong())
+        decodeNanos.addAndGet(fileNanos)
+        val audioNanos = samples.size * 1_000_000_000L / BATCH_SAMPLE_RATE
+        listener?.onTranscribed(file, text, if (audioNanos > 0) fileNanos.toDouble() / audioNanos else 0.0)
+    }
+
+    private fun isTranscribed(file: File): Boolean {
+        if (!writeTranscripts) return false
+        val transcript = transcriptFile(file)
+        return transcript.exists() && transcript.lastModified() >= file.lastModified()
+    }
+
+    private fun awaitResumed() {
+        if (!paused) return
+        synchronized(pauseLock) {
+            while (paused && running) {
+                pauseLock.wait(POLL_MS)
+            }
+        }
+    }
+
+    private fun writeTranscript(file: File, text: String) {
+        val target = transcriptFile(file)
+        val temp = File(target.parentFile, target.name + ".tmp")
+        temp.writeText(text + "\n")
+        if (!temp.renameTo(target)) {
+            temp.delete()
+            throw IOException("Could not write ${target.path}")
+        }
+    }
+
+    private fun appendText(transcript: StringBuilder, json: String?, reader: VoskResultReader, event: RecognitionEvent) {
+        // The streaming reader needs no JSON library, so this class still runs on a plain JVM
+        reader.read(json, event)
+        if (!event.isEmpty()) {
+            transcript.append(' ').append(event.text)
+        }
+    }
+
+    companion object {
+        /**
+         * The transcript written for a recording: same name, .txt extension.
+         */
+        @JvmStatic
+        fun transcriptFile(recording: File): File {
+            return File(recording.parentFile, recording.nameWithoutExtension + ".txt")
+        }
+
+        /**
+         * Transcribe the same files with 1 to [maxThreads] workers and report how the wall-clock
+         * real-time factor scales with the number of cores. Transcripts are not written.
+         * @return String with one line per worker count.
+         */
+        @JvmStatic
+        fun measureScaling(model: Model, files: List<File>, maxThreads: Int, decoder: AudioFileDecoder = WavFileDecoder()): String {
+            val report = StringBuilder("Batch scaling over ${files.size} files:")
+            var singleCoreRtf = 0.0
+            for (threads in 1..maxThreads) {
+                val transcriber = BatchTranscriber(model, threads, decoder, writeTranscripts = false)
+                transcriber.start()
+                val start = System.nanoTime()
+                for (file in files) {
+                    transcriber.submit(file)
+                }
+                transcriber.awaitIdle(Long.MAX_VALUE)
+                val wallNanos = System.nanoTime() - start
+                val audioNanos = transcriber.audioSamples.get() * 1_000_000_000L / BATCH_SAMPLE_RATE
+                transcriber.shutdown()
+                if (audioNanos == 0L) {
+                    return "Batch scaling: no decodable audio"
+                }
+                val rtf = wallNanos.toDouble() / audioNanos
+                if (threads == 1) singleCoreRtf = rtf
+                report.append(String.format(Locale.US, "\n  %d cores: RTF %.3f, speedup %.2fx", threads, rtf, singleCoreRtf / rtf))
+            }
+            return report.toString()
+        }
+    }
+}
+
+/**
+ * Reads 16-bit PCM WAV files of any sample rate and channel count, downmixed to mono and
+ * resampled to 16kHz. Pure JDK, so it works in the JVM tool.
+ */
+class WavFileDecoder : AudioFileDecoder {
+
+    override fun canDecode(file: File): Boolean {
+        return file.extension.equals("wav", ignoreCase = true)
+    }
+
+    override fun decode(file: File): ShortArray {
+        RandomAccessFile(file, "r").use { raf ->
+            val header = ByteArray(12)
+            raf.readFully(header)
+            if (String(header, 0, 4, Charsets.US_ASCII) != "RIFF" || String(header, 8, 4, Charsets.US_ASCII) != "WAVE") {
+                throw IOException("${file.name} is not a WAV file")
+            }
+            var channels = 1
+            var sampleRate = BATCH_SAMPLE_RATE
+            var bitsPerSample = 16
+            val chunkHeader = ByteArray(8)
+            while (raf.filePointer + 8 <= raf.length()) {
+                raf.readFully(chunkHeader)
+                val id = String(chunkHeader, 0, 4, Charsets.US_ASCII)
+                val size = littleEndianInt(chunkHeader, 4)
+                if (id == "fmt ") {
+                    val fmt = ByteArray(size)
+                    raf.readFully(fmt)
+                    channels = (fmt[2].toInt() and 0xFF) or ((fmt[3].toInt() and 0xFF) shl 8)
+                    sampleRate = littleEndianInt(fmt, 4)
+                    bitsPerSample = (fmt[14].toInt() and 0xFF) or ((fmt[15].toInt() and 0xFF) shl 8)
+                    if (size and 1 == 1) raf.skipBytes(1)
+                    continue
+                }
+                if (id == "data") {
+                    if (bitsPerSample != 16) {
+                        throw IOException("${file.name}: $bitsPerSample-bit audio is not supported")
+                    }
+                    val bytes = ByteArray(minOf(size.toLong(), raf.length() - raf.filePointer).toInt())
+                    raf.readFully(bytes)
+                    val samples = ShortArray(bytes.size / 2)
+                    for (i in samples.indices) {
+                        samples[i] = ((bytes[i * 2].toInt() and 0xFF) or (bytes[i * 2 + 1].toInt() shl 8)).toShort()
+                    }
+                    return toMono16k(samples, sampleRate, channels)
+                }
+                raf.seek(raf.filePointer + size + (size and 1))
+            }
+        }
+        throw IOException("${file.name} has no data chunk")
+    }
+
+    private fun littleEndianInt(bytes: ByteArray, offset: Int): Int {
+        return (bytes[offset].toInt() and 0xFF) or
+            ((bytes[offset + 1].toInt() and 0xFF) shl 8) or
+            ((bytes[offset + 2].toInt() and 0xFF) shl 16) or
+            ((bytes[offset + 3].toInt() and 0xFF) shl 24)
+    }
+
+    companion object {
+        /**
+         * Downmix interleaved PCM to mono and resample it to 16kHz with [PolyphaseResampler],
+         * which filters out what would alias into the speech band.
+         */
+        @JvmStatic
+        fun toMono16k(interleaved: ShortArray, sampleRate: Int, channels: Int): ShortArray {
+            val channelCount = maxOf(channels, 1)
+            val frames = interleaved.size / channelCount
+            val mono = if (channelCount == 1) interleaved else ShortArray(frames) { i ->
+                var sum = 0
+                for (c in 0 until channelCount) sum += interleaved[i * channelCount + c]
+                (sum / channelCount).toShort()
+            }
+            if (sampleRate == BATCH_SAMPLE_RATE || frames == 0) {
+                return mono
+            }
+            return PolyphaseResampler.resample(mono, sampleRate, BATCH_SAMPLE_RATE)
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.kitt.android.voice
+
+import android.util.Log
+import com.sun.jna.Native
+import com.sun.jna.Pointer
+import org.vosk.Recognizer
+import java.nio.Buffer
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.nio.ShortBuffer
+
+private const val TAG = "DirectWaveform"
+
+/**
+ * Feeds PCM to a Vosk recognizer from direct (off-heap) memory.
+ *
+ * `Recognizer.acceptWaveForm(short[], int)` goes through JNA, which marshals the array with
+ * Get/ReleaseShortArrayElements: on ART that copies the frame into native memory and back out
+ * again on every call. The same libvosk entry point is registered here a second time taking a
+ * `Buffer`, which JNA passes by address, so a frame that already lives in a direct buffer (a
+ * direct [PcmFrameRing] slot) is decoded in place. Frames that only exist as a `ShortArray`
+ * are staged through one preallocated direct buffer: a single copy, and no copy back.
+ *
+ * If the direct entry point cannot be registered, every call falls back to the array API.
+ * One instance per decode thread.
+ */
+class DirectWaveform(maxSamples: Int = AudioCaptureHub.FRAME_SIZE * 4) {
+
+    private val staging = ByteBuffer.allocateDirect(maxSamples * 2).order(ByteOrder.nativeOrder())
+    private val stagingShorts: ShortBuffer = staging.asShortBuffer()
+    private val fallback = ShortArray(maxSamples)
+
+    /**
+     * Decode [length] samples held in [frame], staged through the direct buffer.
+     * @return Boolean indicating if the recognizer reached a final result, as acceptWaveForm.
+     */
+    fun accept(recognizer: Recognizer, frame: ShortArray, length: Int): Boolean {
+        if (!isAvailable || length > stagingShorts.capacity()) {
+            return recognizer.acceptWaveForm(frame, length)
+        }
+        stagingShorts.clear()
+        stagingShorts.put(frame, 0, length)
+        return VoskDirect.acceptWaveform(recognizer.pointer, staging, length * 2)
+    }
+
+    /**
+     * Decode [length] samples from the start of [buffer], a native-order direct buffer, in place.
+     * The buffer's position and limit are left untouched.
+     */
+    fun accept(recognizer: Recognizer, buffer: ByteBuffer, length: Int): Boolean {
+        if (isAvailable && buffer.isDirect) {
+            return VoskDirect.acceptWaveform(recognizer.pointer, buffer, length * 2)
+        }
+        // Heap copy for the array API; the buffer is read with absolute gets so its position stays put
+        val count = minOf(length, fallback.size)
+        for (i in 0 until count) {
+            fallback[i] = buffer.getShort(i * 2)
+        }
+        return recognizer.acceptWaveForm(fallback, count)
+    }
+
+    /**
+     * JNA direct mapping of the libvosk entry point behind `acceptWaveForm(byte[], int)`.
+     * JNA passes a direct buffer as its base address, ignoring its position.
+     */
+    private object VoskDirect {
+        @JvmStatic
+        external fun vosk_recognizer_accept_waveform(recognizer: Pointer, data: Buffer, length: Int): Boolean
+
+        fun acceptWaveform(recognizer: Pointer, data: ByteBuffer, bytes: Int): Boolean {
+            return vosk_recognizer_accept_waveform(recognizer, data, bytes)
+        }
+    }
+
+    companion object {
+        /** Whether the direct entry point was registered; false means every call uses the array API. */
+        @JvmStatic
+        val isAvailable: Boolean by lazy {
+            try {
+                // Loading the Vosk bindings first makes sure libvosk is resolved the same way
+                Class.forName("org.vosk.LibVosk")
+                Native.register(VoskDirect::class.java, "vosk")
+                Log.i(TAG, "Direct waveform entry point registered")
+                true
+            } catch (e: Throwable) {
+                Log.w(TAG, "Direct waveform entry point unavailable, using the array API: ${e.message}")
+                false
+            }
+        }
+    }
+}
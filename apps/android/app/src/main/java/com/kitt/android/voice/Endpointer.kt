@@ -0,0 +1,265 @@
+package com.kitt.android.voice
+
+import android.util.Log
+
+private const val TAG = "Endpointer"
+private const val PAUSE_ALPHA = 0.1 // Weight of each new within-utterance pause
+private const val NOISE_ALPHA = 0.05 // Weight of each background frame in the noise floor
+private const val LEVEL_ALPHA = 0.02 // Weight of each speech frame in the speech level
+private const val NOISE_SHIFT_DB = 6.0 // Cabin noise change that invalidates learned pauses
+private val GAP_BUCKET_LIMITS_MS = longArrayOf(100, 200, 300, 500, 800, 1200)
+
+/**
+ * Decides when an utterance is over, instead of waiting for the recognizer's own endpoint.
+ *
+ * Three signals are combined on the decode thread, one call per gated frame:
+ * - trailing silence from the voice activity gate, against a threshold learned from the pauses
+ *   the current speaker makes inside utterances (a pause followed by more speech);
+ * - partial stability: once the partial text has stopped changing, a shorter silence is enough;
+ * - a maximum utterance length, so continuous speech or noise still produces finals.
+ *
+ * Cabin noise is tracked as a floor under the background frames. Low SNR makes short noise bursts
+ * look like speech, so more consecutive speech frames are needed to break a trailing silence; and
+ * when the floor moves by more than 6dB (window down, fan up) the learned pauses are trusted less
+ * until they are re-learned.
+ *
+ * The gap between the end of speech and delivery of the final result is kept as a histogram.
+ */
+class Endpointer(
+    private val frameDurationMs: Long = AudioCaptureHub.FRAME_DURATION_MS,
+    private val minSilenceMs: Long = 250L,
+    val maxSilenceMs: Long = 1200L,
+    private val stablePartialMs: Long = 500L,
+    maxUtteranceMs: Long = 15000L
+) {
+
+    enum class Reason {
+        RECOGNIZER, // The recognizer's own endpoint
+        SILENCE, // Trailing silence over the adaptive threshold
+        STABLE_PARTIAL, // Short silence after the partial stopped changing
+        MAX_LENGTH, // Utterance reached the configured maximum
+        GATE // The voice activity gate closed first
+    }
+
+    @Volatile
+    var maxUtteranceMs: Long = maxUtteranceMs
+        set(value) {
+            field = value.coerceAtLeast(frameDurationMs)
+        }
+
+    // Written by whichever thread reports partials, read by the decode thread
+    @Volatile
+    private var partialVersion = 0
+    @Volatile
+    private var partialHasText = false
+    private var partialHash = 0
+
+    // Decode thread state
+    private var utteranceFrames = 0
+    private var trailingSilenceFrames = 0
+    private var speechRunFrames = 0
+    @Volatile
+    private var awaitingSpeech = true
+    private var seenPartialVersion = 0
+    private var partialChangeFrame = 0
+    @Volatile
+    private var lastSpeechNanos = 0L
+    private var pauseMeanMs = 300.0
+    private var pauseDevMs = 100.0
+    private var noiseFloor = 0.0
+    private var learnedNoiseFloor = 0.0
+    private var speechLevel = 0.0
+
+    private val gapCounts = LongArray(GAP_BUCKET_LIMITS_MS.size + 1)
+    private val reasonCounts = LongArray(Reason.values().size)
+    private var gapTotalMs = 0L
+    private var gapMaxMs = 0L
+    private var gapSamples = 0L
+
+    /**
+     * A gated speech segment opened.
+     */
+    fun onSpeechStart() {
+        utteranceFrames = 0
+        trailingSilenceFrames = 0
+        speechRunFrames = 0
+        partialChangeFrame = 0
+        seenPartialVersion = partialVersion
+    }
+
+    /**
+     * Track the noise floor from a frame the gate kept out of the recognizer.
+     */
+    fun onBackground(rms: Float) {
+        noiseFloor = if (noiseFloor == 0.0) rms.toDouble() else noiseFloor + NOISE_ALPHA * (rms - noiseFloor)
+    }
+
+    /**
+     * Latest partial text, possibly empty. May be called from any single thread; only a hash of
+     * the text is kept, so a reused buffer can be passed.
+     */
+    fun onPartial(text: CharSequence) {
+        var hash = 0
+        for (i in 0 until text.length) {
+            hash = 31 * hash + text[i].code
+        }
+        if (hash == partialHash && text.isNotEmpty() == partialHasText) return
+        partialHash = hash
+        partialHasText = text.isNotEmpty()
+        partialVersion++
+    }
+
+    /**
+     * Account one frame of an open speech segment.
+     * @param isSpeech The detector's decision for this frame, false for hangover frames.
+     * @param captureTimeNanos When the frame left the microphone.
+     * @return The reason to force a final result now, or null to keep decoding.
+     */
+    fun onFrame(isSpeech: Boolean, rms: Float, captureTimeNanos: Long): Reason? {
+        speechRunFrames = if (isSpeech) speechRunFrames + 1 else 0
+        if (isSpeech && (trailingSilenceFrames == 0 || speechRunFrames >= burstFrames())) {
+            if (trailingSilenceFrames > speechRunFrames && !awaitingSpeech) {
+                learnPause((trailingSilenceFrames - speechRunFrames + 1) * frameDurationMs)
+            }
+            trailingSilenceFrames = 0
+            awaitingSpeech = false
+            lastSpeechNanos = captureTimeNanos
+            speechLevel = if (speechLevel == 0.0) rms.toDouble() else speechLevel + LEVEL_ALPHA * (rms - speechLevel)
+        } else {
+            // Silence, or a burst too short to count as speech at this noise level
+            trailingSilenceFrames++
+        }
+        if (awaitingSpeech) {
+            return null
+        }
+        utteranceFrames++
+        if (partialVersion != seenPartialVersion) {
+            seenPartialVersion = partialVersion
+            partialChangeFrame = utteranceFrames
+        }
+        val silenceMs = trailingSilenceFrames * frameDurationMs
+        return when {
+            utteranceFrames * frameDurationMs >= maxUtteranceMs -> Reason.MAX_LENGTH
+            silenceMs >= silenceThresholdMs() -> Reason.SILENCE
+            silenceMs >= minSilenceMs && partialHasText &&
+                (utteranceFrames - partialChangeFrame) * frameDurationMs >= stablePartialMs -> Reason.STABLE_PARTIAL
+            else -> null
+        }
+    }
+
+    /**
+     * A final result was delivered. Records the end-of-speech-to-final gap and waits for new speech
+     * before the next decision. Backends may deliver finals on their own thread; at worst the
+     * decision for the frame being accounted concurrently is taken on stale state.
+     */
+    fun onFinal(reason: Reason) {
+        val speechEndNanos = lastSpeechNanos
+        if (!awaitingSpeech && speechEndNanos != 0L) {
+            recordGap(reason, (System.nanoTime() - speechEndNanos) / 1_000_000L)
+        }
+        reset()
+    }
+
+    /**
+     * Drop the state of the current utterance, keeping what was learned about the speaker and cabin.
+     */
+    fun reset() {
+        awaitingSpeech = true
+        utteranceFrames = 0
+        trailingSilenceFrames = 0
+        speechRunFrames = 0
+        partialHash = 0
+        partialHasText = false
+        seenPartialVersion = partialVersion
+        partialChangeFrame = 0
+    }
+
+    /**
+     * Trailing silence that ends an utterance whose partial is still changing: the speaker's usual
+     * within-utterance pause plus two deviations, bounded to [minSilenceMs, maxSilenceMs].
+     */
+    fun silenceThresholdMs(): Long {
+        var deviation = pauseDevMs
+        if (learnedNoiseFloor > 0.0 && noiseFloor > 0.0 &&
+            Math.abs(decibels(noiseFloor / learnedNoiseFloor)) > NOISE_SHIFT_DB) {
+            // Pauses were learned in different cabin noise: be conservative until re-learned
+            deviation = maxOf(deviation, 200.0)
+        }
+        return (pauseMeanMs + 2 * deviation).toLong().coerceIn(minSilenceMs, maxSilenceMs)
+    }
+
+    /**
+     * Forget the learned speaker pauses, e.g. when a different person starts talking.
+     */
+    fun resetAdaptation() {
+        pauseMeanMs = 300.0
+        pauseDevMs = 100.0
+        learnedNoiseFloor = 0.0
+        Log.i(TAG, "Endpointing adaptation reset")
+    }
+
+    /**
+     * Get endpointing statistics.
+     * @return String with the current silence threshold, SNR, finals by reason and the
+     * end-of-speech-to-final histogram.
+     */
+    fun getStats(): String {
+        val histogram = StringBuilder()
+        val reasons: String
+        val summary: String
+        synchronized(gapCounts) {
+            for (i in gapCounts.indices) {
+                val label = if (i < GAP_BUCKET_LIMITS_MS.size) "<${GAP_BUCKET_LIMITS_MS[i]}" else ">=${GAP_BUCKET_LIMITS_MS.last()}"
+                histogram.append(if (i == 0) "" else " ").append(label).append(':').append(gapCounts[i])
+            }
+            reasons = Reason.values().joinToString { "${it.name.lowercase()} ${reasonCounts[it.ordinal]}" }
+            summary = if (gapSamples == 0L) "no finals yet" else "avg ${gapTotalMs / gapSamples}ms, max ${gapMaxMs}ms over $gapSamples finals"
+        }
+        val snr = if (noiseFloor > 0.0 && speechLevel > 0.0) String.format("%.0fdB", decibels(speechLevel / noiseFloor)) else "-"
+        return "Endpoint: silence ${silenceThresholdMs()}ms, SNR $snr, max ${maxUtteranceMs}ms; ($reasons); " +
+            "speech-to-final $summary [$histogram]"
+    }
+
+    private fun learnPause(pauseMs: Long) {
+        if (pauseMs > maxSilenceMs) return
+        val delta = pauseMs - pauseMeanMs
+        pauseMeanMs += PAUSE_ALPHA * delta
+        pauseDevMs += PAUSE_ALPHA * (Math.abs(delta) - pauseDevMs)
+        learnedNoiseFloor = if (learnedNoiseFloor == 0.0) noiseFloor else learnedNoiseFloor + PAUSE_ALPHA * (noiseFloor - learnedNoiseFloor)
+    }
+
+    /**
+     * Consecutive speech frames needed to end a silence: 40ms in a quiet cabin, up to 80ms in noise.
+     */
+    private fun burstFrames(): Int {
+        if (noiseFloor <= 0.0 || speechLevel <= 0.0) return 2
+        val snrDb = decibels(speechLevel / noiseFloor)
+        return when {
+            snrDb < 10.0 -> 4
+            snrDb < 20.0 -> 3
+            else -> 2
+        }
+    }
+
+    private fun recordGap(reason: Reason, gapMs: Long) {
+        var bucket = GAP_BUCKET_LIMITS_MS.size
+        for (i in GAP_BUCKET_LIMITS_MS.indices) {
+            if (gapMs < GAP_BUCKET_LIMITS_MS[i]) {
+                bucket = i
+                break
+            }
+        }
+        synchronized(gapCounts) {
+            gapCounts[bucket]++
+            reasonCounts[reason.ordinal]++
+            gapTotalMs += gapMs
+            gapSamples++
+            if (gapMs > gapMaxMs) gapMaxMs = gapMs
+        }
+        Log.d(TAG, "Final by ${reason.name.lowercase()} ${gapMs}ms after end of speech")
+    }
+
+    private fun decibels(ratio: Double): Double {
+        return 20.0 * Math.log10(maxOf(ratio, 1e-6))
+    }
+}
@@ -0,0 +1,63 @@
+package com.kitt.android.voice
+
+private const val INITIAL_NOISE_FLOOR = 50.0f // 16-bit RMS of a quiet cabin
+
+/**
+ * Voice activity detector based on frame energy and zero-crossing rate.
+ * The energy threshold follows an adaptive noise floor so that constant road and
+ * engine noise is treated as silence. Voiced speech is caught by energy alone;
+ * unvoiced fricatives ("s", "f") are quieter but have a high zero-crossing rate.
+ */
+class EnergyZcrDetector(
+    private val speechRatio: Float = 3.0f,
+    private val fricativeRatio: Float = 1.5f,
+    private val fricativeZcr: Float = 0.3f,
+    private val minSpeechRms: Float = 100.0f,
+    private val onsetFrames: Int = 2
+) : VoiceActivityDetector {
+
+    override val name = "energy-zcr"
+
+    private var noiseFloor = INITIAL_NOISE_FLOOR
+    private var consecutiveSpeech = 0
+
+    override fun isSpeech(frame: ShortArray, length: Int, rms: Float): Boolean {
+        if (length <= 1) return false
+        var crossings = 0
+        var previous = frame[0] >= 0
+        for (i in 1 until length) {
+            val current = frame[i] >= 0
+            if (current != previous) crossings++
+            previous = current
+        }
+        val zcr = crossings.toFloat() / (length - 1)
+
+        val loud = rms > minSpeechRms && rms > noiseFloor * speechRatio
+        val fricative = rms > minSpeechRms / 2 && rms > noiseFloor * fricativeRatio && zcr > fricativeZcr
+        val candidate = loud || fricative
+
+        // Track the floor quickly downwards and slowly upwards, only outside speech
+        if (rms < noiseFloor) {
+            noiseFloor = noiseFloor * 0.9f + rms * 0.1f
+        } else if (!candidate) {
+            noiseFloor = noiseFloor * 0.995f + rms * 0.005f
+        }
+        noiseFloor = maxOf(noiseFloor, 1.0f)
+
+        // Require a short run of speech frames so isolated clicks do not open the gate
+        consecutiveSpeech = if (candidate) consecutiveSpeech + 1 else 0
+        return consecutiveSpeech >= onsetFrames
+    }
+
+    override fun reset() {
+        noiseFloor = INITIAL_NOISE_FLOOR
+        consecutiveSpeech = 0
+    }
+
+    /**
+     * Current estimate of the background noise RMS.
+     */
+    fun noiseFloor(): Float {
+        return noiseFloor
+    }
+}
@@ -0,0 +1,108 @@
+package com.kitt.android.voice
+
+import android.media.AudioFormat
+import android.media.MediaCodec
+import android.media.MediaExtractor
+import android.media.MediaFormat
+import java.io.ByteArrayOutputStream
+import java.io.File
+import java.io.IOException
+import java.nio.ByteOrder
+
+private const val DEQUEUE_TIMEOUT_US = 10_000L
+
+/**
+ * Decodes compressed recordings (.3gp AMR from older builds, .m4a, ...) to 16kHz mono PCM with
+ * the platform codecs for [BatchTranscriber]. WAV files are read directly by [WavFileDecoder].
+ */
+class MediaCodecFileDecoder : AudioFileDecoder {
+
+    private val wavDecoder = WavFileDecoder()
+
+    override fun canDecode(file: File): Boolean {
+        return wavDecoder.canDecode(file) || file.extension.lowercase() in COMPRESSED_EXTENSIONS
+    }
+
+    override fun decode(file: File): ShortArray {
+        if (wavDecoder.canDecode(file)) {
+            return wavDecoder.decode(file)
+        }
+        val extractor = MediaExtractor()
+        var codec: MediaCodec? = null
+        try {
+            extractor.setDataSource(file.absolutePath)
+            val track = (0 until extractor.trackCount).firstOrNull {
+                extractor.getTrackFormat(it).getString(MediaFormat.KEY_MIME)?.startsWith("audio/") == true
+            } ?: throw IOException("${file.name} has no audio track")
+            extractor.selectTrack(track)
+            val inputFormat = extractor.getTrackFormat(track)
+            val decoder = MediaCodec.createDecoderByType(inputFormat.getString(MediaFormat.KEY_MIME)!!)
+            codec = decoder
+            decoder.configure(inputFormat, null, null, 0)
+            decoder.start()
+
+            val pcm = ByteArrayOutputStream()
+            var sampleRate = inputFormat.getInteger(MediaFormat.KEY_SAMPLE_RATE)
+            var channels = inputFormat.getInteger(MediaFormat.KEY_CHANNEL_COUNT)
+            val info = MediaCodec.BufferInfo()
+            var inputDone = false
+            var outputDone = false
+            var chunk = ByteArray(0)
+            while (!outputDone) {
+                if (!inputDone) {
+                    val inputIndex = decoder.dequeueInputBuffer(DEQUEUE_TIMEOUT_US)
+                    if (inputIndex >= 0) {
+                        val size = extractor.readSampleData(decoder.getInputBuffer(inputIndex)!!, 0)
+                        if (size < 0) {
+                            decoder.queueInputBuffer(inputIndex, 0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM)
+                            inputDone = true
+                        } else {
+                            decoder.queueInputBuffer(inputIndex, 0, size, extractor.sampleTime, 0)
+                            extractor.advance()
+                        }
+                    }
+                }
+                val outputIndex = decoder.dequeueOutputBuffer(info, DEQUEUE_TIMEOUT_US)
+                if (outputIndex == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                    val outputFormat = decoder.outputFormat
+                    sampleRate = outputFormat.getInteger(MediaFormat.KEY_SAMPLE_RATE)
+                    channels = outputFormat.getInteger(MediaFormat.KEY_CHANNEL_COUNT)
+                    if (outputFormat.containsKey(MediaFormat.KEY_PCM_ENCODING) &&
+                        outputFormat.getInteger(MediaFormat.KEY_PCM_ENCODING) != AudioFormat.ENCODING_PCM_16BIT) {
+                        throw IOException("${file.name}: decoder output is not 16-bit PCM")
+                    }
+                } else if (outputIndex >= 0) {
+                    if (info.size > 0) {
+                        val buffer = decoder.getOutputBuffer(outputIndex)!!
+                        if (chunk.size < info.size) chunk = ByteArray(info.size)
+                        buffer.position(info.offset)
+                        buffer.get(chunk, 0, info.size)
+                        pcm.write(chunk, 0, info.size)
+                    }
+                    decoder.releaseOutputBuffer(outputIndex, false)
+                    outputDone = info.flags and MediaCodec.BUFFER_FLAG_END_OF_STREAM != 0
+                }
+            }
+            val bytes = java.nio.ByteBuffer.wrap(pcm.toByteArray()).order(ByteOrder.LITTLE_ENDIAN).asShortBuffer()
+            val samples = ShortArray(bytes.remaining())
+            bytes.get(samples)
+            return WavFileDecoder.toMono16k(samples, sampleRate, channels)
+        } catch (e: IOException) {
+            throw e
+        } catch (e: Exception) {
+            throw IOException("Failed to decode ${file.name}: ${e.message}", e)
+        } finally {
+            try {
+                codec?.stop()
+            } catch (e: IllegalStateException) {
+                // Never started
+            }
+            codec?.release()
+            extractor.release()
+        }
+    }
+
+    companion object {
+        private val COMPRESSED_EXTENSIONS = setOf("3gp", "amr", "m4a", "aac", "ogg", "opus")
+    }
+}
@@ -0,0 +1,138 @@
+package com.kitt.android.voice
+
+import android.util.Log
+import org.vosk.Recognizer
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.locks.LockSupport
+
+private const val TAG = "ParallelDecoder"
+private const val RING_FRAMES = 128
+
+/**
+ * Runs a second recognizer on its own thread, fed frame by frame from the decode thread
+ * through a private frame ring, so two decoders can work on the same audio on separate cores.
+ * The decode thread is the only producer; the recognizer may only be touched by other
+ * threads after [drain] has returned true and before the next [submit].
+ */
+class ParallelDecoder(private val name: String) {
+
+    private val ring = PcmFrameRing(RING_FRAMES, AudioCaptureHub.FRAME_SIZE)
+    @Volatile
+    private var recognizer: Recognizer? = null
+    @Volatile
+    private var thread: Thread? = null
+    @Volatile
+    private var producer: Thread? = null
+    private val submitted = AtomicLong()
+    private val decoded = AtomicLong()
+    @Volatile
+    private var decodeNanos = 0L
+
+    /**
+     * Start the decoding thread. The recognizer is attached separately with [attach].
+     */
+    fun start() {
+        if (thread != null) return
+        val decoderThread = Thread({
+            android.os.Process.setThreadPriority(android.os.Process.THREAD_PRIORITY_AUDIO)
+            val waitNanos = TimeUnit.MILLISECONDS.toNanos(500)
+            while (thread === Thread.currentThread()) {
+                if (!ring.await(waitNanos)) {
+                    continue
+                }
+                while (ring.isReadable()) {
+                    val activeRecognizer = recognizer
+                    if (activeRecognizer != null) {
+                        val start = System.nanoTime()
+                        try {
+                            activeRecognizer.acceptWaveForm(ring.frame(), ring.length())
+                        } catch (e: Exception) {
+                            Log.e(TAG, "$name failed to decode frame: ${e.message}")
+                        }
+                        decodeNanos += System.nanoTime() - start
+                    }
+                    ring.release()
+                    decoded.incrementAndGet()
+                }
+                producer?.let { LockSupport.unpark(it) }
+            }
+            Log.i(TAG, "$name decoder thread stopped")
+        }, "ParallelDecoder-$name")
+        thread = decoderThread
+        decoderThread.start()
+    }
+
+    /**
+     * Stop the decoding thread and hand back the attached recognizer, if any.
+     */
+    fun stop(): Recognizer? {
+        val decoderThread = thread ?: return detach()
+        thread = null
+        ring.close()
+        try {
+            decoderThread.join(1000)
+        } catch (e: InterruptedException) {
+            Thread.currentThread().interrupt()
+        }
+        return detach()
+    }
+
+    /**
+     * Attach the recognizer that frames are decoded with. Only call while drained.
+     */
+    fun attach(recognizer: Recognizer) {
+        this.recognizer = recognizer
+    }
+
+    /**
+     * Detach and return the recognizer. Only call while drained.
+     */
+    fun detach(): Recognizer? {
+        val previous = recognizer
+        recognizer = null
+        return previous
+    }
+
+    fun recognizer(): Recognizer? {
+        return recognizer
+    }
+
+    /**
+     * Producer: queue a copy of a frame for decoding.
+     * @return Boolean indicating if the frame was queued (false if the decoder fell a full ring behind).
+     */
+    fun submit(frame: ShortArray, length: Int): Boolean {
+        val slot = ring.claim() ?: return false
+        System.arraycopy(frame, 0, slot, 0, length)
+        submitted.incrementAndGet()
+        ring.publish(length, System.nanoTime())
+        return true
+    }
+
+    /**
+     * Producer: wait until every submitted frame has been decoded.
+     * @return Boolean indicating if the decoder caught up within [timeoutMs].
+     */
+    fun drain(timeoutMs: Long): Boolean {
+        val deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs)
+        producer = Thread.currentThread()
+        try {
+            while (decoded.get() < submitted.get()) {
+                val remaining = deadline - System.nanoTime()
+                if (remaining <= 0 || thread == null) return false
+                LockSupport.parkNanos(this, minOf(remaining, TimeUnit.MILLISECONDS.toNanos(5)))
+            }
+            return true
+        } finally {
+            producer = null
+        }
+    }
+
+    /**
+     * Total time spent inside the second recognizer, in nanoseconds.
+     */
+    fun decodeNanos(): Long {
+        return decodeNanos
+    }
+}
@@ -0,0 +1,165 @@
+package com.kitt.android.voice
+
+import java.util.Locale
+
+/**
+ * Decides when the decode thread asks the recognizer for a partial result and which partials
+ * reach the listeners. Every `partialResult` call is a JNI crossing that builds a new JSON string,
+ * and the decode loop runs for every 20ms frame, so polling is the cost this policy cuts:
+ * - rate limit: at most one poll per [minIntervalMs] of captured audio;
+ * - command mode: no partials at all, the constrained grammar is only useful on finals;
+ * - changed only: an unchanged partial is not parsed again nor delivered;
+ * - stable prefix: deliver only the words that survived two consecutive polls, so listeners
+ *   never see a tail the recognizer is about to rewrite.
+ *
+ * Used by the decode thread only; settings may be changed from any thread.
+ */
+class PartialEmissionPolicy {
+
+    @Volatile
+    var changedOnly = true
+    @Volatile
+    var minIntervalMs = 66L // About 15 partials per second, well inside the 200ms latency target
+    @Volatile
+    var stablePrefixOnly = false
+    @Volatile
+    var skipInCommandMode = true
+
+    private val previous = StringBuilder(128)
+    private var emittedLength = 0
+    private var lastPollNanos = 0L
+
+    private var polls = 0L
+    private var pollNanos = 0L
+    private var skippedRate = 0L
+    private var skippedCommand = 0L
+    private var suppressedUnchanged = 0L
+    private var suppressedUnstable = 0L
+    private var emitted = 0L
+
+    /**
+     * Check if the recognizer should be polled for a partial now.
+     * @param timeNanos Capture time of the newest decoded frame, so replayed audio is limited
+     * by audio time rather than by how fast it is decoded.
+     */
+    fun shouldPoll(timeNanos: Long, commandMode: Boolean): Boolean {
+        if (commandMode && skipInCommandMode) {
+            skippedCommand++
+            return false
+        }
+        if (lastPollNanos != 0L && timeNanos - lastPollNanos < minIntervalMs * 1_000_000L) {
+            skippedRate++
+            return false
+        }
+        lastPollNanos = timeNanos
+        return true
+    }
+
+    /**
+     * Account the cost of one poll: the JNI call plus parsing.
+     */
+    fun onPolled(costNanos: Long) {
+        polls++
+        pollNanos += costNanos
+    }
+
+    /**
+     * Check if a polled partial should be delivered, trimming it to its stable prefix if required.
+     * @param event The parsed partial; its text may be shortened in place.
+     * @param changed False if the recognizer returned the same partial as on the previous poll.
+     * @return Boolean indicating if [event] should be dispatched.
+     */
+    fun filter(event: RecognitionEvent, changed: Boolean): Boolean {
+        if (!changed && changedOnly) {
+            suppressedUnchanged++
+            return false
+        }
+        if (stablePrefixOnly) {
+            val stable = commonWordPrefix(event.text, previous)
+            previous.setLength(0)
+            previous.append(event.text)
+            if (stable <= emittedLength) {
+                suppressedUnstable++
+                return false
+            }
+            emittedLength = stable
+            event.truncate(stable)
+        }
+        emitted++
+        return true
+    }
+
+    /**
+     * Start a new utterance, after a final result or when listening restarts.
+     */
+    fun reset() {
+        previous.setLength(0)
+        emittedLength = 0
+        lastPollNanos = 0L
+    }
+
+    /**
+     * Clear the counters, e.g. before a replay.
+     */
+    fun resetStats() {
+        polls = 0L
+        pollNanos = 0L
+        skippedRate = 0L
+        skippedCommand = 0L
+        suppressedUnchanged = 0L
+        suppressedUnstable = 0L
+        emitted = 0L
+    }
+
+    /**
+     * CPU time saved by skipped polls, costed at the measured average poll.
+     */
+    fun savedNanos(): Long {
+        if (polls == 0L) return 0L
+        return (skippedRate + skippedCommand) * (pollNanos / polls)
+    }
+
+    fun emittedCount(): Long {
+        return emitted
+    }
+
+    fun pollNanos(): Long {
+        return pollNanos
+    }
+
+    /**
+     * Get emission statistics.
+     * @return String with polls made and skipped, partials delivered and suppressed, and CPU saved.
+     */
+    fun getStats(): String {
+        val average = if (polls > 0) pollNanos / polls / 1000 else 0
+        return String.format(
+            Locale.US,
+            "Partials: %d polls (avg %dus), skipped %d (rate) + %d (command), emitted %d, suppressed %d (unchanged) + %d (unstable), saved %.1fms CPU " +
+                "[changed only %s, min interval %dms, stable prefix %s]",
+            polls, average, skippedRate, skippedCommand, emitted, suppressedUnchanged, suppressedUnstable,
+            savedNanos() / 1_000_000.0, changedOnly, minIntervalMs, stablePrefixOnly
+        )
+    }
+
+    companion object {
+        /**
+         * Length of the longest common prefix of [a] and [b] that ends on a word boundary.
+         */
+        @JvmStatic
+        fun commonWordPrefix(a: CharSequence, b: CharSequence): Int {
+            val limit = minOf(a.length, b.length)
+            var i = 0
+            while (i < limit && a[i] == b[i]) {
+                i++
+            }
+            val atBoundary = (i == a.length || a[i] == ' ') && (i == b.length || b[i] == ' ')
+            if (atBoundary) return i
+            while (i > 0 && a[i - 1] != ' ') {
+                i--
+            }
+            // Drop the separating space as well
+            return if (i > 0) i - 1 else 0
+        }
+    }
+}
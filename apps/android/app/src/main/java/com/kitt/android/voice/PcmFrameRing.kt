@@ -0,0 +1,216 @@
+package com.kitt.android.voice
+
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.nio.ShortBuffer
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.locks.LockSupport
+
+/**
+ * Lock-free single-producer/single-consumer ring of preallocated PCM frames.
+ * The capture thread fills frames in place and publishes them; exactly one consumer
+ * thread drains them in place. No arrays are allocated after construction.
+ *
+ * A [direct] ring keeps its frames off the Java heap instead, as slices of one native-order
+ * direct buffer: the producer fills them through [claimDirect] and the consumer hands [buffer]
+ * straight to native code (see [DirectWaveform]) or to a file channel without a heap copy.
+ * A ring is either direct or not; [claim] and [frame] are for heap rings only.
+ *
+ * When the consumer falls a full ring behind, new frames are dropped and counted as
+ * overruns. Each time the consumer finds the ring empty it is counted as an underrun.
+ */
+class PcmFrameRing @JvmOverloads constructor(val capacity: Int, val frameSize: Int, val direct: Boolean = false) {
+
+    private val mask: Int
+    private val frames: Array<ShortArray>
+    private val buffers: Array<ByteBuffer>
+    private val shortViews: Array<ShortBuffer>
+    private val lengths: IntArray
+    private val timestamps: LongArray
+    private val head = AtomicLong() // Next sequence the producer will publish
+    private val tail = AtomicLong() // Next sequence the consumer will read
+    private val overruns = AtomicLong()
+    private val underruns = AtomicLong()
+    @Volatile
+    private var waitingConsumer: Thread? = null
+    @Volatile
+    var isClosed = false
+        private set
+
+    init {
+        require(capacity > 0 && capacity and (capacity - 1) == 0) { "Capacity must be a power of two" }
+        mask = capacity - 1
+        if (direct) {
+            val slab = ByteBuffer.allocateDirect(capacity * frameSize * 2)
+            frames = emptyArray()
+            buffers = Array(capacity) { i ->
+                slab.limit((i + 1) * frameSize * 2).position(i * frameSize * 2)
+                slab.slice().order(ByteOrder.nativeOrder())
+            }
+            shortViews = Array(capacity) { i -> buffers[i].asShortBuffer() }
+        } else {
+            frames = Array(capacity) { ShortArray(frameSize) }
+            buffers = emptyArray()
+            shortViews = emptyArray()
+        }
+        lengths = IntArray(capacity)
+        timestamps = LongArray(capacity)
+    }
+
+    /**
+     * Producer: get the next free frame to fill, or null if the ring is full (counted as an overrun).
+     */
+    fun claim(): ShortArray? {
+        val h = head.get()
+        if (h - tail.get() > mask) {
+            overruns.incrementAndGet()
+            return null
+        }
+        return frames[(h and mask.toLong()).toInt()]
+    }
+
+    /**
+     * Producer, direct rings: get the next free frame as an empty sample view to fill with
+     * relative puts, or null if the ring is full (counted as an overrun).
+     */
+    fun claimDirect(): ShortBuffer? {
+        val h = head.get()
+        if (h - tail.get() > mask) {
+            overruns.incrementAndGet()
+            return null
+        }
+        val view = shortViews[(h and mask.toLong()).toInt()]
+        view.clear()
+        return view
+    }
+
+    /**
+     * Producer, direct rings: copy [length] samples from the start of [source], a native-order
+     * buffer, into the next free frame and publish it; claim and publish in one call.
+     * @return Boolean indicating if the frame was queued, false if the ring is full (counted as an overrun).
+     */
+    fun offer(source: ByteBuffer, length: Int, captureTimeNanos: Long): Boolean {
+        val h = head.get()
+        if (h - tail.get() > mask) {
+            overruns.incrementAndGet()
+            return false
+        }
+        val slot = buffers[(h and mask.toLong()).toInt()]
+        val count = minOf(length, frameSize)
+        slot.clear()
+        source.limit(count * 2).position(0)
+        slot.put(source)
+        publish(count, captureTimeNanos)
+        return true
+    }
+
+    /**
+     * Producer: publish the frame returned by the last [claim].
+     * @param length Number of valid samples in the frame.
+     * @param captureTimeNanos System.nanoTime() at which the frame was captured.
+     */
+    fun publish(length: Int, captureTimeNanos: Long) {
+        val h = head.get()
+        val index = (h and mask.toLong()).toInt()
+        lengths[index] = length
+        timestamps[index] = captureTimeNanos
+        if (direct) {
+            buffers[index].limit(length * 2).position(0)
+        }
+        // A volatile store, not lazySet: it must be ordered before the read of waitingConsumer, as
+        // await() orders its write of waitingConsumer before re-reading head, or both sides can
+        // miss each other and the consumer sleeps for its whole timeout
+        head.set(h + 1)
+        val waiter = waitingConsumer
+        if (waiter != null) {
+            LockSupport.unpark(waiter)
+        }
+    }
+
+    /**
+     * Consumer: wait up to [timeoutNanos] for a frame to become readable.
+     * @return Boolean indicating if a frame is available through [frame], [length] and [captureTimeNanos].
+     */
+    fun await(timeoutNanos: Long): Boolean {
+        if (head.get() != tail.get()) {
+            return true
+        }
+        underruns.incrementAndGet()
+        val deadline = System.nanoTime() + timeoutNanos
+        waitingConsumer = Thread.currentThread()
+        try {
+            while (head.get() == tail.get()) {
+                if (isClosed) return false
+                val remaining = deadline - System.nanoTime()
+                if (remaining <= 0) return false
+                LockSupport.parkNanos(this, remaining)
+            }
+            return true
+        } finally {
+            waitingConsumer = null
+        }
+    }
+
+    /**
+     * Consumer: check if a frame is readable without waiting.
+     */
+    fun isReadable(): Boolean {
+        return head.get() != tail.get()
+    }
+
+    /**
+     * Consumer: the oldest unread frame. Only valid after [await] or [isReadable] returned true.
+     */
+    fun frame(): ShortArray {
+        return frames[(tail.get() and mask.toLong()).toInt()]
+    }
+
+    /**
+     * Consumer, direct rings: the oldest unread frame, native byte order, from position 0 to
+     * [length] samples. The consumer may move its position; the producer resets it on reuse.
+     */
+    fun buffer(): ByteBuffer {
+        return buffers[(tail.get() and mask.toLong()).toInt()]
+    }
+
+    fun length(): Int {
+        return lengths[(tail.get() and mask.toLong()).toInt()]
+    }
+
+    fun captureTimeNanos(): Long {
+        return timestamps[(tail.get() and mask.toLong()).toInt()]
+    }
+
+    /**
+     * Consumer: hand the oldest frame back to the producer.
+     */
+    fun release() {
+        tail.lazySet(tail.get() + 1)
+    }
+
+    /**
+     * Wake the consumer and make further waits return immediately.
+     */
+    fun close() {
+        isClosed = true
+        val waiter = waitingConsumer
+        if (waiter != null) {
+            LockSupport.unpark(waiter)
+        }
+    }
+
+    fun overrunCount(): Long {
+        return overruns.get()
+    }
+
+    fun underrunCount(): Long {
+        return underruns.get()
+    }
+
+    /**
+     * Number of frames published but not yet released.
+     */
+    fun depth(): Int {
+        return (head.get() - tail.get()).toInt()
+    }
+}
@@ -0,0 +1,154 @@
+package com.kitt.android.voice
+
+/**
+ * Streaming rational sample-rate converter for 16-bit mono PCM.
+ *
+ * The ratio is reduced to up/down factors L/M (48kHz to 16kHz is 1/3, 44.1kHz to 16kHz is
+ * 160/441). A Kaiser-windowed sinc low-pass, designed at L times the input rate with its cutoff
+ * just under the lower Nyquist frequency, is split into L phases of [tapsPerPhase] taps; each
+ * output sample is one phase's dot product with the most recent input samples, so only the
+ * outputs actually kept are computed. Filter state carries over between calls, so a stream can
+ * be converted frame by frame without clicks at frame boundaries.
+ *
+ * All buffers are allocated in the constructor; [process] does not allocate. Not thread-safe:
+ * one instance per stream.
+ */
+class PolyphaseResampler(
+    val inputRate: Int,
+    val outputRate: Int,
+    private val tapsPerPhase: Int = 64,
+    rolloff: Double = 0.9,
+    kaiserBeta: Double = 8.0
+) {
+
+    private val up: Int
+    private val down: Int
+    private val coefficients: FloatArray // Phase p occupies [p * taps, (p + 1) * taps), oldest input first
+    private val history: FloatArray // Input samples written twice so each window is contiguous
+    private var writeIndex = 0
+    private var nextPhase = 0 // Offset of the next output in the upsampled stream, relative to the newest input
+
+    init {
+        require(inputRate > 0 && outputRate > 0) { "Sample rates must be positive" }
+        require(tapsPerPhase > 0) { "Taps per phase must be positive" }
+        val divisor = gcd(inputRate, outputRate)
+        up = outputRate / divisor
+        down = inputRate / divisor
+        coefficients = design(up, tapsPerPhase, rolloff * minOf(1.0, up.toDouble() / down) / (2.0 * up), kaiserBeta)
+        history = FloatArray(tapsPerPhase * 2)
+    }
+
+    /**
+     * Check if the rates differ; an identity converter still delays the signal by its filter.
+     */
+    fun isPassThrough(): Boolean {
+        return up == down
+    }
+
+    /**
+     * Upper bound on the output of one [process] call for [inputLength] samples.
+     */
+    fun maxOutput(inputLength: Int): Int {
+        return ((inputLength.toLong() * up + down - 1) / down).toInt() + 1
+    }
+
+    /**
+     * Convert [length] samples of [input] starting at [offset], appending to [output] at [outputOffset].
+     * @return Number of samples written, at most [maxOutput] of [length].
+     */
+    fun process(input: ShortArray, offset: Int, length: Int, output: ShortArray, outputOffset: Int): Int {
+        var written = 0
+        for (i in offset until offset + length) {
+            val sample = input[i].toFloat()
+            history[writeIndex] = sample
+            history[writeIndex + tapsPerPhase] = sample
+            writeIndex = if (writeIndex + 1 == tapsPerPhase) 0 else writeIndex + 1
+            // Outputs that fall between this input and the next one in the upsampled stream
+            while (nextPhase < up) {
+                val base = nextPhase * tapsPerPhase
+                var sum = 0.0f
+                for (k in 0 until tapsPerPhase) {
+                    sum += coefficients[base + k] * history[writeIndex + k]
+                }
+                output[outputOffset + written++] = when {
+                    sum >= Short.MAX_VALUE -> Short.MAX_VALUE
+                    sum <= Short.MIN_VALUE -> Short.MIN_VALUE
+                    else -> Math.round(sum).toShort()
+                }
+                nextPhase += down
+            }
+            nextPhase -= up
+        }
+        return written
+    }
+
+    /**
+     * Clear the filter state, e.g. before converting an unrelated stream.
+     */
+    fun reset() {
+        history.fill(0.0f)
+        writeIndex = 0
+        nextPhase = 0
+    }
+
+    companion object {
+        /**
+         * Resample a whole buffer in one go, for files rather than streams.
+         */
+        @JvmStatic
+        fun resample(input: ShortArray, inputRate: Int, outputRate: Int): ShortArray {
+            if (inputRate == outputRate) return input
+            val resampler = PolyphaseResampler(inputRate, outputRate)
+            val output = ShortArray(resampler.maxOutput(input.size))
+            val count = resampler.process(input, 0, input.size, output, 0)
+            return if (count == output.size) output else output.copyOf(count)
+        }
+
+        private fun gcd(a: Int, b: Int): Int {
+            return if (b == 0) a else gcd(b, a % b)
+        }
+
+        /**
+         * Kaiser-windowed sinc prototype of [phases] * [taps] coefficients with cutoff [cutoff]
+         * (cycles per upsampled sample), scaled by [phases] to make up for the inserted zeros,
+         * and rearranged per phase, oldest input first.
+         */
+        private fun design(phases: Int, taps: Int, cutoff: Double, beta: Double): FloatArray {
+            val length = phases * taps
+            val center = (length - 1) / 2.0
+            val prototype = DoubleArray(length)
+            val denominator = besselI0(beta)
+            for (n in 0 until length) {
+                val x = n - center
+                val sinc = if (x == 0.0) 2.0 * cutoff else Math.sin(2.0 * Math.PI * cutoff * x) / (Math.PI * x)
+                val ratio = 2.0 * n / (length - 1) - 1.0
+                val window = besselI0(beta * Math.sqrt(maxOf(0.0, 1.0 - ratio * ratio))) / denominator
+                prototype[n] = sinc * window * phases
+            }
+            // Output at upsampled offset p after input i uses h[p + L*k] * x[i - k]; store k reversed
+            val coefficients = FloatArray(length)
+            for (p in 0 until phases) {
+                for (k in 0 until taps) {
+                    coefficients[p * taps + (taps - 1 - k)] = prototype[p + phases * k].toFloat()
+                }
+            }
+            return coefficients
+        }
+
+        /**
+         * Zeroth-order modified Bessel function of the first kind, by its power series.
+         */
+        private fun besselI0(x: Double): Double {
+            var sum = 1.0
+            var term = 1.0
+            val halfSquared = x * x / 4.0
+            var k = 1
+            while (term > 1e-12 * sum) {
+                term *= halfSquared / (k.toDouble() * k)
+                sum += term
+                k++
+            }
+            return sum
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.kitt.android.voice
+
+/**
+ * Fixed-size circular history of the most recently captured PCM frames.
+ *
+ * Filled by the capture thread after each frame has been fanned out, and replayed by that same
+ * thread into a new subscriber's ring, so there is one writer, no lock and no gap or duplicate
+ * between the replayed history and the first live frame. No arrays are allocated after construction.
+ */
+class PreRollBuffer(val capacity: Int, frameSize: Int) {
+
+    private val frames = Array(capacity) { ShortArray(frameSize) }
+    private val lengths = IntArray(capacity)
+    private val timestamps = LongArray(capacity)
+    private var written = 0L
+
+    /**
+     * Keep a copy of [length] samples of [samples] from [offset] as one frame, overwriting the oldest one when full.
+     */
+    fun write(samples: ShortArray, offset: Int, length: Int, captureTimeNanos: Long) {
+        val index = (written % capacity).toInt()
+        System.arraycopy(samples, offset, frames[index], 0, length)
+        lengths[index] = length
+        timestamps[index] = captureTimeNanos
+        written++
+    }
+
+    /**
+     * Forget the history, e.g. when the microphone reopens after a pause.
+     */
+    fun clear() {
+        written = 0L
+    }
+
+    /**
+     * Number of frames held.
+     */
+    fun size(): Int {
+        return minOf(written, capacity.toLong()).toInt()
+    }
+
+    /**
+     * Publish the newest [maxFrames] frames, oldest first, into [ring] with their original capture
+     * times. The caller must be the ring's producer. Frames that do not fit are skipped from the oldest.
+     * @return Number of frames replayed.
+     */
+    fun replayInto(ring: PcmFrameRing, maxFrames: Int): Int {
+        val count = minOf(maxFrames, size(), ring.capacity - ring.depth() - 1)
+        if (count <= 0) return 0
+        for (sequence in written - count until written) {
+            val index = (sequence % capacity).toInt()
+            if (ring.direct) {
+                val slot = ring.claimDirect() ?: return (sequence - (written - count)).toInt()
+                slot.put(frames[index], 0, lengths[index])
+            } else {
+                val slot = ring.claim() ?: return (sequence - (written - count)).toInt()
+                System.arraycopy(frames[index], 0, slot, 0, lengths[index])
+            }
+            ring.publish(lengths[index], timestamps[index])
+        }
+        return count
+    }
+}
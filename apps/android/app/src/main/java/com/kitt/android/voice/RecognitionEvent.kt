@@ -0,0 +1,189 @@
+package com.kitt.android.voice
+
+/**
+ * A recognizer result or engine status update, as delivered to [VoiceEngine.ResultListener]s.
+ *
+ * Events are reused by their producer: the text and word buffers are only valid during the
+ * listener call. Listeners that keep or post an event to another thread take [text] (or
+ * [copy] it) before returning. Filling an event with [VoskResultReader] does not allocate once
+ * its buffers have grown to the longest utterance seen.
+ */
+class RecognitionEvent {
+
+    enum class Type {
+        PARTIAL, // Hypothesis for the utterance in progress
+        FINAL, // Endpointed utterance
+        RESET, // The recognizer was reset; text holds the reason
+        WARNING, // Engine status that does not stop recognition
+        ERROR, // Engine failure
+        ASSISTANT // Response from the offline assistant
+    }
+
+    var type = Type.PARTIAL
+        private set
+
+    /** Id of the utterance a [Type.FINAL] event ends, 0 when unknown. */
+    var utteranceId = 0L
+
+    /** Name of the engine or service that produced the event. */
+    var source = ""
+
+    private val textBuffer = StringBuilder(128)
+    private val wordChars = StringBuilder(128)
+    private var wordEnds = IntArray(16) // End offset of each word in wordChars
+    private var wordStartSeconds = FloatArray(16)
+    private var wordEndSeconds = FloatArray(16)
+    private var wordConfidences = FloatArray(16)
+    private var pendingWordStart = 0
+
+    var wordCount = 0
+        private set
+
+    /**
+     * The transcript or message, reused: valid during the listener call only.
+     */
+    val text: CharSequence
+        get() = textBuffer
+
+    fun isEmpty(): Boolean {
+        return textBuffer.isEmpty()
+    }
+
+    /**
+     * The transcript or message as a String. Allocates; meant for consumers that keep it.
+     */
+    fun text(): String {
+        return textBuffer.toString()
+    }
+
+    fun word(index: Int): String {
+        val start = if (index == 0) 0 else wordEnds[index - 1]
+        return wordChars.substring(start, wordEnds[index])
+    }
+
+    /** Start of word [index] in seconds from the start of the utterance. */
+    fun wordStart(index: Int): Float {
+        return wordStartSeconds[index]
+    }
+
+    /** End of word [index] in seconds from the start of the utterance. */
+    fun wordEnd(index: Int): Float {
+        return wordEndSeconds[index]
+    }
+
+    /** Recognizer confidence for word [index], 0..1. */
+    fun wordConfidence(index: Int): Float {
+        return wordConfidences[index]
+    }
+
+    /**
+     * Mean word confidence, or 0 if the result has no word details.
+     */
+    fun averageConfidence(): Double {
+        if (wordCount == 0) return 0.0
+        var total = 0.0
+        for (i in 0 until wordCount) {
+            total += wordConfidences[i]
+        }
+        return total / wordCount
+    }
+
+    /**
+     * Empty the event and give it a new type, keeping its buffers.
+     */
+    fun clear(type: Type): RecognitionEvent {
+        this.type = type
+        utteranceId = 0L
+        textBuffer.setLength(0)
+        wordChars.setLength(0)
+        wordCount = 0
+        pendingWordStart = 0
+        return this
+    }
+
+    /**
+     * Fill the event with plain text, for backends and messages that are not Vosk JSON.
+     */
+    fun set(type: Type, text: CharSequence, source: String): RecognitionEvent {
+        clear(type)
+        textBuffer.append(text)
+        this.source = source
+        return this
+    }
+
+    /**
+     * Deep copy that stays valid after the listener call.
+     */
+    fun copy(): RecognitionEvent {
+        val copy = RecognitionEvent()
+        copy.set(type, textBuffer, source)
+        copy.utteranceId = utteranceId
+        for (i in 0 until wordCount) {
+            copy.startWord()
+            copy.wordChars.append(wordChars, if (i == 0) 0 else wordEnds[i - 1], wordEnds[i])
+            copy.endWord(wordStartSeconds[i], wordEndSeconds[i], wordConfidences[i])
+        }
+        return copy
+    }
+
+    /**
+     * Shorten the text to its first [length] characters, which must end on a word boundary,
+     * dropping the word details past it.
+     */
+    fun truncate(length: Int) {
+        if (length >= textBuffer.length) return
+        textBuffer.setLength(length)
+        var words = 0
+        if (length > 0) {
+            words = 1
+            for (i in 0 until length) {
+                if (textBuffer[i] == ' ') words++
+            }
+        }
+        if (words < wordCount) {
+            wordCount = words
+            wordChars.setLength(if (words == 0) 0 else wordEnds[words - 1])
+        }
+    }
+
+    override fun toString(): String {
+        return "$type: $textBuffer"
+    }
+
+    // Used by VoskResultReader to fill the buffers in place
+
+    internal fun setType(type: Type) {
+        this.type = type
+    }
+
+    internal fun textBuilder(): StringBuilder {
+        return textBuffer
+    }
+
+    internal fun startWord() {
+        pendingWordStart = wordChars.length
+    }
+
+    internal fun wordBuilder(): StringBuilder {
+        return wordChars
+    }
+
+    internal fun endWord(start: Float, end: Float, confidence: Float) {
+        if (wordCount == wordEnds.size) {
+            val size = wordCount * 2
+            wordEnds = wordEnds.copyOf(size)
+            wordStartSeconds = wordStartSeconds.copyOf(size)
+            wordEndSeconds = wordEndSeconds.copyOf(size)
+            wordConfidences = wordConfidences.copyOf(size)
+        }
+        wordEnds[wordCount] = wordChars.length
+        wordStartSeconds[wordCount] = start
+        wordEndSeconds[wordCount] = end
+        wordConfidences[wordCount] = confidence
+        wordCount++
+    }
+
+    internal fun dropWord() {
+        wordChars.setLength(pendingWordStart)
+    }
+}
@@ -0,0 +1,284 @@
+package com.kitt.android.voice
+
+import android.os.Debug
+import android.util.Log
+import java.util.concurrent.atomic.AtomicReference
+
+private const val TAG = "RecognizerWatchdog"
+private const val CHECK_INTERVAL_MS = 1000L
+private const val HUNG_DECODE_MS = 2000L // A single acceptWaveForm call should take a few ms
+private const val SLOW_DECODE_CHECKS = 3 // Consecutive checks slower than real time
+private const val STALLED_OUTPUT_MS = 15000L // Decoded audio with no partial or final progression
+private const val CAPTURE_STALL_MS = 3000L
+private const val SILENT_CAPTURE_MS = 10000L
+private const val HEAP_WINDOW_CHECKS = 30
+private const val HEAP_GROWTH_LIMIT_BYTES = 32L * 1024 * 1024
+private const val GRACE_AFTER_ACTION_MS = 5000L
+private const val HEALTHY_DEESCALATE_MS = 60000L
+
+/**
+ * Recognizer health watchdog.
+ * The decode thread reports cheap signals (decode call timing, output progression, audio level);
+ * a separate low-priority thread samples them once a second together with the capture sample
+ * count and the native heap, and decides whether the recognizer needs attention.
+ *
+ * Remedies escalate while problems persist: soft reset, then recognizer rebuild, then model
+ * reload, and fall back to a soft reset after a healthy minute. The watchdog never touches the
+ * recognizer itself: it posts an [Action] that the decode thread applies between frames.
+ * A decode call that never returns is the exception: the decode thread cannot apply anything, so
+ * it is reported to the [HungListener] on the watchdog thread instead, without escalating.
+ */
+class RecognizerWatchdog(
+    private val frameDurationMs: Long = AudioCaptureHub.FRAME_DURATION_MS,
+    private val ringDepth: () -> Int = { 0 }
+) {
+
+    enum class Remedy {
+        SOFT_RESET,
+        REBUILD,
+        RELOAD_MODEL
+    }
+
+    class Action(val remedy: Remedy, val cause: String)
+
+    /**
+     * Receives non-recognizer problems the watchdog cannot fix by resetting, e.g. a silent microphone.
+     */
+    fun interface WarningListener {
+        fun onWarning(message: String)
+    }
+
+    /**
+     * Receives a decode call that has not returned, on the watchdog thread. Called once per stuck call.
+     */
+    fun interface HungListener {
+        fun onHung(cause: String)
+    }
+
+    // Written by the decode thread, read by the watchdog thread
+    @Volatile
+    private var decodeStartNanos = 0L
+    @Volatile
+    private var decodeCalls = 0L
+    @Volatile
+    private var decodeNanosTotal = 0L
+    @Volatile
+    private var decodedFrames = 0L
+    @Volatile
+    private var lastOutputFrames = 0L
+    @Volatile
+    private var lastAudibleNanos = 0L
+
+    private val pendingAction = AtomicReference<Action?>()
+    @Volatile
+    private var thread: Thread? = null
+    var warningListener: WarningListener? = null
+    var hungListener: HungListener? = null
+
+    // Watchdog thread state
+    private var escalation = 0
+    private var lastActionMs = 0L
+    private var lastProblemMs = 0L
+    private var hungReportedNanos = 0L // Start of the stuck decode call already reported
+    private var hungCalls = 0
+    private var slowChecks = 0
+    private var previousDecodeCalls = 0L
+    private var previousDecodeNanos = 0L
+    private var previousCapturedSamples = 0L
+    private var lastCaptureProgressMs = 0L
+    private var silenceWarned = false
+    private var captureStallWarned = false
+    private val heapSamples = LongArray(HEAP_WINDOW_CHECKS)
+    private var heapSampleCount = 0
+    private var actionsTaken = 0
+    private var lastDecision = "none"
+
+    /**
+     * Start sampling on a dedicated thread. Safe to call when already running.
+     */
+    fun start() {
+        if (thread != null) return
+        val now = System.currentTimeMillis()
+        decodeStartNanos = 0L
+        lastOutputFrames = decodedFrames
+        lastAudibleNanos = System.nanoTime()
+        lastCaptureProgressMs = now
+        previousCapturedSamples = AudioCaptureHub.capturedSampleCount()
+        previousDecodeCalls = decodeCalls
+        previousDecodeNanos = decodeNanosTotal
+        slowChecks = 0
+        heapSampleCount = 0
+        silenceWarned = false
+        captureStallWarned = false
+        hungReportedNanos = 0L
+        pendingAction.set(null)
+        val watchdogThread = Thread({
+            Log.i(TAG, "Watchdog started")
+            while (thread === Thread.currentThread()) {
+                try {
+                    Thread.sleep(CHECK_INTERVAL_MS)
+                } catch (e: InterruptedException) {
+                    break
+                }
+                try {
+                    check()
+                } catch (e: Exception) {
+                    Log.e(TAG, "Watchdog check failed: ${e.message}", e)
+                }
+            }
+            Log.i(TAG, "Watchdog stopped")
+        }, "VoiceEngine-watchdog")
+        watchdogThread.priority = Thread.MIN_PRIORITY
+        thread = watchdogThread
+        watchdogThread.start()
+    }
+
+    fun stop() {
+        val watchdogThread = thread ?: return
+        thread = null
+        watchdogThread.interrupt()
+    }
+
+    /** Decode thread: a recognizer call is about to start. */
+    fun onDecodeStart() {
+        decodeStartNanos = System.nanoTime()
+    }
+
+    /** Decode thread: the recognizer call started by [onDecodeStart] returned. */
+    fun onDecodeEnd() {
+        val start = decodeStartNanos
+        decodeStartNanos = 0L
+        decodeNanosTotal += System.nanoTime() - start
+        decodeCalls++
+        decodedFrames++
+    }
+
+    /** Decode thread: the recognizer produced a new partial or a final result. */
+    fun onOutput() {
+        lastOutputFrames = decodedFrames
+    }
+
+    /** Decode thread: a batch of captured audio was consumed, with its peak RMS level. */
+    fun onAudio(peakRms: Float) {
+        if (peakRms > 0.0f) {
+            lastAudibleNanos = System.nanoTime()
+        }
+    }
+
+    /**
+     * Decode thread: take the remedy requested by the watchdog, if any.
+     */
+    fun pollAction(): Action? {
+        return pendingAction.getAndSet(null)
+    }
+
+    /**
+     * Get watchdog statistics for diagnostics.
+     */
+    fun getStats(): String {
+        val calls = decodeCalls
+        val average = if (calls > 0) decodeNanosTotal / calls / 1000 else 0
+        return "Watchdog: $actionsTaken actions, $hungCalls hung decode calls, escalation level $escalation, avg decode ${average}us/frame, last decision: $lastDecision"
+    }
+
+    private fun check() {
+        val now = System.currentTimeMillis()
+        val nowNanos = System.nanoTime()
+
+        // Capture progression: the microphone itself, not something a recognizer reset can fix
+        val captured = AudioCaptureHub.capturedSampleCount()
+        if (captured != previousCapturedSamples) {
+            previousCapturedSamples = captured
+            lastCaptureProgressMs = now
+            captureStallWarned = false
+        } else if (now - lastCaptureProgressMs >= CAPTURE_STALL_MS && !captureStallWarned) {
+            captureStallWarned = true
+            warn("Capture stalled: no samples for ${now - lastCaptureProgressMs}ms")
+        }
+        if ((nowNanos - lastAudibleNanos) / 1_000_000L >= SILENT_CAPTURE_MS) {
+            if (!silenceWarned) {
+                silenceWarned = true
+                warn("Microphone delivering digital silence for ${SILENT_CAPTURE_MS / 1000}s")
+            }
+        } else {
+            silenceWarned = false
+        }
+
+        // Per-call decode time, including a call that has not returned yet
+        val inFlightStart = decodeStartNanos
+        val inFlightMs = if (inFlightStart != 0L) (nowNanos - inFlightStart) / 1_000_000L else 0L
+        val calls = decodeCalls
+        val nanos = decodeNanosTotal
+        val intervalCalls = calls - previousDecodeCalls
+        val intervalNanos = nanos - previousDecodeNanos
+        previousDecodeCalls = calls
+        previousDecodeNanos = nanos
+        val averageMs = if (intervalCalls > 0) intervalNanos / intervalCalls / 1_000_000.0 else 0.0
+        slowChecks = if (intervalCalls > 0 && averageMs > frameDurationMs) slowChecks + 1 else 0
+
+        // Output progression measured in decoded audio, so gated silence never counts as a stall
+        val framesWithoutOutput = decodedFrames - lastOutputFrames
+        val msWithoutOutput = framesWithoutOutput * frameDurationMs
+
+        // Native heap trend over the sampling window
+        val heap = Debug.getNativeHeapAllocatedSize()
+        heapSamples[heapSampleCount % HEAP_WINDOW_CHECKS] = heap
+        heapSampleCount++
+        var heapGrowth = 0L
+        if (heapSampleCount >= HEAP_WINDOW_CHECKS) {
+            val oldest = heapSamples[heapSampleCount % HEAP_WINDOW_CHECKS]
+            heapGrowth = heap - oldest
+        }
+
+        // A stuck call blocks the decode thread that would apply any Action: hand it over instead
+        if (inFlightMs >= HUNG_DECODE_MS) {
+            if (inFlightStart != hungReportedNanos) {
+                hungReportedNanos = inFlightStart
+                hungCalls++
+                lastProblemMs = now
+                val cause = "decode call running for ${inFlightMs}ms"
+                lastDecision = "hung: $cause"
+                Log.w(TAG, "Decode thread stuck, $cause")
+                hungListener?.onHung(cause)
+            }
+            return
+        }
+
+        if (now - lastActionMs < GRACE_AFTER_ACTION_MS) {
+            return
+        }
+        val cause = when {
+            slowChecks >= SLOW_DECODE_CHECKS ->
+                "decode slower than real time for ${slowChecks}s (${String.format("%.1f", averageMs)}ms per ${frameDurationMs}ms frame, ring depth ${ringDepth()})"
+            msWithoutOutput >= STALLED_OUTPUT_MS ->
+                "no partial or final output after ${msWithoutOutput / 1000}s of decoded audio"
+            heapGrowth >= HEAP_GROWTH_LIMIT_BYTES ->
+                "native heap grew ${heapGrowth / (1024 * 1024)}MB in ${HEAP_WINDOW_CHECKS}s (now ${heap / (1024 * 1024)}MB)"
+            else -> null
+        }
+        if (cause == null) {
+            if (escalation > 0 && now - lastProblemMs >= HEALTHY_DEESCALATE_MS) {
+                Log.i(TAG, "Healthy for ${HEALTHY_DEESCALATE_MS / 1000}s, escalation level ${escalation} -> 0")
+                escalation = 0
+            }
+            return
+        }
+        val remedy = Remedy.values()[minOf(escalation, Remedy.values().size - 1)]
+        escalation = minOf(escalation + 1, Remedy.values().size - 1)
+        lastActionMs = now
+        lastProblemMs = now
+        actionsTaken++
+        slowChecks = 0
+        heapSampleCount = 0
+        lastOutputFrames = decodedFrames
+        lastDecision = "$remedy: $cause"
+        Log.w(TAG, "Requesting $remedy because $cause")
+        pendingAction.set(Action(remedy, cause))
+    }
+
+    private fun warn(message: String) {
+        lastDecision = "warning: $message"
+        Log.w(TAG, "$message (no recognizer action, not a decoder fault)")
+        warningListener?.onWarning(message)
+    }
+}
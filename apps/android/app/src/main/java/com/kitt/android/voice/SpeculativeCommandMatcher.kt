@@ -0,0 +1,170 @@
+package com.kitt.android.voice
+
+import java.util.Locale
+
+/**
+ * Streaming command matcher that picks a command from partial results, before the final.
+ *
+ * A partial names a candidate when the command phrases it contains (whole words) all map to one
+ * command, and no phrase for another command could still complete from its last words: "scan"
+ * is ambiguous while "scanner two" is possible, "scanner two" is not. The candidate is started
+ * once the same command came from [stablePartials] partials in a row and no later partial has
+ * contradicted it for [holdMs]; partials are only delivered when they change, so the hold covers
+ * the decoder rewriting the last word. The final then commits the speculation or rolls it back.
+ *
+ * Times are in nanoseconds on any one clock: System.nanoTime() live, audio time when replaying.
+ * Not thread-safe; used from one thread.
+ * @param phrases Command phrases and their command codes, e.g. "scanner two" to "S2".
+ * @param startable Commands that may be started early, i.e. that can be rolled back; the others
+ * still take part in ambiguity checks.
+ */
+class SpeculativeCommandMatcher(phrases: Map<String, String>, private val startable: Set<String>) {
+
+    enum class Outcome {
+        NONE, // Nothing was started before the final
+        COMMIT, // The final agrees with the started command
+        ROLLBACK // The final names another command, or none
+    }
+
+    private val phraseWords: List<Pair<List<String>, String>> =
+        phrases.map { (phrase, command) -> phrase.split(' ') to command }
+
+    /** Consecutive partials that must name the same command. */
+    var stablePartials = 1
+    /** How long the candidate must stand without a contradicting partial. */
+    var holdMs = 150L
+
+    private var candidate: String? = null
+    private var candidateCount = 0
+    private var candidateSinceNanos = 0L
+    /** Command started for the current utterance, or null. */
+    var speculated: String? = null
+        private set
+    /** When [speculated] was started. */
+    var speculatedAtNanos = 0L
+        private set
+
+    /**
+     * Take the next partial of the utterance.
+     * @return The command to start now, or null; see also [poll].
+     */
+    fun onPartial(text: CharSequence, nowNanos: Long): String? {
+        if (speculated != null) return null
+        val command = candidateOf(text)
+        if (command == null || command != candidate) {
+            candidate = command
+            candidateCount = if (command == null) 0 else 1
+            candidateSinceNanos = nowNanos
+        } else {
+            candidateCount++
+        }
+        return poll(nowNanos)
+    }
+
+    /**
+     * Check whether the candidate has now held long enough; call again once [holdMs] has passed
+     * without a new partial.
+     * @return The command to start now, or null.
+     */
+    fun poll(nowNanos: Long): String? {
+        val command = candidate ?: return null
+        if (command !in startable || speculated != null || candidateCount < stablePartials) return null
+        if (nowNanos - candidateSinceNanos < holdMs * 1_000_000L) return null
+        speculated = command
+        speculatedAtNanos = nowNanos
+        return command
+    }
+
+    /**
+     * End the utterance with the command its final result resolved to, and reset for the next.
+     * @return Whether the started command, if any, stands.
+     */
+    fun onFinal(finalCommand: String?): Outcome {
+        val started = speculated
+        reset()
+        return when {
+            started == null -> Outcome.NONE
+            started == finalCommand -> Outcome.COMMIT
+            else -> Outcome.ROLLBACK
+        }
+    }
+
+    fun reset() {
+        candidate = null
+        candidateCount = 0
+        speculated = null
+    }
+
+    /**
+     * The one command named by [text], or null if it names none or could still become another.
+     */
+    fun candidateOf(text: CharSequence): String? {
+        val words = wordsOf(text)
+        val command = commandOf(words) ?: return null
+        for ((phrase, phraseCommand) in phraseWords) {
+            if (phraseCommand != command && canStillComplete(words, phrase)) return null
+        }
+        return command
+    }
+
+    /**
+     * The one command named by complete text, such as a final result, by the same whole-word
+     * rule as [candidateOf]; pass its result to [onFinal] so both steps agree.
+     * @return The command, or null if [text] names none or several.
+     */
+    fun commandOf(text: CharSequence): String? {
+        return commandOf(wordsOf(text))
+    }
+
+    private fun commandOf(words: List<String>): String? {
+        if (words.isEmpty()) return null
+        var command: String? = null
+        for ((phrase, phraseCommand) in phraseWords) {
+            if (containsWords(words, phrase)) {
+                if (command != null && command != phraseCommand) return null
+                command = phraseCommand
+            }
+        }
+        return command
+    }
+
+    private fun wordsOf(text: CharSequence): List<String> {
+        return text.toString().lowercase(Locale.US).trim().split(' ').filter { it.isNotEmpty() }
+    }
+
+    private fun containsWords(words: List<String>, phrase: List<String>): Boolean {
+        for (start in 0..words.size - phrase.size) {
+            var matches = true
+            for (i in phrase.indices) {
+                if (words[start + i] != phrase[i]) {
+                    matches = false
+                    break
+                }
+            }
+            if (matches) return true
+        }
+        return false
+    }
+
+    /**
+     * Check if the last words of [words] are the start of [phrase] without completing it, the
+     * last one possibly cut short: "scan" or "scanner" for "scanner two".
+     */
+    private fun canStillComplete(words: List<String>, phrase: List<String>): Boolean {
+        for (k in 1..minOf(words.size, phrase.size)) {
+            val offset = words.size - k
+            var matches = true
+            for (i in 0 until k - 1) {
+                if (words[offset + i] != phrase[i]) {
+                    matches = false
+                    break
+                }
+            }
+            if (!matches) continue
+            val last = words[words.size - 1]
+            val phraseWord = phrase[k - 1]
+            if (phraseWord.startsWith(last) && (k < phrase.size || last.length < phraseWord.length)) return true
+        }
+        return false
+    }
+}
@@ -0,0 +1,131 @@
+package com.kitt.android.voice
+
+import android.content.Context
+import android.util.Log
+
+private const val TAG = "SpeechEngine"
+private const val SHERPA_ONNX_CLASS = "com.kitt.android.voice.SherpaOnnxSpeechEngine"
+
+/**
+ * Streaming speech-to-text backend.
+ * Every backend is fed the same 16kHz mono 16-bit frames from [AudioCaptureHub] by a single
+ * decoding thread, and reports results as partial and final events through a [Listener].
+ * [VoiceEngine] gates the frames with a [SpeechGate] and calls [endOfSpeech] when a speech
+ * segment closes, so backends do not need their own voice activity detection.
+ */
+interface SpeechEngine {
+
+    /**
+     * Receives recognition events. Synchronous backends call it on the decoding thread from
+     * inside [acceptFrame] and [endOfSpeech]; backends running in another process call it on
+     * the main thread.
+     */
+    interface Listener {
+        fun onPartial(text: String)
+        fun onFinal(text: String)
+        fun onError(message: String)
+    }
+
+    /** Short backend name used in logs and benchmark reports. */
+    val name: String
+
+    /**
+     * True if the backend can only consume audio at the rate it is captured, so replayed
+     * audio has to be paced instead of decoded as fast as possible.
+     */
+    val consumesInRealTime: Boolean
+        get() = false
+
+    /**
+     * Load the model for a language, replacing the current one. May block for a model load;
+     * never call it on the main thread unless the backend says otherwise.
+     * @param language The language code (e.g., "en-US" or "fr-FR").
+     * @return Boolean indicating if the backend is ready for that language.
+     */
+    fun load(language: String): Boolean
+
+    fun isLoaded(): Boolean
+
+    /**
+     * Begin a recognition session. Frames passed to [acceptFrame] before this are ignored.
+     * @return Boolean indicating if the session started.
+     */
+    fun start(listener: Listener): Boolean
+
+    /**
+     * Decoding thread: feed one frame of audio.
+     */
+    fun acceptFrame(frame: ShortArray, length: Int)
+
+    /**
+     * Decoding thread: the current utterance is over; emit its final result.
+     */
+    fun endOfSpeech()
+
+    /**
+     * Drop the current utterance without emitting a result.
+     */
+    fun reset()
+
+    /**
+     * End the session, emitting the final result of any utterance in progress.
+     */
+    fun stop()
+
+    /**
+     * Free the model and any native resources. The backend cannot be used afterwards.
+     */
+    fun release()
+
+    companion object {
+        const val VOSK = "VOSK"
+        const val ANDROID = "ANDROID"
+        const val SHERPA_ONNX = "SHERPA"
+
+        /**
+         * Check if this build includes the sherpa-onnx backend. It is compiled only when the
+         * sherpa-onnx release AAR is present in app/libs.
+         */
+        @JvmStatic
+        fun isSherpaOnnxAvailable(): Boolean {
+            return try {
+                Class.forName(SHERPA_ONNX_CLASS)
+                true
+            } catch (e: ClassNotFoundException) {
+                false
+            }
+        }
+
+        /**
+         * Create the sherpa-onnx backend, loaded by name so the app builds without its AAR.
+         * @param numThreads ONNX Runtime intra-op threads, or null for the model configuration's value.
+         * @return The backend, or null if this build does not include it.
+         */
+        @JvmStatic
+        @JvmOverloads
+        fun createSherpaOnnx(context: Context, numThreads: Int? = null): SpeechEngine? {
+            return try {
+                Class.forName(SHERPA_ONNX_CLASS)
+                    .getConstructor(Context::class.java, Int::class.javaObjectType)
+                    .newInstance(context, numThreads) as SpeechEngine
+            } catch (e: ClassNotFoundException) {
+                Log.w(TAG, "sherpa-onnx backend not included in this build (no AAR in app/libs)")
+                null
+            } catch (e: ReflectiveOperationException) {
+                Log.e(TAG, "Failed to create sherpa-onnx backend: ${e.message}", e)
+                null
+            }
+        }
+
+        /**
+         * Model key for a language code, as used in the model config.json files.
+         */
+        @JvmStatic
+        fun modelKeyFor(language: String): String {
+            return when (language) {
+                "fr-FR" -> "fr"
+                else -> "en-us"
+            }
+        }
+    }
+}
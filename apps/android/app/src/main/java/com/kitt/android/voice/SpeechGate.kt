@@ -0,0 +1,242 @@
+package com.kitt.android.voice
+
+import android.util.Log
+
+private const val TAG = "SpeechGate"
+
+/**
+ * Voice activity gate in front of the recognizer.
+ * Every frame is classified by a [VoiceActivityDetector]; only speech segments are forwarded
+ * to the [Sink]. A hangover keeps the gate open for a short while after speech stops so word
+ * endings are not clipped, and the most recent silent frames are kept as pre-speech padding
+ * and replayed when speech starts so the recognizer hears the onset.
+ *
+ * Used by a single thread (the decode thread). Padding frames are preallocated.
+ */
+class SpeechGate(
+    val detector: VoiceActivityDetector,
+    frameSize: Int,
+    hangoverMs: Long = 400L,
+    preSpeechMs: Long = 300L,
+    frameDurationMs: Long = AudioCaptureHub.FRAME_DURATION_MS
+) {
+
+    /**
+     * Receiver for gated audio, normally the recognizer.
+     */
+    interface Sink {
+        /**
+         * Decode one frame of speech (or padding/hangover around it).
+         * @return Boolean indicating if the recognizer produced a final result.
+         */
+        fun onSpeechFrame(frame: ShortArray, length: Int): Boolean
+
+        /**
+         * Called when a speech segment opens, before its padding is replayed.
+         */
+        fun onSpeechStart()
+
+        /**
+         * Called once the hangover expires after a speech segment.
+         */
+        fun onSpeechEnd()
+    }
+
+    private val hangoverFrames = (hangoverMs / frameDurationMs).toInt()
+    private val padding = Array((preSpeechMs / frameDurationMs).toInt()) { ShortArray(frameSize) }
+    private val paddingLengths = IntArray(padding.size)
+    private var paddingStart = 0
+    private var paddingCount = 0
+    private var inSpeech = false
+    private var hangoverLeft = 0
+    private var lastRms = 0.0f
+    private var lastIsSpeech = false
+
+    @Volatile
+    var isEnabled = true
+
+    /** Under overload: skip the hangover and non-speech frames instead of decoding them. */
+    @Volatile
+    var skipSilence = false
+
+    private var totalFrames = 0L
+    private var decodedFrames = 0L
+    private var decodeNanos = 0L
+    private var detectorNanos = 0L
+    private var segments = 0L
+    private var skippedSilence = 0L
+
+    /**
+     * Classify a frame and forward it to [sink] if it belongs to a speech segment.
+     * @return Boolean indicating if the sink reported a final result for this frame.
+     */
+    fun process(frame: ShortArray, length: Int, sink: Sink): Boolean {
+        totalFrames++
+        val detectStart = System.nanoTime()
+        lastRms = rms(frame, length)
+        if (!isEnabled) {
+            // Bypassed: everything is decoded, unless silence is being shed
+            lastIsSpeech = !skipSilence || detector.isSpeech(frame, length, lastRms)
+            detectorNanos += System.nanoTime() - detectStart
+            if (!lastIsSpeech) {
+                skippedSilence++
+                return false
+            }
+            return decode(frame, length, sink)
+        }
+        val speech = detector.isSpeech(frame, length, lastRms)
+        detectorNanos += System.nanoTime() - detectStart
+        lastIsSpeech = speech
+
+        if (speech) {
+            var isFinal = false
+            if (!inSpeech) {
+                inSpeech = true
+                segments++
+                sink.onSpeechStart()
+                isFinal = flushPadding(sink)
+            }
+            hangoverLeft = hangoverFrames
+            return decode(frame, length, sink) || isFinal
+        }
+        if (inSpeech) {
+            if (hangoverLeft > 0) {
+                hangoverLeft--
+                if (skipSilence) {
+                    skippedSilence++
+                    return false
+                }
+                return decode(frame, length, sink)
+            }
+            inSpeech = false
+            sink.onSpeechEnd()
+        }
+        keepAsPadding(frame, length)
+        return false
+    }
+
+    /**
+     * Check if the gate is currently passing audio to the recognizer.
+     */
+    fun isInSpeech(): Boolean {
+        return inSpeech
+    }
+
+    /**
+     * Check if the detector classified the last processed frame as speech (not hangover or silence).
+     */
+    fun lastFrameIsSpeech(): Boolean {
+        return lastIsSpeech
+    }
+
+    /**
+     * Close the current speech segment without notifying the sink, e.g. after an endpointer forced
+     * a final result. Following silence is kept as padding and the next speech opens a new segment.
+     */
+    fun endSegment() {
+        inSpeech = false
+        hangoverLeft = 0
+    }
+
+    /**
+     * Frames not decoded because [skipSilence] was set.
+     */
+    fun skippedSilenceFrames(): Long {
+        return skippedSilence
+    }
+
+    /**
+     * RMS level of the last processed frame.
+     */
+    fun lastRms(): Float {
+        return lastRms
+    }
+
+    /**
+     * Drop padding and segment state, e.g. when listening restarts.
+     */
+    fun reset() {
+        inSpeech = false
+        hangoverLeft = 0
+        paddingStart = 0
+        paddingCount = 0
+        detector.reset()
+    }
+
+    /**
+     * Share of recognizer CPU time avoided by not decoding non-speech frames, net of
+     * the detector's own cost. Skipped frames are costed at the measured average decode time.
+     * @return Percentage in 0..100, or 0 before any frame has been decoded.
+     */
+    fun cpuSavedPercent(): Float {
+        if (decodedFrames == 0L) return 0.0f
+        val skipped = totalFrames - decodedFrames
+        val avoided = skipped * (decodeNanos.toDouble() / decodedFrames)
+        val ungated = decodeNanos + avoided
+        return ((avoided - detectorNanos) / ungated * 100.0).coerceIn(0.0, 100.0).toFloat()
+    }
+
+    /**
+     * Get gate statistics for diagnostics.
+     * @return String with frames decoded, segments and CPU saved.
+     */
+    fun getStats(): String {
+        val decodedPercent = if (totalFrames > 0) decodedFrames * 100 / totalFrames else 0
+        return "VAD ${detector.name}${if (isEnabled) "" else " (bypassed)"}: decoded $decodedFrames/$totalFrames frames " +
+            "($decodedPercent%), $segments segments, CPU saved ${String.format("%.1f", cpuSavedPercent())}%"
+    }
+
+    fun logStats() {
+        Log.i(TAG, getStats())
+    }
+
+    private fun decode(frame: ShortArray, length: Int, sink: Sink): Boolean {
+        val start = System.nanoTime()
+        val isFinal = sink.onSpeechFrame(frame, length)
+        decodeNanos += System.nanoTime() - start
+        decodedFrames++
+        return isFinal
+    }
+
+    private fun flushPadding(sink: Sink): Boolean {
+        var isFinal = false
+        for (i in 0 until paddingCount) {
+            val index = (paddingStart + i) % padding.size
+            isFinal = decode(padding[index], paddingLengths[index], sink) || isFinal
+        }
+        paddingStart = 0
+        paddingCount = 0
+        return isFinal
+    }
+
+    private fun keepAsPadding(frame: ShortArray, length: Int) {
+        if (padding.isEmpty()) return
+        val index: Int
+        if (paddingCount < padding.size) {
+            index = (paddingStart + paddingCount) % padding.size
+            paddingCount++
+        } else {
+            // Full: overwrite the oldest frame
+            index = paddingStart
+            paddingStart = (paddingStart + 1) % padding.size
+        }
+        val count = minOf(length, padding[index].size)
+        System.arraycopy(frame, 0, padding[index], 0, count)
+        paddingLengths[index] = count
+    }
+
+    companion object {
+        /**
+         * Root-mean-square level of the first [length] samples of [frame].
+         */
+        @JvmStatic
+        fun rms(frame: ShortArray, length: Int): Float {
+            if (length <= 0) return 0.0f
+            var sum = 0.0
+            for (i in 0 until length) {
+                sum += frame[i] * frame[i]
+            }
+            return Math.sqrt(sum / length).toFloat()
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package com.kitt.android.voice
+
+import android.os.Process
+import android.os.SystemClock
+import android.util.Log
+
+private const val TAG = "StartupTimeline"
+
+/**
+ * Records named startup milestones relative to process start, from engine construction
+ * through model loading to the first partial transcription. Each milestone is kept once.
+ */
+class StartupTimeline {
+
+    private val processStart = Process.getStartElapsedRealtime()
+    private val marks = LinkedHashMap<String, Long>()
+
+    /**
+     * Record a milestone the first time it is reached.
+     * @return Boolean indicating if this call recorded the milestone.
+     */
+    fun mark(event: String): Boolean {
+        synchronized(marks) {
+            if (marks.containsKey(event)) {
+                return false
+            }
+            val sinceProcessStart = SystemClock.elapsedRealtime() - processStart
+            marks[event] = sinceProcessStart
+            Log.i(TAG, "+${sinceProcessStart}ms $event")
+            return true
+        }
+    }
+
+    fun hasMark(event: String): Boolean {
+        synchronized(marks) {
+            return marks.containsKey(event)
+        }
+    }
+
+    /**
+     * Milliseconds from process start to a milestone, or -1 if it has not been reached.
+     */
+    fun elapsedMs(event: String): Long {
+        synchronized(marks) {
+            return marks[event] ?: -1L
+        }
+    }
+
+    /**
+     * Format the timeline, one milestone per line with its offset from process start.
+     */
+    fun format(): String {
+        synchronized(marks) {
+            if (marks.isEmpty()) {
+                return "Startup timeline: empty"
+            }
+            val builder = StringBuilder("Startup timeline (since process start):")
+            for ((event, offset) in marks) {
+                builder.append("\n  +").append(offset).append("ms ").append(event)
+            }
+            return builder.toString()
+        }
+    }
+}
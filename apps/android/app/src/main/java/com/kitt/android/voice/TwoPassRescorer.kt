@@ -0,0 +1,252 @@
+package com.kitt.android.voice
+
+import android.util.Log
+import org.vosk.Recognizer
+import java.io.IOException
+import java.util.ArrayDeque
+
+private const val TAG = "TwoPassRescorer"
+private const val CHUNK_SAMPLES = 4000 // 250ms between load and cancellation checks
+
+/**
+ * Second recognition pass over finished utterances with a larger Vosk model.
+ *
+ * The live (small) model keeps producing partials, finals and commands in real time; each final
+ * dictation utterance's PCM is queued here and re-decoded on one background-priority thread.
+ * The queue is bounded: when it is full the oldest utterance is cancelled, and the utterance being
+ * decoded is cancelled whenever [isOverloaded] reports that live decoding is falling behind.
+ *
+ * The large model is loaded on the worker thread, so [start] returns immediately.
+ */
+class TwoPassRescorer(
+    val modelKey: String,
+    private val modelPath: String,
+    private val capacity: Int = 4,
+    private val isOverloaded: () -> Boolean = { false }
+) {
+
+    /**
+     * Receives second-pass results on the rescorer thread.
+     */
+    fun interface Listener {
+        /**
+         * @param utteranceId Id given to [submit].
+         * @param firstPass The live transcript.
+         * @param secondPass The large model's transcript, which may equal [firstPass].
+         */
+        fun onRescored(utteranceId: Long, firstPass: String, secondPass: String)
+    }
+
+    private class Job(val utteranceId: Long, val pcm: ShortArray, val firstPass: String, val queuedNanos: Long)
+
+    private val queue = ArrayDeque<Job>()
+    private val lock = Object()
+    @Volatile
+    private var thread: Thread? = null
+    @Volatile
+    private var listener: Listener? = null
+    @Volatile
+    private var ready = false
+
+    // Guarded by lock
+    private var submitted = 0L
+    private var completed = 0L
+    private var changed = 0L
+    private var cancelledQueueFull = 0L
+    private var cancelledLoad = 0L
+    private var wordsCompared = 0L
+    private var wordEdits = 0L
+    private var decodeNanos = 0L
+    private var audioSamples = 0L
+    private var delayTotalMs = 0L
+
+    /**
+     * Start the worker thread, which loads the large model before taking jobs.
+     */
+    fun start(listener: Listener) {
+        if (thread != null) return
+        this.listener = listener
+        val worker = Thread({
+            android.os.Process.setThreadPriority(android.os.Process.THREAD_PRIORITY_BACKGROUND)
+            val handle: VoskModelCache.Handle
+            val recognizer: Recognizer
+            try {
+                val loadStart = System.currentTimeMillis()
+                // Through the registry so another rescorer for the same language shares the model,
+                // but pinned outside its memory budget: these models are far larger than the live ones
+                handle = VoskModelCache.acquirePinned("$modelKey/large", modelPath)
+                    ?: throw IOException("Model $modelPath could not be loaded")
+                recognizer = try {
+                    Recognizer(handle.model, AudioCaptureHub.SAMPLE_RATE.toFloat())
+                } catch (e: Exception) {
+                    handle.close()
+                    throw e
+                }
+                Log.i(TAG, "Loaded second-pass model $modelKey from $modelPath in ${System.currentTimeMillis() - loadStart}ms")
+            } catch (e: Exception) {
+                Log.e(TAG, "Failed to load second-pass model $modelPath: ${e.message}", e)
+                thread = null
+                return@Thread
+            }
+            ready = true
+            // acceptWaveForm(short[], int) reads from the start of the array: chunks are copied into one buffer
+            val chunk = ShortArray(CHUNK_SAMPLES)
+            val reader = VoskResultReader()
+            val event = RecognitionEvent()
+            try {
+                while (thread === Thread.currentThread()) {
+                    val job = take() ?: continue
+                    try {
+                        rescore(job, recognizer, chunk, reader, event)
+                    } catch (e: Exception) {
+                        Log.e(TAG, "Second pass failed for utterance ${job.utteranceId}: ${e.message}", e)
+                        recognizer.reset()
+                    }
+                }
+            } finally {
+                ready = false
+                recognizer.close()
+                handle.close()
+            }
+            Log.i(TAG, "Second pass stopped. ${getStats()}")
+        }, "TwoPassRescorer-$modelKey")
+        thread = worker
+        worker.start()
+    }
+
+    /**
+     * Stop the worker after its current chunk, dropping queued utterances, and release the large model.
+     */
+    fun shutdown() {
+        val worker = thread ?: return
+        thread = null
+        synchronized(lock) {
+            queue.clear()
+            lock.notifyAll()
+        }
+        worker.interrupt()
+        listener = null
+    }
+
+    /**
+     * Check if the worker is running, including while it loads the model.
+     */
+    fun isRunning(): Boolean {
+        return thread != null
+    }
+
+    /**
+     * Queue a finished utterance for the second pass.
+     * @param pcm The utterance audio, 16kHz mono; owned by the rescorer afterwards.
+     * @return Boolean indicating if the utterance was queued.
+     */
+    fun submit(utteranceId: Long, pcm: ShortArray, firstPass: String): Boolean {
+        if (thread == null || pcm.isEmpty()) return false
+        synchronized(lock) {
+            if (queue.size >= capacity) {
+                // Under a backlog the oldest utterance is least likely to still be on screen
+                val dropped = queue.pollFirst()
+                cancelledQueueFull++
+                Log.w(TAG, "Second-pass queue full, cancelled utterance ${dropped?.utteranceId}")
+            }
+            queue.addLast(Job(utteranceId, pcm, firstPass, System.nanoTime()))
+            submitted++
+            lock.notifyAll()
+        }
+        return true
+    }
+
+    /**
+     * Get second-pass statistics.
+     * @return String with utterances rescored and changed, cancellations, word-level agreement with
+     * the first pass, real-time factor and queueing delay.
+     */
+    fun getStats(): String {
+        synchronized(lock) {
+            if (completed == 0L) {
+                return "Two-pass $modelKey: ${if (ready) "ready" else "loading"}, $submitted queued, " +
+                    "cancelled ${cancelledQueueFull + cancelledLoad}"
+            }
+            val agreement = if (wordsCompared > 0) (1.0 - wordEdits.toDouble() / wordsCompared) * 100.0 else 100.0
+            val audioNanos = audioSamples * 1_000_000_000L / AudioCaptureHub.SAMPLE_RATE
+            return "Two-pass $modelKey: $completed/$submitted rescored, $changed changed, " +
+                "cancelled $cancelledQueueFull (queue full) + $cancelledLoad (load), " +
+                "word agreement ${String.format("%.1f", agreement.coerceAtLeast(0.0))}%, " +
+                "RTF ${String.format("%.2f", decodeNanos.toDouble() / maxOf(audioNanos, 1L))}, " +
+                "avg delay ${delayTotalMs / completed}ms"
+        }
+    }
+
+    private fun take(): Job? {
+        synchronized(lock) {
+            if (queue.isEmpty()) {
+                try {
+                    lock.wait(1000)
+                } catch (e: InterruptedException) {
+                    return null
+                }
+            }
+            return queue.pollFirst()
+        }
+    }
+
+    private fun rescore(job: Job, recognizer: Recognizer, chunk: ShortArray, reader: VoskResultReader, event: RecognitionEvent) {
+        val start = System.nanoTime()
+        var offset = 0
+        while (offset < job.pcm.size) {
+            if (thread !== Thread.currentThread() || isOverloaded()) {
+                recognizer.reset()
+                synchronized(lock) { cancelledLoad++ }
+                Log.w(TAG, "Second pass for utterance ${job.utteranceId} cancelled: live decoding needs the CPU")
+                return
+            }
+            val count = minOf(chunk.size, job.pcm.size - offset)
+            System.arraycopy(job.pcm, offset, chunk, 0, count)
+            recognizer.acceptWaveForm(chunk, count)
+            offset += count
+        }
+        val secondPass = if (reader.read(recognizer.finalResult, event, TAG)) event.text() else ""
+        val elapsed = System.nanoTime() - start
+        val edits = wordEditDistance(job.firstPass, secondPass)
+        synchronized(lock) {
+            completed++
+            if (edits.first > 0) changed++
+            wordEdits += edits.first
+            wordsCompared += edits.second
+            decodeNanos += elapsed
+            audioSamples += job.pcm.size
+            delayTotalMs += (System.nanoTime() - job.queuedNanos) / 1_000_000L
+        }
+        Log.d(TAG, "Utterance ${job.utteranceId}: '${job.firstPass}' -> '$secondPass' (${edits.first} word edits)")
+        try {
+            listener?.onRescored(job.utteranceId, job.firstPass, secondPass)
+        } catch (e: Exception) {
+            Log.e(TAG, "Second-pass listener failed: ${e.message}", e)
+        }
+    }
+
+    companion object {
+        /**
+         * Word-level Levenshtein distance between two transcripts.
+         * @return Pair of (word edits, words in the longer transcript).
+         */
+        @JvmStatic
+        fun wordEditDistance(first: String, second: String): Pair<Int, Int> {
+            val a = first.split(' ').filter { it.isNotEmpty() }
+            val b = second.split(' ').filter { it.isNotEmpty() }
+            var previous = IntArray(b.size + 1) { it }
+            var current = IntArray(b.size + 1)
+            for (i in 1..a.size) {
+                current[0] = i
+                for (j in 1..b.size) {
+                    val substitution = previous[j - 1] + if (a[i - 1] == b[j - 1]) 0 else 1
+                    current[j] = minOf(substitution, previous[j] + 1, current[j - 1] + 1)
+                }
+                val swap = previous
+                previous = current
+                current = swap
+            }
+            return Pair(previous[b.size], maxOf(a.size, b.size))
+        }
+    }
+}
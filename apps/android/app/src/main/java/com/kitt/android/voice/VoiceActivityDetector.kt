@@ -0,0 +1,27 @@
+package com.kitt.android.voice
+
+/**
+ * Per-frame speech/non-speech classifier used by [SpeechGate].
+ * Implementations see every captured frame on the decode thread, so they must not block
+ * and should not allocate per frame. A model-based detector (e.g. a small neural VAD)
+ * can be plugged in by implementing this interface and passing it to [SpeechGate].
+ */
+interface VoiceActivityDetector {
+
+    /** Short name used in logs and stats. */
+    val name: String
+
+    /**
+     * Classify one frame of 16-bit mono PCM.
+     * @param frame Samples, only the first [length] are valid.
+     * @param length Number of valid samples.
+     * @param rms Root-mean-square level of the frame, already computed by the gate.
+     * @return Boolean indicating if the frame contains speech.
+     */
+    fun isSpeech(frame: ShortArray, length: Int, rms: Float): Boolean
+
+    /**
+     * Forget any adaptive state, e.g. after a language switch or a new listening session.
+     */
+    fun reset()
+}
@@ -1,19 +1,49 @@
 package com.kitt.android.voice
 
 import android.content.Context
+import android.os.Handler
+import android.os.Looper
 import android.util.Log
 import com.kitt.android.KittDashboardView
+import java.util.Locale
 
 /**
- * Processes voice commands and maps them to KITT interface actions
+ * Processes voice commands and maps them to KITT interface actions.
+ * Registered as a [VoiceEngine.ResultListener], it takes the text of results on the decode
+ * thread and matches and executes them on the main thread.
+ *
+ * Button commands are also matched on partial results by a [SpeculativeCommandMatcher] and
+ * pressed as soon as the match is unambiguous and stable, without waiting for the endpoint. The
+ * final result then commits the press (and speaks its feedback) or rolls it back and runs the
+ * command the final names instead.
  */
 class VoiceCommandProcessor(
     private val context: Context,
     private val dashboardView: KittDashboardView?
-) {
+) : VoiceEngine.ResultListener {
+
+    private val mainHandler = Handler(Looper.getMainLooper())
+    // Speculation state, main thread only
+    private val matcher = speculativeMatcher()
+    private val holdCheck = Runnable { matcher.poll(System.nanoTime())?.let { speculate(it) } }
+    private var pendingFeedback: String? = null
+    private var speculations = 0
+    private var commits = 0
+    private var rollbacks = 0
+    private val savedMs = LongArray(SAVED_HISTORY) // Most recent commits, as a ring
+    private var savedCount = 0
+
+    /** Whether button commands may be started from partial results. */
+    @Volatile
+    var speculativeEnabled = true
     
     companion object {
         private const val TAG = "VoiceCommandProcessor"
+        private const val SAVED_HISTORY = 64
+
+        // Commands whose effect can be rolled back: a button glow. Starting or stopping the
+        // systems waits for the final.
+        private val SPECULATIVE_COMMANDS = setOf("LANG", "VOSK", "P1", "P2", "S1", "S2")
         
         // Voice command mappings
         private val COMMAND_MAPPINGS = mapOf(
@@ -54,8 +84,163 @@ class VoiceCommandProcessor(
             "kitt" to "KITT_WAKE",
             "hello kitt" to "KITT_WAKE"
         )
+
+        // Phrases made of spoken words only: "p1" or "program 1" are not in the Vosk vocabulary
+        private val GRAMMAR_PHRASE = Regex("^[a-z]+( [a-z]+)*$")
+
+        /**
+         * Build a Vosk grammar (JSON array of phrases) from the command vocabulary.
+         * "[unk]" lets the recognizer reject speech that is not a command instead of forcing a match.
+         */
+        @JvmStatic
+        fun commandGrammar(): String {
+            val phrases = org.json.JSONArray()
+            for (phrase in COMMAND_MAPPINGS.keys.sorted()) {
+                if (GRAMMAR_PHRASE.matches(phrase)) {
+                    phrases.put(phrase)
+                }
+            }
+            phrases.put("[unk]")
+            return phrases.toString()
+        }
+
+        /**
+         * Create a matcher for starting button commands from partial results.
+         */
+        @JvmStatic
+        fun speculativeMatcher(): SpeculativeCommandMatcher {
+            return SpeculativeCommandMatcher(COMMAND_MAPPINGS, SPECULATIVE_COMMANDS)
+        }
+
+        /**
+         * Map recognized text to a command code without executing it.
+         * @return The command code (e.g. "P1"), or null if nothing matches.
+         */
+        @JvmStatic
+        fun resolveCommand(text: String): String? {
+            return findBestMatch(text.lowercase().trim())
+        }
+
+        /**
+         * Find the best matching command using fuzzy matching
+         */
+        private fun findBestMatch(input: String): String? {
+            // Direct match first
+            COMMAND_MAPPINGS[input]?.let { return it }
+            
+            // Partial match - check if input contains any command keywords
+            for ((keyword, command) in COMMAND_MAPPINGS) {
+                if (input.contains(keyword)) {
+                    return command
+                }
+            }
+            
+            // Fuzzy match for common variations
+            return when {
+                input.contains("language") || input.contains("english") || input.contains("french") -> "LANG"
+                input.contains("vosk") || input.contains("diagnostic") -> "VOSK"
+                input.contains("program") && (input.contains("1") || input.contains("one")) -> "P1"
+                input.contains("program") && (input.contains("2") || input.contains("two")) -> "P2"
+                input.contains("scanner") || input.contains("scan") -> "S1"
+                input.contains("start") || input.contains("activate") -> "START"
+                input.contains("stop") || input.contains("deactivate") -> "STOP"
+                else -> null
+            }
+        }
     }
     
+    /**
+     * Match a final result against the commands, and partials for early execution; a reset
+     * rolls back a command started for the abandoned utterance.
+     */
+    override fun onResult(event: RecognitionEvent) {
+        when (event.type) {
+            RecognitionEvent.Type.PARTIAL -> {
+                if (!speculativeEnabled || event.isEmpty()) return
+                val text = event.text()
+                mainHandler.post { onPartial(text) }
+            }
+            RecognitionEvent.Type.FINAL -> {
+                val text = event.text()
+                mainHandler.post { onFinal(text) }
+            }
+            RecognitionEvent.Type.RESET -> mainHandler.post { onFinal("") }
+            else -> return
+        }
+    }
+
+    private fun onPartial(text: String) {
+        mainHandler.removeCallbacks(holdCheck)
+        val command = matcher.onPartial(text, System.nanoTime())
+        if (command != null) {
+            speculate(command)
+        } else if (matcher.speculated == null) {
+            // The candidate may need to stand a little longer, with no further partial to trigger the check
+            mainHandler.postDelayed(holdCheck, matcher.holdMs)
+        }
+    }
+
+    private fun speculate(command: String) {
+        speculations++
+        Log.i(TAG, "Speculatively executing $command")
+        executeCommand(command, "(partial)", true)
+    }
+
+    /**
+     * Settle the utterance: commit or roll back a command started early, or run the final's command.
+     * A started command is settled with the matcher's own whole-word match, the rule that started it;
+     * the fuzzy [processCommand] match only applies when nothing was started.
+     */
+    private fun onFinal(text: String) {
+        mainHandler.removeCallbacks(holdCheck)
+        val normalized = text.lowercase().trim()
+        val finalCommand = matcher.commandOf(normalized)
+        val started = matcher.speculated
+        val startedAtNanos = matcher.speculatedAtNanos
+        when (matcher.onFinal(finalCommand)) {
+            SpeculativeCommandMatcher.Outcome.NONE -> {
+                if (normalized.isNotEmpty()) processCommand(text)
+            }
+            SpeculativeCommandMatcher.Outcome.COMMIT -> {
+                commits++
+                val saved = (System.nanoTime() - startedAtNanos) / 1_000_000L
+                savedMs[savedCount % SAVED_HISTORY] = saved
+                savedCount++
+                pendingFeedback?.let { provideFeedback(it) }
+                pendingFeedback = null
+                Log.i(TAG, "Committed $started from '$normalized', ${saved}ms ahead of the final")
+            }
+            SpeculativeCommandMatcher.Outcome.ROLLBACK -> {
+                rollbacks++
+                pendingFeedback = null
+                started?.let { dashboardView?.revertButtonPress(it) }
+                Log.i(TAG, "Rolled back $started: final '$normalized' resolves to ${finalCommand ?: "no command"}")
+                if (finalCommand != null) executeCommand(finalCommand, normalized)
+            }
+        }
+    }
+
+    /**
+     * Get speculative execution statistics.
+     * @return String with commands started early, committed and rolled back, and the median time
+     * they ran ahead of the final result, i.e. the time saved between speech end and execution.
+     */
+    fun getSpeculationStats(): String {
+        val count = minOf(savedCount, SAVED_HISTORY)
+        val recent = savedMs.copyOf(count)
+        recent.sort()
+        val median = when {
+            count == 0 -> 0.0
+            count % 2 == 1 -> recent[count / 2].toDouble()
+            else -> (recent[count / 2 - 1] + recent[count / 2]) / 2.0
+        }
+        return String.format(
+            Locale.US,
+            "Speculation: %d started, %d committed, %d rolled back, median %.0fms saved over the last %d commits",
+            speculations, commits, rollbacks, median, count
+        )
+    }
+
     /**
      * Process a voice command and execute the corresponding action
      */
@@ -75,82 +260,57 @@ class VoiceCommandProcessor(
         }
     }
     
-    /**
-     * Find the best matching command using fuzzy matching
-     */
-    private fun findBestMatch(input: String): String? {
-        // Direct match first
-        COMMAND_MAPPINGS[input]?.let { return it }
-        
-        // Partial match - check if input contains any command keywords
-        for ((keyword, command) in COMMAND_MAPPINGS) {
-            if (input.contains(keyword)) {
-                return command
-            }
-        }
-        
-        // Fuzzy match for common variations
-        return when {
-            input.contains("language") || input.contains("english") || input.contains("french") -> "LANG"
-            input.contains("vosk") || input.contains("diagnostic") -> "VOSK"
-            input.contains("program") && (input.contains("1") || input.contains("one")) -> "P1"
-            input.contains("program") && (input.contains("2") || input.contains("two")) -> "P2"
-            input.contains("scanner") || input.contains("scan") -> "S1"
-            input.contains("start") || input.contains("activate") -> "START"
-            input.contains("stop") || input.contains("deactivate") -> "STOP"
-            else -> null
-        }
-    }
-    
     /**
      * Execute the mapped command
      */
-    private fun executeCommand(command: String, originalInput: String) {
+    private fun executeCommand(command: String, originalInput: String, speculative: Boolean = false) {
         Log.i(TAG, "Executing command: $command (from input: $originalInput)")
+        // Spoken feedback cannot be taken back: a speculative command gets it on commit
+        val feedback: (String) -> Unit = if (speculative) { message -> pendingFeedback = message } else ::provideFeedback
         
         when (command) {
             "LANG" -> {
                 dashboardView?.simulateButtonPress("LANG")
-                provideFeedback("Language selection activated (ENG/FR)")
+                feedback("Language selection activated (ENG/FR)")
             }
             "VOSK" -> {
                 dashboardView?.simulateButtonPress("VOSK")
-                provideFeedback("Voice model diagnostics initiated")
+                feedback("Voice model diagnostics initiated")
             }
             "P1" -> {
                 dashboardView?.simulateButtonPress("P1")
-                provideFeedback("Program 1 activated")
+                feedback("Program 1 activated")
             }
             "P2" -> {
                 dashboardView?.simulateButtonPress("P2")
-                provideFeedback("Program 2 activated")
+                feedback("Program 2 activated")
             }
             "S1" -> {
                 dashboardView?.simulateButtonPress("S1")
-                provideFeedback("Scanner mode 1 engaged")
+                feedback("Scanner mode 1 engaged")
             }
             "S2" -> {
                 dashboardView?.simulateButtonPress("S2")
-                provideFeedback("Scanner mode 2 engaged")
+                feedback("Scanner mode 2 engaged")
             }
             "START" -> {
                 dashboardView?.startSystems()
-                provideFeedback("KITT systems online")
+                feedback("KITT systems online")
             }
             "STOP" -> {
                 dashboardView?.stopSystems()
-                provideFeedback("KITT systems offline")
+                feedback("KITT systems offline")
             }
             "KITT_WAKE" -> {
-                provideFeedback("KITT online. How may I assist you?")
+                feedback("KITT online. How may I assist you?")
             }
             "ACTIVATE" -> {
                 dashboardView?.startSystems()
-                provideFeedback("Systems activated")
+                feedback("Systems activated")
             }
             "DEACTIVATE" -> {
                 dashboardView?.stopSystems()
-                provideFeedback("Systems deactivated")
+                feedback("Systems deactivated")
             }
         }
     }
@@ -1,14 +1,9 @@
 package com.kitt.android.voice
 
 import android.Manifest
+import android.annotation.SuppressLint
 import android.content.Context
 import android.content.Intent
-import android.media.AudioFormat
-import android.media.AudioRecord
-import android.media.MediaRecorder
-import android.speech.SpeechRecognizer
-import android.speech.RecognitionListener
-import android.speech.RecognizerIntent
 import android.util.Log
 import com.kitt.android.OfflineAssistantService
 import org.vosk.Model
@@ -24,13 +19,27 @@ import android.os.Bundle
 import android.os.IBinder
 import java.text.SimpleDateFormat
 import java.util.Date
+import java.util.EnumMap
 import java.util.Locale
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.atomic.AtomicReference
 
 // Performance target: Ensure end-to-end latency < 200ms as per monorepo rules
 private const val MAX_LATENCY_MS = 200L
 private const val TAG = "VoiceEngine"
 private const val SAMPLE_RATE = 16000
 private const val BUFFER_SIZE = 4096
+private const val GATE_BACKSTOP_MS = 300L // Gate hangover beyond the endpointer's longest silence
+private const val UTTERANCE_BUFFER_SECONDS = 20 // Audio kept per utterance for the second pass
+private const val RESCORE_MAX_BACKLOG_FRAMES = 10 // Live backlog (200ms) that cancels the second pass
+private const val DEFAULT_PRE_ROLL_MS = 1000L // Covers the first syllables spoken while a trigger fires
+private const val FIRST_PARTIAL = "first partial"
+private const val LANGUAGE_ID_FRAMES = 50 // Decode both languages for the first second of an utterance
+private const val LANGUAGE_ID_MARGIN = 0.05 // Confidence lead the other language needs to take over
+private const val LANGUAGE_ID_DRAIN_MS = 100L
+private const val BATCH_IDLE_POLL_MS = 1000L
+private const val LANGUAGE_ID_CORRECTION_MS = 10000L // A manual switch this soon after a decision counts as a miss
+private val AUTO_LANGUAGE_KEYS = listOf("en-us", "fr")
 
 /**
  * Voice Engine for KITT Framework on Android
@@ -42,10 +51,27 @@ private const val BUFFER_SIZE = 4096
 class VoiceEngine(private val context: Context) {
 
     private var model: Model? = null
+    // Models this engine holds, one per role, so the cache can evict the ones it let go of
+    private val modelHandles = EnumMap<ModelRole, VoskModelCache.Handle>(ModelRole::class.java)
+    @Volatile
     private var recognizer: Recognizer? = null
-    private var recorder: AudioRecord? = null
-    private var speechRecognizer: SpeechRecognizer? = null
-    private var mediaRecorder: MediaRecorder? = null
+    private var recognizerKey = "en-us" // Model key the current recognizer was built from
+    private var recognizerGrammar: String? = null // Grammar the current recognizer was built with, null for dictation
+    @Volatile
+    private var recognitionMode = RecognitionMode.DICTATION
+    // Language switches hand the new recognizer to the decode thread, which swaps it in between frames
+    private val pendingSwap = AtomicReference<RecognizerSwap?>()
+    private val swapLock = Object()
+    private var secondaryLanguage: String? = null
+    private var wakeWordSpotter: WakeWordSpotter? = null
+    private var captureSubscription: AudioCaptureHub.Subscription? = null
+    private var assistantSubscription: AudioCaptureHub.Subscription? = null
+    private var recordingSubscription: AudioCaptureHub.Subscription? = null
+    private var recordingWriter: WavRecordingWriter? = null
+    private var batchTranscriber: BatchTranscriber? = null // Guarded by batchLock
+    private val batchLock = Object()
+    @Volatile
+    private var speechEngine: SpeechEngine? = null // Active backend when not using Vosk directly
     private var recordingFilePath: String? = null
     private val modelPath = "${context.filesDir.absolutePath}/models/vosk"
     private val internalRecordingsPath = "${context.filesDir.absolutePath}/recordings"
@@ -53,43 +79,374 @@ class VoiceEngine(private val context: Context) {
     private var useExternalStorage = false
     private val recordingsPath: String
         get() = if (useExternalStorage && externalRecordingsPath != null) externalRecordingsPath!! else internalRecordingsPath
+    @Volatile
     private var isListening = false
+    @Volatile
+    private var decodeThread: Thread? = null
+    // A stopped decode thread that outlived its join and may still be inside the recognizer
+    @Volatile
+    private var exitingDecodeThread: Thread? = null
+    private val retiredRecognizers = ArrayList<Recognizer>() // Closed by exitingDecodeThread once it is out, guarded by swapLock
+    private var lastPartialResult = ""
+    private var partialLatencyCount = 0L
+    // Pre-roll replayed into the recognizer is decoded faster than real time; its latency is not live latency
+    @Volatile
+    private var preRollStartNanos = 0L
+    @Volatile
+    private var preRollMs = DEFAULT_PRE_ROLL_MS
+    private var partialLatencyTotalMs = 0L
+    private var partialLatencyMaxMs = 0L
+    private var softResetCount = 0
+    private var softResetTotalMs = 0.0
+    private var rebuildResetCount = 0
+    private var rebuildResetTotalMs = 0.0
+    private var modelReloadCount = 0
+    private var modelReloadTotalMs = 0.0
+    // Forces finals from trailing silence, partial stability and utterance length
+    private val endpointer = Endpointer()
+    // Decides which decode batches poll the recognizer for a partial and which partials are delivered
+    private val partialPolicy = PartialEmissionPolicy()
+    // Notices decoding falling behind capture and sheds load according to its policy
+    private val backpressure = BackpressureController()
+    @Volatile
+    private var downshifted = false // Command mode was entered by the backpressure policy
+    // Only speech segments reach acceptWaveForm; the energy/ZCR detector can be swapped for a model-based one.
+    // The hangover is only a backstop: the endpointer normally closes segments first
+    private val speechGate = SpeechGate(
+        EnergyZcrDetector(),
+        AudioCaptureHub.FRAME_SIZE,
+        hangoverMs = endpointer.maxSilenceMs + GATE_BACKSTOP_MS
+    )
+    private var endpointReason: Endpointer.Reason? = null
+    // Two-pass: each final dictation utterance is re-decoded in the background with a larger model
+    @Volatile
+    private var twoPassEnabled = false
+    private var rescorer: TwoPassRescorer? = null // Guarded by rescorerLock
+    private val rescorerLock = Object()
+    @Volatile
+    private var revisionListener: RevisionListener? = null
+    private var utterancePcm: ShortArray? = null // Gated audio of the current utterance, decode thread only
+    private var utteranceSamples = 0
+    private var utteranceOverflow = false
+    private var utteranceCount = 0L
+    private var engineEndReason: Endpointer.Reason? = null
+    private var gatedFramesInBatch = 0
+    private var speechEnded = false
+    private var decodingRecognizer: Recognizer? = null
+    private val directWaveform = DirectWaveform() // Stages gated frames for Vosk, decode thread only
+    private val recognizerSink = object : SpeechGate.Sink {
+        override fun onSpeechFrame(frame: ShortArray, length: Int): Boolean {
+            gatedFramesInBatch++
+            val activeRecognizer = decodingRecognizer ?: return false
+            if (twoPassEnabled) {
+                keepUtteranceAudio(frame, length)
+            }
+            if (languageIdFrames >= 0) {
+                // The other language decodes the same frames on its own core
+                if (languageIdDecoder?.submit(frame, length) == false) {
+                    Log.w(TAG, "Language identification fell behind, frame dropped")
+                }
+                languageIdFrames++
+            }
+            watchdog.onDecodeStart()
+            val isFinal = directWaveform.accept(activeRecognizer, frame, length)
+            watchdog.onDecodeEnd()
+            return isFinal
+        }
+
+        override fun onSpeechStart() {
+            endpointer.onSpeechStart()
+            if (languageIdDecoder == null || recognitionMode != RecognitionMode.DICTATION) {
+                return
+            }
+            synchronized(swapLock) {
+                val decoder = languageIdDecoder ?: return
+                if (languageIdNeedsReset) {
+                    // Still decoding an abandoned window: sit this utterance out
+                    if (!decoder.drain(0)) return
+                    decoder.recognizer()?.reset()
+                    languageIdNeedsReset = false
+                }
+                languageIdFrames = 0
+            }
+        }
+
+        override fun onSpeechEnd() {
+            speechEnded = true
+        }
+    }
+    // Android and sherpa-onnx backends: gated frames in, partial/final events out as Vosk-style JSON
+    private val engineSink = object : SpeechGate.Sink {
+        override fun onSpeechFrame(frame: ShortArray, length: Int): Boolean {
+            val engineBackend = speechEngine ?: return false
+            watchdog.onDecodeStart()
+            engineBackend.acceptFrame(frame, length)
+            watchdog.onDecodeEnd()
+            return false
+        }
+
+        override fun onSpeechStart() {
+            endpointer.onSpeechStart()
+        }
+
+        override fun onSpeechEnd() {
+            engineEndReason = Endpointer.Reason.GATE
+            speechEngine?.endOfSpeech()
+        }
+    }
+    private val engineListener = object : SpeechEngine.Listener {
+        override fun onPartial(text: String) {
+            watchdog.onOutput()
+            endpointer.onPartial(text)
+            if (startupTimeline.mark(FIRST_PARTIAL)) {
+                Log.i(TAG, startupTimeline.format())
+            }
+            dispatch(engineEvent.set(RecognitionEvent.Type.PARTIAL, text, engineType))
+        }
+
+        override fun onFinal(text: String) {
+            watchdog.onOutput()
+            endpointer.onFinal(engineEndReason ?: Endpointer.Reason.RECOGNIZER)
+            engineEndReason = null
+            Log.i(TAG, "Final result detected: $text")
+            dispatch(engineEvent.set(RecognitionEvent.Type.FINAL, text, engineType).also { it.utteranceId = ++utteranceCount })
+        }
+
+        override fun onError(message: String) {
+            notifyStatus(RecognitionEvent.Type.ERROR, message)
+        }
+    }
+    // Results are parsed into reused events: one per producing thread
+    private val resultReader = VoskResultReader() // Decode thread
+    private val decodeEvent = RecognitionEvent() // Decode thread
+    private val scoreEvent = RecognitionEvent() // Decode thread, language ID scoring
+    private val engineEvent = RecognitionEvent() // SpeechEngine listener thread
+    @Volatile
+    private var resultListeners: Array<ResultListener> = emptyArray()
     private var isRecording = false
     private var currentModelKey = "en-us"
     private var currentLanguage = "en-US"
-    private var useNativeAndroid = false
-    private var transcriptionCallback: TranscriptionCallback? = null
+    private var engineType = SpeechEngine.VOSK
+    private val usesVosk: Boolean
+        get() = engineType == SpeechEngine.VOSK
     private var listeningStartTime: Long = 0
-    private var lastResultTime: Long = 0
-    private var lastRmsZeroTime: Long = 0
-    private val RESET_THRESHOLD_MS = 60000 // 1 minute
-    private val FREEZE_TIMEOUT_MS = 10000 // 10 seconds to detect freeze
-    private val RMS_ZERO_TIMEOUT_MS = 10000 // 10 seconds to detect RMS at 0
+    // Decides on resets from decode timing, output progression, capture and native heap signals
+    private val watchdog = RecognizerWatchdog(ringDepth = { captureSubscription?.ring?.depth() ?: 0 })
     private var assistantService: OfflineAssistantService? = null
     private var isStreamingToAssistant = false
+    @Volatile
+    private var initFuture: CompletableFuture<Boolean>? = null
+    @Volatile
+    private var initProgressListener: InitProgressListener? = null
+    private var initStartTime = 0L
+    // Auto language: the other language's recognizer runs on a second core during the ID window
+    @Volatile
+    private var languageIdDecoder: ParallelDecoder? = null
+    private var languageIdKey: String? = null
+    private var languageIdModel: Model? = null
+    private var languageIdFrames = -1 // Frames submitted in the open ID window, -1 when no window is open
+    private var languageIdNeedsReset = false
+    @Volatile
+    private var languageListener: LanguageListener? = null
+    private var languageIdUtterances = 0
+    private var languageIdUndecided = 0
+    private var languageIdSwitches = 0
+    private var languageIdCorrections = 0
+    private var languageIdExtraNanos = 0L
+    private val languageIdDecisions = HashMap<String, Int>()
+    private var lastLanguageIdMs = 0L
+    private var lastLanguageIdKey: String? = null
+
+    /**
+     * Milestones from engine creation to the first partial transcription.
+     */
+    val startupTimeline = StartupTimeline()
+
+    init {
+        startupTimeline.mark("VoiceEngine created")
+        // Capture at the native rate: the hub converts to 16kHz itself instead of the HAL
+        AudioCaptureHub.useDeviceRate(context)
+        watchdog.warningListener = RecognizerWatchdog.WarningListener { message ->
+            notifyStatus(RecognitionEvent.Type.WARNING, message)
+        }
+        watchdog.hungListener = RecognizerWatchdog.HungListener { cause -> onDecodeHung(cause) }
+    }
+
+    private class RecognizerSwap(val key: String, val grammar: String?, val recognizer: Recognizer)
+
+    /**
+     * What this engine holds a [VoskModelCache] handle for. Each role holds at most one model and
+     * lets go of the previous one when it moves on.
+     */
+    private enum class ModelRole {
+        ACTIVE, // Model of the installed recognizer
+        SWITCHING, // Model of a language switch the decode thread has not installed yet
+        LANGUAGE_ID, // Auto language challenger
+        WAKE // Wake word spotter
+    }
+
+    /**
+     * Free-form dictation, or decoding constrained to the VoiceCommandProcessor vocabulary.
+     */
+    enum class RecognitionMode {
+        DICTATION,
+        COMMAND
+    }
+
+    /**
+     * Receives recognition results and engine status as typed events: partials and finals with
+     * word timings and confidence, resets, warnings, errors and assistant responses.
+     * Called on the thread that produced the event, the decode thread for results. The event is
+     * reused afterwards: take its text, or [RecognitionEvent.copy] it, before returning.
+     */
+    fun interface ResultListener {
+        fun onResult(event: RecognitionEvent)
+    }
+
+    /**
+     * Notified on the decode thread when auto language identification switches language.
+     */
+    fun interface LanguageListener {
+        /**
+         * @param language The language code now in use (e.g., "en-US" or "fr-FR").
+         */
+        fun onLanguageDetected(language: String)
+    }
+
+    /**
+     * Notified on the second-pass thread when the large model transcribed an utterance differently.
+     */
+    fun interface RevisionListener {
+        /**
+         * @param original The transcript delivered live by the small model.
+         * @param revised The second-pass transcript that should replace it.
+         */
+        fun onTranscriptRevised(original: String, revised: String)
+    }
+
+    /**
+     * Stages reported while the engine initializes.
+     */
+    enum class InitStage {
+        EXTRACT,
+        LOAD_MODEL,
+        CREATE_RECOGNIZER,
+        READY,
+        FAILED
+    }
+
+    /**
+     * Progress listener for [initVoiceEngineAsync], invoked on the initializing thread.
+     */
+    fun interface InitProgressListener {
+        fun onStage(stage: InitStage, elapsedMs: Long)
+    }
+
+    /**
+     * Add a consumer of recognition results and engine events. UI, command processing and the
+     * assistant all receive the same events.
+     */
+    fun addResultListener(listener: ResultListener) {
+        synchronized(this) {
+            if (listener !in resultListeners) {
+                resultListeners = resultListeners + listener
+            }
+        }
+    }
+
+    fun removeResultListener(listener: ResultListener) {
+        synchronized(this) {
+            resultListeners = resultListeners.filter { it !== listener }.toTypedArray()
+        }
+    }
+
+    /**
+     * Deliver an event to every listener. Iterates a snapshot array, so dispatch does not allocate.
+     */
+    private fun dispatch(event: RecognitionEvent) {
+        for (listener in resultListeners) {
+            try {
+                listener.onResult(event)
+            } catch (e: Exception) {
+                Log.e(TAG, "Result listener failed on $event: ${e.message}", e)
+            }
+        }
+    }
+
+    /**
+     * Deliver a status event (reset, warning, error, assistant response) from any thread.
+     */
+    private fun notifyStatus(type: RecognitionEvent.Type, message: String) {
+        dispatch(RecognitionEvent().set(type, message, engineType))
+    }
 
     /**
-     * Interface for transcription callbacks.
+     * Initialize the voice engine in the background so model extraction and loading never block the UI.
+     * Concurrent calls share the same in-flight initialization.
+     * @param listener Optional progress listener, invoked on the initializing thread.
+     * @return A future completing with true once the engine is ready to listen.
      */
-    interface TranscriptionCallback {
-        fun onTranscription(transcription: String)
-        fun onEngineReset(reason: String)
+    @JvmOverloads
+    fun initVoiceEngineAsync(listener: InitProgressListener? = null): CompletableFuture<Boolean> {
+        synchronized(this) {
+            initFuture?.let { inFlight ->
+                if (!inFlight.isDone) return inFlight
+            }
+            val future = CompletableFuture<Boolean>()
+            initFuture = future
+            val initTask = Runnable {
+                initProgressListener = listener
+                val ready = try {
+                    initVoiceEngine()
+                } catch (e: Exception) {
+                    Log.e(TAG, "Asynchronous voice engine initialization failed: ${e.message}", e)
+                    false
+                }
+                if (!ready) {
+                    reportStage(InitStage.FAILED)
+                }
+                initProgressListener = null
+                future.complete(ready)
+            }
+            if (engineType == SpeechEngine.ANDROID) {
+                // SpeechRecognizer must be created on the main thread and is cheap to create
+                android.os.Handler(android.os.Looper.getMainLooper()).post(initTask)
+            } else {
+                Thread(initTask, "VoiceEngine-init").apply {
+                    priority = Thread.NORM_PRIORITY - 1
+                    start()
+                }
+            }
+            return future
+        }
     }
 
     /**
-     * Set the callback for transcription results and engine events.
-     * @param callback The callback to be invoked with transcription results and engine events.
+     * Check if the engine finished initializing and can start listening.
      */
-    fun setTranscriptionCallback(callback: TranscriptionCallback) {
-        this.transcriptionCallback = callback
+    fun isReady(): Boolean {
+        return if (usesVosk) recognizer != null else speechEngine?.isLoaded() == true
+    }
+
+    private fun reportStage(stage: InitStage) {
+        val elapsed = System.currentTimeMillis() - initStartTime
+        startupTimeline.mark("init $stage")
+        Log.i(TAG, "Init stage $stage after ${elapsed}ms")
+        try {
+            initProgressListener?.onStage(stage, elapsed)
+        } catch (e: Exception) {
+            Log.e(TAG, "Init progress listener failed: ${e.message}")
+        }
     }
 
     /**
      * Initialize the voice engine with platform-specific configurations.
+     * Blocks while models are extracted and loaded; prefer [initVoiceEngineAsync] on the main thread.
      * @return Boolean indicating if initialization was successful.
      */
     fun initVoiceEngine(): Boolean {
         val startTime = System.currentTimeMillis()
+        initStartTime = startTime
         // Bind to OfflineAssistantService
         bindToAssistantService()
 
@@ -103,66 +460,27 @@ class VoiceEngine(private val context: Context) {
         // Attempt to set up external recordings directory
         setupExternalStorage()
 
-        if (useNativeAndroid) {
-            // Initialize native Android speech recognizer
+        val engineBackend = if (usesVosk) null else speechEngine ?: createSpeechEngine(engineType)
+        if (engineBackend != null) {
+            // Android and sherpa-onnx run behind the SpeechEngine contract, fed from the shared capture
             try {
-                speechRecognizer = SpeechRecognizer.createSpeechRecognizer(context)
-                speechRecognizer?.setRecognitionListener(object : RecognitionListener {
-                    override fun onReadyForSpeech(params: Bundle?) {
-                        Log.i(TAG, "Native Android recognizer ready for speech")
-                    }
-
-                    override fun onBeginningOfSpeech() {
-                        Log.i(TAG, "Speech input started")
-                    }
-
-                    override fun onRmsChanged(rmsdB: Float) {
-                        // RMS change can be used for visualization if needed
-                    }
-
-                    override fun onBufferReceived(buffer: ByteArray?) {
-                        // Not typically used for speech recognition
-                    }
-
-                    override fun onEndOfSpeech() {
-                        Log.i(TAG, "Speech input ended")
-                    }
-
-                    override fun onError(error: Int) {
-                        Log.e(TAG, "Speech recognition error: $error")
-                    }
-
-                    override fun onResults(results: Bundle?) {
-                        val matches = results?.getStringArrayList(SpeechRecognizer.RESULTS_RECOGNITION)
-                        if (matches != null && matches.isNotEmpty()) {
-                            val transcription = matches[0]
-                            Log.i(TAG, "Speech recognition result: $transcription")
-                            transcriptionCallback?.onTranscription(transcription)
-                        }
-                    }
-
-                    override fun onPartialResults(partialResults: Bundle?) {
-                        val partialMatches = partialResults?.getStringArrayList(SpeechRecognizer.RESULTS_RECOGNITION)
-                        if (partialMatches != null && partialMatches.isNotEmpty()) {
-                            val partialTranscription = partialMatches[0]
-                            Log.i(TAG, "Partial speech recognition result: $partialTranscription")
-                            transcriptionCallback?.onTranscription(partialTranscription)
-                        }
-                    }
-
-                    override fun onEvent(eventType: Int, params: Bundle?) {
-                        // Handle any additional events if necessary
-                    }
-                })
+                reportStage(InitStage.CREATE_RECOGNIZER)
+                if (!engineBackend.load(currentLanguage)) {
+                    Log.e(TAG, "Failed to initialize ${engineBackend.name} voice engine")
+                    return false
+                }
+                speechEngine = engineBackend
                 val initTime = System.currentTimeMillis() - startTime
-                Log.i(TAG, "Native Android voice engine initialized in ${initTime}ms")
+                Log.i(TAG, "${engineBackend.name} voice engine initialized in ${initTime}ms")
+                reportStage(InitStage.READY)
                 return true
             } catch (e: Exception) {
-                Log.e(TAG, "Failed to initialize native Android voice engine: ${e.message}")
+                Log.e(TAG, "Failed to initialize ${engineBackend.name} voice engine: ${e.message}")
                 return false
             }
         } else {
             // Ensure model directory exists for Vosk
+            reportStage(InitStage.EXTRACT)
             val modelDir = File(modelPath)
             if (!modelDir.exists()) {
                 Log.i(TAG, "Model directory does not exist: $modelPath, attempting to create and copy from assets")
@@ -224,20 +542,26 @@ class VoiceEngine(private val context: Context) {
             // Initialize Vosk with offline-first approach
             try {
                 // Load the Vosk model based on configuration
-                val configJson = readModelConfig()
-                val models = configJson.getJSONObject("models")
-                val modelConfig = models.optJSONObject(currentModelKey)
-                if (modelConfig != null) {
-                    val modelFileName = modelConfig.optString("path", if (currentModelKey == "en-us") "vosk-model-small-en-us-0.15.zip" else "vosk-model-small-fr-0.22.zip")
-                    val extractedModelPath = "$modelPath/${modelFileName.removeSuffix(".zip")}"
+                val extractedModelPath = resolveModelPath(currentModelKey)
+                if (extractedModelPath != null) {
                     Log.i(TAG, "Loading model: $currentModelKey from $extractedModelPath")
-                    model = Model(extractedModelPath)
-                    recognizer = Recognizer(model, SAMPLE_RATE.toFloat())
+                    reportStage(InitStage.LOAD_MODEL)
+                    // Served from the process-wide cache when this language was used or preloaded before
+                    val loadedModel = retainModel(ModelRole.ACTIVE, currentModelKey, extractedModelPath)
+                        ?: throw IOException("Model $currentModelKey could not be loaded")
+                    model = loadedModel
+                    reportStage(InitStage.CREATE_RECOGNIZER)
+                    recognizerGrammar = activeGrammar()
+                    recognizer = acquireRecognizer(currentModelKey, loadedModel, recognizerGrammar)
+                    recognizerKey = currentModelKey
+                    VoskModelCache.setActive(currentModelKey)
+                    secondaryLanguage?.let { preloadLanguage(it) }
                     val initTime = System.currentTimeMillis() - startTime
                     if (initTime > MAX_LATENCY_MS) {
                         Log.w(TAG, "Voice engine initialization exceeded latency target: ${initTime}ms")
                     }
                     Log.i(TAG, "Voice engine initialized successfully with Vosk model $currentModelKey in ${initTime}ms")
+                    reportStage(InitStage.READY)
                     return true
                 } else {
                     Log.e(TAG, "Model $currentModelKey not found in configuration")
@@ -256,8 +580,9 @@ class VoiceEngine(private val context: Context) {
      */
     fun getEngineStatus(): String {
         Log.i(TAG, "Getting voice engine status")
-        return if (useNativeAndroid) {
-            if (speechRecognizer != null) "Initialized with Native Android and ready" else "Not initialized"
+        return if (!usesVosk) {
+            val engineBackend = speechEngine
+            if (engineBackend?.isLoaded() == true) "Initialized with ${engineBackend.name} and ready" else "Not initialized"
         } else {
             if (model != null) "Initialized with Vosk and ready" else "Not initialized"
         }
@@ -434,280 +759,1016 @@ class VoiceEngine(private val context: Context) {
     }
 
     /**
-     * Load the Vosk model from the specified path.
-     * @param path The path to the model files.
-     * @return A Model object representing the loaded model.
+     * Resolve the extracted model directory for a model key from config.json.
+     * @param modelKey The model key (e.g., "en-us" or "fr").
+     * @return The extracted model path, or null if the key is not configured.
      */
-    private fun loadVoskModel(path: String): Model {
-        Log.i(TAG, "Loading Vosk model from $path")
-        return Model(path)
+    private fun resolveModelPath(modelKey: String): String? {
+        val models = readModelConfig().optJSONObject("models") ?: return null
+        val modelConfig = models.optJSONObject(modelKey) ?: return null
+        val modelFileName = modelConfig.optString("path", if (modelKey == "en-us") "vosk-model-small-en-us-0.15.zip" else "vosk-model-small-fr-0.22.zip")
+        return "$modelPath/${modelFileName.removeSuffix(".zip")}"
+    }
+
+    private fun modelKeyFor(language: String): String {
+        return SpeechEngine.modelKeyFor(language)
     }
 
     /**
-     * Start listening for voice input using the initialized voice engine.
-     * @return Boolean indicating if listening started successfully.
+     * Set the user's second language and load its model in the background,
+     * so that switching to it later does not wait for a model load.
+     * @param language The language code (e.g., "en-US" or "fr-FR"), or null to stop preloading.
      */
-    @RequiresPermission(Manifest.permission.RECORD_AUDIO)
-    fun startListening(): Boolean {
-        if (useNativeAndroid) {
-            if (speechRecognizer == null) {
-                Log.e(TAG, "Native Android voice engine not initialized")
-                transcriptionCallback?.onTranscription("Error: Android STT engine not initialized")
-                return false
-            }
-            try {
-                val intent = android.content.Intent(RecognizerIntent.ACTION_RECOGNIZE_SPEECH)
-                intent.putExtra(RecognizerIntent.EXTRA_LANGUAGE_MODEL, RecognizerIntent.LANGUAGE_MODEL_FREE_FORM)
-                intent.putExtra(RecognizerIntent.EXTRA_PARTIAL_RESULTS, true)
-                intent.putExtra(RecognizerIntent.EXTRA_PREFER_OFFLINE, true) // Ensure on-device processing
-                intent.putExtra(RecognizerIntent.EXTRA_LANGUAGE, currentLanguage) // Set the language
-                intent.putExtra(RecognizerIntent.EXTRA_LANGUAGE_PREFERENCE, currentLanguage)
-                intent.putExtra(RecognizerIntent.EXTRA_ONLY_RETURN_LANGUAGE_PREFERENCE, currentLanguage)
-                speechRecognizer?.startListening(intent)
-                isListening = true
-                Log.i(TAG, "Started listening for voice input with Native Android in language: $currentLanguage")
-                return true
-            } catch (e: Exception) {
-                Log.e(TAG, "Failed to start listening with Native Android: ${e.message}")
-                transcriptionCallback?.onTranscription("Error: Failed to start Android STT - ${e.message}")
-                return false
-            }
-        } else {
-            if (recognizer == null) {
-                Log.e(TAG, "Vosk voice engine not initialized")
-                transcriptionCallback?.onTranscription("Error: VOSK engine not initialized")
-                return false
-            }
-            try {
-                val audioFormat = AudioFormat.Builder()
-                    .setEncoding(AudioFormat.ENCODING_PCM_16BIT)
-                    .setSampleRate(SAMPLE_RATE)
-                    .setChannelMask(AudioFormat.CHANNEL_IN_MONO)
-                    .build()
-                val bufferSize = AudioRecord.getMinBufferSize(
-                    SAMPLE_RATE,
-                    AudioFormat.CHANNEL_IN_MONO,
-                    AudioFormat.ENCODING_PCM_16BIT
-                )
-                recorder = AudioRecord(
-                    MediaRecorder.AudioSource.MIC,
-                    SAMPLE_RATE,
-                    AudioFormat.CHANNEL_IN_MONO,
-                    AudioFormat.ENCODING_PCM_16BIT,
-                    bufferSize
-                )
-                recorder?.startRecording()
-                isListening = true
-                listeningStartTime = System.currentTimeMillis()
-                Log.i(TAG, "Started listening for voice input with Vosk at $listeningStartTime")
-                return true
-            } catch (e: Exception) {
-                Log.e(TAG, "Failed to start listening with Vosk: ${e.message}")
-                transcriptionCallback?.onTranscription("Error: Failed to start VOSK - ${e.message}")
-                return false
-            }
+    fun setSecondaryLanguage(language: String?) {
+        secondaryLanguage = language
+        if (language != null && usesVosk) {
+            preloadLanguage(language)
         }
     }
 
-    /**
-     * Set the model to use for voice recognition.
-     * @param modelKey The key of the model to use (e.g., "en-us" or "fr").
-     */
-    fun setModel(modelKey: String) {
-        Log.i(TAG, "Setting model to $modelKey")
-        currentModelKey = modelKey
-        // Reinitialize the voice engine with the new model if using Vosk
-        if (!useNativeAndroid && model != null) {
-            model?.close()
-            model = null
-            recognizer = null
-            initVoiceEngine()
+    private fun preloadLanguage(language: String) {
+        val modelKey = modelKeyFor(language)
+        if (modelKey == currentModelKey || VoskModelCache.isLoaded(modelKey)) {
+            return
         }
+        val path = resolveModelPath(modelKey) ?: return
+        Log.i(TAG, "Preloading model $modelKey for secondary language $language")
+        VoskModelCache.preload(modelKey, path)
     }
-    
+
     /**
-     * Set the language for voice recognition.
-     * @param language The language code (e.g., "en-US" or "fr-FR").
+     * Enable or disable automatic language identification between English and French.
+     * While enabled, the first second of every utterance is decoded by both language models on
+     * separate threads; the more confident one keeps the utterance and becomes the active
+     * language, and the other is reset until the next utterance. Vosk dictation only; needs the
+     * voice activity gate, since utterances are delimited by its speech segments.
+     * Switching language or recognition mode manually disables it.
+     * @param enabled True to identify the language of each utterance.
+     * @return Boolean indicating if auto language is in the requested state.
      */
-    @Synchronized
-    fun setLanguage(language: String) {
-        Log.i(TAG, "Setting language to $language")
-        val previousLanguage = currentLanguage
-        val previousModelKey = currentModelKey
-        val wasListening = isListening
-        
-        try {
-            // Stop any ongoing voice processing first
-            if (wasListening) {
-                Log.i(TAG, "Stopping voice processing for language switch")
-                if (useNativeAndroid) {
-                    speechRecognizer?.stopListening()
-                } else {
-                    recorder?.stop()
-                    recorder?.release()
-                    recorder = null
-                    isListening = false
-                }
-                // Give time for any ongoing processing to complete
-                Thread.sleep(100)
+    fun setAutoLanguage(enabled: Boolean): Boolean {
+        if (!enabled) {
+            val decoder = synchronized(swapLock) {
+                val active = languageIdDecoder
+                languageIdDecoder = null
+                languageIdFrames = -1
+                active
+            } ?: return true
+            val challengerKey = languageIdKey
+            val challenger = decoder.stop()
+            languageIdExtraNanos += decoder.decodeNanos()
+            challenger?.let {
+                if (challengerKey != null) releaseToCache(challengerKey, null, it) else it.close()
             }
-            
-            currentLanguage = language
-            if (useNativeAndroid) {
-                // For Android STT, we just store the language and use it when starting listening
-                Log.i(TAG, "Language set for Android STT: $language")
-            } else {
-                // For Vosk, convert to model key and reinitialize if needed
-                val modelKey = when (language) {
-                    "fr-FR" -> "fr"
-                    else -> "en-us"
-                }
-                
-                if (modelKey != currentModelKey) {
-                    Log.i(TAG, "Model key changed from $currentModelKey to $modelKey, reinitializing...")
-                    
-                    // Clean up existing resources safely
-                    try {
-                        recognizer = null
-                        model?.close()
-                        model = null
-                        Log.i(TAG, "Cleaned up previous model resources")
-                    } catch (cleanupException: Exception) {
-                        Log.w(TAG, "Warning during resource cleanup: ${cleanupException.message}")
-                    }
-                    
-                    // Set new model key and reinitialize
-                    currentModelKey = modelKey
-                    if (!initVoiceEngine()) {
-                        throw Exception("Failed to initialize voice engine with new language model")
-                    }
-                    Log.i(TAG, "Successfully reinitialized voice engine for language: $language")
-                } else {
-                    Log.i(TAG, "Model key unchanged, no reinitialization needed")
-                }
+            languageIdModel = null
+            releaseModel(ModelRole.LANGUAGE_ID)
+            Log.i(TAG, "Auto language disabled. ${getLanguageIdStats()}")
+            return true
+        }
+        if (languageIdDecoder != null) {
+            return true
+        }
+        if (!usesVosk || model == null) {
+            Log.w(TAG, "Auto language requires an initialized Vosk engine")
+            return false
+        }
+        if (recognitionMode != RecognitionMode.DICTATION) {
+            Log.w(TAG, "Auto language is only available in dictation mode")
+            return false
+        }
+        val challengerKey = AUTO_LANGUAGE_KEYS.firstOrNull { it != currentModelKey } ?: return false
+        val path = resolveModelPath(challengerKey)
+        if (path == null) {
+            Log.e(TAG, "Model $challengerKey not found in configuration")
+            return false
+        }
+        val challengerModel = retainModel(ModelRole.LANGUAGE_ID, challengerKey, path) ?: return false
+        try {
+            val decoder = ParallelDecoder("langid")
+            decoder.attach(acquireRecognizer(challengerKey, challengerModel, null))
+            decoder.start()
+            synchronized(swapLock) {
+                languageIdKey = challengerKey
+                languageIdModel = challengerModel
+                languageIdFrames = -1
+                languageIdNeedsReset = false
+                languageIdDecoder = decoder
             }
         } catch (e: Exception) {
-            Log.e(TAG, "Failed to set language to $language: ${e.message}", e)
-            // Rollback changes
-            currentLanguage = previousLanguage
-            currentModelKey = previousModelKey
-            // Try to reinitialize with previous settings
-            try {
-                if (!useNativeAndroid) {
-                    initVoiceEngine()
-                }
-            } catch (rollbackException: Exception) {
-                Log.e(TAG, "Failed to rollback to previous language: ${rollbackException.message}")
-            }
-            throw e
+            Log.e(TAG, "Failed to start auto language: ${e.message}", e)
+            releaseModel(ModelRole.LANGUAGE_ID)
+            return false
         }
+        Log.i(TAG, "Auto language enabled: $currentModelKey with $challengerKey in parallel")
+        return true
+    }
+
+    fun isAutoLanguage(): Boolean {
+        return languageIdDecoder != null
     }
 
     /**
-     * Reset the Vosk recognizer to prevent freezing after prolonged use.
-     * @param reason The reason for the reset, to be displayed in the UI.
+     * Enable two-pass recognition: the small model keeps driving partials and commands, and each
+     * final dictation utterance is re-decoded on a background thread with the larger model set as
+     * "rescore_path" in config.json. Revised transcripts are reported to the [RevisionListener].
+     * Large models are not bundled; they are looked up next to the extracted small models.
+     * @param enabled True to enable.
+     * @return Boolean indicating if two-pass is active, false if no large model is installed.
      */
-    private fun resetRecognizer(reason: String = "Prolonged use timeout") {
-        if (!useNativeAndroid && recognizer != null) {
-            Log.i(TAG, "Resetting Vosk recognizer: $reason")
-            try {
-                // Ensure any ongoing recording is stopped and released
-                if (isListening) {
-                    recorder?.stop()
-                    recorder?.release()
-                    recorder = null
-                    isListening = false
-                    Log.i(TAG, "Stopped and released audio recorder during reset")
-                }
-                recognizer = null
-                model?.close()
-                model = null
-                Log.i(TAG, "Closed existing model and recognizer")
-                val initSuccess = initVoiceEngine()
-                listeningStartTime = System.currentTimeMillis()
-                lastResultTime = System.currentTimeMillis()
-                if (initSuccess) {
-                    Log.i(TAG, "Recognizer reset successful, new start time: $listeningStartTime")
-                    transcriptionCallback?.onEngineReset(reason)
-                } else {
-                    Log.e(TAG, "Failed to reinitialize voice engine after reset")
-                    transcriptionCallback?.onTranscription("Error: Failed to reinitialize voice engine after reset")
-                }
-            } catch (e: Exception) {
-                Log.e(TAG, "Error resetting recognizer: ${e.message}", e)
-                transcriptionCallback?.onTranscription("Error: Failed to reset recognizer - ${e.message}")
+    fun setTwoPassEnabled(enabled: Boolean): Boolean {
+        if (!enabled) {
+            twoPassEnabled = false
+            synchronized(rescorerLock) {
+                rescorer?.shutdown()
+                rescorer = null
             }
+            Log.i(TAG, "Two-pass recognition disabled")
+            return false
+        }
+        // Start loading the large model now rather than on the first final
+        if (rescorerFor(currentModelKey) == null) {
+            Log.w(TAG, "Two-pass recognition unavailable: no large model installed for $currentModelKey")
+            return false
         }
+        twoPassEnabled = true
+        Log.i(TAG, "Two-pass recognition enabled for $currentModelKey")
+        return true
+    }
+
+    fun isTwoPassEnabled(): Boolean {
+        return twoPassEnabled
     }
 
+    fun setRevisionListener(listener: RevisionListener?) {
+        revisionListener = listener
+    }
 
     /**
-     * Start audio recording.
-     * @return The file path of the recording if started successfully, null otherwise.
+     * Get two-pass statistics, including word-level agreement between the live and second pass.
      */
-    @RequiresPermission(Manifest.permission.RECORD_AUDIO)
-    fun startRecording(): String? {
-        if (isRecording) {
-            Log.w(TAG, "Already recording")
-            return recordingFilePath
-        }
+    fun getTwoPassStats(): String {
+        return synchronized(rescorerLock) { rescorer?.getStats() } ?: "Two-pass: off"
+    }
 
-        try {
-            val dateFormat = SimpleDateFormat("yyyyMMdd_HHmmss", Locale.getDefault())
-            val dateStr = dateFormat.format(Date())
-            val fileName = "kitt-$dateStr.3gp"
-            recordingFilePath = "$recordingsPath/$fileName"
-            
-            mediaRecorder = MediaRecorder().apply {
-                setAudioSource(MediaRecorder.AudioSource.MIC)
-                setOutputFormat(MediaRecorder.OutputFormat.THREE_GPP)
-                setAudioEncoder(MediaRecorder.AudioEncoder.AMR_NB)
-                setOutputFile(recordingFilePath)
-                prepare()
-                start()
+    /**
+     * Get the rescorer for [modelKey], replacing one built for another language.
+     * @return The running rescorer, or null if [modelKey] has no large model installed.
+     */
+    private fun rescorerFor(modelKey: String): TwoPassRescorer? {
+        synchronized(rescorerLock) {
+            rescorer?.let { if (it.modelKey == modelKey && it.isRunning()) return it }
+            rescorer?.shutdown()
+            rescorer = null
+            val path = resolveRescorePath(modelKey) ?: return null
+            val created = TwoPassRescorer(modelKey, path) {
+                // Give way as soon as the live decoder has more than a batch of audio waiting
+                (captureSubscription?.ring?.depth() ?: 0) > RESCORE_MAX_BACKLOG_FRAMES
             }
-            isRecording = true
-            Log.i(TAG, "Started recording to $recordingFilePath")
-            return recordingFilePath
-        } catch (e: Exception) {
-            Log.e(TAG, "Failed to start recording: ${e.message}")
-            mediaRecorder?.release()
-            mediaRecorder = null
-            recordingFilePath = null
-            isRecording = false
-            return null
+            created.start { _, firstPass, secondPass ->
+                if (secondPass.isNotEmpty() && secondPass != firstPass) {
+                    revisionListener?.onTranscriptRevised(firstPass, secondPass)
+                }
+            }
+            rescorer = created
+            return created
         }
     }
 
+    private fun resolveRescorePath(modelKey: String): String? {
+        val models = readModelConfig().optJSONObject("models") ?: return null
+        val rescorePath = models.optJSONObject(modelKey)?.optString("rescore_path").orEmpty()
+        if (rescorePath.isEmpty()) return null
+        val path = "$modelPath/${rescorePath.removeSuffix(".zip")}"
+        return if (File(path).isDirectory) path else null
+    }
+
     /**
-     * Start streaming audio to the offline assistant service.
-     * @return Boolean indicating if streaming started successfully.
+     * Append a decoded frame to the current utterance's audio. Utterances longer than the buffer
+     * are not rescored.
      */
-    @RequiresPermission(Manifest.permission.RECORD_AUDIO)
-    fun startStreamingToAssistant(): Boolean {
-        if (isStreamingToAssistant) {
-            Log.w(TAG, "Already streaming to assistant")
-            return true
+    private fun keepUtteranceAudio(frame: ShortArray, length: Int) {
+        val buffer = utterancePcm ?: ShortArray(AudioCaptureHub.SAMPLE_RATE * UTTERANCE_BUFFER_SECONDS).also { utterancePcm = it }
+        if (utteranceOverflow || utteranceSamples + length > buffer.size) {
+            utteranceOverflow = true
+            return
         }
+        System.arraycopy(frame, 0, buffer, utteranceSamples, length)
+        utteranceSamples += length
+    }
 
-        if (assistantService == null) {
-            Log.e(TAG, "Assistant service not bound")
-            bindToAssistantService()
-            if (assistantService == null) {
-                Log.e(TAG, "Failed to bind to assistant service")
+    /**
+     * Queue the utterance that just produced [finalEvent] for the second pass. Decode thread only.
+     */
+    private fun submitSecondPass(finalEvent: RecognitionEvent) {
+        val samples = utteranceSamples
+        val overflow = utteranceOverflow
+        utteranceSamples = 0
+        utteranceOverflow = false
+        if (!twoPassEnabled || recognitionMode != RecognitionMode.DICTATION || samples == 0 || overflow) {
+            return
+        }
+        val buffer = utterancePcm ?: return
+        if (finalEvent.isEmpty()) return
+        // The utterance belongs to the recognizer that finished it, which auto language may have swapped in
+        rescorerFor(recognizerKey)?.submit(finalEvent.utteranceId, buffer.copyOf(samples), finalEvent.text())
+    }
+
+    fun setLanguageListener(listener: LanguageListener?) {
+        languageListener = listener
+    }
+
+    /**
+     * Get auto language identification statistics.
+     * Accuracy counts a decision as wrong when the user switched language manually within 10s of it.
+     * @return String with decisions per language, switches, accuracy and extra CPU per utterance.
+     */
+    fun getLanguageIdStats(): String {
+        val decided = languageIdUtterances - languageIdUndecided
+        if (languageIdUtterances == 0) {
+            return "Language ID: ${if (languageIdDecoder != null) "no utterances yet" else "off"}"
+        }
+        val accuracy = if (decided > 0) (decided - languageIdCorrections) * 100.0 / decided else 0.0
+        val extraNanos = languageIdExtraNanos + (languageIdDecoder?.decodeNanos() ?: 0L)
+        val extraMs = extraNanos / 1_000_000.0 / languageIdUtterances
+        return "Language ID: $languageIdUtterances utterances (${languageIdDecisions.entries.joinToString { "${it.key} ${it.value}" }}, " +
+            "$languageIdUndecided undecided), $languageIdSwitches switches, " +
+            "accuracy ${String.format("%.1f", accuracy)}% ($languageIdCorrections corrected), " +
+            "extra CPU ${String.format("%.1f", extraMs)}ms/utterance"
+    }
+
+    /**
+     * Close the identification window: pick the language whose partial hypothesis is more
+     * confident. If the other language wins, its recognizer (which has decoded the whole window)
+     * takes over the utterance and the previous one becomes the standby challenger.
+     * Runs on the decode thread.
+     * @param primary The recognizer decoding the utterance.
+     * @param primaryFinal True if the primary already endpointed, which leaves nothing to compare.
+     * @return The recognizer that continues the utterance.
+     */
+    private fun identifyLanguage(primary: Recognizer, primaryFinal: Boolean): Recognizer {
+        languageIdFrames = -1
+        var detectedLanguage: String? = null
+        val winner = synchronized(swapLock) {
+            val decoder = languageIdDecoder ?: return primary
+            val challengerKey = languageIdKey ?: return primary
+            val challengerModel = languageIdModel ?: return primary
+            languageIdUtterances++
+            if (!decoder.drain(LANGUAGE_ID_DRAIN_MS)) {
+                languageIdUndecided++
+                languageIdNeedsReset = true
+                Log.w(TAG, "Language identification undecided: $challengerKey decoder still behind")
+                return primary
+            }
+            val challenger = decoder.recognizer() ?: return primary
+            if (primaryFinal) {
+                languageIdUndecided++
+                challenger.reset()
+                return primary
+            }
+            val primaryScore = partialConfidence(primary)
+            val challengerScore = partialConfidence(challenger)
+            val winnerKey = if (challengerScore > primaryScore + LANGUAGE_ID_MARGIN) challengerKey else currentModelKey
+            languageIdDecisions[winnerKey] = (languageIdDecisions[winnerKey] ?: 0) + 1
+            lastLanguageIdKey = winnerKey
+            lastLanguageIdMs = System.currentTimeMillis()
+            Log.i(TAG, "Language ID: $currentModelKey ${String.format("%.3f", primaryScore)}, $challengerKey ${String.format("%.3f", challengerScore)} -> $winnerKey")
+            if (winnerKey != challengerKey) {
+                challenger.reset()
+                return primary
+            }
+            // The challenger has heard the whole window: it continues the utterance
+            val previousKey = currentModelKey
+            val previousModel = model
+            decoder.detach()
+            primary.reset()
+            decoder.attach(primary)
+            recognizer = challenger
+            recognizerKey = challengerKey
+            recognizerGrammar = null
+            model = challengerModel
+            currentModelKey = challengerKey
+            currentLanguage = languageFor(challengerKey)
+            languageIdKey = previousKey
+            languageIdModel = previousModel
+            synchronized(modelHandles) {
+                val previousHandle = modelHandles.remove(ModelRole.ACTIVE)
+                modelHandles.remove(ModelRole.LANGUAGE_ID)?.let { modelHandles[ModelRole.ACTIVE] = it }
+                previousHandle?.let { modelHandles[ModelRole.LANGUAGE_ID] = it }
+            }
+            lastPartialResult = ""
+            partialPolicy.reset()
+            VoskModelCache.setActive(challengerKey)
+            languageIdSwitches++
+            detectedLanguage = currentLanguage
+            challenger
+        }
+        detectedLanguage?.let { language ->
+            Log.i(TAG, "Auto language switched to $language")
+            try {
+                languageListener?.onLanguageDetected(language)
+            } catch (e: Exception) {
+                Log.e(TAG, "Language listener failed: ${e.message}", e)
+            }
+        }
+        return winner
+    }
+
+    /**
+     * Mean word confidence of a recognizer's current partial hypothesis, 0 when it has no words.
+     */
+    private fun partialConfidence(recognizer: Recognizer): Double {
+        recognizer.setPartialWords(true)
+        val json = try {
+            recognizer.partialResult
+        } finally {
+            recognizer.setPartialWords(false)
+        }
+        resultReader.read(json, scoreEvent)
+        return scoreEvent.averageConfidence()
+    }
+
+    private fun languageFor(modelKey: String): String {
+        return if (modelKey == "fr") "fr-FR" else "en-US"
+    }
+
+    /**
+     * Switch the Vosk recognizer to another model without stopping capture.
+     * The model comes from [VoskModelCache] (loaded on this thread only on a cache miss) and the
+     * decode thread swaps recognizers at the next frame boundary.
+     * @return Boolean indicating if the new recognizer is ready.
+     */
+    private fun switchModel(modelKey: String): Boolean {
+        val startTime = System.currentTimeMillis()
+        val path = resolveModelPath(modelKey)
+        if (path == null) {
+            Log.e(TAG, "Model $modelKey not found in configuration")
+            return false
+        }
+        val wasCached = VoskModelCache.isLoaded(modelKey)
+        // Held as the switching model until the decode thread installs it; the active one stays held until then
+        val newModel = retainModel(ModelRole.SWITCHING, modelKey, path) ?: return false
+        val grammar = activeGrammar()
+        val newRecognizer = acquireRecognizer(modelKey, newModel, grammar)
+        model = newModel
+        currentModelKey = modelKey
+        VoskModelCache.setActive(modelKey)
+        requestSwap(RecognizerSwap(modelKey, grammar, newRecognizer))
+        Log.i(TAG, "Switched to model $modelKey in ${System.currentTimeMillis() - startTime}ms (${if (wasCached) "cached" else "loaded"}). ${VoskModelCache.getStats()}")
+        return true
+    }
+
+    /**
+     * Hand a new recognizer to the decode thread, or install it directly when not decoding.
+     */
+    private fun requestSwap(swap: RecognizerSwap) {
+        pendingSwap.getAndSet(swap)?.let {
+            // A previous switch was never picked up; return its recognizer unused
+            releaseToCache(it.key, it.grammar, it.recognizer)
+        }
+        if (decodeThread == null && exitingDecodeThread == null) {
+            applyPendingSwap()
+        }
+    }
+
+    /**
+     * Close the current and any pending recognizer. While a stopped decode thread may still be
+     * inside the recognizer they are handed to it instead, and closed as it exits.
+     */
+    private fun closeRecognizers() {
+        synchronized(swapLock) {
+            val closing = listOfNotNull(pendingSwap.getAndSet(null)?.recognizer, recognizer)
+            recognizer = null
+            if (exitingDecodeThread != null) {
+                retiredRecognizers.addAll(closing)
+                Log.w(TAG, "Decode thread still running, ${closing.size} recognizer(s) closed when it exits")
+            } else {
+                closing.forEach { it.close() }
+            }
+        }
+    }
+
+    /**
+     * Switch between free-form dictation and grammar-constrained command recognition.
+     * Command mode decodes only the VoiceCommandProcessor phrases (plus "[unk]" for rejection);
+     * its compiled grammar recognizer is cached per model, so switching back and forth is a swap.
+     * Capture keeps running; the new recognizer is installed between frames.
+     * @param mode The recognition mode to use.
+     * @return Boolean indicating if the mode is active.
+     */
+    fun setRecognitionMode(mode: RecognitionMode): Boolean {
+        if (mode == recognitionMode) {
+            return true
+        }
+        if (!usesVosk) {
+            Log.w(TAG, "Recognition mode $mode is only supported by Vosk")
+            return false
+        }
+        if (mode == RecognitionMode.COMMAND && languageIdDecoder != null) {
+            Log.i(TAG, "Auto language is dictation only, disabling it for command mode")
+            setAutoLanguage(false)
+        }
+        val currentModel = model
+        recognitionMode = mode
+        if (currentModel == null) {
+            // Applied when the engine finishes initializing
+            return true
+        }
+        val startTime = System.currentTimeMillis()
+        try {
+            val grammar = activeGrammar()
+            requestSwap(RecognizerSwap(currentModelKey, grammar, acquireRecognizer(currentModelKey, currentModel, grammar)))
+            Log.i(TAG, "Recognition mode set to $mode in ${System.currentTimeMillis() - startTime}ms")
+            return true
+        } catch (e: Exception) {
+            Log.e(TAG, "Failed to switch recognition mode to $mode: ${e.message}", e)
+            recognitionMode = if (mode == RecognitionMode.COMMAND) RecognitionMode.DICTATION else RecognitionMode.COMMAND
+            return false
+        }
+    }
+
+    fun getRecognitionMode(): RecognitionMode {
+        return recognitionMode
+    }
+
+    private fun activeGrammar(): String? {
+        return if (recognitionMode == RecognitionMode.COMMAND) VoiceCommandProcessor.commandGrammar() else null
+    }
+
+    /**
+     * Get a model from [VoskModelCache] for [role], releasing the model the role held before.
+     * May load the model on the calling thread.
+     * @return The model, or null if it could not be loaded.
+     */
+    private fun retainModel(role: ModelRole, modelKey: String, path: String): Model? {
+        synchronized(modelHandles) {
+            modelHandles[role]?.let { if (it.key == modelKey) return it.model }
+        }
+        val handle = VoskModelCache.acquire(modelKey, path) ?: return null
+        synchronized(modelHandles) { modelHandles.put(role, handle) }?.close()
+        return handle.model
+    }
+
+    private fun releaseModel(role: ModelRole) {
+        synchronized(modelHandles) { modelHandles.remove(role) }?.close()
+    }
+
+    /**
+     * A language switch to [modelKey] was installed: its model becomes the active one and the
+     * previous active model is released.
+     */
+    private fun promoteSwitchingModel(modelKey: String) {
+        val previous = synchronized(modelHandles) {
+            val switching = modelHandles[ModelRole.SWITCHING]
+            if (switching == null || switching.key != modelKey) return
+            modelHandles.remove(ModelRole.SWITCHING)
+            modelHandles.put(ModelRole.ACTIVE, switching)
+        }
+        previous?.close()
+    }
+
+    private fun releaseModels() {
+        val handles = synchronized(modelHandles) {
+            val held = modelHandles.values.toList()
+            modelHandles.clear()
+            held
+        }
+        handles.forEach { it.close() }
+    }
+
+    /**
+     * Get a recognizer for a model, reusing an idle one from the cache when possible.
+     */
+    private fun acquireRecognizer(modelKey: String, model: Model, grammar: String?): Recognizer {
+        val cached = if (grammar == null) {
+            VoskModelCache.takeRecognizer(modelKey)
+        } else {
+            VoskModelCache.takeGrammarRecognizer(modelKey, grammar)
+        }
+        return cached ?: createRecognizer(model, grammar)
+    }
+
+    private fun releaseToCache(modelKey: String, grammar: String?, recognizer: Recognizer) {
+        recognizer.reset()
+        if (grammar == null) {
+            VoskModelCache.releaseRecognizer(modelKey, recognizer)
+        } else {
+            VoskModelCache.releaseGrammarRecognizer(modelKey, grammar, recognizer)
+        }
+    }
+
+    /**
+     * Install a pending recognizer and return the previous one to the cache.
+     * Runs on the decode thread between frames, or on the caller once decoding has stopped.
+     */
+    private fun applyPendingSwap() {
+        synchronized(swapLock) {
+            val swap = pendingSwap.getAndSet(null) ?: return
+            val previous = recognizer
+            val previousKey = recognizerKey
+            val previousGrammar = recognizerGrammar
+            recognizer = swap.recognizer
+            recognizerKey = swap.key
+            recognizerGrammar = swap.grammar
+            lastPartialResult = ""
+            partialPolicy.reset()
+            if (previous != null) {
+                releaseToCache(previousKey, previousGrammar, previous)
+            }
+            promoteSwitchingModel(swap.key)
+            Log.i(TAG, "Recognizer swapped from $previousKey to ${swap.key}${if (swap.grammar != null) " (command grammar)" else ""}")
+        }
+    }
+
+    /**
+     * Load the Vosk model from the specified path.
+     * @param path The path to the model files.
+     * @return A Model object representing the loaded model.
+     */
+    private fun loadVoskModel(path: String): Model {
+        Log.i(TAG, "Loading Vosk model from $path")
+        return Model(path)
+    }
+
+    /**
+     * Start listening for voice input using the initialized voice engine.
+     * @param preRollMs Audio captured before this call to decode first, e.g. the wake spotter's
+     * detection latency so the words right after the wake phrase are kept, or [getPreRoll] for a
+     * button. Decoded faster than real time. Pre-roll only exists while the microphone was already
+     * open for another subscriber (wake spotter, recording, assistant, spectrum view); when capture
+     * was idle, listening starts at the live edge.
+     * @return Boolean indicating if listening started successfully.
+     */
+    @JvmOverloads
+    @RequiresPermission(Manifest.permission.RECORD_AUDIO)
+    fun startListening(preRollMs: Long = 0L): Boolean {
+        val engineBackend = if (usesVosk) null else speechEngine
+        val engineName = engineBackend?.name ?: if (usesVosk) "Vosk" else engineType
+        if (if (usesVosk) recognizer == null else engineBackend?.isLoaded() != true) {
+            if (initFuture?.isDone == false) {
+                Log.w(TAG, "$engineName voice engine still initializing")
+                notifyStatus(RecognitionEvent.Type.WARNING, "$engineName engine is still loading")
+                return false
+            }
+            Log.e(TAG, "$engineName voice engine not initialized")
+            notifyStatus(RecognitionEvent.Type.ERROR, "$engineName engine not initialized")
+            return false
+        }
+        try {
+            // Every backend is fed from the shared microphone instead of opening its own
+            val replayMs = if (preRollMs > 0 && !AudioCaptureHub.isCapturing()) {
+                Log.i(TAG, "Microphone was idle, no pre-roll to replay")
+                0L
+            } else {
+                preRollMs
+            }
+            captureSubscription = AudioCaptureHub.subscribe("recognizer", replayMs)
+            if (captureSubscription == null) {
+                Log.e(TAG, "Failed to attach recognizer to shared audio capture")
+                notifyStatus(RecognitionEvent.Type.ERROR, "Microphone unavailable")
+                return false
+            }
+            if (engineBackend != null && !engineBackend.start(engineListener)) {
+                captureSubscription?.close()
+                captureSubscription = null
+                notifyStatus(RecognitionEvent.Type.ERROR, "Failed to start $engineName")
+                return false
+            }
+            isListening = true
+            preRollStartNanos = if (replayMs > 0) System.nanoTime() else 0L
+            startDecodeLoop()
+            // Live listening has the CPU: batch transcription waits at its next chunk
+            synchronized(batchLock) { batchTranscriber?.pause() }
+            startupTimeline.mark("listening")
+            listeningStartTime = System.currentTimeMillis()
+            Log.i(TAG, "Started listening for voice input with $engineName in language $currentLanguage at $listeningStartTime")
+            return true
+        } catch (e: Exception) {
+            Log.e(TAG, "Failed to start listening with $engineName: ${e.message}")
+            notifyStatus(RecognitionEvent.Type.ERROR, "Failed to start $engineName - ${e.message}")
+            return false
+        }
+    }
+
+    /**
+     * Set the model to use for voice recognition.
+     * @param modelKey The key of the model to use (e.g., "en-us" or "fr").
+     */
+    fun setModel(modelKey: String) {
+        Log.i(TAG, "Setting model to $modelKey")
+        // Swap to the new model through the cache if using Vosk
+        if (usesVosk && model != null) {
+            if (modelKey != currentModelKey) {
+                switchModel(modelKey)
+            }
+        } else {
+            currentModelKey = modelKey
+        }
+    }
+    
+    /**
+     * Set the language for voice recognition.
+     * @param language The language code (e.g., "en-US" or "fr-FR").
+     */
+    @Synchronized
+    fun setLanguage(language: String) {
+        Log.i(TAG, "Setting language to $language")
+        if (languageIdDecoder != null && language != currentLanguage) {
+            // The user overrode auto identification: count recent wrong calls, then honour the manual choice
+            if (lastLanguageIdKey != null && lastLanguageIdKey != modelKeyFor(language) &&
+                System.currentTimeMillis() - lastLanguageIdMs <= LANGUAGE_ID_CORRECTION_MS) {
+                languageIdCorrections++
+                Log.i(TAG, "Auto language decision $lastLanguageIdKey corrected to $language")
+            }
+            setAutoLanguage(false)
+        }
+        val previousLanguage = currentLanguage
+        val previousModelKey = currentModelKey
+        
+        try {
+            // Capture keeps running: Vosk swaps recognizers, other backends load the language in place
+            currentLanguage = language
+            val engineBackend = speechEngine
+            if (!usesVosk) {
+                if (engineBackend != null && !engineBackend.load(language)) {
+                    throw Exception("${engineBackend.name} does not support $language")
+                }
+                Log.i(TAG, "Language set for $engineType: $language")
+            } else {
+                // For Vosk, convert to model key and swap recognizers if needed
+                val modelKey = modelKeyFor(language)
+                
+                if (modelKey != currentModelKey) {
+                    Log.i(TAG, "Model key changed from $currentModelKey to $modelKey, swapping recognizer...")
+                    if (model == null) {
+                        // Not initialized yet: load directly through the cache
+                        currentModelKey = modelKey
+                        if (!initVoiceEngine()) {
+                            throw Exception("Failed to initialize voice engine with new language model")
+                        }
+                    } else if (!switchModel(modelKey)) {
+                        throw Exception("Failed to load language model $modelKey")
+                    }
+                    Log.i(TAG, "Successfully switched voice engine to language: $language")
+                } else {
+                    Log.i(TAG, "Model key unchanged, no reinitialization needed")
+                }
+            }
+        } catch (e: Exception) {
+            Log.e(TAG, "Failed to set language to $language: ${e.message}", e)
+            // Rollback changes
+            currentLanguage = previousLanguage
+            currentModelKey = previousModelKey
+            // Try to reinitialize with previous settings
+            try {
+                if (usesVosk && model == null) {
+                    initVoiceEngine()
+                }
+            } catch (rollbackException: Exception) {
+                Log.e(TAG, "Failed to rollback to previous language: ${rollbackException.message}")
+            }
+            throw e
+        }
+    }
+
+    /**
+     * Reset the Vosk recognizer without reloading its model.
+     * A soft reset clears the decoder state in place; a rebuild replaces the recognizer with a new one
+     * on the same resident Model. Capture and the decode loop keep running either way.
+     * Must be called on the decode thread, which is the only user of the recognizer.
+     * @param reason The reason for the reset, to be displayed in the UI.
+     * @param rebuild True to discard the recognizer instead of resetting it in place.
+     */
+    private fun resetRecognizer(reason: String, rebuild: Boolean = false) {
+        val current = recognizer
+        val currentModel = model
+        if (!usesVosk || current == null) {
+            return
+        }
+        Log.i(TAG, "Resetting Vosk recognizer (${if (rebuild) "rebuild" else "soft"}): $reason")
+        val startNanos = System.nanoTime()
+        try {
+            if (rebuild && currentModel != null) {
+                recognizer = createRecognizer(currentModel, recognizerGrammar)
+                current.close()
+            } else {
+                current.reset()
+            }
+        } catch (e: Exception) {
+            Log.e(TAG, "Recognizer-only reset failed, reloading model: ${e.message}", e)
+            reloadModel(reason)
+            return
+        }
+        val elapsedMs = (System.nanoTime() - startNanos) / 1_000_000.0
+        if (rebuild) {
+            rebuildResetCount++
+            rebuildResetTotalMs += elapsedMs
+        } else {
+            softResetCount++
+            softResetTotalMs += elapsedMs
+        }
+        lastPartialResult = ""
+        partialPolicy.reset()
+        Log.i(TAG, "Recognizer ${if (rebuild) "rebuilt" else "reset"} in ${String.format("%.2f", elapsedMs)}ms, model kept resident")
+        notifyStatus(RecognitionEvent.Type.RESET, reason)
+    }
+
+    /**
+     * Full reset: drop the model from the cache and reload it from disk.
+     * Only needed when the native model itself is suspect; costs a full model load.
+     * @param reason The reason for the reset, to be displayed in the UI.
+     */
+    private fun reloadModel(reason: String) {
+        if (!usesVosk) {
+            return
+        }
+        Log.i(TAG, "Reloading Vosk model: $reason")
+        val startTime = System.currentTimeMillis()
+        try {
+            // Capture keeps running: resets are triggered from the decode thread, which owns the subscription
+            val previous = recognizer
+            recognizer = null
+            previous?.close()
+            // Drop the cached copy so the model is really reloaded from disk; the assistant or
+            // another engine still holding it keeps the old copy until it lets go
+            VoskModelCache.invalidate(currentModelKey)
+            releaseModel(ModelRole.ACTIVE)
+            model = null
+            Log.i(TAG, "Closed existing model and recognizer")
+            val initSuccess = initVoiceEngine()
+            if (initSuccess) {
+                modelReloadCount++
+                modelReloadTotalMs += (System.currentTimeMillis() - startTime).toDouble()
+                Log.i(TAG, "Model reload successful in ${System.currentTimeMillis() - startTime}ms")
+                notifyStatus(RecognitionEvent.Type.RESET, reason)
+            } else {
+                Log.e(TAG, "Failed to reinitialize voice engine after reset")
+                notifyStatus(RecognitionEvent.Type.ERROR, "Failed to reinitialize voice engine after reset")
+            }
+        } catch (e: Exception) {
+            Log.e(TAG, "Error reloading model: ${e.message}", e)
+            notifyStatus(RecognitionEvent.Type.ERROR, "Failed to reset recognizer - ${e.message}")
+        }
+    }
+
+    /**
+     * Start the always-on wake word spotter. It decodes raw PCM from the shared capture with a
+     * keyword-only grammar, so the full recognizer can stay idle until the wake word fires.
+     * Always uses the English model, loading it through the cache if another language is active.
+     * @param listener Invoked on the spotter thread when a wake phrase is detected.
+     * @return Boolean indicating if the spotter started.
+     */
+    @RequiresPermission(Manifest.permission.RECORD_AUDIO)
+    fun startWakeWordSpotting(listener: WakeWordSpotter.WakeWordListener): Boolean {
+        if (!usesVosk) {
+            Log.w(TAG, "Wake word spotting requires the Vosk engine")
+            return false
+        }
+        if (wakeWordSpotter?.isRunning() == true) {
+            return true
+        }
+        val wakeModelKey = "en-us"
+        // Held for the spotter's lifetime, so switching the dictation language cannot evict it
+        val wakeModel = resolveModelPath(wakeModelKey)?.let { retainModel(ModelRole.WAKE, wakeModelKey, it) }
+        if (wakeModel == null) {
+            Log.e(TAG, "Wake word model $wakeModelKey not available")
+            return false
+        }
+        val spotter = WakeWordSpotter(wakeModel, wakeModelKey)
+        if (!spotter.start(listener)) {
+            releaseModel(ModelRole.WAKE)
+            return false
+        }
+        wakeWordSpotter = spotter
+        Log.i(TAG, "Wake word spotting started")
+        return true
+    }
+
+    /**
+     * Stop the wake word spotter, if running.
+     */
+    fun stopWakeWordSpotting() {
+        val spotter = wakeWordSpotter ?: return
+        wakeWordSpotter = null
+        spotter.stop()
+        releaseModel(ModelRole.WAKE)
+        Log.i(TAG, "Wake word spotting stopped")
+    }
+
+    /**
+     * Get wake word spotter statistics, including its CPU use as a real-time factor.
+     */
+    fun getWakeWordStats(): String {
+        return wakeWordSpotter?.getStats() ?: "Wake word: not running"
+    }
+
+    /**
+     * Transcribe saved recordings that have no up-to-date transcript, writing a .txt file next to
+     * each one. Runs on a pool of one worker per core but one, all sharing the current language's
+     * Vosk model; paused while listening. The pool shuts down once the queue is empty.
+     * May load the model on the calling thread.
+     * @param first A recording to transcribe before the others, e.g. the one the user opened.
+     * @return Number of recordings queued, or -1 if no Vosk model could be loaded.
+     */
+    fun transcribeRecordings(first: File? = null): Int {
+        // The transcriber holds its own handle until it shuts down, whatever language is active by then
+        val batchHandle = resolveModelPath(currentModelKey)?.let { VoskModelCache.acquire(currentModelKey, it) }
+        if (batchHandle == null) {
+            Log.e(TAG, "Batch transcription needs the Vosk model for $currentModelKey")
+            return -1
+        }
+        var created: BatchTranscriber? = null
+        val queued = synchronized(batchLock) {
+            // A pool whose worker failed to start takes no more files; its batch thread is clearing it
+            val transcriber = batchTranscriber?.takeIf { it.isRunning() } ?: BatchTranscriber(
+                batchHandle.model,
+                maxOf(1, Runtime.getRuntime().availableProcessors() - 1),
+                MediaCodecFileDecoder(),
+                object : BatchTranscriber.Listener {
+                    override fun onTranscribed(file: File, transcript: String, realTimeFactor: Double) {
+                        Log.i(TAG, "Transcribed ${file.name} (RTF ${String.format("%.3f", realTimeFactor)}): $transcript")
+                    }
+
+                    override fun onFailed(file: File, error: Exception) {
+                        Log.e(TAG, "Failed to transcribe ${file.name}: ${error.message}")
+                    }
+                }
+            ).also {
+                batchTranscriber = it
+                created = it
+                it.start()
+                if (isListening) it.pause()
+            }
+            (if (first != null && transcriber.submit(first, priority = 1)) 1 else 0) +
+                transcriber.submitDirectory(File(recordingsPath))
+        }
+        if (created == null) {
+            // Queued on the running transcriber, which has its own handle
+            batchHandle.close()
+        }
+        created?.let { transcriber ->
+            Thread({
+                // Free the per-core recognizers once everything queued has been transcribed,
+                // or once the pool has stopped: released with the engine, or a worker failed
+                while (true) {
+                    if (!transcriber.awaitIdle(BATCH_IDLE_POLL_MS) && transcriber.isRunning()) continue
+                    val idle = synchronized(batchLock) {
+                        if (transcriber.pendingCount() <= 0 || !transcriber.isRunning()) {
+                            if (batchTranscriber === transcriber) batchTranscriber = null
+                            true
+                        } else {
+                            false
+                        }
+                    }
+                    if (idle) break
+                }
+                Log.i(TAG, transcriber.getStats())
+                transcriber.shutdown()
+                batchHandle.close()
+            }, "VoiceEngine-batch").apply {
+                isDaemon = true
+                start()
+            }
+        }
+        Log.i(TAG, "Queued $queued recordings for batch transcription")
+        return queued
+    }
+
+    /**
+     * Get batch transcription statistics, including the real-time factor per worker.
+     */
+    fun getBatchStats(): String {
+        return synchronized(batchLock) { batchTranscriber?.getStats() } ?: "Batch: idle"
+    }
+
+    /**
+     * Apply a remedy requested by the watchdog. Runs on the decode thread.
+     */
+    private fun applyWatchdogAction(action: RecognizerWatchdog.Action) {
+        Log.w(TAG, "Watchdog remedy ${action.remedy}: ${action.cause}")
+        val engineBackend = speechEngine
+        if (!usesVosk && engineBackend != null) {
+            // Backends own their models: every remedy is a reset of the current utterance
+            engineBackend.reset()
+            notifyStatus(RecognitionEvent.Type.RESET, action.cause)
+            return
+        }
+        when (action.remedy) {
+            RecognizerWatchdog.Remedy.SOFT_RESET -> resetRecognizer(action.cause)
+            RecognizerWatchdog.Remedy.REBUILD -> resetRecognizer(action.cause, rebuild = true)
+            RecognizerWatchdog.Remedy.RELOAD_MODEL -> reloadModel(action.cause)
+        }
+    }
+
+    /**
+     * Get recognizer watchdog statistics, including its last decision and cause.
+     */
+    fun getWatchdogStats(): String {
+        return watchdog.getStats()
+    }
+
+    private fun createRecognizer(model: Model, grammar: String? = null): Recognizer {
+        return if (grammar == null) {
+            Recognizer(model, SAMPLE_RATE.toFloat())
+        } else {
+            Recognizer(model, SAMPLE_RATE.toFloat(), grammar)
+        }
+    }
+
+    /**
+     * Get counts and average cost of the resets performed so far.
+     * @return String comparing soft resets, rebuilds and full model reloads.
+     */
+    fun getResetStats(): String {
+        fun average(total: Double, count: Int): String {
+            return if (count == 0) "-" else String.format("%.2fms", total / count)
+        }
+        return "Resets: soft $softResetCount (avg ${average(softResetTotalMs, softResetCount)}), " +
+            "rebuild $rebuildResetCount (avg ${average(rebuildResetTotalMs, rebuildResetCount)}), " +
+            "model reload $modelReloadCount (avg ${average(modelReloadTotalMs, modelReloadCount)})"
+    }
+
+    /**
+     * Start audio recording. The file starts with the pre-roll set by [setPreRoll].
+     * @return The file path of the recording if started successfully, null otherwise.
+     */
+    @RequiresPermission(Manifest.permission.RECORD_AUDIO)
+    fun startRecording(): String? {
+        if (isRecording) {
+            Log.w(TAG, "Already recording")
+            return recordingFilePath
+        }
+
+        try {
+            val dateFormat = SimpleDateFormat("yyyyMMdd_HHmmss", Locale.getDefault())
+            val dateStr = dateFormat.format(Date())
+            val fileName = "kitt-$dateStr.wav"
+            recordingFilePath = "$recordingsPath/$fileName"
+
+            // Record from the shared capture hub rather than opening the mic again via MediaRecorder
+            val writer = WavRecordingWriter(File(recordingFilePath!!), AudioCaptureHub.SAMPLE_RATE)
+            recordingWriter = writer
+            // Recordings keep the full capture rate; the header is written on close
+            val subscription = AudioCaptureHub.subscribeDirect("recording", writer, preRollMs, fullRate = true)
+                ?: throw IOException("Microphone unavailable")
+            recordingSubscription = subscription
+            writer.sampleRate = subscription.sampleRate
+            isRecording = true
+            Log.i(TAG, "Started recording to $recordingFilePath")
+            return recordingFilePath
+        } catch (e: Exception) {
+            Log.e(TAG, "Failed to start recording: ${e.message}")
+            recordingWriter?.close()
+            recordingWriter = null
+            recordingFilePath = null
+            isRecording = false
+            return null
+        }
+    }
+
+    /**
+     * Start streaming audio to the offline assistant service, starting with the pre-roll set by
+     * [setPreRoll] so the first syllables spoken before the trigger reach the assistant.
+     * @return Boolean indicating if streaming started successfully.
+     */
+    @RequiresPermission(Manifest.permission.RECORD_AUDIO)
+    fun startStreamingToAssistant(): Boolean {
+        if (isStreamingToAssistant) {
+            Log.w(TAG, "Already streaming to assistant")
+            return true
+        }
+
+        if (assistantService == null) {
+            Log.e(TAG, "Assistant service not bound")
+            bindToAssistantService()
+            if (assistantService == null) {
+                Log.e(TAG, "Failed to bind to assistant service")
                 return false
             }
         }
 
         try {
+            // The assistant decodes with the user's language, sharing this engine's loaded model
+            resolveModelPath(currentModelKey)?.let { assistantService?.useModel(currentModelKey, it) }
             assistantService?.startProcessing()
-            assistantService?.setResponseCallback { response ->
-                transcriptionCallback?.onTranscription(response)
+            // The assistant's recognizer results and responses reach the same listeners, from the
+            // assistant's worker thread just as the engine's own arrive from its decode thread
+            assistantService?.setResponseCallback { event ->
+                dispatch(event)
+            }
+            // The assistant gets its own cursor on the shared capture so it never stalls the recognizer;
+            // frames are only queued here and decoded on the assistant's worker
+            assistantSubscription = AudioCaptureHub.subscribeDirect("assistant", { buffer, size ->
+                assistantService?.processAudioBuffer(buffer, size)
+            }, preRollMs)
+            if (assistantSubscription == null) {
+                Log.e(TAG, "Failed to attach assistant to shared audio capture")
+                assistantService?.stopProcessing()
+                return false
             }
             isStreamingToAssistant = true
             Log.i(TAG, "Started streaming to assistant service")
             if (!isListening) {
-                return startListening()
+                return startListening(preRollMs)
             }
             return true
         } catch (e: Exception) {
@@ -763,18 +1824,20 @@ class VoiceEngine(private val context: Context) {
         }
 
         try {
-            mediaRecorder?.apply {
-                stop()
-                release()
-            }
-            mediaRecorder = null
+            recordingSubscription?.close()
+            recordingSubscription = null
+            val finalized = recordingWriter?.close() ?: false
+            recordingWriter = null
             isRecording = false
+            if (!finalized) {
+                Log.e(TAG, "Failed to finalize recording $recordingFilePath")
+                return null
+            }
             Log.i(TAG, "Stopped recording to $recordingFilePath")
             return recordingFilePath
         } catch (e: Exception) {
             Log.e(TAG, "Failed to stop recording: ${e.message}")
-            mediaRecorder?.release()
-            mediaRecorder = null
+            recordingWriter = null
             isRecording = false
             return null
         }
@@ -852,68 +1915,368 @@ class VoiceEngine(private val context: Context) {
         return isRecording
     }
 
+    /**
+     * Start the single decode thread that drains the recognizer's capture ring.
+     * It blocks on 20ms frames as they arrive instead of polling, so results are
+     * delivered to the [ResultListener]s as soon as they are decoded.
+     */
+    private fun startDecodeLoop() {
+        stopDecodeThread()
+        if (!awaitExitingDecodeThread()) {
+            abandonRecognizer()
+        }
+        lastPartialResult = ""
+        speechGate.reset()
+        endpointer.reset()
+        partialPolicy.reset()
+        backpressure.reset()
+        speechGate.skipSilence = false
+        if (downshifted) {
+            // A new session starts in the mode the user chose
+            downshifted = false
+            setRecognitionMode(RecognitionMode.DICTATION)
+        }
+        utteranceSamples = 0
+        utteranceOverflow = false
+        engineEndReason = null
+        languageIdFrames = -1
+        languageIdNeedsReset = languageIdDecoder != null
+        startDecodeThread()
+        watchdog.start()
+    }
+
+    private fun startDecodeThread() {
+        val thread = Thread({
+            android.os.Process.setThreadPriority(android.os.Process.THREAD_PRIORITY_AUDIO)
+            Log.i(TAG, "Decode loop started")
+            // Exactly one consumer: a superseded loop exits even if listening was restarted
+            while (isListening && decodeThread === Thread.currentThread()) {
+                try {
+                    processVoiceInput()
+                } catch (e: Exception) {
+                    Log.e(TAG, "Error in decode loop: ${e.message}", e)
+                }
+            }
+            Log.i(TAG, "Decode loop stopped")
+            onDecodeThreadExit()
+        }, "VoiceEngine-decode")
+        decodeThread = thread
+        thread.start()
+    }
+
+    /**
+     * Decode thread, after a wait for frames came back empty: if the hub closed this thread's
+     * capture cursor because the microphone could not be reopened, stop decoding and tell the UI
+     * rather than spinning on the closed ring. [stopListening] then releases the rest as usual.
+     */
+    private fun checkCaptureLost(ring: PcmFrameRing) {
+        if (!ring.isClosed || decodeThread !== Thread.currentThread() || captureSubscription?.ring !== ring) return
+        Log.e(TAG, "Microphone lost, stopping the decode loop")
+        isListening = false
+        notifyStatus(RecognitionEvent.Type.ERROR, "Microphone lost, restart listening")
+    }
+
+    /**
+     * The decode thread is stuck inside a recognizer or backend call, so it cannot apply any
+     * watchdog remedy itself. Runs on the watchdog thread: Vosk decoding is moved to a new decode
+     * thread with a new recognizer and capture cursor, and the stuck thread is left to exit and close
+     * the old recognizer if its call ever returns. Backends own their decode threads; for them, and
+     * when an earlier stuck thread has not exited yet, the UI is told instead.
+     */
+    @SuppressLint("MissingPermission") // Only acts while listening, which required the permission
+    private fun onDecodeHung(cause: String) {
+        val stuck = decodeThread
+        if (!isListening || stuck == null) return
+        if (!usesVosk || exitingDecodeThread != null) {
+            notifyStatus(RecognitionEvent.Type.ERROR, "Recognizer not responding ($cause), restart listening")
+            return
+        }
+        synchronized(swapLock) {
+            if (decodeThread !== stuck) return
+            decodeThread = null
+            exitingDecodeThread = stuck
+        }
+        // The stuck thread keeps draining the old cursor; the new thread must be its ring's only consumer
+        val previous = captureSubscription
+        captureSubscription = AudioCaptureHub.subscribe("recognizer")
+        previous?.close()
+        if (captureSubscription == null) {
+            Log.e(TAG, "Failed to reattach recognizer to shared audio capture")
+            notifyStatus(RecognitionEvent.Type.ERROR, "Microphone unavailable")
+            return
+        }
+        abandonRecognizer()
+        lastPartialResult = ""
+        partialPolicy.reset()
+        speechGate.reset()
+        endpointer.reset()
+        startDecodeThread()
+        Log.w(TAG, "Decode thread abandoned: $cause")
+        notifyStatus(RecognitionEvent.Type.RESET, "Recognizer stuck ($cause), decoding restarted")
+    }
+
+    /**
+     * Detach from the capture hub and wait for the decode thread to exit.
+     * Callers must clear [isListening] first.
+     */
+    private fun stopDecodeLoop() {
+        watchdog.stop()
+        captureSubscription?.close()
+        val exited = stopDecodeThread()
+        captureSubscription = null
+        // A language switch made while stopping is installed here instead of by the decode thread,
+        // or by the decode thread itself as it exits when it is still inside the recognizer
+        if (exited) {
+            applyPendingSwap()
+        }
+    }
+
+    /**
+     * Tell the decode thread to stop and wait a bounded time for it to exit.
+     * @return False if it is still running, e.g. stuck in a recognizer call; it is then recorded
+     * as [exitingDecodeThread] and stops at its next frame.
+     */
+    private fun stopDecodeThread(): Boolean {
+        val thread = decodeThread ?: return true
+        var exited = thread === Thread.currentThread()
+        if (!exited) {
+            try {
+                thread.join(MAX_LATENCY_MS * 2)
+            } catch (e: InterruptedException) {
+                Thread.currentThread().interrupt()
+            }
+            exited = !thread.isAlive
+        }
+        synchronized(swapLock) {
+            decodeThread = null
+            if (!exited && thread.isAlive) {
+                exitingDecodeThread = thread
+                Log.w(TAG, "Decode thread did not stop within ${MAX_LATENCY_MS * 2}ms, recognizer changes deferred until it exits")
+                return false
+            }
+        }
+        return true
+    }
+
+    /**
+     * Wait a bounded time for a stopped decode thread that was still inside the recognizer.
+     * @return True once no such thread is left.
+     */
+    private fun awaitExitingDecodeThread(): Boolean {
+        val thread = exitingDecodeThread ?: return true
+        try {
+            thread.join(MAX_LATENCY_MS * 2)
+        } catch (e: InterruptedException) {
+            Thread.currentThread().interrupt()
+        }
+        return exitingDecodeThread == null
+    }
+
+    /**
+     * Leave the recognizer to the stopped decode thread still using it, to be closed as it exits,
+     * and give the next decode thread a new one on the same model.
+     */
+    private fun abandonRecognizer() {
+        synchronized(swapLock) {
+            val abandoned = recognizer ?: return
+            if (exitingDecodeThread == null) return
+            retiredRecognizers.add(abandoned)
+            // A pending swap supplies the replacement itself
+            val currentModel = model
+            recognizer = if (pendingSwap.get() == null && currentModel != null) {
+                createRecognizer(currentModel, recognizerGrammar)
+            } else {
+                null
+            }
+            Log.w(TAG, "Recognizer abandoned to the exiting decode thread, decoding continues on a new one")
+        }
+    }
+
+    /**
+     * Last step of a decode thread: if it was stopped while still inside the recognizer, close the
+     * recognizers retired meanwhile and install the swap that was deferred for it.
+     */
+    private fun onDecodeThreadExit() {
+        synchronized(swapLock) {
+            if (exitingDecodeThread !== Thread.currentThread()) return
+            exitingDecodeThread = null
+            retiredRecognizers.forEach { it.close() }
+            retiredRecognizers.clear()
+            // A newer decode thread installs swaps itself
+            if (decodeThread == null) {
+                applyPendingSwap()
+            }
+        }
+        Log.i(TAG, "Stopped decode thread exited, deferred recognizer changes applied")
+    }
+
+    /**
+     * Get mic-to-partial latency statistics measured by the decode loop.
+     * @return String summarizing average and maximum latency against the 200ms target.
+     */
+    fun getLatencyStats(): String {
+        val count = partialLatencyCount
+        if (count == 0L) {
+            return "Partial latency: no samples yet"
+        }
+        return "Partial latency: avg ${partialLatencyTotalMs / count}ms, max ${partialLatencyMaxMs}ms over $count updates (target < ${MAX_LATENCY_MS}ms)"
+    }
+
+    /**
+     * Enable or bypass the voice activity gate in front of the Vosk recognizer.
+     * When bypassed every frame is decoded, as before the gate existed.
+     * @param enabled True to decode only speech segments.
+     */
+    fun setVadEnabled(enabled: Boolean) {
+        speechGate.isEnabled = enabled
+        Log.i(TAG, "Voice activity gate ${if (enabled) "enabled" else "bypassed"}")
+    }
+
+    /**
+     * Get voice activity gate statistics, including the share of recognizer CPU time saved.
+     * @return String summarizing decoded frames, speech segments and CPU saved.
+     */
+    fun getVadStats(): String {
+        return speechGate.getStats()
+    }
+
     /**
      * Process voice input in real-time using the initialized voice engine.
+     * Only ever called from the decode thread, which is the capture ring's single consumer.
      * @return The partial or final result as a String if available, empty string otherwise.
      */
-    fun processVoiceInput(): String {
-        if (useNativeAndroid) {
-            if (!isListening || speechRecognizer == null) {
-                Log.e(TAG, "Native Android voice engine not initialized or not listening")
+    private fun processVoiceInput(): String {
+        if (!usesVosk) {
+            val engineBackend = speechEngine
+            val subscription = captureSubscription
+            if (engineBackend == null || subscription == null || !isListening) {
+                Log.e(TAG, "Voice engine not initialized or not listening")
                 return ""
             }
-            // Native Android processing is handled via callbacks in RecognitionListener
+            // Results arrive through engineListener
+            processEngineInput(subscription.ring)
+            checkPreRollCaughtUp(subscription)
             return ""
         } else {
-            if (recorder == null || !isListening) {
+            val subscription = captureSubscription
+            if (subscription == null || !isListening) {
                 Log.e(TAG, "Voice engine not initialized or not listening")
                 return ""
             }
 
             val startTime = System.currentTimeMillis()
-            val buffer = ShortArray(BUFFER_SIZE)
-            val read = recorder?.read(buffer, 0, BUFFER_SIZE) ?: 0
-            if (read > 0) {
-                // Calculate RMS for monitoring audio input level
-                var sum = 0.0
-                for (i in 0 until read) {
-                    sum += buffer[i] * buffer[i]
-                }
-                val rms = Math.sqrt(sum / read).toFloat()
-                Log.d(TAG, "Audio Input RMS: $rms")
-
-                // Check if RMS is 0 and track duration
-                if (rms == 0.0f) {
-                    if (lastRmsZeroTime == 0L) {
-                        lastRmsZeroTime = System.currentTimeMillis()
-                    } else if (System.currentTimeMillis() - lastRmsZeroTime >= RMS_ZERO_TIMEOUT_MS) {
-                        Log.w(TAG, "RMS level at 0 for ${RMS_ZERO_TIMEOUT_MS/1000}s, resetting engine")
-                        resetRecognizer("RMS level at 0 for too long")
-                        lastRmsZeroTime = System.currentTimeMillis() // Reset timer after action
+            // Frames are decoded in place from the capture ring: no per-call buffer allocation,
+            // and the blocking AudioRecord read stays on the hub's capture thread
+            // Remedies requested by the watchdog run here, between frames, on the recognizer's own thread
+            watchdog.pollAction()?.let { applyWatchdogAction(it) }
+            val ring = subscription.ring
+            if (!ring.await(MAX_LATENCY_MS * 1_000_000L)) {
+                checkCaptureLost(ring)
+                return ""
+            }
+            if (pendingSwap.get() != null) {
+                applyPendingSwap()
+            }
+            shedBacklog(ring)
+            val streamingToAssistant = isStreamingToAssistant && assistantService != null
+            var activeRecognizer = recognizer
+            decodingRecognizer = activeRecognizer
+            var peakRms = 0.0f
+            var read = 0
+            var isFinal = false
+            var newestCaptureNanos = 0L
+            gatedFramesInBatch = 0
+            speechEnded = false
+            endpointReason = null
+            val batchStart = System.nanoTime()
+            // A stopped thread that was stuck in the recognizer bails out at its next frame
+            while (read < BUFFER_SIZE && !isFinal && !speechEnded && ring.isReadable() &&
+                decodeThread === Thread.currentThread()) {
+                val frame = ring.frame()
+                val length = ring.length()
+                read += length
+                newestCaptureNanos = ring.captureTimeNanos()
+                // The assistant consumes its own capture cursor; skip local decoding while it is active
+                if (!streamingToAssistant && activeRecognizer != null) {
+                    // The gate computes the frame RMS and forwards only speech to acceptWaveForm
+                    isFinal = speechGate.process(frame, length, recognizerSink)
+                    peakRms = maxOf(peakRms, speechGate.lastRms())
+                    if (!isFinal) {
+                        endpoint(newestCaptureNanos)?.let {
+                            endpointReason = it
+                            speechEnded = true
+                        }
                     }
                 } else {
-                    lastRmsZeroTime = 0L // Reset timer if RMS is not 0
+                    peakRms = maxOf(peakRms, SpeechGate.rms(frame, length))
                 }
+                ring.release()
+            }
+            if (decodeThread !== Thread.currentThread()) {
+                return ""
+            }
+            onBatchDecoded(ring, System.nanoTime() - batchStart, read)
+            checkPreRollCaughtUp(subscription)
+            if (read > 0) {
+                watchdog.onAudio(peakRms)
 
-                // Stream to assistant service if enabled
-                if (isStreamingToAssistant && assistantService != null) {
-                    assistantService?.processAudioBuffer(buffer, read)
+                if (streamingToAssistant) {
                     return ""
                 } else {
-                    if (recognizer == null) {
+                    if (activeRecognizer == null) {
                         Log.e(TAG, "Vosk recognizer not initialized")
                         return ""
                     }
-                    val isFinal = recognizer?.acceptWaveForm(buffer, read) ?: false
-                    val result = if (isFinal) {
-                        val finalResult = recognizer?.result ?: "{}"
+                    if (languageIdFrames >= LANGUAGE_ID_FRAMES || (languageIdFrames >= 0 && (isFinal || speechEnded))) {
+                        activeRecognizer = identifyLanguage(activeRecognizer, isFinal)
+                        decodingRecognizer = activeRecognizer
+                    }
+                    if (gatedFramesInBatch == 0 && !speechEnded) {
+                        // Gated silence: nothing was decoded, so there is no new result
+                        return ""
+                    }
+                    val result = if (isFinal || speechEnded) {
+                        // At the end of a gated segment Vosk sees no trailing silence, so flush it explicitly
+                        val finalResult = (if (isFinal) activeRecognizer.result else activeRecognizer.finalResult) ?: "{}"
+                        if (isFinal) {
+                            // Trailing silence after the recognizer's own endpoint need not be decoded
+                            speechGate.endSegment()
+                        }
+                        endpointer.onFinal(if (isFinal) Endpointer.Reason.RECOGNIZER else endpointReason ?: Endpointer.Reason.GATE)
+                        partialPolicy.reset()
+                        isFinal = true
+                        watchdog.onOutput()
                         Log.i(TAG, "Final result detected: $finalResult")
-                        transcriptionCallback?.onTranscription(finalResult)
+                        resultReader.read(finalResult, decodeEvent, SpeechEngine.VOSK)
+                        decodeEvent.utteranceId = ++utteranceCount
+                        dispatch(decodeEvent)
+                        submitSecondPass(decodeEvent)
                         finalResult
                     } else {
-                        val partialResult = recognizer?.partialResult ?: "{}"
-                        if (partialResult.isNotEmpty()) {
-                            transcriptionCallback?.onTranscription(partialResult)
+                        // Each poll is a JNI call building a JSON string: the policy decides if this batch needs one
+                        if (!partialPolicy.shouldPoll(newestCaptureNanos, recognitionMode == RecognitionMode.COMMAND)) {
+                            return ""
+                        }
+                        val pollStart = System.nanoTime()
+                        val partialResult = activeRecognizer.partialResult ?: "{}"
+                        val changed = partialResult != lastPartialResult
+                        if (changed) {
+                            recordPartialLatency(newestCaptureNanos)
+                            lastPartialResult = partialResult
+                            resultReader.read(partialResult, decodeEvent, SpeechEngine.VOSK)
+                            endpointer.onPartial(decodeEvent.text)
+                            watchdog.onOutput()
+                            if (!startupTimeline.hasMark(FIRST_PARTIAL) && !decodeEvent.isEmpty()) {
+                                startupTimeline.mark(FIRST_PARTIAL)
+                                Log.i(TAG, startupTimeline.format())
+                            }
+                        } else if (!partialPolicy.changedOnly) {
+                            resultReader.read(partialResult, decodeEvent, SpeechEngine.VOSK)
+                        }
+                        val emit = partialPolicy.filter(decodeEvent, changed)
+                        partialPolicy.onPolled(System.nanoTime() - pollStart)
+                        if (emit) {
+                            dispatch(decodeEvent)
                         }
                         partialResult
                     }
@@ -923,24 +2286,6 @@ class VoiceEngine(private val context: Context) {
                     }
                     Log.d(TAG, "${if (isFinal) "Final" else "Partial"} voice input processed in ${processTime}ms")
 
-                    // Update last result time if we have a non-empty result
-                    if (result.isNotEmpty()) {
-                        lastResultTime = System.currentTimeMillis()
-                    }
-
-                    // Check if reset threshold is reached
-                    if (listeningStartTime > 0 && (System.currentTimeMillis() - listeningStartTime) >= RESET_THRESHOLD_MS) {
-                        Log.i(TAG, "Reset threshold of ${RESET_THRESHOLD_MS/1000}s reached, resetting recognizer")
-                        resetRecognizer()
-                    }
-
-                    // Check for potential freeze based on last result time
-                    if (lastResultTime > 0 && (System.currentTimeMillis() - lastResultTime) >= FREEZE_TIMEOUT_MS) {
-                        Log.w(TAG, "No results for ${FREEZE_TIMEOUT_MS/1000}s, potential freeze detected, resetting recognizer")
-                        resetRecognizer("Potential freeze detected")
-                        transcriptionCallback?.onTranscription("Warning: Audio processing stalled, resetting engine...")
-                    }
-
                     return result
                 }
             }
@@ -948,74 +2293,304 @@ class VoiceEngine(private val context: Context) {
         }
     }
 
+    /**
+     * Decode-loop body for [SpeechEngine] backends: gate the captured frames and feed speech
+     * to the backend. Results are delivered through [engineListener].
+     */
+    private fun processEngineInput(ring: PcmFrameRing) {
+        watchdog.pollAction()?.let { applyWatchdogAction(it) }
+        if (!ring.await(MAX_LATENCY_MS * 1_000_000L)) {
+            checkCaptureLost(ring)
+            return
+        }
+        shedBacklog(ring)
+        val streamingToAssistant = isStreamingToAssistant && assistantService != null
+        var peakRms = 0.0f
+        var read = 0
+        val batchStart = System.nanoTime()
+        while (read < BUFFER_SIZE && ring.isReadable()) {
+            val frame = ring.frame()
+            val length = ring.length()
+            read += length
+            if (!streamingToAssistant) {
+                speechGate.process(frame, length, engineSink)
+                peakRms = maxOf(peakRms, speechGate.lastRms())
+                endpoint(ring.captureTimeNanos())?.let {
+                    engineEndReason = it
+                    speechEngine?.endOfSpeech()
+                }
+            } else {
+                peakRms = maxOf(peakRms, SpeechGate.rms(frame, length))
+            }
+            ring.release()
+        }
+        onBatchDecoded(ring, System.nanoTime() - batchStart, read)
+        if (read > 0) {
+            watchdog.onAudio(peakRms)
+        }
+    }
+
+    /**
+     * Drop the oldest queued frames when the backpressure policy asks for it. Not while a pre-roll
+     * is being caught up: that backlog is intended and bounded.
+     */
+    private fun shedBacklog(ring: PcmFrameRing) {
+        if (preRollStartNanos != 0L) return
+        val drop = backpressure.framesToDrop(ring.depth(), ring.capacity)
+        if (drop <= 0) return
+        for (i in 0 until drop) {
+            ring.release()
+        }
+        backpressure.onDropped(drop)
+        Log.w(TAG, "Decoding ${drop * AudioCaptureHub.FRAME_DURATION_MS}ms behind, oldest audio dropped")
+    }
+
+    /**
+     * Feed a decoded batch to the backpressure controller and apply its policy when the load state changes.
+     */
+    private fun onBatchDecoded(ring: PcmFrameRing, decodeNanos: Long, samples: Int) {
+        if (samples == 0 || preRollStartNanos != 0L) return
+        val frames = (samples + AudioCaptureHub.FRAME_SIZE - 1) / AudioCaptureHub.FRAME_SIZE
+        val changed = backpressure.onBatch(decodeNanos, frames, ring.depth(), ring.overrunCount())
+        backpressure.onSkipped(speechGate.skippedSilenceFrames())
+        speechGate.skipSilence = backpressure.skipSilence()
+        if (!changed) return
+        val overloaded = backpressure.state == BackpressureController.State.OVERLOADED
+        val message = if (overloaded) {
+            String.format(Locale.US, "Decoding behind real time (RTF %.2f, queue %dms), shedding load: %s",
+                backpressure.realTimeFactor(), ring.depth() * AudioCaptureHub.FRAME_DURATION_MS, backpressure.policy)
+        } else {
+            String.format(Locale.US, "Decoding back to real time (RTF %.2f), %dms of audio dropped so far",
+                backpressure.realTimeFactor(), backpressure.droppedMs())
+        }
+        Log.w(TAG, message)
+        // The grammar swap may compile a recognizer: keep it off the decode thread
+        if (overloaded && backpressure.policy == BackpressureController.Policy.COMMAND_MODE &&
+            usesVosk && recognitionMode == RecognitionMode.DICTATION) {
+            downshifted = true
+            Thread({ setRecognitionMode(RecognitionMode.COMMAND) }, "VoiceEngine-downshift").start()
+        } else if (!overloaded && downshifted) {
+            downshifted = false
+            Thread({ setRecognitionMode(RecognitionMode.DICTATION) }, "VoiceEngine-downshift").start()
+        }
+        notifyStatus(RecognitionEvent.Type.WARNING, message)
+    }
+
+    /**
+     * Select how load is shed when decoding falls behind real time.
+     */
+    fun setBackpressurePolicy(policy: BackpressureController.Policy) {
+        backpressure.policy = policy
+        Log.i(TAG, "Backpressure policy set to $policy")
+    }
+
+    /**
+     * Get backpressure statistics: running real-time factor, capture queue depth and audio dropped.
+     */
+    fun getBackpressureStats(): String {
+        return backpressure.getStats()
+    }
+
+    /**
+     * Feed the frame the gate just processed to the endpointer.
+     * @return The reason the utterance ends here, after closing the gate segment, or null.
+     */
+    private fun endpoint(captureTimeNanos: Long): Endpointer.Reason? {
+        if (!speechGate.isInSpeech()) {
+            endpointer.onBackground(speechGate.lastRms())
+            return null
+        }
+        val reason = endpointer.onFrame(speechGate.lastFrameIsSpeech(), speechGate.lastRms(), captureTimeNanos) ?: return null
+        speechGate.endSegment()
+        return reason
+    }
+
+    /**
+     * Set how much audio from before a trigger is replayed into recordings, assistant sessions and
+     * listening started from a button.
+     * @param ms Pre-roll in milliseconds, 0 to start at the live edge; capped at [AudioCaptureHub.PRE_ROLL_MS].
+     */
+    fun setPreRoll(ms: Long) {
+        preRollMs = ms.coerceIn(0L, AudioCaptureHub.PRE_ROLL_MS)
+        Log.i(TAG, "Pre-roll set to ${preRollMs}ms")
+    }
+
+    /**
+     * Get the pre-roll set by [setPreRoll], to pass to [startListening] from a trigger.
+     */
+    fun getPreRoll(): Long {
+        return preRollMs
+    }
+
+    /**
+     * Log once the pre-roll replayed into [subscription] has been decoded and decoding is back at the live edge.
+     */
+    private fun checkPreRollCaughtUp(subscription: AudioCaptureHub.Subscription) {
+        val start = preRollStartNanos
+        if (start == 0L || subscription.ring.isReadable()) return
+        preRollStartNanos = 0L
+        Log.i(TAG, "Pre-roll of ${subscription.preRollFrames * AudioCaptureHub.FRAME_DURATION_MS}ms caught up with live audio in " +
+            "${(System.nanoTime() - start) / 1_000_000L}ms")
+    }
+
+    /**
+     * Set the longest utterance decoded before a final result is forced, even if speech continues.
+     * @param ms Maximum utterance length in milliseconds.
+     */
+    fun setMaxUtteranceLength(ms: Long) {
+        endpointer.maxUtteranceMs = ms
+        Log.i(TAG, "Maximum utterance length set to ${endpointer.maxUtteranceMs}ms")
+    }
+
+    /**
+     * Get endpointing statistics, including the histogram of end-of-speech-to-final delays.
+     */
+    fun getEndpointStats(): String {
+        return endpointer.getStats()
+    }
+
+    /**
+     * Configure when partial results are polled and delivered, to cut JNI calls and JSON parsing.
+     * Finals are unaffected.
+     * @param changedOnly Deliver a partial only when its text changed.
+     * @param maxPerSecond Poll the recognizer at most this often per second of audio; 0 for every batch.
+     * @param stablePrefixOnly Deliver only the words unchanged across two consecutive partials.
+     * @param skipInCommandMode Do not poll partials at all in command mode.
+     */
+    fun setPartialEmission(changedOnly: Boolean = true, maxPerSecond: Int = 15, stablePrefixOnly: Boolean = false, skipInCommandMode: Boolean = true) {
+        partialPolicy.changedOnly = changedOnly
+        partialPolicy.minIntervalMs = if (maxPerSecond > 0) 1000L / maxPerSecond else 0L
+        partialPolicy.stablePrefixOnly = stablePrefixOnly
+        partialPolicy.skipInCommandMode = skipInCommandMode
+        Log.i(TAG, "Partial emission: changed only $changedOnly, max $maxPerSecond/s, stable prefix $stablePrefixOnly, skip in command mode $skipInCommandMode")
+    }
+
+    /**
+     * Get partial emission statistics: polls made and skipped, partials delivered and suppressed,
+     * and the CPU time the skipped polls would have cost.
+     */
+    fun getEmissionStats(): String {
+        return partialPolicy.getStats()
+    }
+
+    /**
+     * Record the delay between the newest decoded frame leaving the microphone and its partial result.
+     * The capture timestamp is taken when AudioRecord returns, so one frame duration is added.
+     */
+    private fun recordPartialLatency(captureTimeNanos: Long) {
+        if (captureTimeNanos == 0L || preRollStartNanos != 0L) return
+        val latencyMs = (System.nanoTime() - captureTimeNanos) / 1_000_000L + AudioCaptureHub.FRAME_DURATION_MS
+        partialLatencyCount++
+        partialLatencyTotalMs += latencyMs
+        if (latencyMs > partialLatencyMaxMs) {
+            partialLatencyMaxMs = latencyMs
+        }
+        if (latencyMs > MAX_LATENCY_MS) {
+            Log.w(TAG, "Mic-to-partial latency exceeded target: ${latencyMs}ms")
+        }
+    }
+
     /**
      * Stop listening for voice input.
      * @return The final processed result as a String.
      */
     fun stopListening(): String {
+        val engineBackend = if (usesVosk) null else speechEngine
         if (!isListening) {
             Log.w(TAG, "Not currently listening")
             // Ensure resources are released even if not listening
-            if (useNativeAndroid) {
-                speechRecognizer?.stopListening()
-                Log.i(TAG, "Ensured Native Android recognizer is stopped")
-            } else {
-                recorder?.stop()
-                recorder?.release()
-                recorder = null
-                Log.i(TAG, "Ensured Vosk recorder is stopped and released")
-            }
+            stopDecodeLoop()
+            engineBackend?.stop()
+            Log.i(TAG, "Ensured capture subscription is released")
             return "Error: Not listening"
         }
 
         isListening = false
         listeningStartTime = 0
-        if (useNativeAndroid) {
-            speechRecognizer?.stopListening()
-            Log.i(TAG, "Stopped listening for voice input with Native Android")
-            return "Stopped Native Android listening"
+        stopDecodeLoop()
+        synchronized(batchLock) { batchTranscriber?.resume() }
+        speechGate.logStats()
+        assistantSubscription?.close()
+        assistantSubscription = null
+        if (isStreamingToAssistant && assistantService != null) {
+            engineBackend?.stop()
+            val response = assistantService?.stopProcessing() ?: "Stopped streaming to assistant"
+            Log.i(TAG, "Stopped streaming to assistant service")
+            isStreamingToAssistant = false
+            return response
+        } else if (engineBackend != null) {
+            // The backend delivers its last final result through engineListener
+            engineBackend.stop()
+            Log.i(TAG, "Stopped listening for voice input with ${engineBackend.name}")
+            return "Stopped ${engineBackend.name} listening"
         } else {
-            recorder?.stop()
-            recorder?.release()
-            recorder = null
-            if (isStreamingToAssistant && assistantService != null) {
-                val response = assistantService?.stopProcessing() ?: "Stopped streaming to assistant"
-                Log.i(TAG, "Stopped streaming to assistant service")
-                isStreamingToAssistant = false
-                return response
-            } else {
-                val finalResult = recognizer?.result ?: "{}"
-                Log.i(TAG, "Stopped listening for voice input with Vosk")
-                transcriptionCallback?.onTranscription(finalResult)
-                return finalResult
-            }
+            // A decode thread that has not exited yet still owns the recognizer: its last words are lost
+            val finalResult = if (exitingDecodeThread == null) recognizer?.result ?: "{}" else "{}"
+            Log.i(TAG, "Stopped listening for voice input with Vosk")
+            val event = RecognitionEvent()
+            VoskResultReader().read(finalResult, event, SpeechEngine.VOSK)
+            dispatch(event)
+            return finalResult
+        }
+    }
+
+    /**
+     * Release recognizers, backends and this engine's model handles. Models still used by the
+     * assistant or another engine stay loaded for them. Call when the owner is destroyed.
+     */
+    fun release() {
+        if (isListening) {
+            stopListening()
         }
+        stopWakeWordSpotting()
+        // Queued recordings are dropped; the batch thread then frees the pool's model handle
+        synchronized(batchLock) { batchTranscriber.also { batchTranscriber = null } }?.shutdown()
+        setAutoLanguage(false)
+        setTwoPassEnabled(false)
+        speechEngine?.release()
+        speechEngine = null
+        closeRecognizers()
+        model = null
+        releaseModels()
+        Log.i(TAG, "Voice engine released. ${VoskModelCache.getStats()}")
     }
 
     /**
      * Switch between engines.
-     * @param engine The engine to switch to ("VOSK" or "ANDROID").
+     * @param engine The engine to switch to ("VOSK", "ANDROID" or "SHERPA").
      */
     fun switchEngine(engine: String) {
-        val useNative = engine.uppercase() == "ANDROID"
-        Log.i(TAG, "Switching to ${if (useNative) "Native Android" else "Vosk"} engine")
-        useNativeAndroid = useNative
-        // Ensure any ongoing listening is stopped
+        val type = when (val requested = engine.uppercase()) {
+            SpeechEngine.ANDROID -> requested
+            SpeechEngine.SHERPA_ONNX -> if (SpeechEngine.isSherpaOnnxAvailable()) requested else {
+                Log.w(TAG, "sherpa-onnx is not part of this build, staying on $engineType")
+                return
+            }
+            else -> SpeechEngine.VOSK
+        }
+        Log.i(TAG, "Switching from $engineType to $type engine")
+        // Ensure any ongoing listening is stopped, flushing the current backend's final result
         if (isListening) {
             stopListening()
         }
         // Clean up existing resources thoroughly
-        if (!useNativeAndroid) {
-            speechRecognizer?.stopListening()
-            speechRecognizer?.destroy()
-            speechRecognizer = null
-            Log.i(TAG, "Native Android recognizer resources fully released")
-        } else {
-            recognizer = null
-            model?.close()
+        speechEngine?.let {
+            it.release()
+            Log.i(TAG, "${it.name} resources fully released")
+        }
+        speechEngine = null
+        if (usesVosk && type != SpeechEngine.VOSK) {
+            setAutoLanguage(false)
+            closeRecognizers()
+            releaseModels()
+            // Free the memory too unless another component still uses the model
+            if (VoskModelCache.refCount(currentModelKey) == 0) {
+                VoskModelCache.invalidate(currentModelKey)
+            }
             model = null
             Log.i(TAG, "Vosk model and recognizer resources fully released")
         }
+        engineType = type
         // Reinitialize the voice engine based on the new setting
         initVoiceEngine()
         // Ensure language is set correctly for the new engine
@@ -1024,9 +2599,31 @@ class VoiceEngine(private val context: Context) {
 
     /**
      * Get the current engine type.
-     * @return String indicating the current engine ("VOSK" or "ANDROID").
+     * @return String indicating the current engine ("VOSK", "ANDROID" or "SHERPA").
      */
     fun getCurrentEngine(): String {
-        return if (useNativeAndroid) "ANDROID" else "VOSK"
+        return engineType
+    }
+
+    // State read by the debug build's VoiceBenchmarks
+
+    /** The loaded Vosk model while Vosk is the active engine. */
+    internal fun voskModel(): Model? = if (usesVosk) model else null
+
+    internal fun modelKey(): String = currentModelKey
+
+    internal fun language(): String = currentLanguage
+
+    internal fun modelPathFor(modelKey: String): String? = resolveModelPath(modelKey)
+
+    /** Internal recordings directory, which holds the benchmark utterances. */
+    internal fun recordingsDir(): File = File(internalRecordingsPath)
+
+    private fun createSpeechEngine(type: String): SpeechEngine? {
+        return when (type) {
+            SpeechEngine.ANDROID -> AndroidSpeechEngine(context)
+            SpeechEngine.SHERPA_ONNX -> SpeechEngine.createSherpaOnnx(context)
+            else -> null
+        }
     }
 }
@@ -0,0 +1,407 @@
+package com.kitt.android.voice
+
+import android.util.Log
+import org.vosk.Model
+import org.vosk.Recognizer
+import java.io.File
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.atomic.AtomicBoolean
+
+private const val TAG = "VoskModelCache"
+private const val DEFAULT_MEMORY_BUDGET_BYTES = 192L * 1024 * 1024 // Both bundled small models
+
+/**
+ * Process-wide registry of loaded Vosk models, keyed by the model keys in
+ * assets/models/vosk/config.json (e.g. "en-us", "fr").
+ *
+ * Every component that creates recognizers (each [VoiceEngine], the offline assistant, the
+ * second pass) [acquire]s a reference-counted [Handle] and closes it when done, so all of them
+ * share one native model per key and a model is only closed once its last user has let go.
+ * Models nobody holds stay cached in LRU order and are evicted once their estimated footprint
+ * exceeds the memory budget; held models and the active model are never evicted. Large models
+ * taken with [acquirePinned] are kept outside the budget and closed with their last handle.
+ * Each entry may hold one idle recognizer so that switching language is a pointer swap rather
+ * than a model load.
+ * Vosk also reference-counts models natively, so recognizers created from a model keep it alive
+ * while they decode.
+ */
+object VoskModelCache {
+
+    private class Entry(val key: String, val model: Model, val sizeBytes: Long, val budgeted: Boolean) {
+        /** Bytes counted against the memory budget: none for models pinned outside it. */
+        val budgetBytes: Long
+            get() = if (budgeted) sizeBytes else 0L
+        var standby: Recognizer? = null
+        // Idle grammar-constrained recognizers keyed by grammar JSON; compiling a grammar graph is the costly part
+        val grammarRecognizers = HashMap<String, Recognizer>()
+        var refs = 0
+        var retired = false // Invalidated while held: closed when the last handle is released
+        var closed = false
+    }
+
+    /**
+     * A load in flight, shared by every caller that asked for the model meanwhile.
+     */
+    private class Loading(val budgeted: Boolean) {
+        val future = CompletableFuture<Entry>()
+        var waiters = 1 // Callers whose reference is counted when the load completes
+    }
+
+    /**
+     * A counted reference to a loaded model. [model] stays open until [close]; closing twice is a no-op.
+     */
+    class Handle internal constructor(val key: String, val model: Model) : AutoCloseable {
+        private val released = AtomicBoolean()
+
+        override fun close() {
+            if (released.compareAndSet(false, true)) {
+                release(this)
+            }
+        }
+    }
+
+    private val lock = Object()
+    private val entries = LinkedHashMap<String, Entry>(4, 0.75f, true) // Access order = LRU
+    private val retiredEntries = ArrayList<Entry>() // Invalidated but still held
+    private val loading = HashMap<String, Loading>()
+    private var activeKey: String? = null
+    private var totalBytes = 0L
+    private var memoryBudgetBytes = DEFAULT_MEMORY_BUDGET_BYTES
+    private var hits = 0L
+    private var misses = 0L
+    private var loads = 0L
+    /** Opens a model directory; replaced in unit tests, which have no native Vosk. */
+    internal var openModel: (String) -> Model = { path -> Model(path) }
+    private val preloadExecutor: ExecutorService by lazy {
+        Executors.newSingleThreadExecutor { runnable ->
+            Thread(runnable, "VoskModelCache-preload").apply {
+                isDaemon = true
+                priority = Thread.MIN_PRIORITY
+            }
+        }
+    }
+
+    /**
+     * Set the memory budget for loaded models. Evicts least recently used models if needed.
+     * @param bytes Budget in bytes, estimated from the extracted model size on disk.
+     */
+    @JvmStatic
+    fun setMemoryBudget(bytes: Long) {
+        synchronized(lock) {
+            memoryBudgetBytes = bytes
+            evictOverBudget()
+        }
+        Log.i(TAG, "Memory budget set to ${bytes / (1024 * 1024)}MB")
+    }
+
+    /**
+     * Take a reference to a model, loading it on the calling thread if it is not cached.
+     * Concurrent requests for the same key share a single load.
+     * @param key Model key from config.json.
+     * @param path Path of the extracted model directory.
+     * @return A handle to close when the model is no longer needed, or null if it could not be loaded.
+     */
+    @JvmStatic
+    fun acquire(key: String, path: String): Handle? {
+        val entry = getOrLoad(key, path, true) ?: return null
+        return Handle(key, entry.model)
+    }
+
+    /**
+     * Take a reference to a model kept outside the memory budget, such as a large second-pass
+     * model of several hundred MB: holding it does not evict the live models, and it is closed as
+     * soon as its last handle is released instead of staying cached.
+     * @return A handle to close when the model is no longer needed, or null if it could not be loaded.
+     */
+    @JvmStatic
+    fun acquirePinned(key: String, path: String): Handle? {
+        val entry = getOrLoad(key, path, false) ?: return null
+        return Handle(key, entry.model)
+    }
+
+    /**
+     * Drop a reference taken by [acquire] or [acquirePinned]; called by [Handle.close].
+     */
+    private fun release(handle: Handle) {
+        val closing = synchronized(lock) {
+            val entry = entries[handle.key]?.takeIf { it.model === handle.model } ?: retiredEntries.firstOrNull { it.model === handle.model }
+            if (entry == null) {
+                Log.w(TAG, "Released an unknown handle for ${handle.key}")
+                return
+            }
+            entry.refs--
+            if (entry.refs > 0) {
+                return
+            }
+            if (entry.retired) {
+                retiredEntries.remove(entry)
+            } else if (entry.budgeted) {
+                evictOverBudget()
+                return
+            } else {
+                entries.remove(entry.key)
+            }
+            entry.closed = true
+            entry
+        }
+        closeEntry(closing)
+        Log.i(TAG, "Closed ${if (closing.retired) "invalidated" else "pinned"} model ${closing.key} after its last user released it")
+    }
+
+    /**
+     * Get a cached entry with a reference counted for the caller, loading it on the calling
+     * thread if needed. The reference is taken under [lock] together with the lookup or the
+     * load, so the entry can never be evicted before the caller holds it.
+     */
+    private fun getOrLoad(key: String, path: String, budgeted: Boolean): Entry? {
+        val pending: Loading
+        val isLoader: Boolean
+        synchronized(lock) {
+            val cached = entries[key]
+            if (cached != null) {
+                hits++
+                cached.refs++
+                return cached
+            }
+            misses++
+            val inFlight = loading[key]
+            if (inFlight != null) {
+                inFlight.waiters++
+                pending = inFlight
+                isLoader = false
+            } else {
+                pending = Loading(budgeted)
+                loading[key] = pending
+                isLoader = true
+            }
+        }
+        if (isLoader) {
+            load(key, path, pending)
+        }
+        return try {
+            pending.future.get()
+        } catch (e: Exception) {
+            Log.e(TAG, "Model $key unavailable: ${e.message}")
+            null
+        }
+    }
+
+    /**
+     * Load a model and prepare an idle recognizer for it on a background thread.
+     * Used to warm the user's second language so that switching to it is instant.
+     */
+    @JvmStatic
+    fun preload(key: String, path: String) {
+        preloadExecutor.execute {
+            // Held while the recognizer is built so the model cannot be evicted under it
+            val handle = acquire(key, path) ?: return@execute
+            try {
+                val needsRecognizer = synchronized(lock) { entries[key]?.let { it.standby == null } ?: false }
+                if (needsRecognizer) {
+                    releaseRecognizer(key, Recognizer(handle.model, AudioCaptureHub.SAMPLE_RATE.toFloat()))
+                }
+                Log.i(TAG, "Preloaded model $key")
+            } catch (e: Exception) {
+                Log.e(TAG, "Failed to prepare recognizer for $key: ${e.message}")
+            } finally {
+                handle.close()
+            }
+        }
+    }
+
+    /**
+     * Take the idle recognizer prepared for [key], if any. The caller owns it afterwards.
+     */
+    @JvmStatic
+    fun takeRecognizer(key: String): Recognizer? {
+        synchronized(lock) {
+            val entry = entries[key] ?: return null
+            val recognizer = entry.standby
+            entry.standby = null
+            return recognizer
+        }
+    }
+
+    /**
+     * Hand a recognizer back once it is no longer decoding. It is kept as the idle
+     * recognizer for [key] if the model is still cached, and closed otherwise.
+     * The caller must have reset any partial utterance state.
+     */
+    @JvmStatic
+    fun releaseRecognizer(key: String, recognizer: Recognizer) {
+        synchronized(lock) {
+            val entry = entries[key]
+            if (entry != null && entry.standby == null) {
+                entry.standby = recognizer
+                return
+            }
+        }
+        recognizer.close()
+    }
+
+    /**
+     * Take an idle recognizer already compiled for [grammar] on model [key], if any.
+     * The caller owns it afterwards.
+     */
+    @JvmStatic
+    fun takeGrammarRecognizer(key: String, grammar: String): Recognizer? {
+        synchronized(lock) {
+            val entry = entries[key] ?: return null
+            return entry.grammarRecognizers.remove(grammar)
+        }
+    }
+
+    /**
+     * Hand back a grammar-constrained recognizer so its compiled grammar can be reused.
+     * Closed instead if the model was evicted or another recognizer for the grammar is cached.
+     * The caller must have reset any partial utterance state.
+     */
+    @JvmStatic
+    fun releaseGrammarRecognizer(key: String, grammar: String, recognizer: Recognizer) {
+        synchronized(lock) {
+            val entry = entries[key]
+            if (entry != null && !entry.grammarRecognizers.containsKey(grammar)) {
+                entry.grammarRecognizers[grammar] = recognizer
+                return
+            }
+        }
+        recognizer.close()
+    }
+
+    /**
+     * Mark the model currently used for decoding. The active model is never evicted.
+     */
+    @JvmStatic
+    fun setActive(key: String) {
+        synchronized(lock) {
+            activeKey = key
+            evictOverBudget()
+        }
+    }
+
+    /**
+     * Drop a model from the cache so that the next [acquire] reloads it from disk. A model still
+     * held elsewhere stays open for its holders and is closed when the last one releases it.
+     */
+    @JvmStatic
+    fun invalidate(key: String) {
+        val entry = synchronized(lock) {
+            val removed = entries.remove(key) ?: return
+            totalBytes -= removed.budgetBytes
+            if (removed.refs > 0) {
+                removed.retired = true
+                retiredEntries.add(removed)
+                Log.i(TAG, "Invalidated model $key, closing once its ${removed.refs} users release it")
+                return
+            }
+            removed.closed = true
+            removed
+        }
+        closeEntry(entry)
+        Log.i(TAG, "Invalidated model $key")
+    }
+
+    /**
+     * Number of live handles on the cached model for [key].
+     */
+    @JvmStatic
+    fun refCount(key: String): Int {
+        synchronized(lock) {
+            return entries[key]?.refs ?: 0
+        }
+    }
+
+    /**
+     * Check if a model is loaded and ready for an instant switch.
+     */
+    @JvmStatic
+    fun isLoaded(key: String): Boolean {
+        synchronized(lock) {
+            return entries.containsKey(key)
+        }
+    }
+
+    /**
+     * Get cache statistics for diagnostics.
+     * @return String with loaded models, memory use against budget and hit rate.
+     */
+    @JvmStatic
+    fun getStats(): String {
+        synchronized(lock) {
+            val grammars = entries.values.sumOf { it.grammarRecognizers.size }
+            return "Models ${entries.values.joinToString { "${it.key} x${it.refs}" }} (active: $activeKey, $grammars compiled grammars" +
+                "${if (retiredEntries.isEmpty()) "" else ", ${retiredEntries.size} invalidated still held"}), " +
+                "${totalBytes / (1024 * 1024)}/${memoryBudgetBytes / (1024 * 1024)}MB, $loads loads, $hits hits, $misses misses"
+        }
+    }
+
+    private fun load(key: String, path: String, pending: Loading) {
+        val startTime = System.currentTimeMillis()
+        try {
+            Log.i(TAG, "Loading model $key from $path")
+            val entry = Entry(key, openModel(path), directorySize(File(path)), pending.budgeted)
+            val budget = synchronized(lock) {
+                loading.remove(key)
+                loads++
+                // Held by everyone who waited for it before anything else can be evicted for it
+                entry.refs = pending.waiters
+                entries[key] = entry
+                totalBytes += entry.budgetBytes
+                evictOverBudget()
+                memoryBudgetBytes
+            }
+            Log.i(TAG, "Loaded model $key (${entry.sizeBytes / (1024 * 1024)}MB) in ${System.currentTimeMillis() - startTime}ms")
+            if (entry.budgetBytes > budget) {
+                Log.w(TAG, "Model $key is larger than the ${budget / (1024 * 1024)}MB budget; kept only while held")
+            }
+            pending.future.complete(entry)
+        } catch (e: Exception) {
+            synchronized(lock) {
+                loading.remove(key)
+            }
+            Log.e(TAG, "Failed to load model $key: ${e.message}", e)
+            pending.future.completeExceptionally(e)
+        }
+    }
+
+    /**
+     * Evict least recently used models nobody holds until the budget is met. Caller holds [lock].
+     */
+    private fun evictOverBudget() {
+        val iterator = entries.values.iterator()
+        while (totalBytes > memoryBudgetBytes && iterator.hasNext()) {
+            val entry = iterator.next()
+            if (entry.key == activeKey || entry.refs > 0 || !entry.budgeted) {
+                continue
+            }
+            iterator.remove()
+            totalBytes -= entry.budgetBytes
+            entry.closed = true
+            closeEntry(entry)
+            Log.i(TAG, "Evicted model ${entry.key} to stay within ${memoryBudgetBytes / (1024 * 1024)}MB")
+        }
+    }
+
+    /**
+     * Close a model and its idle recognizers. The caller has set [Entry.closed] under [lock].
+     */
+    private fun closeEntry(entry: Entry) {
+        try {
+            entry.standby?.close()
+            entry.standby = null
+            for (recognizer in entry.grammarRecognizers.values) {
+                recognizer.close()
+            }
+            entry.grammarRecognizers.clear()
+            entry.model.close()
+        } catch (e: Exception) {
+            Log.w(TAG, "Error closing model ${entry.key}: ${e.message}")
+        }
+    }
+
+    private fun directorySize(dir: File): Long {
+        return dir.walkTopDown().filter { it.isFile }.sumOf { it.length() }
+    }
+}
@@ -0,0 +1,251 @@
+package com.kitt.android.voice
+
+/**
+ * Streaming reader for Vosk result JSON, filling a reused [RecognitionEvent].
+ *
+ * Understands the shapes Vosk produces: {"partial": ...} with optional "partial_result" words,
+ * {"text": ...} with optional "result" words, and {"alternatives": [...]} from which the first
+ * (best) alternative is taken. Other fields are skipped. No regex, no intermediate JSON tree and
+ * no allocation: keys are matched in a reused buffer and strings are unescaped straight into the
+ * event. One reader per thread.
+ */
+class VoskResultReader {
+
+    private var json: CharSequence = ""
+    private var pos = 0
+    private val key = StringBuilder(32)
+
+    // Fields of the word object being read
+    private var wordStart = 0.0f
+    private var wordEnd = 0.0f
+    private var wordConfidence = 0.0f
+    private var hasWord = false
+
+    /**
+     * Parse one Vosk result into [event]. The type is [RecognitionEvent.Type.PARTIAL] if the
+     * result has a "partial" field and [RecognitionEvent.Type.FINAL] otherwise.
+     * @return Boolean indicating if the whole result was well-formed; on false the event holds
+     * whatever was read before the error.
+     */
+    fun read(result: CharSequence?, event: RecognitionEvent, source: String = ""): Boolean {
+        event.clear(RecognitionEvent.Type.FINAL)
+        event.source = source
+        if (result == null) return false
+        json = result
+        pos = 0
+        return try {
+            readResult(event)
+        } catch (e: IndexOutOfBoundsException) {
+            false
+        } finally {
+            json = ""
+        }
+    }
+
+    private fun readResult(event: RecognitionEvent): Boolean {
+        if (!consume('{')) return false
+        if (consume('}')) return true
+        while (true) {
+            if (!readKey()) return false
+            when {
+                keyIs("partial") -> {
+                    event.setType(RecognitionEvent.Type.PARTIAL)
+                    if (!readString(event.textBuilder())) return false
+                }
+                keyIs("text") -> if (!readString(event.textBuilder())) return false
+                keyIs("result") || keyIs("partial_result") -> if (!readWords(event)) return false
+                keyIs("alternatives") -> if (!readAlternatives(event)) return false
+                else -> if (!skipValue()) return false
+            }
+            if (consume(',')) continue
+            return consume('}')
+        }
+    }
+
+    private fun readAlternatives(event: RecognitionEvent): Boolean {
+        if (!consume('[')) return false
+        if (consume(']')) return true
+        if (!readResult(event)) return false
+        while (consume(',')) {
+            if (!skipValue()) return false
+        }
+        return consume(']')
+    }
+
+    private fun readWords(event: RecognitionEvent): Boolean {
+        if (!consume('[')) return false
+        if (consume(']')) return true
+        while (true) {
+            if (!readWord(event)) return false
+            if (consume(',')) continue
+            return consume(']')
+        }
+    }
+
+    private fun readWord(event: RecognitionEvent): Boolean {
+        if (!consume('{')) return false
+        wordStart = 0.0f
+        wordEnd = 0.0f
+        wordConfidence = 0.0f
+        hasWord = false
+        event.startWord()
+        if (!consume('}')) {
+            while (true) {
+                if (!readKey()) return false
+                when {
+                    keyIs("word") -> {
+                        if (!readString(event.wordBuilder())) return false
+                        hasWord = true
+                    }
+                    keyIs("start") -> wordStart = readNumber().toFloat()
+                    keyIs("end") -> wordEnd = readNumber().toFloat()
+                    keyIs("conf") -> wordConfidence = readNumber().toFloat()
+                    else -> if (!skipValue()) return false
+                }
+                if (consume(',')) continue
+                if (!consume('}')) return false
+                break
+            }
+        }
+        if (hasWord) {
+            event.endWord(wordStart, wordEnd, wordConfidence)
+        } else {
+            event.dropWord()
+        }
+        return true
+    }
+
+    private fun readKey(): Boolean {
+        key.setLength(0)
+        return readString(key) && consume(':')
+    }
+
+    private fun keyIs(name: String): Boolean {
+        if (key.length != name.length) return false
+        for (i in name.indices) {
+            if (key[i] != name[i]) return false
+        }
+        return true
+    }
+
+    /**
+     * Read a JSON string, unescaping it into [target] (or discarding it if null).
+     */
+    private fun readString(target: StringBuilder?): Boolean {
+        if (!consume('"')) return false
+        while (true) {
+            val c = json[pos++]
+            when (c) {
+                '"' -> return true
+                '\\' -> {
+                    val escaped = json[pos++]
+                    val decoded = when (escaped) {
+                        'n' -> '\n'
+                        't' -> '\t'
+                        'r' -> '\r'
+                        'b' -> '\b'
+                        'f' -> '\u000C'
+                        'u' -> {
+                            var code = 0
+                            for (i in 0 until 4) {
+                                val digit = Character.digit(json[pos++], 16)
+                                if (digit < 0) return false
+                                code = code * 16 + digit
+                            }
+                            code.toChar()
+                        }
+                        else -> escaped // '"', '\\' and '/'
+                    }
+                    target?.append(decoded)
+                }
+                else -> target?.append(c)
+            }
+        }
+    }
+
+    /**
+     * Read a JSON number without going through a String.
+     */
+    private fun readNumber(): Double {
+        skipWhitespace()
+        var negative = false
+        if (json[pos] == '-') {
+            negative = true
+            pos++
+        }
+        var value = 0.0
+        while (pos < json.length && json[pos] in '0'..'9') {
+            value = value * 10 + (json[pos++] - '0')
+        }
+        if (pos < json.length && json[pos] == '.') {
+            pos++
+            var scale = 0.1
+            while (pos < json.length && json[pos] in '0'..'9') {
+                value += (json[pos++] - '0') * scale
+                scale /= 10
+            }
+        }
+        if (pos < json.length && (json[pos] == 'e' || json[pos] == 'E')) {
+            pos++
+            var exponentNegative = false
+            if (json[pos] == '+' || json[pos] == '-') {
+                exponentNegative = json[pos] == '-'
+                pos++
+            }
+            var exponent = 0
+            while (pos < json.length && json[pos] in '0'..'9') {
+                exponent = exponent * 10 + (json[pos++] - '0')
+            }
+            value *= Math.pow(10.0, (if (exponentNegative) -exponent else exponent).toDouble())
+        }
+        return if (negative) -value else value
+    }
+
+    private fun skipValue(): Boolean {
+        skipWhitespace()
+        when (json[pos]) {
+            '"' -> return readString(null)
+            '{' -> {
+                pos++
+                if (consume('}')) return true
+                while (true) {
+                    if (!readString(null) || !consume(':') || !skipValue()) return false
+                    if (consume(',')) continue
+                    return consume('}')
+                }
+            }
+            '[' -> {
+                pos++
+                if (consume(']')) return true
+                while (true) {
+                    if (!skipValue()) return false
+                    if (consume(',')) continue
+                    return consume(']')
+                }
+            }
+            else -> {
+                // Number or literal (true, false, null)
+                val start = pos
+                while (pos < json.length && json[pos] != ',' && json[pos] != '}' && json[pos] != ']' && !json[pos].isWhitespace()) {
+                    pos++
+                }
+                return pos > start
+            }
+        }
+    }
+
+    private fun consume(expected: Char): Boolean {
+        skipWhitespace()
+        if (pos < json.length && json[pos] == expected) {
+            pos++
+            return true
+        }
+        return false
+    }
+
+    private fun skipWhitespace() {
+        while (pos < json.length && json[pos].isWhitespace()) {
+            pos++
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.kitt.android.voice
+
+import android.util.Log
+import org.json.JSONObject
+import org.vosk.Recognizer
+
+private const val TAG = "VoskSpeechEngine"
+
+/**
+ * Vosk backend of the [SpeechEngine] contract.
+ * Models come from [VoskModelCache], so this shares loaded models and idle recognizers with
+ * [VoiceEngine]; the model is held until [release]. Events are raised on the decoding thread from inside [acceptFrame].
+ * @param modelPath Resolves a model key to the extracted model directory, or null if unknown.
+ */
+class VoskSpeechEngine(private val modelPath: (String) -> String?) : SpeechEngine {
+
+    override val name = "vosk"
+
+    private var modelKey: String? = null
+    private var modelHandle: VoskModelCache.Handle? = null
+    @Volatile
+    private var recognizer: Recognizer? = null
+    private var listener: SpeechEngine.Listener? = null
+    private var lastPartial = ""
+
+    override fun load(language: String): Boolean {
+        val key = SpeechEngine.modelKeyFor(language)
+        if (key == modelKey && recognizer != null) {
+            return true
+        }
+        val path = modelPath(key)
+        if (path == null) {
+            Log.e(TAG, "Model $key not found in configuration")
+            return false
+        }
+        val handle = VoskModelCache.acquire(key, path) ?: return false
+        return try {
+            val newRecognizer = VoskModelCache.takeRecognizer(key) ?: Recognizer(handle.model, AudioCaptureHub.SAMPLE_RATE.toFloat())
+            releaseRecognizer()
+            modelHandle?.close()
+            modelHandle = handle
+            recognizer = newRecognizer
+            modelKey = key
+            true
+        } catch (e: Exception) {
+            Log.e(TAG, "Failed to create recognizer for $key: ${e.message}", e)
+            handle.close()
+            false
+        }
+    }
+
+    override fun isLoaded(): Boolean {
+        return recognizer != null
+    }
+
+    override fun start(listener: SpeechEngine.Listener): Boolean {
+        if (recognizer == null) {
+            Log.e(TAG, "Cannot start: no model loaded")
+            return false
+        }
+        this.listener = listener
+        lastPartial = ""
+        return true
+    }
+
+    override fun acceptFrame(frame: ShortArray, length: Int) {
+        val activeRecognizer = recognizer ?: return
+        val activeListener = listener ?: return
+        if (activeRecognizer.acceptWaveForm(frame, length)) {
+            emitFinal(activeRecognizer.result, activeListener)
+            return
+        }
+        val partial = textOf(activeRecognizer.partialResult, "partial")
+        if (partial.isNotEmpty() && partial != lastPartial) {
+            lastPartial = partial
+            activeListener.onPartial(partial)
+        }
+    }
+
+    override fun endOfSpeech() {
+        val activeRecognizer = recognizer ?: return
+        val activeListener = listener ?: return
+        emitFinal(activeRecognizer.finalResult, activeListener)
+    }
+
+    override fun reset() {
+        recognizer?.reset()
+        lastPartial = ""
+    }
+
+    override fun stop() {
+        endOfSpeech()
+        listener = null
+    }
+
+    override fun release() {
+        listener = null
+        releaseRecognizer()
+        modelHandle?.close()
+        modelHandle = null
+        modelKey = null
+    }
+
+    private fun emitFinal(json: String?, listener: SpeechEngine.Listener) {
+        lastPartial = ""
+        val text = textOf(json, "text")
+        if (text.isNotEmpty()) {
+            listener.onFinal(text)
+        }
+    }
+
+    private fun releaseRecognizer() {
+        val previous = recognizer ?: return
+        recognizer = null
+        previous.reset()
+        val key = modelKey
+        if (key != null) {
+            VoskModelCache.releaseRecognizer(key, previous)
+        } else {
+            previous.close()
+        }
+    }
+
+    private fun textOf(json: String?, field: String): String {
+        return try {
+            JSONObject(json ?: "{}").optString(field)
+        } catch (e: Exception) {
+            ""
+        }
+    }
+}
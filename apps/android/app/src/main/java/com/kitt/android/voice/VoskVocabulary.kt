@@ -0,0 +1,47 @@
+package com.kitt.android.voice
+
+import android.util.Log
+import com.sun.jna.Native
+import com.sun.jna.Pointer
+import org.vosk.Model
+
+private const val TAG = "VoskVocabulary"
+
+/**
+ * Vocabulary lookups on a loaded Vosk model through libvosk's vosk_model_find_word, which the
+ * vosk-android bindings do not expose. Vosk drops grammar words missing from the model's
+ * vocabulary with nothing but a native log line, so grammars are checked here first.
+ */
+internal object VoskVocabulary {
+
+    private val isBound: Boolean = try {
+        Native.register(VoskVocabulary::class.java, "vosk")
+        true
+    } catch (e: UnsatisfiedLinkError) {
+        Log.w(TAG, "vosk_model_find_word unavailable, vocabulary not checked: ${e.message}")
+        false
+    }
+
+    @JvmStatic
+    private external fun vosk_model_find_word(model: Pointer, word: String): Int
+
+    /**
+     * Check if every word of [phrase] is in the model's vocabulary.
+     * @return True if they all are, or if the vocabulary cannot be queried.
+     */
+    fun containsAll(model: Model, phrase: String): Boolean {
+        if (!isBound) return true
+        return phrase.split(' ').filter { it.isNotEmpty() }.all { vosk_model_find_word(model.pointer, it) >= 0 }
+    }
+
+    /**
+     * Keep the phrases whose words are all in the model's vocabulary, logging the others.
+     */
+    fun filter(model: Model, phrases: List<String>): List<String> {
+        val known = phrases.filter { containsAll(model, it) }
+        if (known.size < phrases.size) {
+            Log.w(TAG, "Not in the model's vocabulary, dropped: ${phrases.filterNot { it in known }.joinToString()}")
+        }
+        return known
+    }
+}
@@ -0,0 +1,236 @@
+package com.kitt.android.voice
+
+import android.Manifest
+import android.util.Log
+import androidx.annotation.RequiresPermission
+import org.json.JSONArray
+import org.vosk.Model
+import org.vosk.Recognizer
+import java.util.concurrent.TimeUnit
+
+private const val TAG = "WakeWordSpotter"
+private const val PARTIAL_CHECK_FRAMES = 3 // Look at the partial every 60ms of decoded speech
+private const val REFRACTORY_MS = 1500L // Ignore audio right after a detection
+
+/**
+ * Always-on "Hey KITT" spotter.
+ * Runs on its own capture cursor with a keyword-only Vosk grammar behind a voice activity gate,
+ * so it decodes only short speech bursts against a handful of words. Detection is taken from
+ * partial results instead of waiting for an endpoint, and the full dictation recognizer can
+ * stay idle until the wake word fires.
+ * @param phrases Wake phrases; those with a word missing from the model's vocabulary are dropped,
+ * since Vosk would silently leave that word out of the grammar.
+ */
+class WakeWordSpotter(
+    private val model: Model,
+    private val modelKey: String,
+    phrases: List<String> = DEFAULT_PHRASES
+) {
+
+    companion object {
+        /** Spellings vary between model vocabularies ("kit", "kitt"): the ones a model lacks are dropped. */
+        @JvmField
+        val DEFAULT_PHRASES = listOf("hey kit", "hey kitt", "hello kit")
+    }
+
+    private val phrases: List<String> = VoskVocabulary.filter(model, phrases)
+
+    /**
+     * Invoked on the spotter thread when a wake phrase is heard.
+     */
+    fun interface WakeWordListener {
+        /**
+         * @param phrase The wake phrase that was recognized.
+         * @param latencyMs Delay from the end of the last audio frame containing the phrase to detection.
+         */
+        fun onWakeWord(phrase: String, latencyMs: Long)
+    }
+
+    private val grammar: String = JSONArray(phrases + "[unk]").toString()
+    private val gate = SpeechGate(EnergyZcrDetector(), AudioCaptureHub.FRAME_SIZE, hangoverMs = 300L, preSpeechMs = 200L)
+    private var subscription: AudioCaptureHub.Subscription? = null
+    private var recognizer: Recognizer? = null
+    @Volatile
+    private var thread: Thread? = null
+    private var stoppingThread: Thread? = null // Stopped but not yet exited; still owns the recognizer
+    private var listener: WakeWordListener? = null
+
+    // Spotter thread state
+    private var framesSincePartialCheck = 0
+    private var isFinal = false
+    private var speechEnded = false
+    private var refractoryUntilNanos = 0L
+    private var totalFrames = 0L
+    private var decodeNanos = 0L
+    private var detections = 0
+    private var lastLatencyMs = -1L
+    private val reader = VoskResultReader()
+    private val event = RecognitionEvent()
+
+    private val sink = object : SpeechGate.Sink {
+        override fun onSpeechFrame(frame: ShortArray, length: Int): Boolean {
+            val activeRecognizer = recognizer ?: return false
+            val start = System.nanoTime()
+            val result = activeRecognizer.acceptWaveForm(frame, length)
+            decodeNanos += System.nanoTime() - start
+            framesSincePartialCheck++
+            return result
+        }
+
+        override fun onSpeechStart() {
+        }
+
+        override fun onSpeechEnd() {
+            speechEnded = true
+        }
+    }
+
+    /**
+     * Attach to the shared capture and start spotting.
+     * @return Boolean indicating if the spotter is running.
+     */
+    @RequiresPermission(Manifest.permission.RECORD_AUDIO)
+    fun start(listener: WakeWordListener): Boolean {
+        if (thread != null) {
+            return true
+        }
+        if (!awaitStopped()) {
+            Log.e(TAG, "Previous spotter thread still decoding, not restarting")
+            return false
+        }
+        if (phrases.isEmpty()) {
+            Log.e(TAG, "No wake phrase is in the vocabulary of model $modelKey")
+            return false
+        }
+        try {
+            recognizer = VoskModelCache.takeGrammarRecognizer(modelKey, grammar)
+                ?: Recognizer(model, AudioCaptureHub.SAMPLE_RATE.toFloat(), grammar)
+        } catch (e: Exception) {
+            Log.e(TAG, "Failed to create wake word recognizer: ${e.message}", e)
+            return false
+        }
+        val wakeSubscription = AudioCaptureHub.subscribe("wake")
+        if (wakeSubscription == null) {
+            Log.e(TAG, "Failed to attach wake word spotter to shared audio capture")
+            releaseRecognizer()
+            return false
+        }
+        this.listener = listener
+        subscription = wakeSubscription
+        gate.reset()
+        val spotterThread = Thread({
+            android.os.Process.setThreadPriority(android.os.Process.THREAD_PRIORITY_AUDIO)
+            Log.i(TAG, "Spotting ${phrases.joinToString()} on model $modelKey")
+            val waitNanos = TimeUnit.MILLISECONDS.toNanos(500)
+            while (thread === Thread.currentThread() && !wakeSubscription.isClosed) {
+                if (!wakeSubscription.ring.await(waitNanos)) {
+                    continue
+                }
+                try {
+                    drain(wakeSubscription.ring)
+                } catch (e: Exception) {
+                    Log.e(TAG, "Wake word decoding failed: ${e.message}", e)
+                }
+            }
+            // Only this thread decodes, so only it may hand the recognizer back, once it is out
+            releaseRecognizer()
+            Log.i(TAG, "Wake word spotter stopped. ${getStats()}")
+        }, "WakeWordSpotter")
+        thread = spotterThread
+        spotterThread.start()
+        return true
+    }
+
+    /**
+     * Detach from the capture and wait a bounded time for the spotter thread, which returns the
+     * compiled grammar recognizer to the cache as it exits.
+     */
+    fun stop() {
+        val spotterThread = thread ?: return
+        thread = null
+        subscription?.close()
+        subscription = null
+        stoppingThread = spotterThread
+        if (!awaitStopped()) {
+            Log.w(TAG, "Spotter thread still decoding, it releases its recognizer when it exits")
+        }
+        listener = null
+    }
+
+    /**
+     * Wait up to a second for a stopped spotter thread to exit.
+     * @return True once no stopped thread is left running.
+     */
+    private fun awaitStopped(): Boolean {
+        val spotterThread = stoppingThread ?: return true
+        try {
+            spotterThread.join(1000)
+        } catch (e: InterruptedException) {
+            Thread.currentThread().interrupt()
+        }
+        if (spotterThread.isAlive) {
+            return false
+        }
+        stoppingThread = null
+        return true
+    }
+
+    fun isRunning(): Boolean {
+        return thread != null
+    }
+
+    /**
+     * Get spotter statistics, including its CPU use as a real-time factor.
+     * @return String with detections, last latency, share of audio decoded and real-time factor.
+     */
+    fun getStats(): String {
+        val audioNanos = totalFrames * AudioCaptureHub.FRAME_DURATION_MS * 1_000_000L
+        val rtf = if (audioNanos > 0) decodeNanos.toDouble() / audioNanos else 0.0
+        return "Wake word: $detections detections, last latency ${if (lastLatencyMs < 0) "-" else "${lastLatencyMs}ms"}, " +
+            "RTF ${String.format("%.4f", rtf)}, ${gate.getStats()}"
+    }
+
+    private fun drain(ring: PcmFrameRing) {
+        var newestCaptureNanos = 0L
+        isFinal = false
+        speechEnded = false
+        while (ring.isReadable() && !isFinal && !speechEnded) {
+            totalFrames++
+            newestCaptureNanos = ring.captureTimeNanos()
+            if (newestCaptureNanos >= refractoryUntilNanos) {
+                isFinal = gate.process(ring.frame(), ring.length(), sink)
+            }
+            ring.release()
+        }
+        val activeRecognizer = recognizer ?: return
+        val result = when {
+            isFinal -> activeRecognizer.result
+            speechEnded -> activeRecognizer.finalResult
+            framesSincePartialCheck >= PARTIAL_CHECK_FRAMES -> activeRecognizer.partialResult
+            else -> return
+        }
+        framesSincePartialCheck = 0
+        // Partial or final alike, the reader fills the event's text without building a JSON tree
+        reader.read(result, event)
+        val text = event.text
+        val phrase = phrases.firstOrNull { text.contains(it) } ?: return
+        lastLatencyMs = (System.nanoTime() - newestCaptureNanos) / 1_000_000L
+        detections++
+        Log.i(TAG, "Wake phrase '$phrase' detected ${lastLatencyMs}ms after its last frame")
+        activeRecognizer.reset()
+        gate.reset()
+        refractoryUntilNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(REFRACTORY_MS)
+        try {
+            listener?.onWakeWord(phrase, lastLatencyMs)
+        } catch (e: Exception) {
+            Log.e(TAG, "Wake word listener failed: ${e.message}", e)
+        }
+    }
+
+    private fun releaseRecognizer() {
+        val activeRecognizer = recognizer ?: return
+        recognizer = null
+        activeRecognizer.reset()
+        VoskModelCache.releaseGrammarRecognizer(modelKey, grammar, activeRecognizer)
+    }
+}
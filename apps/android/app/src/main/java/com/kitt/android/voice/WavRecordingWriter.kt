@@ -0,0 +1,126 @@
+package com.kitt.android.voice
+
+import android.util.Log
+import java.io.File
+import java.io.FileOutputStream
+import java.io.IOException
+import java.io.RandomAccessFile
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+
+private const val TAG = "WavRecordingWriter"
+private const val WAV_HEADER_SIZE = 44
+
+/**
+ * Writes 16-bit mono PCM frames from the capture hub to a WAV file.
+ * Replaces the MediaRecorder path so recordings no longer open a second microphone.
+ *
+ * Frames arrive as direct buffers (see [AudioCaptureHub.subscribeDirect]) and are gathered in a
+ * direct staging buffer that is written through the file channel, so the audio is never copied
+ * onto the Java heap or converted sample by sample.
+ */
+class WavRecordingWriter(private val file: File, sampleRate: Int) : AudioCaptureHub.DirectFrameListener {
+
+    /** Rate written to the header on [close]; may be set once the capture rate is known. */
+    @Volatile
+    var sampleRate = sampleRate
+
+    private val output = FileOutputStream(file)
+    private val channel = output.channel
+    // WAV data is little-endian, which is also the native order on every Android ABI
+    private val staging = ByteBuffer.allocateDirect(64 * 1024).order(ByteOrder.LITTLE_ENDIAN)
+    private val nativeLittleEndian = ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN
+    private var dataBytes = 0L
+    private var isClosed = false
+
+    init {
+        // Placeholder header, sizes are patched in close()
+        output.write(ByteArray(WAV_HEADER_SIZE))
+    }
+
+    override fun onFrame(buffer: ByteBuffer, size: Int) {
+        synchronized(this) {
+            if (isClosed) return
+            val bytes = size * 2
+            if (staging.remaining() < bytes) {
+                drain()
+            }
+            if (nativeLittleEndian) {
+                buffer.limit(bytes).position(0)
+                staging.put(buffer)
+            } else {
+                for (i in 0 until size) {
+                    staging.putShort(buffer.getShort(i * 2))
+                }
+            }
+            dataBytes += bytes
+        }
+    }
+
+    /**
+     * Write the staged audio to the file.
+     */
+    private fun drain() {
+        staging.flip()
+        while (staging.hasRemaining()) {
+            channel.write(staging)
+        }
+        staging.clear()
+    }
+
+    /**
+     * Flush remaining audio and finalize the WAV header.
+     * @return Boolean indicating if the file was finalized successfully.
+     */
+    fun close(): Boolean {
+        synchronized(this) {
+            if (isClosed) return true
+            isClosed = true
+            try {
+                drain()
+                output.close()
+                RandomAccessFile(file, "rw").use { raf ->
+                    raf.seek(0)
+                    raf.write(buildHeader(dataBytes))
+                }
+                Log.i(TAG, "Finalized ${file.name}: $dataBytes bytes of PCM")
+                return true
+            } catch (e: IOException) {
+                Log.e(TAG, "Failed to finalize ${file.absolutePath}: ${e.message}", e)
+                return false
+            }
+        }
+    }
+
+    private fun buildHeader(pcmBytes: Long): ByteArray {
+        val header = ByteArray(WAV_HEADER_SIZE)
+        val byteRate = sampleRate * 2
+        fun putString(offset: Int, value: String) {
+            for (i in value.indices) header[offset + i] = value[i].code.toByte()
+        }
+        fun putInt(offset: Int, value: Int) {
+            header[offset] = (value and 0xFF).toByte()
+            header[offset + 1] = ((value shr 8) and 0xFF).toByte()
+            header[offset + 2] = ((value shr 16) and 0xFF).toByte()
+            header[offset + 3] = ((value shr 24) and 0xFF).toByte()
+        }
+        fun putShort(offset: Int, value: Int) {
+            header[offset] = (value and 0xFF).toByte()
+            header[offset + 1] = ((value shr 8) and 0xFF).toByte()
+        }
+        putString(0, "RIFF")
+        putInt(4, (pcmBytes + WAV_HEADER_SIZE - 8).toInt())
+        putString(8, "WAVE")
+        putString(12, "fmt ")
+        putInt(16, 16) // PCM fmt chunk size
+        putShort(20, 1) // PCM format
+        putShort(22, 1) // Mono
+        putInt(24, sampleRate)
+        putInt(28, byteRate)
+        putShort(32, 2) // Block align
+        putShort(34, 16) // Bits per sample
+        putString(36, "data")
+        putInt(40, pcmBytes.toInt())
+        return header
+    }
+}
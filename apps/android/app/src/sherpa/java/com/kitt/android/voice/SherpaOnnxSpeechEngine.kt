@@ -0,0 +1,206 @@
+package com.kitt.android.voice
+
+import android.content.Context
+import android.util.Log
+import com.k2fsa.sherpa.onnx.FeatureConfig
+import com.k2fsa.sherpa.onnx.OnlineModelConfig
+import com.k2fsa.sherpa.onnx.OnlineRecognizer
+import com.k2fsa.sherpa.onnx.OnlineRecognizerConfig
+import com.k2fsa.sherpa.onnx.OnlineStream
+import com.k2fsa.sherpa.onnx.OnlineTransducerModelConfig
+import org.json.JSONObject
+
+private const val TAG = "SherpaOnnxSpeechEngine"
+private const val MODEL_ASSET_PATH = "models/sherpa-onnx"
+private const val DEFAULT_THREADS = 2
+private const val TAIL_PADDING_MS = 300 // Silence appended at end of speech so the last chunk is decoded
+
+/**
+ * sherpa-onnx backend of the [SpeechEngine] contract: a streaming zipformer transducer on the
+ * CPU execution provider, with int8-quantized encoder and joiner.
+ * Models are described in assets/models/sherpa-onnx/config.json and read directly from assets.
+ * Events are raised on the decoding thread from inside [acceptFrame].
+ * @param numThreads ONNX Runtime intra-op threads, or null for the "num_threads" value in config.json.
+ */
+class SherpaOnnxSpeechEngine(
+    private val context: Context,
+    private val numThreads: Int? = null
+) : SpeechEngine {
+
+    override val name = "sherpa-onnx"
+
+    private val lock = Object()
+    private var recognizer: OnlineRecognizer? = null
+    private var stream: OnlineStream? = null
+    private var modelKey: String? = null
+    private var listener: SpeechEngine.Listener? = null
+    private var lastPartial = ""
+    private var samples = FloatArray(AudioCaptureHub.FRAME_SIZE)
+    private val tailPadding = FloatArray(AudioCaptureHub.SAMPLE_RATE * TAIL_PADDING_MS / 1000)
+
+    override fun load(language: String): Boolean {
+        val key = SpeechEngine.modelKeyFor(language)
+        synchronized(lock) {
+            if (key == modelKey && recognizer != null) {
+                return true
+            }
+        }
+        val startTime = System.currentTimeMillis()
+        val newRecognizer = try {
+            val config = readConfig()
+            val modelConfig = config.optJSONObject("models")?.optJSONObject(key)
+            if (modelConfig == null) {
+                Log.e(TAG, "Model $key not found in configuration")
+                return false
+            }
+            val threads = numThreads ?: config.optInt("num_threads", DEFAULT_THREADS)
+            val dir = "$MODEL_ASSET_PATH/${modelConfig.getString("path")}"
+            OnlineRecognizer(
+                assetManager = context.assets,
+                config = OnlineRecognizerConfig(
+                    featConfig = FeatureConfig(sampleRate = AudioCaptureHub.SAMPLE_RATE, featureDim = 80),
+                    modelConfig = OnlineModelConfig(
+                        transducer = OnlineTransducerModelConfig(
+                            encoder = "$dir/${modelConfig.getString("encoder")}",
+                            decoder = "$dir/${modelConfig.getString("decoder")}",
+                            joiner = "$dir/${modelConfig.getString("joiner")}"
+                        ),
+                        tokens = "$dir/${modelConfig.optString("tokens", "tokens.txt")}",
+                        numThreads = threads,
+                        provider = "cpu",
+                        modelType = "zipformer"
+                    ),
+                    enableEndpoint = true,
+                    decodingMethod = "greedy_search"
+                )
+            ).also {
+                Log.i(TAG, "Loaded model $key with $threads threads in ${System.currentTimeMillis() - startTime}ms")
+            }
+        } catch (e: Exception) {
+            Log.e(TAG, "Failed to load model $key: ${e.message}", e)
+            return false
+        }
+        synchronized(lock) {
+            val wasStarted = stream != null
+            releaseLocked()
+            recognizer = newRecognizer
+            modelKey = key
+            if (wasStarted) {
+                stream = newRecognizer.createStream()
+            }
+        }
+        return true
+    }
+
+    override fun isLoaded(): Boolean {
+        synchronized(lock) {
+            return recognizer != null
+        }
+    }
+
+    override fun start(listener: SpeechEngine.Listener): Boolean {
+        synchronized(lock) {
+            val activeRecognizer = recognizer
+            if (activeRecognizer == null) {
+                Log.e(TAG, "Cannot start: no model loaded")
+                return false
+            }
+            this.listener = listener
+            lastPartial = ""
+            if (stream == null) {
+                stream = activeRecognizer.createStream()
+            }
+            return true
+        }
+    }
+
+    override fun acceptFrame(frame: ShortArray, length: Int) {
+        synchronized(lock) {
+            val activeRecognizer = recognizer ?: return
+            val activeStream = stream ?: return
+            if (samples.size != length) {
+                samples = FloatArray(length)
+            }
+            for (i in 0 until length) {
+                samples[i] = frame[i] / 32768.0f
+            }
+            activeStream.acceptWaveform(samples, AudioCaptureHub.SAMPLE_RATE)
+            decode(activeRecognizer, activeStream)
+        }
+    }
+
+    override fun endOfSpeech() {
+        synchronized(lock) {
+            val activeRecognizer = recognizer ?: return
+            val activeStream = stream ?: return
+            activeStream.acceptWaveform(tailPadding, AudioCaptureHub.SAMPLE_RATE)
+            decode(activeRecognizer, activeStream)
+            emitFinal(activeRecognizer, activeStream)
+        }
+    }
+
+    override fun reset() {
+        synchronized(lock) {
+            val activeRecognizer = recognizer ?: return
+            val activeStream = stream ?: return
+            activeRecognizer.reset(activeStream)
+            lastPartial = ""
+        }
+    }
+
+    override fun stop() {
+        endOfSpeech()
+        synchronized(lock) {
+            stream?.release()
+            stream = null
+            listener = null
+        }
+    }
+
+    override fun release() {
+        synchronized(lock) {
+            listener = null
+            releaseLocked()
+            modelKey = null
+        }
+    }
+
+    /** Caller holds [lock]. */
+    private fun decode(activeRecognizer: OnlineRecognizer, activeStream: OnlineStream) {
+        while (activeRecognizer.isReady(activeStream)) {
+            activeRecognizer.decode(activeStream)
+        }
+        if (activeRecognizer.isEndpoint(activeStream)) {
+            emitFinal(activeRecognizer, activeStream)
+            return
+        }
+        val partial = activeRecognizer.getResult(activeStream).text.trim().lowercase()
+        if (partial.isNotEmpty() && partial != lastPartial) {
+            lastPartial = partial
+            listener?.onPartial(partial)
+        }
+    }
+
+    /** Caller holds [lock]. */
+    private fun emitFinal(activeRecognizer: OnlineRecognizer, activeStream: OnlineStream) {
+        val text = activeRecognizer.getResult(activeStream).text.trim().lowercase()
+        activeRecognizer.reset(activeStream)
+        lastPartial = ""
+        if (text.isNotEmpty()) {
+            listener?.onFinal(text)
+        }
+    }
+
+    /** Caller holds [lock]. */
+    private fun releaseLocked() {
+        stream?.release()
+        stream = null
+        recognizer?.release()
+        recognizer = null
+    }
+
+    private fun readConfig(): JSONObject {
+        val json = context.assets.open("$MODEL_ASSET_PATH/config.json").bufferedReader().use { it.readText() }
+        return JSONObject(json)
+    }
+}
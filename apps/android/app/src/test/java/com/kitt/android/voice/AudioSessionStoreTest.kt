@@ -0,0 +1,136 @@
+package com.kitt.android.voice
+
+import org.junit.After
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNotNull
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+import java.io.IOException
+import java.nio.ByteBuffer
+
+class AudioSessionStoreTest {
+
+    @get:Rule
+    val folder = TemporaryFolder()
+
+    private var store: AudioSessionStore? = null
+
+    @After
+    fun tearDown() {
+        store?.close()
+    }
+
+    private fun open(spillFile: File): AudioSessionStore {
+        return AudioSessionStore(spillFile, chunkBytes = 1024, maxMemoryBytes = 4096).also { store = it }
+    }
+
+    private fun pattern(count: Int, seed: Int = 0): ByteArray {
+        return ByteArray(count) { i -> ((i + seed) * 31 % 251).toByte() }
+    }
+
+    /** Append [data] in 320-byte frames, as the capture hub delivers it. */
+    private fun appendFrames(store: AudioSessionStore, data: ByteArray): Boolean {
+        val frame = ByteBuffer.allocateDirect(320)
+        var retained = true
+        var offset = 0
+        while (offset < data.size) {
+            val length = minOf(320, data.size - offset)
+            frame.clear()
+            frame.put(data, offset, length)
+            retained = store.append(frame, length)
+            offset += length
+        }
+        return retained
+    }
+
+    @Test
+    fun smallSessionStaysInMemory() {
+        val store = open(folder.newFile("spill.pcm"))
+        val data = pattern(3000)
+        assertTrue(appendFrames(store, data))
+
+        assertEquals(3000L, store.totalBytes())
+        assertEquals(0L, store.spilledBytes())
+        assertEquals(3072L, store.memoryBytes())
+        assertArrayEquals(data, store.openStream().readBytes())
+    }
+
+    @Test
+    fun longSessionSpillsAndReadsBack() {
+        val spillFile = folder.newFile("spill.pcm")
+        val store = open(spillFile)
+        val data = pattern(10000)
+        assertTrue(appendFrames(store, data))
+
+        assertEquals(10000L, store.totalBytes())
+        assertEquals(4096L, store.memoryBytes())
+        assertEquals(6144L, store.spilledBytes())
+        assertEquals(6144L, spillFile.length())
+        assertNull(store.spillError())
+        assertArrayEquals(data, store.openStream().readBytes())
+    }
+
+    @Test
+    fun streamFollowsAppends() {
+        val store = open(folder.newFile("spill.pcm"))
+        val first = pattern(5000)
+        val second = pattern(5000, 7)
+        appendFrames(store, first)
+        val stream = store.openStream()
+        assertArrayEquals(first, stream.readBytes())
+
+        appendFrames(store, second)
+        assertArrayEquals(second, stream.readBytes())
+        assertEquals(-1, stream.read())
+    }
+
+    @Test
+    fun failedSpillKeepsNewestAudio() {
+        val store = open(File(folder.root, "missing/spill.pcm"))
+        val data = pattern(10000)
+        assertFalse(appendFrames(store, data))
+
+        assertNotNull(store.spillError())
+        assertEquals(0L, store.spilledBytes())
+        assertEquals(4096L, store.memoryBytes())
+        // The oldest chunks were discarded instead: the stream starts at the newest four
+        assertArrayEquals(data.copyOfRange(6144, 10000), store.openStream().readBytes())
+    }
+
+    @Test
+    fun resetStartsNewSessionWithPooledChunks() {
+        val spillFile = folder.newFile("spill.pcm")
+        val store = open(spillFile)
+        appendFrames(store, pattern(10000))
+        store.reset()
+
+        assertEquals(0L, store.totalBytes())
+        assertEquals(0L, store.spilledBytes())
+        assertEquals(0L, spillFile.length())
+        assertEquals(-1, store.openStream().read())
+
+        val data = pattern(6000, 3)
+        assertTrue(appendFrames(store, data))
+        assertEquals(4096L, store.memoryBytes())
+        assertArrayEquals(data, store.openStream().readBytes())
+    }
+
+    @Test(expected = IOException::class)
+    fun closeFailsOpenStreamsAndDeletesSpill() {
+        val spillFile = folder.newFile("spill.pcm")
+        val store = open(spillFile)
+        appendFrames(store, pattern(10000))
+        val stream = store.openStream()
+        store.close()
+
+        assertFalse(spillFile.exists())
+        assertFalse(store.append(ByteBuffer.allocateDirect(320), 320))
+        stream.read()
+    }
+}
@@ -0,0 +1,104 @@
+package com.kitt.android.voice
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class EndpointerTest {
+
+    private val endpointer = Endpointer(frameDurationMs = 20L)
+    private var nowNanos = 0L
+
+    /**
+     * Feed [count] frames and return the reason the last one produced, failing if an earlier one
+     * already ended the utterance.
+     */
+    private fun feed(isSpeech: Boolean, count: Int, rms: Float = 1000.0f): Endpointer.Reason? {
+        var reason: Endpointer.Reason? = null
+        for (i in 0 until count) {
+            assertNull("Ended early at frame $i of $count", reason)
+            nowNanos += 20_000_000L
+            reason = endpointer.onFrame(isSpeech, rms, nowNanos)
+        }
+        return reason
+    }
+
+    @Test
+    fun waitsForSpeechBeforeDeciding() {
+        endpointer.onSpeechStart()
+        assertNull(feed(false, 200))
+    }
+
+    @Test
+    fun trailingSilenceEndsUtterance() {
+        assertEquals(500L, endpointer.silenceThresholdMs())
+        endpointer.onSpeechStart()
+        assertNull(feed(true, 10))
+        assertNull(feed(false, 24))
+        assertEquals(Endpointer.Reason.SILENCE, feed(false, 1))
+    }
+
+    @Test
+    fun shortBurstDoesNotBreakSilence() {
+        endpointer.onSpeechStart()
+        assertNull(feed(true, 10))
+        assertNull(feed(false, 10))
+        assertNull(feed(true, 1))
+        assertNull(feed(false, 13))
+        assertEquals(Endpointer.Reason.SILENCE, feed(false, 1))
+    }
+
+    @Test
+    fun stablePartialEndsAfterShortSilence() {
+        endpointer.onSpeechStart()
+        endpointer.onPartial("lights on")
+        assertNull(feed(true, 20))
+        assertNull(feed(false, 12))
+        assertEquals(Endpointer.Reason.STABLE_PARTIAL, feed(false, 1))
+    }
+
+    @Test
+    fun changingPartialWaitsForFullSilence() {
+        endpointer.onSpeechStart()
+        assertNull(feed(true, 20))
+        for (i in 0 until 24) {
+            endpointer.onPartial("lights on ".repeat(i + 1))
+            assertNull(feed(false, 1))
+        }
+        assertEquals(Endpointer.Reason.SILENCE, feed(false, 1))
+    }
+
+    @Test
+    fun longUtteranceIsCut() {
+        endpointer.maxUtteranceMs = 1000L
+        endpointer.onSpeechStart()
+        assertNull(feed(true, 49))
+        assertEquals(Endpointer.Reason.MAX_LENGTH, feed(true, 1))
+    }
+
+    @Test
+    fun learnsShortPausesAndForgetsThem() {
+        endpointer.onSpeechStart()
+        for (i in 0 until 60) {
+            assertNull(feed(true, 5))
+            assertNull(feed(false, 5))
+        }
+        val learned = endpointer.silenceThresholdMs()
+        assertTrue("Threshold $learned", learned in 250L until 400L)
+
+        endpointer.resetAdaptation()
+        assertEquals(500L, endpointer.silenceThresholdMs())
+    }
+
+    @Test
+    fun finalResetsUtteranceAndIsCounted() {
+        endpointer.onSpeechStart()
+        assertNull(feed(true, 10))
+        assertEquals(Endpointer.Reason.SILENCE, feed(false, 25))
+        endpointer.onFinal(Endpointer.Reason.SILENCE)
+
+        assertNull(feed(false, 100))
+        assertTrue(endpointer.getStats(), endpointer.getStats().contains("silence 1"))
+    }
+}
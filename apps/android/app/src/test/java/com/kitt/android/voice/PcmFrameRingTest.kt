@@ -0,0 +1,184 @@
+package com.kitt.android.voice
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNotNull
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Assume.assumeTrue
+import org.junit.Test
+import java.lang.management.ManagementFactory
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+class PcmFrameRingTest {
+
+    private val threads = ManagementFactory.getThreadMXBean() as? com.sun.management.ThreadMXBean
+
+    private fun allocatedBytes(): Long {
+        return threads!!.getThreadAllocatedBytes(Thread.currentThread().id)
+    }
+
+    /** One capture-to-decode hand-off per iteration on a heap ring; returns a checksum. */
+    private fun cycleHeap(ring: PcmFrameRing, count: Int): Long {
+        var sum = 0L
+        for (i in 0 until count) {
+            val frame = ring.claim()!!
+            frame[0] = i.toShort()
+            ring.publish(frame.size, i.toLong())
+            if (ring.await(0L)) {
+                sum += ring.frame()[0] + ring.length() + ring.captureTimeNanos()
+                ring.release()
+            }
+        }
+        return sum
+    }
+
+    /** The same hand-off on a direct ring, as the zero-copy capture path uses it. */
+    private fun cycleDirect(ring: PcmFrameRing, source: ByteBuffer, count: Int): Long {
+        var sum = 0L
+        for (i in 0 until count) {
+            ring.offer(source, ring.frameSize, i.toLong())
+            if (ring.await(0L)) {
+                sum += ring.buffer().getShort(0) + ring.length()
+                ring.release()
+            }
+        }
+        return sum
+    }
+
+    @Test
+    fun framesWrapAroundInOrder() {
+        val ring = PcmFrameRing(4, 8)
+        for (sequence in 0 until 11) {
+            val frame = ring.claim()
+            assertNotNull(frame)
+            frame!!.fill(sequence.toShort())
+            ring.publish(sequence % 8 + 1, sequence * 1000L)
+
+            assertTrue(ring.await(0L))
+            assertEquals(1, ring.depth())
+            assertEquals(sequence % 8 + 1, ring.length())
+            assertEquals(sequence * 1000L, ring.captureTimeNanos())
+            assertEquals(sequence.toShort(), ring.frame()[0])
+            ring.release()
+            assertEquals(0, ring.depth())
+        }
+        assertEquals(0L, ring.overrunCount())
+    }
+
+    @Test
+    fun fullRingCountsOverrunsUntilReleased() {
+        val ring = PcmFrameRing(4, 8)
+        for (sequence in 0 until 4) {
+            ring.claim()!![0] = sequence.toShort()
+            ring.publish(8, sequence.toLong())
+        }
+        assertNull(ring.claim())
+        assertNull(ring.claim())
+        assertEquals(2L, ring.overrunCount())
+        assertEquals(4, ring.depth())
+
+        // The dropped frames did not overwrite the unread ones
+        assertEquals(0.toShort(), ring.frame()[0])
+        ring.release()
+        assertNotNull(ring.claim())
+        assertEquals(2L, ring.overrunCount())
+    }
+
+    @Test
+    fun emptyRingCountsUnderrunsAndTimesOut() {
+        val ring = PcmFrameRing(2, 4)
+        assertFalse(ring.isReadable())
+        assertFalse(ring.await(TimeUnit.MILLISECONDS.toNanos(5)))
+        assertEquals(1L, ring.underrunCount())
+    }
+
+    @Test
+    fun closeWakesWaitingConsumer() {
+        val ring = PcmFrameRing(2, 4)
+        val waiting = CountDownLatch(1)
+        var result = true
+        val consumer = Thread {
+            waiting.countDown()
+            result = ring.await(TimeUnit.SECONDS.toNanos(30))
+        }
+        consumer.start()
+        waiting.await()
+        Thread.sleep(20)
+        ring.close()
+        consumer.join(5000)
+
+        assertFalse(consumer.isAlive)
+        assertFalse(result)
+        assertTrue(ring.isClosed)
+        assertFalse(ring.await(TimeUnit.SECONDS.toNanos(30)))
+    }
+
+    @Test
+    fun closedRingStillDrainsPublishedFrames() {
+        val ring = PcmFrameRing(2, 4)
+        ring.claim()!![0] = 7
+        ring.publish(4, 0L)
+        ring.close()
+
+        assertTrue(ring.await(0L))
+        assertEquals(7.toShort(), ring.frame()[0])
+        ring.release()
+        assertFalse(ring.await(0L))
+    }
+
+    @Test
+    fun directRingCopiesOfferedSamples() {
+        val ring = PcmFrameRing(2, 4, direct = true)
+        val source = ByteBuffer.allocateDirect(16).order(ByteOrder.nativeOrder())
+        for (i in 0 until 8) {
+            source.putShort(i * 2, (i + 1).toShort())
+        }
+        assertTrue(ring.offer(source, 3, 42L))
+        assertTrue(ring.offer(source, 8, 43L))
+        assertFalse(ring.offer(source, 4, 44L))
+        assertEquals(1L, ring.overrunCount())
+
+        assertTrue(ring.await(0L))
+        assertEquals(3, ring.length())
+        assertEquals(42L, ring.captureTimeNanos())
+        val samples = ring.buffer().order(ByteOrder.nativeOrder()).asShortBuffer()
+        assertEquals(3, samples.remaining())
+        assertEquals(1.toShort(), samples.get(0))
+        assertEquals(3.toShort(), samples.get(2))
+        ring.release()
+
+        // Longer offers are cut to the frame size
+        assertTrue(ring.await(0L))
+        assertEquals(4, ring.length())
+        ring.release()
+    }
+
+    @Test
+    fun frameHandOffDoesNotAllocate() {
+        assumeTrue(threads != null && threads.isThreadAllocatedMemorySupported && threads.isThreadAllocatedMemoryEnabled)
+        val frames = 200_000
+        val ring = PcmFrameRing(8, 320)
+        val direct = PcmFrameRing(8, 320, direct = true)
+        val source = ByteBuffer.allocateDirect(640).order(ByteOrder.nativeOrder())
+        // Warm up so the loops are compiled before they are measured
+        cycleHeap(ring, frames)
+        cycleDirect(direct, source, frames)
+        val overhead = allocatedBytes().let { allocatedBytes() - it }
+
+        val heapStart = allocatedBytes()
+        val heapSum = cycleHeap(ring, frames)
+        val heapBytes = allocatedBytes() - heapStart - overhead
+        val directStart = allocatedBytes()
+        val directSum = cycleDirect(direct, source, frames)
+        val directBytes = allocatedBytes() - directStart - overhead
+
+        assertTrue(heapSum != 0L && directSum >= 0L)
+        assertEquals("Heap ring bytes per frame ($heapBytes over $frames frames)", 0L, heapBytes / frames)
+        assertEquals("Direct ring bytes per frame ($directBytes over $frames frames)", 0L, directBytes / frames)
+        assertEquals(0L, ring.overrunCount() + direct.overrunCount())
+    }
+}
@@ -0,0 +1,57 @@
+package com.kitt.android.voice
+
+import org.junit.Assert.assertEquals
+import org.junit.Assume.assumeTrue
+import org.junit.Test
+import java.lang.management.ManagementFactory
+
+/**
+ * Plain-JVM benchmark of [PolyphaseResampler] converting 20ms capture frames from 48kHz and
+ * 44.1kHz: time per frame, real-time factor, and heap bytes per frame, which must be zero since
+ * all buffers are allocated up front.
+ */
+class PolyphaseResamplerBenchmarkTest {
+
+    private val threads = ManagementFactory.getThreadMXBean() as? com.sun.management.ThreadMXBean
+
+    private fun allocatedBytes(): Long {
+        return threads!!.getThreadAllocatedBytes(Thread.currentThread().id)
+    }
+
+    private fun convert(resampler: PolyphaseResampler, frame: ShortArray, output: ShortArray, frames: Int): Long {
+        var samples = 0L
+        for (i in 0 until frames) {
+            samples += resampler.process(frame, 0, frame.size, output, 0)
+        }
+        return samples
+    }
+
+    private fun measure(inputRate: Int) {
+        val frameSamples = inputRate / 50
+        val frame = ShortArray(frameSamples) { i -> (8000 * Math.sin(2 * Math.PI * 440 * i / inputRate)).toInt().toShort() }
+        val resampler = PolyphaseResampler(inputRate, AudioCaptureHub.SAMPLE_RATE)
+        val output = ShortArray(resampler.maxOutput(frameSamples))
+        val frames = 5_000
+        convert(resampler, frame, output, frames)
+
+        val start = allocatedBytes()
+        var nanos = System.nanoTime()
+        val samples = convert(resampler, frame, output, frames)
+        nanos = System.nanoTime() - nanos
+        val bytes = allocatedBytes() - start
+
+        println(
+            "PolyphaseResampler ${inputRate}Hz: ${nanos / frames / 1000}us per 20ms frame " +
+                "(RTF ${String.format("%.4f", nanos / (frames * 20_000_000.0))}), ${bytes / frames}B per frame"
+        )
+        assertEquals(frames.toLong() * AudioCaptureHub.SAMPLE_RATE / 50, samples)
+        assertEquals("${inputRate}Hz bytes per frame ($bytes over $frames frames)", 0L, bytes / frames)
+    }
+
+    @Test
+    fun processAllocatesNothingPerFrame() {
+        assumeTrue(threads != null && threads.isThreadAllocatedMemorySupported && threads.isThreadAllocatedMemoryEnabled)
+        measure(48000)
+        measure(44100)
+    }
+}
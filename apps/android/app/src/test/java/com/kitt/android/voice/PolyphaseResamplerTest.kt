@@ -0,0 +1,95 @@
+package com.kitt.android.voice
+
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertSame
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class PolyphaseResamplerTest {
+
+    private fun tone(frequency: Double, rate: Int, count: Int, amplitude: Double = 10000.0): ShortArray {
+        return ShortArray(count) { i -> (amplitude * Math.sin(2 * Math.PI * frequency * i / rate)).toInt().toShort() }
+    }
+
+    /** RMS of [samples] after skipping the filter's start-up transient. */
+    private fun rms(samples: ShortArray, skip: Int): Double {
+        var sum = 0.0
+        for (i in skip until samples.size) {
+            sum += samples[i].toDouble() * samples[i]
+        }
+        return Math.sqrt(sum / (samples.size - skip))
+    }
+
+    @Test
+    fun outputLengthFollowsRatio() {
+        assertEquals(1600, PolyphaseResampler.resample(ShortArray(4800), 48000, 16000).size)
+        assertEquals(1600, PolyphaseResampler.resample(ShortArray(4410), 44100, 16000).size)
+        assertEquals(9600, PolyphaseResampler.resample(ShortArray(3200), 16000, 48000).size)
+    }
+
+    @Test
+    fun sameRateIsPassThrough() {
+        val input = tone(440.0, 16000, 320)
+        assertSame(input, PolyphaseResampler.resample(input, 16000, 16000))
+        assertTrue(PolyphaseResampler(16000, 16000).isPassThrough())
+        assertFalse(PolyphaseResampler(48000, 16000).isPassThrough())
+    }
+
+    @Test
+    fun streamingMatchesOneShot() {
+        val input = tone(1000.0, 44100, 44100 / 5)
+        val expected = PolyphaseResampler.resample(input, 44100, 16000)
+
+        val resampler = PolyphaseResampler(44100, 16000)
+        val output = ShortArray(expected.size + 16)
+        var written = 0
+        var offset = 0
+        val frameOutput = ShortArray(resampler.maxOutput(441))
+        while (offset < input.size) {
+            val length = minOf(441, input.size - offset)
+            val count = resampler.process(input, offset, length, frameOutput, 0)
+            assertTrue(count <= resampler.maxOutput(length))
+            System.arraycopy(frameOutput, 0, output, written, count)
+            written += count
+            offset += length
+        }
+        assertEquals(expected.size, written)
+        assertArrayEquals(expected, output.copyOf(written))
+    }
+
+    @Test
+    fun passbandToneKeepsItsLevel() {
+        val input = tone(1000.0, 48000, 48000 / 2)
+        val output = PolyphaseResampler.resample(input, 48000, 16000)
+        val ratio = rms(output, 200) / rms(input, 600)
+        assertEquals(1.0, ratio, 0.05)
+    }
+
+    @Test
+    fun toneAboveNewNyquistIsRemoved() {
+        val input = tone(12000.0, 48000, 48000 / 2)
+        val output = PolyphaseResampler.resample(input, 48000, 16000)
+        assertTrue(rms(output, 200) < rms(input, 600) * 0.01)
+    }
+
+    @Test
+    fun resetClearsFilterState() {
+        val resampler = PolyphaseResampler(48000, 16000)
+        val input = tone(1000.0, 48000, 960)
+        val first = ShortArray(resampler.maxOutput(input.size))
+        val firstCount = resampler.process(input, 0, input.size, first, 0)
+        resampler.process(tone(3000.0, 48000, 480), 0, 480, ShortArray(resampler.maxOutput(480)), 0)
+        resampler.reset()
+        val second = ShortArray(resampler.maxOutput(input.size))
+        val secondCount = resampler.process(input, 0, input.size, second, 0)
+        assertEquals(firstCount, secondCount)
+        assertArrayEquals(first, second)
+    }
+
+    @Test(expected = IllegalArgumentException::class)
+    fun rejectsNonPositiveRates() {
+        PolyphaseResampler(0, 16000)
+    }
+}
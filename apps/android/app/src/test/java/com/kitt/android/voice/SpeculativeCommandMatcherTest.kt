@@ -0,0 +1,98 @@
+package com.kitt.android.voice
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Test
+
+class SpeculativeCommandMatcherTest {
+
+    private val matcher = SpeculativeCommandMatcher(
+        mapOf(
+            "scan" to "S1",
+            "scanner two" to "S2",
+            "turbo boost" to "TB",
+            "lights on" to "LO",
+            "lights off" to "LF"
+        ),
+        startable = setOf("S1", "S2", "LO", "LF")
+    )
+
+    private fun ms(value: Long): Long {
+        return value * 1_000_000L
+    }
+
+    @Test
+    fun candidateNeedsWholeUnambiguousPhrase() {
+        assertNull(matcher.candidateOf(""))
+        assertNull(matcher.candidateOf("scan"))
+        assertNull(matcher.candidateOf("scanner"))
+        assertEquals("S2", matcher.candidateOf("scanner two"))
+        assertEquals("S1", matcher.candidateOf("scan please"))
+        assertNull(matcher.candidateOf("lights"))
+        assertNull(matcher.candidateOf("lights o"))
+        assertEquals("LO", matcher.candidateOf("Lights On"))
+        assertNull(matcher.candidateOf("turbo"))
+        assertNull(matcher.candidateOf("scanning"))
+    }
+
+    @Test
+    fun commandOfAcceptsCompleteText() {
+        assertEquals("S1", matcher.commandOf("scan"))
+        assertNull(matcher.commandOf("scanner"))
+        assertEquals("S2", matcher.commandOf("  scanner two "))
+        assertEquals("TB", matcher.commandOf("turbo boost now"))
+        assertNull(matcher.commandOf("lights on lights off"))
+        assertNull(matcher.commandOf("hello"))
+    }
+
+    @Test
+    fun startsAfterHoldAndCommits() {
+        assertNull(matcher.onPartial("lights", ms(0)))
+        assertNull(matcher.onPartial("lights on", ms(100)))
+        assertNull(matcher.poll(ms(200)))
+        assertEquals("LO", matcher.poll(ms(250)))
+        assertEquals("LO", matcher.speculated)
+        assertEquals(ms(250), matcher.speculatedAtNanos)
+
+        // Only started once
+        assertNull(matcher.onPartial("lights on", ms(300)))
+        assertNull(matcher.poll(ms(400)))
+
+        assertEquals(SpeculativeCommandMatcher.Outcome.COMMIT, matcher.onFinal(matcher.commandOf("lights on")))
+        assertNull(matcher.speculated)
+    }
+
+    @Test
+    fun contradictingPartialRestartsHold() {
+        matcher.onPartial("lights on", ms(0))
+        assertNull(matcher.onPartial("lights off", ms(100)))
+        assertNull(matcher.poll(ms(200)))
+        assertEquals("LF", matcher.poll(ms(250)))
+    }
+
+    @Test
+    fun rollsBackWhenFinalDisagrees() {
+        matcher.onPartial("lights on", ms(0))
+        assertEquals("LO", matcher.poll(ms(150)))
+        assertEquals(SpeculativeCommandMatcher.Outcome.ROLLBACK, matcher.onFinal(matcher.commandOf("lights off")))
+
+        matcher.onPartial("lights on", ms(1000))
+        assertEquals("LO", matcher.poll(ms(1150)))
+        assertEquals(SpeculativeCommandMatcher.Outcome.ROLLBACK, matcher.onFinal(null))
+    }
+
+    @Test
+    fun nothingStartedGivesNone() {
+        matcher.onPartial("turbo boost", ms(0))
+        assertNull(matcher.poll(ms(1000)))
+        assertEquals(SpeculativeCommandMatcher.Outcome.NONE, matcher.onFinal(matcher.commandOf("turbo boost")))
+    }
+
+    @Test
+    fun stablePartialsRequiresRepeats() {
+        matcher.stablePartials = 2
+        matcher.holdMs = 0L
+        assertNull(matcher.onPartial("scanner two", ms(0)))
+        assertEquals("S2", matcher.onPartial("scanner two please", ms(10)))
+    }
+}
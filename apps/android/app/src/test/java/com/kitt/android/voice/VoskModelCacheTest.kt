@@ -0,0 +1,138 @@
+package com.kitt.android.voice
+
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNotNull
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertSame
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import org.vosk.Model
+import java.io.File
+import java.io.IOException
+import java.io.RandomAccessFile
+
+class VoskModelCacheTest {
+
+    /** Stands in for a native model; counts how often it is closed. */
+    private class FakeModel : Model() {
+        var closes = 0
+
+        override fun close() {
+            closes++
+        }
+    }
+
+    @get:Rule
+    val folder = TemporaryFolder()
+
+    private val opened = ArrayList<FakeModel>()
+    private val keys = ArrayList<String>()
+
+    @Before
+    fun setUp() {
+        VoskModelCache.openModel = { FakeModel().also { opened.add(it) } }
+        VoskModelCache.setMemoryBudget(MB)
+    }
+
+    @After
+    fun tearDown() {
+        for (key in keys) {
+            VoskModelCache.invalidate(key)
+        }
+        VoskModelCache.setMemoryBudget(192 * MB)
+        VoskModelCache.openModel = { path -> Model(path) }
+    }
+
+    /** A model directory whose files add up to [sizeBytes], under a key removed after the test. */
+    private fun modelDir(key: String, sizeBytes: Long): String {
+        keys.add(key)
+        val dir = folder.newFolder(key)
+        RandomAccessFile(File(dir, "final.mdl"), "rw").use { it.setLength(sizeBytes) }
+        return dir.path
+    }
+
+    @Test
+    fun modelLargerThanBudgetIsKeptWhileHeld() {
+        val path = modelDir("test-large", 4 * MB)
+        val handle = VoskModelCache.acquire("test-large", path)
+
+        assertNotNull(handle)
+        assertEquals(1, opened.size)
+        assertEquals(0, opened[0].closes)
+        assertEquals(1, VoskModelCache.refCount("test-large"))
+        assertTrue(VoskModelCache.isLoaded("test-large"))
+
+        // A second user shares it without a reload
+        val second = VoskModelCache.acquire("test-large", path)
+        assertSame(handle!!.model, second!!.model)
+        assertEquals(1, opened.size)
+        second.close()
+        assertEquals(0, opened[0].closes)
+
+        // Over budget and no longer held: closed once, not kept
+        handle.close()
+        assertEquals(1, opened[0].closes)
+        assertFalse(VoskModelCache.isLoaded("test-large"))
+    }
+
+    @Test
+    fun loadingOverBudgetEvictsOthersNotTheNewModel() {
+        val first = VoskModelCache.acquire("test-a", modelDir("test-a", MB / 2))
+        first!!.close()
+        assertTrue(VoskModelCache.isLoaded("test-a"))
+
+        val second = VoskModelCache.acquire("test-b", modelDir("test-b", 3 * MB / 4))
+        assertNotNull(second)
+        assertFalse(VoskModelCache.isLoaded("test-a"))
+        assertEquals(1, opened[0].closes)
+        assertTrue(VoskModelCache.isLoaded("test-b"))
+        assertEquals(0, opened[1].closes)
+        assertEquals(2, opened.size)
+        second!!.close()
+    }
+
+    @Test
+    fun pinnedModelStaysOutsideBudget() {
+        val cached = VoskModelCache.acquire("test-small", modelDir("test-small", MB / 2))
+        cached!!.close()
+
+        // A second-pass model many times the budget
+        val path = modelDir("test-small/large", 64 * MB)
+        val pinned = VoskModelCache.acquirePinned("test-small/large", path)
+        assertNotNull(pinned)
+        assertEquals(2, opened.size)
+        assertTrue(VoskModelCache.isLoaded("test-small"))
+        assertEquals(0, opened[0].closes)
+
+        // Shared while held, closed with the last handle rather than cached
+        val shared = VoskModelCache.acquirePinned("test-small/large", path)
+        assertSame(pinned!!.model, shared!!.model)
+        shared.close()
+        pinned.close()
+        assertEquals(1, opened[1].closes)
+        assertFalse(VoskModelCache.isLoaded("test-small/large"))
+        assertTrue(VoskModelCache.isLoaded("test-small"))
+    }
+
+    @Test
+    fun failedLoadReturnsNullOnce() {
+        var attempts = 0
+        VoskModelCache.openModel = {
+            attempts++
+            throw IOException("Failed to create a model")
+        }
+        keys.add("test-missing")
+        assertNull(VoskModelCache.acquire("test-missing", folder.root.path))
+        assertEquals(1, attempts)
+        assertFalse(VoskModelCache.isLoaded("test-missing"))
+    }
+
+    companion object {
+        private const val MB = 1024L * 1024
+    }
+}
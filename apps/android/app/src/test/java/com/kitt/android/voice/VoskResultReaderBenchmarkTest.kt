@@ -0,0 +1,108 @@
+package com.kitt.android.voice
+
+import org.json.JSONObject
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Assume.assumeTrue
+import org.junit.Test
+import java.lang.management.ManagementFactory
+
+/**
+ * Plain-JVM benchmark of [VoskResultReader] against org.json on the results the decode loop sees,
+ * measuring time and bytes allocated per result after warm-up. Android has no per-thread
+ * allocation counter, so the in-app benchmark can only time the readers; this is where the
+ * allocation claim is checked.
+ */
+class VoskResultReaderBenchmarkTest {
+
+    private val threads = ManagementFactory.getThreadMXBean() as? com.sun.management.ThreadMXBean
+
+    private val partial = "{\n  \"partial\" : \"scanner two turbo\"\n}"
+    private val final = """
+        {
+          "result" : [{
+              "conf" : 1.000000,
+              "end" : 0.84,
+              "start" : 0.42,
+              "word" : "scanner"
+            }, {
+              "conf" : 0.93,
+              "end" : 1.20,
+              "start" : 0.84,
+              "word" : "two"
+            }, {
+              "conf" : 0.88,
+              "end" : 1.71,
+              "start" : 1.26,
+              "word" : "turbo"
+            }, {
+              "conf" : 0.97,
+              "end" : 2.10,
+              "start" : 1.71,
+              "word" : "boost"
+            }],
+          "text" : "scanner two turbo boost"
+        }
+    """.trimIndent()
+
+    private fun allocatedBytes(): Long {
+        return threads!!.getThreadAllocatedBytes(Thread.currentThread().id)
+    }
+
+    private fun readAll(reader: VoskResultReader, event: RecognitionEvent, count: Int): Int {
+        var words = 0
+        for (i in 0 until count) {
+            reader.read(if (i and 3 == 0) final else partial, event)
+            words += event.wordCount + event.text.length
+        }
+        return words
+    }
+
+    /** What the decode loop did before: a JSON tree per result, then the text and word fields. */
+    private fun parseAll(count: Int): Int {
+        var words = 0
+        for (i in 0 until count) {
+            val json = JSONObject(if (i and 3 == 0) final else partial)
+            val text = json.optString("text", json.optString("partial"))
+            val result = json.optJSONArray("result")
+            if (result != null) {
+                for (w in 0 until result.length()) {
+                    val word = result.getJSONObject(w)
+                    words += word.optString("word").length + word.optDouble("conf").toInt()
+                }
+            }
+            words += text.length
+        }
+        return words
+    }
+
+    @Test
+    fun readerAllocatesNothingPerResult() {
+        assumeTrue(threads != null && threads.isThreadAllocatedMemorySupported && threads.isThreadAllocatedMemoryEnabled)
+        val reader = VoskResultReader()
+        val event = RecognitionEvent()
+        val results = 200_000
+        readAll(reader, event, results)
+        parseAll(results / 4)
+
+        var start = allocatedBytes()
+        var nanos = System.nanoTime()
+        val readerWords = readAll(reader, event, results)
+        nanos = System.nanoTime() - nanos
+        val readerBytes = allocatedBytes() - start
+
+        start = allocatedBytes()
+        var jsonNanos = System.nanoTime()
+        val jsonWords = parseAll(results)
+        jsonNanos = System.nanoTime() - jsonNanos
+        val jsonBytes = allocatedBytes() - start
+
+        println(
+            "VoskResultReader: ${nanos / results}ns, ${readerBytes / results}B per result; " +
+                "org.json: ${jsonNanos / results}ns, ${jsonBytes / results}B per result"
+        )
+        assertTrue(readerWords > 0 && jsonWords > 0)
+        assertEquals("Reader bytes per result ($readerBytes over $results results)", 0L, readerBytes / results)
+        assertTrue("org.json allocated $jsonBytes bytes", jsonBytes / results > 0)
+    }
+}
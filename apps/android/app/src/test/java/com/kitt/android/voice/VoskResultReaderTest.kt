@@ -0,0 +1,98 @@
+package com.kitt.android.voice
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class VoskResultReaderTest {
+
+    private val reader = VoskResultReader()
+    private val event = RecognitionEvent()
+
+    @Test
+    fun readsPartial() {
+        assertTrue(reader.read("{\n  \"partial\" : \"turbo boost\"\n}", event, "vosk"))
+        assertEquals(RecognitionEvent.Type.PARTIAL, event.type)
+        assertEquals("turbo boost", event.text())
+        assertEquals("vosk", event.source)
+        assertEquals(0, event.wordCount)
+    }
+
+    @Test
+    fun readsFinalWithWords() {
+        val json = """
+            {
+              "result" : [{
+                  "conf" : 1.000000,
+                  "end" : 0.84,
+                  "start" : 0.42,
+                  "word" : "scanner"
+                }, {
+                  "conf" : 0.5,
+                  "end" : 1.2,
+                  "start" : 0.84,
+                  "word" : "two"
+                }],
+              "text" : "scanner two"
+            }
+        """.trimIndent()
+        assertTrue(reader.read(json, event))
+        assertEquals(RecognitionEvent.Type.FINAL, event.type)
+        assertEquals("scanner two", event.text())
+        assertEquals(2, event.wordCount)
+        assertEquals("scanner", event.word(0))
+        assertEquals("two", event.word(1))
+        assertEquals(0.42f, event.wordStart(0), 1e-6f)
+        assertEquals(1.2f, event.wordEnd(1), 1e-6f)
+        assertEquals(0.75, event.averageConfidence(), 1e-6)
+    }
+
+    @Test
+    fun takesFirstAlternative() {
+        val json = "{\"alternatives\": [{\"confidence\": 312.5, \"text\": \"lights on\"}, " +
+            "{\"confidence\": 290.1, \"text\": \"lights off\"}]}"
+        assertTrue(reader.read(json, event))
+        assertEquals(RecognitionEvent.Type.FINAL, event.type)
+        assertEquals("lights on", event.text())
+    }
+
+    @Test
+    fun unescapesStrings() {
+        assertTrue(reader.read("{\"text\": \"say \\\"hi\\\" caf\\u00e9\"}", event))
+        assertEquals("say \"hi\" café", event.text())
+    }
+
+    @Test
+    fun skipsUnknownFields() {
+        val json = "{\"spk\": [0.1, -2e-3, 3], \"meta\": {\"a\": [true, null]}, \"text\": \"hello\"}"
+        assertTrue(reader.read(json, event))
+        assertEquals("hello", event.text())
+    }
+
+    @Test
+    fun emptyResultIsEmpty() {
+        assertTrue(reader.read("{\"text\": \"\"}", event))
+        assertTrue(event.isEmpty())
+        assertTrue(reader.read("{}", event))
+        assertTrue(event.isEmpty())
+    }
+
+    @Test
+    fun rejectsMalformedInput() {
+        assertFalse(reader.read(null, event))
+        assertFalse(reader.read("", event))
+        assertFalse(reader.read("{\"text\": \"cut sh", event))
+        assertFalse(reader.read("{\"text\" \"no colon\"}", event))
+        assertFalse(reader.read("[\"text\"]", event))
+    }
+
+    @Test
+    fun reusedEventIsCleared() {
+        assertTrue(reader.read("{\"result\": [{\"word\": \"one\", \"conf\": 1.0}], \"text\": \"one\"}", event))
+        assertTrue(reader.read("{\"partial\": \"\"}", event))
+        assertEquals(RecognitionEvent.Type.PARTIAL, event.type)
+        assertTrue(event.isEmpty())
+        assertEquals(0, event.wordCount)
+    }
+}